@@ -26,6 +26,10 @@ import androidx.appcompat.app.AppCompatActivity;
 
 import com.esri.arcgisruntime.concurrent.Job;
 import com.esri.arcgisruntime.concurrent.ListenableFuture;
+import com.esri.arcgisruntime.data.FeatureTable;
+import com.esri.arcgisruntime.data.GeodatabaseFeatureTable;
+import com.esri.arcgisruntime.layers.FeatureLayer;
+import com.esri.arcgisruntime.layers.Layer;
 import com.esri.arcgisruntime.loadable.LoadStatus;
 import com.esri.arcgisruntime.mapping.ArcGISMap;
 import com.esri.arcgisruntime.mapping.MobileMapPackage;
@@ -39,11 +43,11 @@ import com.esri.arcgisruntime.tasks.offlinemap.OfflineUpdateAvailability;
 import com.esri.arcgisruntime.tasks.offlinemap.PreplannedScheduledUpdatesOption;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
 
 public class MainActivity extends AppCompatActivity {
@@ -58,6 +62,7 @@ public class MainActivity extends AppCompatActivity {
   // objects that implement Loadable must be class fields to prevent being garbage collected before loading
   private MobileMapPackage mMobileMapPackage;
   private MobileMapPackage mUpdatedMobileMapPackage;
+  private ScheduledUpdateManager mScheduledUpdateManager;
 
   @Override
   protected void onCreate(Bundle savedInstanceState) {
@@ -74,16 +79,32 @@ public class MainActivity extends AppCompatActivity {
 
     // this is the original mmpk, not updated by the scheduled update
     File originalMmpk = new File(getExternalFilesDir(null).getPath());
-    // copy of the mmpk file which will have the update applied to it
-    mCopyOfMmpk = new File(getCacheDir().getPath());
+    // working copy of the mmpk which will have the update applied to it, kept on the same storage as the original so
+    // its tile packages can be hard links to the original's
+    mCopyOfMmpk = new File(getExternalCacheDir(), getString(R.string.working_copy_directory));
+    mScheduledUpdateManager = new ScheduledUpdateManager(originalMmpk, mCopyOfMmpk,
+        new File(getExternalCacheDir(), getString(R.string.update_journal_directory)));
 
-    try {
-      // copy the original mmpk into the cache, overwriting any copy of the mmpk already there
-      copyDirectory(originalMmpk, mCopyOfMmpk);
-    } catch (IOException e) {
-      Log.e(TAG, "Error copying MMPK file: " + e.getMessage());
-    }
+    // copy the original mmpk into the working copy, linking only its tile packages, or keep the working copy made by an
+    // earlier launch, which holds the updates applied since
+    mScheduledUpdateManager.prepareWorkingCopyAsync(new ScheduledUpdateManager.Callback() {
+      @Override public void onComplete() {
+        Log.d(TAG, "Working copy prepared: " + mScheduledUpdateManager.getTransferSummary());
+        loadMobileMapPackage();
+      }
+
+      @Override public void onFailed(IOException e) {
+        String error = "Error copying MMPK file: " + e.getMessage();
+        Toast.makeText(MainActivity.this, error, Toast.LENGTH_LONG).show();
+        Log.e(TAG, error);
+      }
+    });
+  }
 
+  /**
+   * Loads the working copy of the mobile map package and checks it for scheduled updates.
+   */
+  private void loadMobileMapPackage() {
     // load the offline map as a mobile map package
     mMobileMapPackage = new MobileMapPackage(mCopyOfMmpk.getPath());
     mMobileMapPackage.loadAsync();
@@ -112,81 +133,7 @@ public class MainActivity extends AppCompatActivity {
               // enable the 'Apply Scheduled Updates' button
               mApplyScheduledUpdatesButton.setEnabled(true);
               // when the button is clicked, synchronize the mobile map package
-              mApplyScheduledUpdatesButton.setOnClickListener(v -> {
-                // create default parameters for the sync task
-                ListenableFuture<OfflineMapSyncParameters> offlineMapSyncParametersFuture = offlineMapSyncTask
-                    .createDefaultOfflineMapSyncParametersAsync();
-                offlineMapSyncParametersFuture.addDoneListener(() -> {
-                  try {
-                    // get the offline sync parameters from the listenable future
-                    OfflineMapSyncParameters offlineMapSyncParameters = offlineMapSyncParametersFuture.get();
-                    // set the parameters to download all updates for the mobile map packages
-                    offlineMapSyncParameters
-                        .setPreplannedScheduledUpdatesOption(PreplannedScheduledUpdatesOption.DOWNLOAD_ALL_UPDATES);
-                    // create a sync job using the parameters
-                    OfflineMapSyncJob offlineMapSyncJob = offlineMapSyncTask.syncOfflineMap(offlineMapSyncParameters);
-                    // start the job and get the results
-                    offlineMapSyncJob.start();
-                    offlineMapSyncJob.addJobDoneListener(() -> {
-                      if (offlineMapSyncJob.getStatus() == Job.Status.SUCCEEDED) {
-                        OfflineMapSyncResult offlineMapSyncResult = offlineMapSyncJob.getResult();
-                        // if mobile map package reopen is required
-                        if (offlineMapSyncResult.isMobileMapPackageReopenRequired()) {
-                          // release the mobile map package maps from the map view
-                          mMapView.setMap(null);
-                          // close the old mobile map package
-                          mMobileMapPackage.close();
-                          // create a new instance of the now updated mobile map package
-                          mUpdatedMobileMapPackage = new MobileMapPackage(mCopyOfMmpk.getPath());
-                          mUpdatedMobileMapPackage.loadAsync();
-                          // wait for the new instance of the mobile map package to load
-                          mUpdatedMobileMapPackage.addDoneLoadingListener(() -> {
-                            if (mUpdatedMobileMapPackage
-                                .getLoadStatus() == LoadStatus.LOADED && !mUpdatedMobileMapPackage
-                                .getMaps().isEmpty()) {
-                              // add the map from the mobile map package to the map view
-                              mMapView.setMap(mUpdatedMobileMapPackage.getMaps().get(0));
-                            } else {
-                              String error =
-                                  "Failed to load mobile map package: " + mMobileMapPackage.getLoadError().getMessage();
-                              Toast.makeText(this, error, Toast.LENGTH_LONG).show();
-                              Log.e(TAG, error);
-                            }
-                          });
-                        }
-                        // check if the map is up to date against the server. This is not required, since in most cases,
-                        // you'll be confident the update was applied because the offline map sync job completed successfully
-                        // check for updates to the offline map
-                        ListenableFuture<OfflineMapUpdatesInfo> offlineMapUpdatesInfoAfterUpdateFuture = offlineMapSyncTask
-                            .checkForUpdatesAsync();
-                        offlineMapUpdatesInfoAfterUpdateFuture.addDoneListener(() -> {
-                          try {
-                            // get the update results
-                            OfflineMapUpdatesInfo offlineMapUpdatesInfoAfterUpdate = offlineMapUpdatesInfoAfterUpdateFuture.get();
-                            // update the UI with update info
-                            setUiUpdateInfo(offlineMapUpdatesInfoAfterUpdate);
-                            Log.d(TAG, "Update: " + offlineMapUpdatesInfoAfterUpdate.getDownloadAvailability().name());
-                          } catch (Exception e) {
-                            String error = "Error checking for Scheduled Updates Availability: " + e.getMessage();
-                            Toast.makeText(this, error, Toast.LENGTH_LONG).show();
-                            Log.e(TAG, error);
-                          }
-                        });
-                      } else {
-                        String error = "Error syncing the offline map: " + offlineMapSyncJob.getError().getMessage();
-                        Toast.makeText(this, error, Toast.LENGTH_LONG).show();
-                        Log.e(TAG, error);
-                      }
-                      // disable the 'Apply Scheduled Updates' button
-                      mApplyScheduledUpdatesButton.setEnabled(false);
-                    });
-                  } catch (InterruptedException | ExecutionException ex) {
-                    String error = "Error creating DefaultOfflineMapSyncParameters" + ex.getMessage();
-                    Toast.makeText(this, error, Toast.LENGTH_LONG).show();
-                    Log.e(TAG, error);
-                  }
-                });
-              });
+              mApplyScheduledUpdatesButton.setOnClickListener(v -> applyScheduledUpdates(offlineMapUpdatesInfo));
             } else {
               mUpdateAvailableTextView
                   .setText(getString(R.string.update_status, offlineMapUpdatesInfo.getDownloadAvailability()));
@@ -205,6 +152,176 @@ public class MainActivity extends AppCompatActivity {
     });
   }
 
+  /**
+   * Backs up the working copy's geodatabases the updates will write to, then reopens it and applies the scheduled
+   * updates.
+   *
+   * @param offlineMapUpdatesInfo the updates available, with the size reported once they are applied
+   */
+  private void applyScheduledUpdates(OfflineMapUpdatesInfo offlineMapUpdatesInfo) {
+    // disable the 'Apply Scheduled Updates' button
+    mApplyScheduledUpdatesButton.setEnabled(false);
+    long downloadSize = offlineMapUpdatesInfo.getScheduledUpdatesDownloadSize();
+    // scheduled updates are downloaded into the geodatabases of the map's feature data, so only those are backed up
+    List<String> geodatabasePaths = new ArrayList<>();
+    if (offlineMapUpdatesInfo.getDownloadAvailability() == OfflineUpdateAvailability.AVAILABLE) {
+      geodatabasePaths = findGeodatabasePaths(mMobileMapPackage.getMaps().get(0));
+    }
+    // release the mobile map package, so its geodatabases can be backed up before the update writes to them
+    mMapView.setMap(null);
+    mMobileMapPackage.close();
+    mScheduledUpdateManager.beginUpdateAsync(geodatabasePaths, new ScheduledUpdateManager.Callback() {
+      @Override public void onComplete() {
+        // reopen the mobile map package, now with its own geodatabases
+        mMobileMapPackage = new MobileMapPackage(mCopyOfMmpk.getPath());
+        mMobileMapPackage.loadAsync();
+        mMobileMapPackage.addDoneLoadingListener(() -> {
+          if (mMobileMapPackage.getLoadStatus() == LoadStatus.LOADED && !mMobileMapPackage.getMaps().isEmpty()) {
+            ArcGISMap offlineMap = mMobileMapPackage.getMaps().get(0);
+            mMapView.setMap(offlineMap);
+            syncOfflineMap(new OfflineMapSyncTask(offlineMap), downloadSize);
+          } else {
+            rollbackUpdate("Failed to load the mobile map package: " + mMobileMapPackage.getLoadError().getMessage());
+          }
+        });
+      }
+
+      @Override public void onFailed(IOException e) {
+        rollbackUpdate("Error copying geodatabases: " + e.getMessage());
+      }
+    });
+  }
+
+  /**
+   * Downloads and applies all scheduled updates to the working copy, committing them once the sync job succeeds.
+   *
+   * @param offlineMapSyncTask the task for the reopened working copy
+   * @param downloadSize the size of the updates
+   */
+  private void syncOfflineMap(OfflineMapSyncTask offlineMapSyncTask, long downloadSize) {
+    // create default parameters for the sync task
+    ListenableFuture<OfflineMapSyncParameters> offlineMapSyncParametersFuture = offlineMapSyncTask
+        .createDefaultOfflineMapSyncParametersAsync();
+    offlineMapSyncParametersFuture.addDoneListener(() -> {
+      try {
+        // get the offline sync parameters from the listenable future
+        OfflineMapSyncParameters offlineMapSyncParameters = offlineMapSyncParametersFuture.get();
+        // set the parameters to download all updates for the mobile map packages
+        offlineMapSyncParameters
+            .setPreplannedScheduledUpdatesOption(PreplannedScheduledUpdatesOption.DOWNLOAD_ALL_UPDATES);
+        // create a sync job using the parameters
+        OfflineMapSyncJob offlineMapSyncJob = offlineMapSyncTask.syncOfflineMap(offlineMapSyncParameters);
+        // start the job and get the results
+        offlineMapSyncJob.start();
+        offlineMapSyncJob.addJobDoneListener(() -> {
+          if (offlineMapSyncJob.getStatus() == Job.Status.SUCCEEDED) {
+            // the updated geodatabases are complete, so the backups of the previous ones can go
+            mScheduledUpdateManager.commitAsync(downloadSize, new ScheduledUpdateManager.Callback() {
+              @Override public void onComplete() {
+                String summary = mScheduledUpdateManager.getTransferSummary();
+                Toast.makeText(MainActivity.this, summary, Toast.LENGTH_LONG).show();
+                Log.d(TAG, "Scheduled updates applied: " + summary);
+              }
+
+              @Override public void onFailed(IOException e) {
+                Log.e(TAG, "Error committing scheduled updates: " + e.getMessage());
+              }
+            });
+            OfflineMapSyncResult offlineMapSyncResult = offlineMapSyncJob.getResult();
+            // if mobile map package reopen is required
+            if (offlineMapSyncResult.isMobileMapPackageReopenRequired()) {
+              // release the mobile map package maps from the map view
+              mMapView.setMap(null);
+              // close the old mobile map package
+              mMobileMapPackage.close();
+              // create a new instance of the now updated mobile map package
+              mUpdatedMobileMapPackage = new MobileMapPackage(mCopyOfMmpk.getPath());
+              mUpdatedMobileMapPackage.loadAsync();
+              // wait for the new instance of the mobile map package to load
+              mUpdatedMobileMapPackage.addDoneLoadingListener(() -> {
+                if (mUpdatedMobileMapPackage
+                    .getLoadStatus() == LoadStatus.LOADED && !mUpdatedMobileMapPackage
+                    .getMaps().isEmpty()) {
+                  // add the map from the mobile map package to the map view
+                  mMapView.setMap(mUpdatedMobileMapPackage.getMaps().get(0));
+                } else {
+                  String error =
+                      "Failed to load mobile map package: " + mUpdatedMobileMapPackage.getLoadError().getMessage();
+                  Toast.makeText(this, error, Toast.LENGTH_LONG).show();
+                  Log.e(TAG, error);
+                }
+              });
+            }
+            // check if the map is up to date against the server. This is not required, since in most cases,
+            // you'll be confident the update was applied because the offline map sync job completed successfully
+            // check for updates to the offline map
+            ListenableFuture<OfflineMapUpdatesInfo> offlineMapUpdatesInfoAfterUpdateFuture = offlineMapSyncTask
+                .checkForUpdatesAsync();
+            offlineMapUpdatesInfoAfterUpdateFuture.addDoneListener(() -> {
+              try {
+                // get the update results
+                OfflineMapUpdatesInfo offlineMapUpdatesInfoAfterUpdate = offlineMapUpdatesInfoAfterUpdateFuture.get();
+                // update the UI with update info
+                setUiUpdateInfo(offlineMapUpdatesInfoAfterUpdate);
+                Log.d(TAG, "Update: " + offlineMapUpdatesInfoAfterUpdate.getDownloadAvailability().name());
+              } catch (Exception e) {
+                String error = "Error checking for Scheduled Updates Availability: " + e.getMessage();
+                Toast.makeText(this, error, Toast.LENGTH_LONG).show();
+                Log.e(TAG, error);
+              }
+            });
+          } else {
+            rollbackUpdate("Error syncing the offline map: " + offlineMapSyncJob.getError().getMessage());
+          }
+        });
+      } catch (InterruptedException | ExecutionException ex) {
+        rollbackUpdate("Error creating DefaultOfflineMapSyncParameters" + ex.getMessage());
+      }
+    });
+  }
+
+  /**
+   * Reports an error in applying updates, and restores the working copy's geodatabases to how they were before.
+   *
+   * @param error describing what went wrong
+   */
+  private void rollbackUpdate(String error) {
+    Toast.makeText(this, error, Toast.LENGTH_LONG).show();
+    Log.e(TAG, error);
+    // the geodatabases can only be replaced while the mobile map package is closed
+    mMapView.setMap(null);
+    mMobileMapPackage.close();
+    mScheduledUpdateManager.rollbackAsync(new ScheduledUpdateManager.Callback() {
+      @Override public void onComplete() {
+        loadMobileMapPackage();
+      }
+
+      @Override public void onFailed(IOException e) {
+        Log.e(TAG, "Error rolling back scheduled updates: " + e.getMessage());
+        loadMobileMapPackage();
+      }
+    });
+  }
+
+  /**
+   * @return the paths of the geodatabases the map's feature layers and tables read from
+   */
+  private static List<String> findGeodatabasePaths(ArcGISMap map) {
+    List<FeatureTable> featureTables = new ArrayList<>(map.getTables());
+    for (Layer layer : map.getOperationalLayers()) {
+      if (layer instanceof FeatureLayer) {
+        featureTables.add(((FeatureLayer) layer).getFeatureTable());
+      }
+    }
+    Set<String> geodatabasePaths = new LinkedHashSet<>();
+    for (FeatureTable featureTable : featureTables) {
+      if (featureTable instanceof GeodatabaseFeatureTable) {
+        geodatabasePaths.add(((GeodatabaseFeatureTable) featureTable).getGeodatabase().getPath());
+      }
+    }
+    return new ArrayList<>(geodatabasePaths);
+  }
+
   /**
    * Update UI with update status.
    */
@@ -240,35 +357,6 @@ public class MainActivity extends AppCompatActivity {
   protected void onDestroy() {
     super.onDestroy();
     mMapView.dispose();
-  }
-
-  /**
-   * Copy the given directory to the target directory.
-   *
-   * @param sourceLocation from which to copy
-   * @param targetLocation to copy to
-   * @throws IOException
-   */
-  private static void copyDirectory(File sourceLocation, File targetLocation) throws IOException {
-    if (sourceLocation.isDirectory()) {
-      if (!targetLocation.exists()) {
-        targetLocation.mkdirs();
-      }
-      String[] children = sourceLocation.list();
-      for (String child : children) {
-        copyDirectory(new File(sourceLocation, child), new File(
-            targetLocation, child));
-      }
-    } else {
-      try (InputStream in = new FileInputStream(sourceLocation)) {
-        try (OutputStream out = new FileOutputStream(targetLocation)) {
-          byte[] buf = new byte[1024];
-          int len;
-          while ((len = in.read(buf)) > 0) {
-            out.write(buf, 0, len);
-          }
-        }
-      }
-    }
+    mScheduledUpdateManager.shutdown();
   }
 }
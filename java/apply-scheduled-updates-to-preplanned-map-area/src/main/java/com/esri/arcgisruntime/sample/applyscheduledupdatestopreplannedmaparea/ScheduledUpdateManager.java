@@ -0,0 +1,425 @@
+/*
+ *  Copyright 2021 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.esri.arcgisruntime.sample.applyscheduledupdatestopreplannedmaparea;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Applies scheduled updates to a working copy of a mobile map package without duplicating the whole package.
+ *
+ * Only the package's read-only data, its tile and vector tile packages, is hard linked into the working copy, falling
+ * back to copies where the filesystem doesn't support links. Every other file, including the geodatabases and the
+ * package's metadata, is copied before the working copy is ever opened, since opening, loading or syncing the package
+ * may write to those files and a link would pass the writes on to the original. The original package is never
+ * modified. The working copy is prepared once and kept across launches, so each launch carries on from the updates
+ * already applied. Before updates are applied, only the geodatabases the update will write to are moved aside as
+ * backups and replaced by copies that the update writes to.
+ *
+ * A journal records the update while it is applied. If the app stops before the update is committed, {@link
+ * #recover()} moves the backups back so the working copy is left as it was before the update.
+ */
+public class ScheduledUpdateManager {
+
+  private static final String TAG = ScheduledUpdateManager.class.getSimpleName();
+
+  private static final String JOURNAL_FILE_NAME = "journal.json";
+  // written once the working copy is complete, with the bytes linked and copied to make it
+  private static final String WORKING_COPY_FILE_NAME = "working-copy.json";
+  private static final String BACKUP_DIRECTORY_NAME = "backup";
+  private static final String GEODATABASE_EXTENSION = ".geodatabase";
+  // files the runtime only ever reads, which are safe to share with the original package
+  private static final String[] READ_ONLY_EXTENSIONS = { ".tpk", ".tpkx", ".vtpk" };
+  private static final String STATE_APPLYING = "applying";
+  private static final String STATE_COMMITTED = "committed";
+
+  private final File mOriginalDirectory;
+  private final File mWorkingDirectory;
+  private final File mJournalFile;
+  private final File mWorkingCopyFile;
+  private final File mBackupDirectory;
+  private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+  private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+  private long mBytesLinked;
+  private long mBytesCopied;
+  private long mBytesDownloaded;
+
+  /**
+   * Receives the outcome of a file operation on the main thread.
+   */
+  public interface Callback {
+
+    void onComplete();
+
+    void onFailed(IOException e);
+  }
+
+  /**
+   * @param originalDirectory the unpacked mobile map package, left unchanged
+   * @param workingDirectory where the working copy the updates are applied to is kept
+   * @param journalDirectory where the journal and backups are kept, on the same filesystem as the working copy
+   */
+  public ScheduledUpdateManager(File originalDirectory, File workingDirectory, File journalDirectory) {
+    mOriginalDirectory = originalDirectory;
+    mWorkingDirectory = workingDirectory;
+    mJournalFile = new File(journalDirectory, JOURNAL_FILE_NAME);
+    mWorkingCopyFile = new File(journalDirectory, WORKING_COPY_FILE_NAME);
+    mBackupDirectory = new File(journalDirectory, BACKUP_DIRECTORY_NAME);
+  }
+
+  /**
+   * Finishes or undoes an update interrupted by the app stopping. Call before the working copy is opened.
+   *
+   * @throws IOException if the working copy can't be restored
+   */
+  public void recover() throws IOException {
+    if (!mJournalFile.exists()) {
+      return;
+    }
+    try {
+      JSONObject journal = new JSONObject(readText(mJournalFile));
+      JSONArray files = journal.getJSONArray("files");
+      if (STATE_COMMITTED.equals(journal.getString("state"))) {
+        // the update was complete, only the backups were left to delete
+        Log.d(TAG, "Finishing committed update");
+      } else {
+        Log.d(TAG, "Rolling back interrupted update of " + files.length() + " files");
+        for (int i = 0; i < files.length(); i++) {
+          File backup = new File(mBackupDirectory, files.getString(i));
+          // without a backup the file was never moved aside, so it is still as it was
+          if (backup.exists()) {
+            move(backup, new File(mWorkingDirectory, files.getString(i)));
+          }
+        }
+      }
+    } catch (JSONException e) {
+      throw new IOException("Unreadable update journal: " + e.getMessage());
+    }
+    deleteRecursively(mBackupDirectory);
+    if (!mJournalFile.delete()) {
+      throw new IOException("Failed to delete " + mJournalFile);
+    }
+  }
+
+  /**
+   * Recovers from any interrupted update, then mirrors the original package into the working copy, in the background,
+   * unless a complete working copy was kept from an earlier launch. Read-only tile packages are hard linked and every
+   * other file is copied.
+   *
+   * @param callback notified on the main thread
+   */
+  public void prepareWorkingCopyAsync(Callback callback) {
+    run(() -> {
+      recover();
+      mBytesDownloaded = 0;
+      if (mWorkingCopyFile.exists()) {
+        // the working copy holds the updates applied before, so keep it rather than starting over from the original
+        try {
+          JSONObject workingCopy = new JSONObject(readText(mWorkingCopyFile));
+          mBytesLinked = workingCopy.getLong("bytesLinked");
+          mBytesCopied = workingCopy.getLong("bytesCopied");
+          return;
+        } catch (JSONException e) {
+          Log.w(TAG, "Rebuilding working copy with unreadable record: " + e.getMessage());
+        }
+      }
+      mBytesLinked = 0;
+      mBytesCopied = 0;
+      // a working copy without a record was interrupted while it was being made, so start it over
+      deleteRecursively(mWorkingDirectory);
+      mirror(mOriginalDirectory, mWorkingDirectory);
+      try {
+        writeAtomically(mWorkingCopyFile, new JSONObject().put("bytesLinked", mBytesLinked)
+            .put("bytesCopied", mBytesCopied));
+      } catch (JSONException e) {
+        throw new IOException("Failed to record working copy: " + e.getMessage());
+      }
+    }, callback);
+  }
+
+  /**
+   * Moves the given geodatabases of the working copy aside as backups and replaces them with copies that updates are
+   * written to, in the background. The other geodatabases aren't touched. The working copy must be closed, so the
+   * backups are consistent.
+   *
+   * @param geodatabasePaths the geodatabases the update will write to, for example those of the feature tables of a map
+   * whose OfflineMapUpdatesInfo reports updates available to download
+   * @param callback notified on the main thread
+   */
+  public void beginUpdateAsync(List<String> geodatabasePaths, Callback callback) {
+    run(() -> {
+      List<String> geodatabases = new ArrayList<>();
+      for (String geodatabase : findGeodatabases(mWorkingDirectory, "", new ArrayList<>())) {
+        // includes any SQLite journal files next to each geodatabase
+        String path = new File(mWorkingDirectory, geodatabase).getCanonicalPath();
+        for (String geodatabasePath : geodatabasePaths) {
+          if (path.startsWith(new File(geodatabasePath).getCanonicalPath())) {
+            geodatabases.add(geodatabase);
+            break;
+          }
+        }
+      }
+      // record the update before moving anything, so an interruption at any point can be undone
+      writeJournal(STATE_APPLYING, geodatabases);
+      for (String geodatabase : geodatabases) {
+        File file = new File(mWorkingDirectory, geodatabase);
+        File backup = new File(mBackupDirectory, geodatabase);
+        move(file, backup);
+        copyFile(backup, file);
+        mBytesCopied += file.length();
+      }
+    }, callback);
+  }
+
+  /**
+   * Keeps the updated geodatabases and drops the backups, in the background.
+   *
+   * @param bytesDownloaded the size of the updates, from OfflineMapUpdatesInfo.getScheduledUpdatesDownloadSize()
+   * @param callback notified on the main thread
+   */
+  public void commitAsync(long bytesDownloaded, Callback callback) {
+    run(() -> commit(bytesDownloaded), callback);
+  }
+
+  private void commit(long bytesDownloaded) throws IOException {
+    mBytesDownloaded += bytesDownloaded;
+    try {
+      JSONObject journal = new JSONObject(readText(mJournalFile));
+      List<String> files = new ArrayList<>();
+      for (int i = 0; i < journal.getJSONArray("files").length(); i++) {
+        files.add(journal.getJSONArray("files").getString(i));
+      }
+      writeJournal(STATE_COMMITTED, files);
+    } catch (JSONException e) {
+      throw new IOException("Unreadable update journal: " + e.getMessage());
+    }
+    deleteRecursively(mBackupDirectory);
+    if (!mJournalFile.delete()) {
+      throw new IOException("Failed to delete " + mJournalFile);
+    }
+  }
+
+  /**
+   * Undoes an update that failed, restoring the geodatabases from their backups, in the background. The working copy
+   * must be closed.
+   *
+   * @param callback notified on the main thread
+   */
+  public void rollbackAsync(Callback callback) {
+    run(this::recover, callback);
+  }
+
+  /**
+   * @return bytes of the working copy shared with the original package through hard links
+   */
+  public long getBytesLinked() {
+    return mBytesLinked;
+  }
+
+  /**
+   * @return bytes of the working copy that had to be copied
+   */
+  public long getBytesCopied() {
+    return mBytesCopied;
+  }
+
+  /**
+   * @return bytes of scheduled updates downloaded
+   */
+  public long getBytesDownloaded() {
+    return mBytesDownloaded;
+  }
+
+  /**
+   * @return a summary of bytes downloaded compared to the bytes already present
+   */
+  public String getTransferSummary() {
+    return String.format(Locale.US, "%.1f MB downloaded, %.1f MB already present (%.1f MB linked, %.1f MB copied)",
+        toMegabytes(mBytesDownloaded), toMegabytes(mBytesLinked + mBytesCopied), toMegabytes(mBytesLinked),
+        toMegabytes(mBytesCopied));
+  }
+
+  public void shutdown() {
+    mExecutor.shutdown();
+  }
+
+  private interface FileTask {
+
+    void run() throws IOException;
+  }
+
+  private void run(FileTask task, Callback callback) {
+    mExecutor.execute(() -> {
+      try {
+        task.run();
+        mMainHandler.post(callback::onComplete);
+      } catch (IOException e) {
+        mMainHandler.post(() -> callback.onFailed(e));
+      }
+    });
+  }
+
+  private void mirror(File source, File target) throws IOException {
+    if (source.isDirectory()) {
+      if (!target.exists() && !target.mkdirs()) {
+        throw new IOException("Failed to create " + target);
+      }
+      String[] children = source.list();
+      if (children != null) {
+        for (String child : children) {
+          mirror(new File(source, child), new File(target, child));
+        }
+      }
+    } else {
+      if (isReadOnly(source)) {
+        try {
+          Os.link(source.getPath(), target.getPath());
+          mBytesLinked += source.length();
+          return;
+        } catch (ErrnoException e) {
+          // hard links aren't supported across filesystems, nor by every filesystem
+          Log.d(TAG, "Copying " + source.getName() + " instead of linking it: " + e.getMessage());
+        }
+      }
+      copyFile(source, target);
+      mBytesCopied += source.length();
+    }
+  }
+
+  private static boolean isReadOnly(File file) {
+    String name = file.getName().toLowerCase(Locale.US);
+    for (String extension : READ_ONLY_EXTENSIONS) {
+      if (name.endsWith(extension)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static List<String> findGeodatabases(File directory, String prefix, List<String> geodatabases) {
+    File[] children = directory.listFiles();
+    if (children == null) {
+      return geodatabases;
+    }
+    for (File child : children) {
+      if (child.isDirectory()) {
+        findGeodatabases(child, prefix + child.getName() + File.separator, geodatabases);
+      } else if (child.getName().contains(GEODATABASE_EXTENSION)) {
+        geodatabases.add(prefix + child.getName());
+      }
+    }
+    return geodatabases;
+  }
+
+  private void writeJournal(String state, List<String> files) throws IOException {
+    try {
+      JSONObject journal = new JSONObject();
+      journal.put("state", state);
+      journal.put("files", new JSONArray(files));
+      writeAtomically(mJournalFile, journal);
+    } catch (JSONException e) {
+      throw new IOException("Failed to write update journal: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Replaces a file with the given JSON atomically, so it is never seen half written.
+   */
+  private static void writeAtomically(File file, JSONObject json) throws IOException {
+    File parent = file.getParentFile();
+    if (!parent.exists() && !parent.mkdirs()) {
+      throw new IOException("Failed to create " + parent);
+    }
+    File tempFile = new File(file.getPath() + ".tmp");
+    try (FileOutputStream out = new FileOutputStream(tempFile)) {
+      out.write(json.toString().getBytes(StandardCharsets.UTF_8));
+      out.getFD().sync();
+    }
+    move(tempFile, file);
+  }
+
+  private static void move(File source, File target) throws IOException {
+    File parent = target.getParentFile();
+    if (!parent.exists() && !parent.mkdirs()) {
+      throw new IOException("Failed to create " + parent);
+    }
+    if (!source.renameTo(target)) {
+      throw new IOException("Failed to move " + source + " to " + target);
+    }
+  }
+
+  private static void copyFile(File source, File target) throws IOException {
+    try (InputStream in = new FileInputStream(source)) {
+      try (FileOutputStream out = new FileOutputStream(target)) {
+        byte[] buf = new byte[64 * 1024];
+        int len;
+        while ((len = in.read(buf)) > 0) {
+          out.write(buf, 0, len);
+        }
+        out.getFD().sync();
+      }
+    }
+  }
+
+  private static String readText(File file) throws IOException {
+    byte[] bytes = new byte[(int) file.length()];
+    try (InputStream in = new FileInputStream(file)) {
+      int offset = 0;
+      int read;
+      while (offset < bytes.length && (read = in.read(bytes, offset, bytes.length - offset)) != -1) {
+        offset += read;
+      }
+      return new String(bytes, 0, offset, StandardCharsets.UTF_8);
+    }
+  }
+
+  private static void deleteRecursively(File file) throws IOException {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteRecursively(child);
+      }
+    }
+    if (file.exists() && !file.delete()) {
+      throw new IOException("Failed to delete " + file);
+    }
+  }
+
+  private static double toMegabytes(long bytes) {
+    return bytes / (1024.0 * 1024.0);
+  }
+}
@@ -47,6 +47,7 @@ public class MainActivity extends AppCompatActivity {
   private Graphic mResultPointGraphic;
   private Graphic mResultPolylineGraphic;
   private Polyline mOriginalPolyline;
+  private SimplificationPyramid mSimplificationPyramid;
 
   @Override
   protected void onCreate(Bundle savedInstanceState) {
@@ -85,6 +86,8 @@ public class MainActivity extends AppCompatActivity {
 
     // show a dotted red line connecting the original points
     mOriginalPolyline = new Polyline(points);
+    // rank the vertices of the original polyline once, so any generalization can be extracted without GeometryEngine
+    mSimplificationPyramid = new SimplificationPyramid(mOriginalPolyline);
     Graphic originalPolylineGraphic = new Graphic(mOriginalPolyline, new SimpleLineSymbol(SimpleLineSymbol.Style.DOT,
         0xFFFF0000, 3));
     graphicsOverlay.getGraphics().add(originalPolylineGraphic);
@@ -144,14 +147,14 @@ public class MainActivity extends AppCompatActivity {
   }
 
   /**
-   * Called when any of the densify/generalize option values are changed. Applies the densify and generalize
-   * operations to the original polyline and updates the result graphics with the result geometry.
+   * Called when any of the densify/generalize option values are changed. Extracts the generalized polyline from the
+   * precomputed simplification pyramid, applies the densify operation and updates the result graphics with the result
+   * geometry.
    */
   private void updateGeometry() {
     Polyline tempPolyline = mOriginalPolyline;
     if (mGeneralizeCheckBox.isChecked()) {
-      tempPolyline = (Polyline) GeometryEngine.generalize(tempPolyline, mMaxDeviationSlider.getProgress() + 1,
-          true);
+      tempPolyline = mSimplificationPyramid.extract(mMaxDeviationSlider.getProgress() + 1);
     }
     if (mDensifyCheckBox.isChecked()) {
       tempPolyline = (Polyline) GeometryEngine.densify(tempPolyline, mMaxSegmentLengthSlider.getProgress() + 100);
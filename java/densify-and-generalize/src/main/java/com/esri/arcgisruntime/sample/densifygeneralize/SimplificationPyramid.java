@@ -0,0 +1,177 @@
+/* Copyright 2021 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgisruntime.sample.densifygeneralize;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.esri.arcgisruntime.geometry.Part;
+import com.esri.arcgisruntime.geometry.PartCollection;
+import com.esri.arcgisruntime.geometry.Point;
+import com.esri.arcgisruntime.geometry.PointCollection;
+import com.esri.arcgisruntime.geometry.Polyline;
+import com.esri.arcgisruntime.geometry.SpatialReference;
+
+/**
+ * Precomputes a Douglas-Peucker importance for every vertex of a polyline, so that the polyline generalized to any
+ * maximum deviation can be extracted in a single linear pass without calling GeometryEngine.
+ *
+ * A vertex's importance is the largest deviation at which Douglas-Peucker still keeps it. Because the farthest vertex
+ * of a segment doesn't depend on the deviation, the recursion is run once for all deviations: each vertex records its
+ * distance from the segment it splits, capped by the importance of the vertex that split its parent segment. Part
+ * end points are always kept.
+ */
+public class SimplificationPyramid {
+
+  private final SpatialReference mSpatialReference;
+  private final boolean mHasZ;
+  private final List<double[]> mXs = new ArrayList<>();
+  private final List<double[]> mYs = new ArrayList<>();
+  private final List<double[]> mZs = new ArrayList<>();
+  private final List<double[]> mImportances = new ArrayList<>();
+
+  /**
+   * Computes the importance of every vertex of the polyline.
+   *
+   * @param polyline the polyline to generalize
+   */
+  public SimplificationPyramid(Polyline polyline) {
+    mSpatialReference = polyline.getSpatialReference();
+    mHasZ = polyline.hasZ();
+    for (Part part : polyline.getParts()) {
+      int count = part.getPointCount();
+      double[] xs = new double[count];
+      double[] ys = new double[count];
+      double[] zs = new double[count];
+      int i = 0;
+      for (Point point : part.getPoints()) {
+        xs[i] = point.getX();
+        ys[i] = point.getY();
+        zs[i] = point.getZ();
+        i++;
+      }
+      mXs.add(xs);
+      mYs.add(ys);
+      mZs.add(zs);
+      mImportances.add(computeImportances(xs, ys));
+    }
+  }
+
+  /**
+   * Returns the polyline generalized so that no removed vertex deviates from it by more than the given distance, the
+   * same result as Douglas-Peucker generalization with that maximum deviation.
+   *
+   * @param maxDeviation the maximum deviation, in the units of the polyline's spatial reference
+   * @return the generalized polyline
+   */
+  public Polyline extract(double maxDeviation) {
+    PartCollection parts = new PartCollection(mSpatialReference);
+    for (int p = 0; p < mXs.size(); p++) {
+      double[] xs = mXs.get(p);
+      double[] ys = mYs.get(p);
+      double[] zs = mZs.get(p);
+      double[] importances = mImportances.get(p);
+      PointCollection points = new PointCollection(mSpatialReference);
+      for (int i = 0; i < xs.length; i++) {
+        if (importances[i] > maxDeviation) {
+          if (mHasZ) {
+            points.add(xs[i], ys[i], zs[i]);
+          } else {
+            points.add(xs[i], ys[i]);
+          }
+        }
+      }
+      parts.add(new Part(points));
+    }
+    return new Polyline(parts);
+  }
+
+  /**
+   * Returns the polyline generalized for display at the given resolution, dropping vertices that would move the line
+   * by less than half a pixel.
+   *
+   * @param unitsPerPixel map units per screen pixel, for example from MapView.getUnitsPerDensityIndependentPixel()
+   * @return the generalized polyline
+   */
+  public Polyline extractForResolution(double unitsPerPixel) {
+    return extract(unitsPerPixel / 2);
+  }
+
+  /**
+   * Returns the number of vertices kept at the given maximum deviation.
+   */
+  public int getVertexCount(double maxDeviation) {
+    int count = 0;
+    for (double[] importances : mImportances) {
+      for (double importance : importances) {
+        if (importance > maxDeviation) {
+          count++;
+        }
+      }
+    }
+    return count;
+  }
+
+  private static double[] computeImportances(double[] xs, double[] ys) {
+    int count = xs.length;
+    double[] importances = new double[count];
+    if (count == 0) {
+      return importances;
+    }
+    importances[0] = Double.POSITIVE_INFINITY;
+    importances[count - 1] = Double.POSITIVE_INFINITY;
+
+    // each entry is a segment to split: its first index, last index and the importance of the vertex that created it
+    ArrayDeque<double[]> segments = new ArrayDeque<>();
+    segments.push(new double[] { 0, count - 1, Double.POSITIVE_INFINITY });
+    while (!segments.isEmpty()) {
+      double[] segment = segments.pop();
+      int first = (int) segment[0];
+      int last = (int) segment[1];
+      if (last - first < 2) {
+        continue;
+      }
+      int farthest = first + 1;
+      double maxDistance = -1;
+      for (int i = first + 1; i < last; i++) {
+        double distance = distanceToSegment(xs[i], ys[i], xs[first], ys[first], xs[last], ys[last]);
+        if (distance > maxDistance) {
+          maxDistance = distance;
+          farthest = i;
+        }
+      }
+      // a vertex can't outlive the vertex that split its parent segment
+      double importance = Math.min(maxDistance, segment[2]);
+      importances[farthest] = importance;
+      segments.push(new double[] { first, farthest, importance });
+      segments.push(new double[] { farthest, last, importance });
+    }
+    return importances;
+  }
+
+  private static double distanceToSegment(double x, double y, double x1, double y1, double x2, double y2) {
+    double dx = x2 - x1;
+    double dy = y2 - y1;
+    double lengthSquared = dx * dx + dy * dy;
+    double t = lengthSquared == 0 ? 0 : ((x - x1) * dx + (y - y1) * dy) / lengthSquared;
+    t = Math.max(0, Math.min(1, t));
+    double px = x1 + t * dx - x;
+    double py = y1 + t * dy - y;
+    return Math.sqrt(px * px + py * py);
+  }
+}
@@ -0,0 +1,277 @@
+/* Copyright 2021 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgisruntime.sample.displaykmlnetworklinks;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.net.TrafficStats;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+
+import com.esri.arcgisruntime.geometry.Envelope;
+import com.esri.arcgisruntime.geometry.GeometryEngine;
+import com.esri.arcgisruntime.ogc.kml.KmlContainer;
+import com.esri.arcgisruntime.ogc.kml.KmlDataset;
+import com.esri.arcgisruntime.ogc.kml.KmlNetworkLink;
+import com.esri.arcgisruntime.ogc.kml.KmlNode;
+import com.esri.arcgisruntime.ogc.kml.KmlRefreshMode;
+import com.esri.arcgisruntime.ogc.kml.KmlRefreshStatus;
+
+/**
+ * Refreshes the network links of a KML dataset on its own cadence, instead of leaving it to each link's refresh mode.
+ *
+ * Every network link which refreshes on an interval, including links nested in the content of other links, is
+ * switched to only refresh on change, so the runtime stops refreshing it by itself. Links are tracked by object, so a
+ * link which replaces another when its parent is refreshed is taken over as well. The scheduler refreshes a link with
+ * {@link KmlNetworkLink#refresh()} once its interval has passed, but only while the link is visible and its extent,
+ * if known, intersects the viewport. A refresh counts as in flight until the link reports it completed or failed, and
+ * at most a fixed number are in flight at once, the longest overdue starting first. Failed refreshes back off
+ * exponentially from the link's interval.
+ */
+public class KmlRefreshScheduler {
+
+  // how often to check which links are due
+  private static final long TICK_MILLIS = 1000;
+  // the longest to wait after failures, and for a refresh which never reports back
+  private static final long MAX_BACKOFF_MILLIS = 5 * 60 * 1000;
+  private static final long REFRESH_TIMEOUT_MILLIS = 60 * 1000;
+
+  private final KmlDataset mDataset;
+  private final long mMinIntervalMillis;
+  private final int mMaxConcurrentRefreshes;
+  private final Listener mListener;
+  private final Handler mHandler = new Handler(Looper.getMainLooper());
+  private final Runnable mTick = this::tick;
+
+  // the refresh state of each link taken over, by the link object itself
+  private Map<KmlNetworkLink, LinkState> mLinkStates = new IdentityHashMap<>();
+
+  private Envelope mViewport;
+  private boolean mLayerVisible = true;
+  private boolean mRunning;
+  private int mRefreshesInFlight;
+  private int mRefreshCount;
+
+  /**
+   * Receives the outcome of each refresh on the main thread.
+   */
+  public interface Listener {
+
+    /**
+     * @param link the refreshed link
+     * @param latencyMillis time from calling refresh() to the link reporting it completed
+     * @param payloadBytes bytes the app received meanwhile, which includes any other refreshes in flight, or -1 if
+     * the device doesn't count them
+     */
+    void onRefreshCompleted(KmlNetworkLink link, long latencyMillis, long payloadBytes);
+
+    /**
+     * @param link the link which failed to refresh
+     * @param retryMillis how long until the link is refreshed again
+     */
+    void onRefreshFailed(KmlNetworkLink link, long retryMillis);
+  }
+
+  private static class LinkState {
+    private final long mIntervalMillis;
+    private long mNextDueMillis;
+    private int mConsecutiveFailures;
+    private boolean mInFlight;
+    private long mRefreshStartMillis;
+    private long mRefreshStartBytes;
+
+    private LinkState(long intervalMillis, long nextDueMillis) {
+      mIntervalMillis = intervalMillis;
+      mNextDueMillis = nextDueMillis;
+    }
+  }
+
+  /**
+   * @param dataset the dataset whose network links to refresh
+   * @param minIntervalMillis the least time between refreshes of a link, however often the link asks to be refreshed
+   * @param maxConcurrentRefreshes the most refreshes in flight at once, across every link
+   * @param listener notified of each refresh's outcome
+   */
+  public KmlRefreshScheduler(KmlDataset dataset, long minIntervalMillis, int maxConcurrentRefreshes,
+      Listener listener) {
+    mDataset = dataset;
+    mMinIntervalMillis = minIntervalMillis;
+    mMaxConcurrentRefreshes = maxConcurrentRefreshes;
+    mListener = listener;
+  }
+
+  /**
+   * @param viewport the currently visible extent, or null to treat every link as in view
+   */
+  public void setViewport(Envelope viewport) {
+    mViewport = viewport;
+  }
+
+  /**
+   * @param layerVisible false to pause every refresh while the dataset's layer isn't drawn
+   */
+  public void setLayerVisible(boolean layerVisible) {
+    mLayerVisible = layerVisible;
+  }
+
+  /**
+   * @return how many times a link has been refreshed
+   */
+  public int getRefreshCount() {
+    return mRefreshCount;
+  }
+
+  public void start() {
+    if (!mRunning) {
+      mRunning = true;
+      mHandler.post(mTick);
+    }
+  }
+
+  public void stop() {
+    mRunning = false;
+    mHandler.removeCallbacks(mTick);
+  }
+
+  private void tick() {
+    if (!mRunning) {
+      return;
+    }
+    long now = SystemClock.elapsedRealtime();
+    // find the links, taking over new ones, and forget links which were replaced by a refresh of their parent
+    Map<KmlNetworkLink, LinkState> linkStates = new IdentityHashMap<>();
+    List<KmlNetworkLink> dueLinks = new ArrayList<>();
+    collectLinks(mDataset.getRootNodes(), mLayerVisible, now, linkStates, dueLinks);
+    for (Map.Entry<KmlNetworkLink, LinkState> entry : mLinkStates.entrySet()) {
+      LinkState state = entry.getValue();
+      if (!state.mInFlight) {
+        continue;
+      }
+      if (!linkStates.containsKey(entry.getKey())) {
+        // a replaced link no longer holds a place, whether or not it reports back
+        state.mInFlight = false;
+        mRefreshesInFlight--;
+      } else if (now - state.mRefreshStartMillis > REFRESH_TIMEOUT_MILLIS) {
+        onRefreshFailed(entry.getKey(), state);
+      }
+    }
+    mLinkStates = linkStates;
+
+    // refresh the longest overdue links first, while there is room in flight
+    while (mRefreshesInFlight < mMaxConcurrentRefreshes && !dueLinks.isEmpty()) {
+      int oldest = 0;
+      for (int i = 1; i < dueLinks.size(); i++) {
+        if (linkStates.get(dueLinks.get(i)).mNextDueMillis < linkStates.get(dueLinks.get(oldest)).mNextDueMillis) {
+          oldest = i;
+        }
+      }
+      KmlNetworkLink link = dueLinks.remove(oldest);
+      LinkState state = linkStates.get(link);
+      state.mInFlight = true;
+      state.mRefreshStartMillis = now;
+      state.mRefreshStartBytes = TrafficStats.getUidRxBytes(Process.myUid());
+      mRefreshesInFlight++;
+      mRefreshCount++;
+      link.refresh();
+    }
+    mHandler.postDelayed(mTick, TICK_MILLIS);
+  }
+
+  private void collectLinks(List<KmlNode> nodes, boolean parentVisible, long now,
+      Map<KmlNetworkLink, LinkState> linkStates, List<KmlNetworkLink> dueLinks) {
+    for (KmlNode node : nodes) {
+      boolean visible = parentVisible && node.isVisible();
+      if (node instanceof KmlNetworkLink) {
+        KmlNetworkLink link = (KmlNetworkLink) node;
+        LinkState state = mLinkStates.get(link);
+        if (state == null && link.getRefreshMode() == KmlRefreshMode.ON_INTERVAL) {
+          state = takeOver(link, now);
+        }
+        if (state != null) {
+          linkStates.put(link, state);
+          if (!state.mInFlight && visible && now >= state.mNextDueMillis && isInView(link)) {
+            dueLinks.add(link);
+          }
+        }
+        collectLinks(link.getChildNodes(), visible, now, linkStates, dueLinks);
+      } else if (node instanceof KmlContainer) {
+        collectLinks(((KmlContainer) node).getChildNodes(), visible, now, linkStates, dueLinks);
+      }
+    }
+  }
+
+  /**
+   * Stops the runtime refreshing the link by itself and listens for the end of each refresh. The link's content was
+   * just loaded, so it isn't due yet.
+   */
+  private LinkState takeOver(KmlNetworkLink link, long now) {
+    long intervalMillis = Math.max(mMinIntervalMillis, (long) (link.getRefreshInterval() * 1000));
+    LinkState state = new LinkState(intervalMillis, now + intervalMillis);
+    link.setRefreshMode(KmlRefreshMode.ON_CHANGE);
+    link.addRefreshStatusChangedListener(refreshStatusChangedEvent -> mHandler.post(() -> {
+      if (!state.mInFlight) {
+        return;
+      }
+      KmlRefreshStatus status = link.getRefreshStatus();
+      if (status == KmlRefreshStatus.COMPLETED) {
+        onRefreshCompleted(link, state);
+      } else if (status == KmlRefreshStatus.FAILED) {
+        onRefreshFailed(link, state);
+      }
+    }));
+    return state;
+  }
+
+  private void onRefreshCompleted(KmlNetworkLink link, LinkState state) {
+    long now = SystemClock.elapsedRealtime();
+    long bytes = TrafficStats.getUidRxBytes(Process.myUid());
+    state.mInFlight = false;
+    state.mConsecutiveFailures = 0;
+    state.mNextDueMillis = now + state.mIntervalMillis;
+    mRefreshesInFlight--;
+    boolean counted = bytes != TrafficStats.UNSUPPORTED && state.mRefreshStartBytes != TrafficStats.UNSUPPORTED;
+    mListener.onRefreshCompleted(link, now - state.mRefreshStartMillis,
+        counted ? bytes - state.mRefreshStartBytes : -1);
+  }
+
+  private void onRefreshFailed(KmlNetworkLink link, LinkState state) {
+    state.mInFlight = false;
+    state.mConsecutiveFailures++;
+    // back off exponentially, capped, from the link's regular interval
+    long backoff = Math.min(state.mIntervalMillis << Math.min(state.mConsecutiveFailures, 16), MAX_BACKOFF_MILLIS);
+    state.mNextDueMillis = SystemClock.elapsedRealtime() + backoff;
+    mRefreshesInFlight--;
+    mListener.onRefreshFailed(link, backoff);
+  }
+
+  /**
+   * A link is in view when its content's extent, if known, intersects the viewport.
+   */
+  private boolean isInView(KmlNode node) {
+    Envelope viewport = mViewport;
+    Envelope extent = node.getExtent();
+    if (viewport == null || extent == null || extent.isEmpty()) {
+      return true;
+    }
+    return GeometryEngine.intersects(viewport, GeometryEngine.project(extent, viewport.getSpatialReference()));
+  }
+}
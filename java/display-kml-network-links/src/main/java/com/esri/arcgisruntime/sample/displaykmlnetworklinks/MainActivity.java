@@ -27,15 +27,24 @@ import com.esri.arcgisruntime.loadable.LoadStatus;
 import com.esri.arcgisruntime.mapping.ArcGISMap;
 import com.esri.arcgisruntime.mapping.BasemapStyle;
 import com.esri.arcgisruntime.mapping.Viewpoint;
+import com.esri.arcgisruntime.mapping.view.LayerViewStatus;
 import com.esri.arcgisruntime.mapping.view.MapView;
 import com.esri.arcgisruntime.ogc.kml.KmlDataset;
+import com.esri.arcgisruntime.ogc.kml.KmlNetworkLink;
 
 public class MainActivity extends AppCompatActivity {
 
   private static final String TAG = MainActivity.class.getSimpleName();
 
+  // refresh each network link at most every 10 seconds while it is in view, with at most two refreshes in flight
+  private static final long MIN_REFRESH_INTERVAL_MILLIS = 10 * 1000;
+  private static final int MAX_CONCURRENT_REFRESHES = 2;
+
   private MapView mMapView;
 
+  private KmlRefreshScheduler mRefreshScheduler;
+  private KmlLayer mKmlLayer;
+
   @Override
   protected void onCreate(Bundle savedInstanceState) {
     super.onCreate(savedInstanceState);
@@ -63,26 +72,55 @@ public class MainActivity extends AppCompatActivity {
     });
 
     // a KML layer created from a remote KML file
-    KmlLayer kmlLayer = new KmlLayer(kmlDataset);
+    mKmlLayer = new KmlLayer(kmlDataset);
 
     // clear the existing layers from the map
     mMapView.getMap().getOperationalLayers().clear();
 
     // add the KML layer to the map as an operational layer.
-    mMapView.getMap().getOperationalLayers().add(kmlLayer);
+    mMapView.getMap().getOperationalLayers().add(mKmlLayer);
+
+    // refresh the dataset's network links through a scheduler, which only refreshes links while they are in view
+    mRefreshScheduler = new KmlRefreshScheduler(kmlDataset, MIN_REFRESH_INTERVAL_MILLIS, MAX_CONCURRENT_REFRESHES,
+        new KmlRefreshScheduler.Listener() {
+          @Override public void onRefreshCompleted(KmlNetworkLink link, long latencyMillis, long payloadBytes) {
+            Log.i(TAG, "Refreshed " + link.getName() + " in " + latencyMillis + " ms, " + payloadBytes + " bytes");
+          }
 
-    // report errors if failed to load
+          @Override public void onRefreshFailed(KmlNetworkLink link, long retryMillis) {
+            Log.e(TAG, "Failed to refresh " + link.getName() + ", retrying in " + retryMillis + " ms");
+          }
+        });
+
+    // report errors if failed to load, otherwise start refreshing the network links
     kmlDataset.addDoneLoadingListener(() -> {
       if (kmlDataset.getLoadStatus() != LoadStatus.LOADED) {
         String error = "Failed to load kml layer from URL: " + kmlDataset.getLoadError().getMessage();
         Toast.makeText(this, error, Toast.LENGTH_LONG).show();
         Log.e(TAG, error);
+      } else {
+        mRefreshScheduler.start();
+      }
+    });
+
+    // keep the scheduler's viewport in sync with the map view
+    mMapView.addViewpointChangedListener(viewpointChangedEvent -> {
+      if (mMapView.getVisibleArea() != null) {
+        mRefreshScheduler.setViewport(mMapView.getVisibleArea().getExtent());
+      }
+    });
+    // pause refreshes while the KML layer is hidden or out of scale
+    mMapView.addLayerViewStateChangedListener(layerViewStateChangedEvent -> {
+      if (layerViewStateChangedEvent.getLayer() == mKmlLayer) {
+        mRefreshScheduler.setLayerVisible(
+            layerViewStateChangedEvent.getLayerViewStatus().contains(LayerViewStatus.ACTIVE));
       }
     });
   }
 
   @Override
   protected void onPause() {
+    mRefreshScheduler.stop();
     mMapView.pause();
     super.onPause();
   }
@@ -91,10 +129,14 @@ public class MainActivity extends AppCompatActivity {
   protected void onResume() {
     super.onResume();
     mMapView.resume();
+    if (mKmlLayer.getDataset().getLoadStatus() == LoadStatus.LOADED) {
+      mRefreshScheduler.start();
+    }
   }
 
   @Override
   protected void onDestroy() {
+    mRefreshScheduler.stop();
     mMapView.dispose();
     super.onDestroy();
   }
@@ -18,6 +18,7 @@ package com.esri.arcgisruntime.sample.downloadpreplannedmaparea;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
@@ -32,7 +33,6 @@ import android.widget.ListView;
 import android.widget.Toast;
 
 import com.esri.arcgisruntime.ArcGISRuntimeException;
-import com.esri.arcgisruntime.concurrent.Job;
 import com.esri.arcgisruntime.concurrent.ListenableFuture;
 import com.esri.arcgisruntime.data.FeatureTable;
 import com.esri.arcgisruntime.geometry.Envelope;
@@ -50,17 +50,16 @@ import com.esri.arcgisruntime.security.AuthenticationManager;
 import com.esri.arcgisruntime.security.DefaultAuthenticationChallengeHandler;
 import com.esri.arcgisruntime.symbology.SimpleLineSymbol;
 import com.esri.arcgisruntime.symbology.SimpleRenderer;
-import com.esri.arcgisruntime.tasks.offlinemap.DownloadPreplannedOfflineMapJob;
-import com.esri.arcgisruntime.tasks.offlinemap.DownloadPreplannedOfflineMapParameters;
 import com.esri.arcgisruntime.tasks.offlinemap.DownloadPreplannedOfflineMapResult;
 import com.esri.arcgisruntime.tasks.offlinemap.OfflineMapTask;
 import com.esri.arcgisruntime.tasks.offlinemap.PreplannedMapArea;
-import com.esri.arcgisruntime.tasks.offlinemap.PreplannedUpdateMode;
 
 public class MainActivity extends AppCompatActivity implements ProgressDialogFragment.OnProgressDialogDismissListener {
 
   private static final String TAG = MainActivity.class.getSimpleName();
 
+  private static final int MAX_CONCURRENT_DOWNLOADS = 3;
+
   private File mOfflineMapDirectory;
 
   private ListView mPreplannedAreasListView;
@@ -74,7 +73,9 @@ public class MainActivity extends AppCompatActivity implements ProgressDialogFra
 
   private PreplannedMapArea mSelectedPreplannedMapArea;
   private List<PreplannedMapArea> mPreplannedMapAreas;
-  private DownloadPreplannedOfflineMapJob mDownloadPreplannedOfflineMapJob;
+  private List<PreplannedMapArea> mDownloadedPreplannedMapAreas = new ArrayList<>();
+  private Button mDownloadAllButton;
+  private PreplannedAreaDownloader mPreplannedAreaDownloader;
   private MapView mMapView;
   private GraphicsOverlay mAreasOfInterestGraphicsOverlay;
   private OfflineMapTask mOfflineMapTask;
@@ -84,19 +85,8 @@ public class MainActivity extends AppCompatActivity implements ProgressDialogFra
     super.onCreate(savedInstanceState);
     setContentView(R.layout.activity_main);
     
-    // delete any previous instances of downloaded maps
-    deleteDirectory(getCacheDir());
-
     // create up a temporary directory in the app's cache for saving downloaded preplanned maps
     mOfflineMapDirectory = new File(getCacheDir() + getString(R.string.preplanned_offline_map_dir));
-    if (mOfflineMapDirectory.mkdirs()) {
-      Log.i(TAG, "Created directory for offline map in " + mOfflineMapDirectory.getPath());
-    } else if (mOfflineMapDirectory.exists()) {
-      Log.i(TAG,
-          "Did not create a new offline map directory, one already exists at " + mOfflineMapDirectory.getPath());
-    } else {
-      Log.e(TAG, "Error creating offline map directory at: " + mOfflineMapDirectory.getPath());
-    }
 
     // set the authentication manager to handle challenges when accessing the portal
     // Note: The sample data is publicly available, so you shouldn't be challenged
@@ -108,6 +98,20 @@ public class MainActivity extends AppCompatActivity implements ProgressDialogFra
     PortalItem portalItem = new PortalItem(portal, getString(R.string.naperville_water_network_url));
     // create an offline map task from the portal item
     mOfflineMapTask = new OfflineMapTask(portalItem);
+    // create a downloader which fetches several areas at once, storing tile packages they share only once
+    mPreplannedAreaDownloader = new PreplannedAreaDownloader(mOfflineMapTask, mOfflineMapDirectory,
+        new File(getCacheDir() + getString(R.string.tile_package_store_dir)), MAX_CONCURRENT_DOWNLOADS);
+    // delete any previous instances of downloaded maps, in the background
+    mPreplannedAreaDownloader.deleteAll();
+    if (mOfflineMapDirectory.mkdirs()) {
+      Log.i(TAG, "Created directory for offline map in " + mOfflineMapDirectory.getPath());
+    } else if (mOfflineMapDirectory.exists()) {
+      Log.i(TAG,
+          "Did not create a new offline map directory, one already exists at " + mOfflineMapDirectory.getPath());
+    } else {
+      Log.e(TAG, "Error creating offline map directory at: " + mOfflineMapDirectory.getPath());
+    }
+
     // create a map with the portal item
     ArcGISMap onlineMap = new ArcGISMap(portalItem);
     // show the map
@@ -134,6 +138,9 @@ public class MainActivity extends AppCompatActivity implements ProgressDialogFra
     mDownloadButton = findViewById(R.id.downloadButton);
     mDownloadButton.setEnabled(false);
     mDownloadButton.setOnClickListener(view -> downloadPreplannedArea());
+    // create download all button
+    mDownloadAllButton = findViewById(R.id.downloadAllButton);
+    mDownloadAllButton.setOnClickListener(view -> downloadPreplannedAreas(mPreplannedMapAreas));
   }
 
   /**
@@ -141,80 +148,91 @@ public class MainActivity extends AppCompatActivity implements ProgressDialogFra
    */
   private void downloadPreplannedArea() {
     if (mSelectedPreplannedMapArea != null) {
-      // create default download parameters from the offline map task
-      ListenableFuture<DownloadPreplannedOfflineMapParameters> offlineMapParametersFuture = mOfflineMapTask
-          .createDefaultDownloadPreplannedOfflineMapParametersAsync(mSelectedPreplannedMapArea);
-      offlineMapParametersFuture.addDoneListener(() -> {
-        try {
-          // get the offline map parameters
-          DownloadPreplannedOfflineMapParameters offlineMapParameters = offlineMapParametersFuture.get();
-          // set the update mode to not receive updates
-          offlineMapParameters.setUpdateMode(PreplannedUpdateMode.NO_UPDATES);
-          // create a job to download the preplanned offline map to a temporary directory
-          mDownloadPreplannedOfflineMapJob = mOfflineMapTask.downloadPreplannedOfflineMap(offlineMapParameters,
-              mOfflineMapDirectory.getPath() + File.separator + mSelectedPreplannedMapArea.getPortalItem().getTitle());
-          // start the job
-          mDownloadPreplannedOfflineMapJob.start();
-
-          // show progress dialog for download, includes tracking progress
-          showProgressDialog();
-
-          // when the job finishes
-          mDownloadPreplannedOfflineMapJob.addJobDoneListener(() -> {
-            dismissDialog();
-            // if there's a result from the download preplanned offline map job
-            if (mDownloadPreplannedOfflineMapJob.getStatus() == Job.Status.SUCCEEDED) {
-              DownloadPreplannedOfflineMapResult downloadPreplannedOfflineMapResult = mDownloadPreplannedOfflineMapJob
-                  .getResult();
-              if (mDownloadPreplannedOfflineMapJob != null && !downloadPreplannedOfflineMapResult.hasErrors()) {
-                // get the offline map
-                ArcGISMap offlineMap = downloadPreplannedOfflineMapResult.getOfflineMap();
-                // add it to the map view
-                mMapView.setMap(offlineMap);
-                // add the map name to the list view of downloaded map areas
-                mDownloadedMapAreaNames.add(offlineMap.getItem().getTitle());
-                // select the downloaded map area
-                mDownloadedMapAreasListView.setItemChecked(mDownloadedMapAreaNames.size() - 1, true);
-                mDownloadedMapAreasAdapter.notifyDataSetChanged();
-                // de-select the area in the preplanned areas list view
-                mPreplannedAreasListView.clearChoices();
-                mPreplannedMapAreasAdapter.notifyDataSetChanged();
-                // add the offline map to a list of downloaded map areas
-                mDownloadedMapAreas.add(offlineMap);
-                // hide the area of interest graphics
-                mAreasOfInterestGraphicsOverlay.setVisible(false);
-                // disable the download button
-                mDownloadButton.setEnabled(false);
-              } else {
-                // collect the layer and table errors into a single alert message
-                StringBuilder stringBuilder = new StringBuilder("Errors: ");
-                Map<Layer, ArcGISRuntimeException> layerErrors = downloadPreplannedOfflineMapResult.getLayerErrors();
-                for (Map.Entry<Layer, ArcGISRuntimeException> layer : layerErrors.entrySet()) {
-                  stringBuilder.append("Layer: ").append(layer.getKey().getName()).append(". Exception: ")
-                      .append(layer.getValue().getMessage()).append(". ");
-                }
-                Map<FeatureTable, ArcGISRuntimeException> tableErrors = downloadPreplannedOfflineMapResult
-                    .getTableErrors();
-                for (Map.Entry<FeatureTable, ArcGISRuntimeException> table : tableErrors.entrySet()) {
-                  stringBuilder.append("Table: ").append(table.getKey().getTableName()).append(". Exception: ")
-                      .append(table.getValue().getMessage()).append(". ");
-                }
-                String error = "One or more errors occurred with the Offline Map Result: " + stringBuilder;
-                Toast.makeText(this, error, Toast.LENGTH_LONG).show();
-                Log.e(TAG, error);
-              }
-            } else {
-              String error = "Job finished with an error: " + mDownloadPreplannedOfflineMapJob.getError();
-              Toast.makeText(this, error, Toast.LENGTH_LONG).show();
-              Log.e(TAG, error);
-            }
-          });
-        } catch (InterruptedException | ExecutionException e) {
-          String error = "Failed to generate default parameters for the download job: " + e.getCause().getMessage();
-          Toast.makeText(this, error, Toast.LENGTH_LONG).show();
-          Log.e(TAG, error);
+      downloadPreplannedAreas(Collections.singletonList(mSelectedPreplannedMapArea));
+    }
+  }
+
+  /**
+   * Download preplanned map areas, several at the same time, to a temporary directory. Each downloaded area is added
+   * to the list view of downloaded areas.
+   *
+   * @param preplannedMapAreas the areas to download
+   */
+  private void downloadPreplannedAreas(List<PreplannedMapArea> preplannedMapAreas) {
+    if (mPreplannedAreaDownloader.isDownloading()) {
+      return;
+    }
+    // show progress dialog for download, includes tracking progress
+    showProgressDialog();
+    mPreplannedAreaDownloader.download(preplannedMapAreas, new PreplannedAreaDownloader.Listener() {
+      @Override public void onProgress(int progress) {
+        if (findProgressDialogFragment() != null) {
+          findProgressDialogFragment().setProgress(progress);
         }
-      });
+      }
+
+      @Override public void onAreaDownloaded(PreplannedMapArea area, DownloadPreplannedOfflineMapResult result) {
+        onPreplannedAreaDownloaded(area, result);
+      }
+
+      @Override public void onAreaFailed(PreplannedMapArea area, String error) {
+        Toast.makeText(MainActivity.this, error, Toast.LENGTH_LONG).show();
+        Log.e(TAG, error);
+      }
+
+      @Override public void onBatchDone() {
+        dismissDialog();
+        Log.i(TAG, "Shared tile packages not stored again: " + mPreplannedAreaDownloader.getBytesDeduplicated()
+            + " bytes");
+      }
+    });
+  }
+
+  /**
+   * Show a downloaded preplanned map area, or the errors in downloading it.
+   *
+   * @param preplannedMapArea the downloaded area
+   * @param downloadPreplannedOfflineMapResult the result of the download preplanned offline map job
+   */
+  private void onPreplannedAreaDownloaded(PreplannedMapArea preplannedMapArea,
+      DownloadPreplannedOfflineMapResult downloadPreplannedOfflineMapResult) {
+    if (!downloadPreplannedOfflineMapResult.hasErrors()) {
+      // get the offline map
+      ArcGISMap offlineMap = downloadPreplannedOfflineMapResult.getOfflineMap();
+      // add it to the map view
+      mMapView.setMap(offlineMap);
+      // add the map name to the list view of downloaded map areas
+      mDownloadedMapAreaNames.add(offlineMap.getItem().getTitle());
+      // select the downloaded map area
+      mDownloadedMapAreasListView.setItemChecked(mDownloadedMapAreaNames.size() - 1, true);
+      mDownloadedMapAreasAdapter.notifyDataSetChanged();
+      // de-select the area in the preplanned areas list view
+      mPreplannedAreasListView.clearChoices();
+      mPreplannedMapAreasAdapter.notifyDataSetChanged();
+      // add the offline map to a list of downloaded map areas
+      mDownloadedMapAreas.add(offlineMap);
+      mDownloadedPreplannedMapAreas.add(preplannedMapArea);
+      // hide the area of interest graphics
+      mAreasOfInterestGraphicsOverlay.setVisible(false);
+      // disable the download button
+      mDownloadButton.setEnabled(false);
+    } else {
+      // collect the layer and table errors into a single alert message
+      StringBuilder stringBuilder = new StringBuilder("Errors: ");
+      Map<Layer, ArcGISRuntimeException> layerErrors = downloadPreplannedOfflineMapResult.getLayerErrors();
+      for (Map.Entry<Layer, ArcGISRuntimeException> layer : layerErrors.entrySet()) {
+        stringBuilder.append("Layer: ").append(layer.getKey().getName()).append(". Exception: ")
+            .append(layer.getValue().getMessage()).append(". ");
+      }
+      Map<FeatureTable, ArcGISRuntimeException> tableErrors = downloadPreplannedOfflineMapResult
+          .getTableErrors();
+      for (Map.Entry<FeatureTable, ArcGISRuntimeException> table : tableErrors.entrySet()) {
+        stringBuilder.append("Table: ").append(table.getKey().getTableName()).append(". Exception: ")
+            .append(table.getValue().getMessage()).append(". ");
+      }
+      String error = "One or more errors occurred with the Offline Map Result: " + stringBuilder;
+      Toast.makeText(this, error, Toast.LENGTH_LONG).show();
+      Log.e(TAG, error);
     }
   }
 
@@ -265,8 +283,7 @@ public class MainActivity extends AppCompatActivity implements ProgressDialogFra
                 .getExtent();
             mMapView.setViewpointAsync(new Viewpoint(areaOfInterest), 1.5f);
             // enable download button only for those map areas which have not been downloaded already
-            if (new File(getCacheDir() + getString(R.string.preplanned_offline_map_dir) + File.separator
-                + mSelectedPreplannedMapArea.getPortalItem().getTitle()).exists()) {
+            if (mPreplannedAreaDownloader.getAreaDirectory(mSelectedPreplannedMapArea).exists()) {
               mDownloadButton.setEnabled(false);
             } else {
               mDownloadButton.setEnabled(true);
@@ -301,6 +318,19 @@ public class MainActivity extends AppCompatActivity implements ProgressDialogFra
       // hide the graphics overlays
       mAreasOfInterestGraphicsOverlay.setVisible(false);
     });
+    // on long click, delete the downloaded map area in the background
+    mDownloadedMapAreasListView.setOnItemLongClickListener((adapterView, view, i, l) -> {
+      if (mMapView.getMap() == mDownloadedMapAreas.get(i)) {
+        mMapView.setMap(null);
+      }
+      mPreplannedAreaDownloader.deleteArea(mDownloadedPreplannedMapAreas.get(i));
+      mDownloadedMapAreas.remove(i);
+      mDownloadedPreplannedMapAreas.remove(i);
+      mDownloadedMapAreaNames.remove(i);
+      mDownloadedMapAreasListView.clearChoices();
+      mDownloadedMapAreasAdapter.notifyDataSetChanged();
+      return true;
+    });
   }
 
   /**
@@ -320,16 +350,9 @@ public class MainActivity extends AppCompatActivity implements ProgressDialogFra
     // show progress of the download preplanned offline map job in a dialog
     if (findProgressDialogFragment() == null) {
       ProgressDialogFragment progressDialogFragment = ProgressDialogFragment
-          .newInstance("Download preplanned offline map job", "Downloading the requested preplanned map area...",
+          .newInstance("Download preplanned offline map job", "Downloading the requested preplanned map areas...",
               "Cancel");
       progressDialogFragment.show(getSupportFragmentManager(), ProgressDialogFragment.class.getSimpleName());
-
-      // track progress
-      mDownloadPreplannedOfflineMapJob.addProgressChangedListener(() -> {
-        if (findProgressDialogFragment() != null) {
-          findProgressDialogFragment().setProgress(mDownloadPreplannedOfflineMapJob.getProgress());
-        }
-      });
     }
   }
 
@@ -344,34 +367,10 @@ public class MainActivity extends AppCompatActivity implements ProgressDialogFra
   }
 
   /**
-   * Callback to cancel the download preplanned offline map job on progress dialog cancel button click.
+   * Callback to cancel the download preplanned offline map jobs on progress dialog cancel button click.
    */
   @Override public void onProgressDialogDismiss() {
-    if (mDownloadPreplannedOfflineMapJob != null) {
-      mDownloadPreplannedOfflineMapJob.cancel();
-    }
-  }
-
-  /**
-   * Recursively deletes all files in the given directory.
-   *
-   * @param dir to delete
-   */
-  private static boolean deleteDirectory(File dir) {
-    if (dir != null && dir.isDirectory()) {
-      String[] children = dir.list();
-      for (String child : children) {
-        boolean success = deleteDirectory(new File(dir, child));
-        if (!success) {
-          return false;
-        }
-      }
-      return dir.delete();
-    } else if (dir != null && dir.isFile()) {
-      return dir.delete();
-    } else {
-      return false;
-    }
+    mPreplannedAreaDownloader.cancel();
   }
 
   @Override
@@ -389,6 +388,7 @@ public class MainActivity extends AppCompatActivity implements ProgressDialogFra
   @Override
   protected void onDestroy() {
     mMapView.dispose();
+    mPreplannedAreaDownloader.shutdown();
     super.onDestroy();
   }
 }
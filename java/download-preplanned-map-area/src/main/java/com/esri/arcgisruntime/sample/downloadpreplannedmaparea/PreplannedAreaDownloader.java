@@ -0,0 +1,405 @@
+/*
+ *  Copyright 2021 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.esri.arcgisruntime.sample.downloadpreplannedmaparea;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.util.Log;
+
+import com.esri.arcgisruntime.concurrent.Job;
+import com.esri.arcgisruntime.concurrent.ListenableFuture;
+import com.esri.arcgisruntime.tasks.offlinemap.DownloadPreplannedOfflineMapJob;
+import com.esri.arcgisruntime.tasks.offlinemap.DownloadPreplannedOfflineMapParameters;
+import com.esri.arcgisruntime.tasks.offlinemap.DownloadPreplannedOfflineMapResult;
+import com.esri.arcgisruntime.tasks.offlinemap.OfflineMapTask;
+import com.esri.arcgisruntime.tasks.offlinemap.PreplannedMapArea;
+import com.esri.arcgisruntime.tasks.offlinemap.PreplannedUpdateMode;
+
+/**
+ * Downloads several preplanned map areas at the same time, storing tile packages shared between areas only once.
+ *
+ * Each area is downloaded into its own directory. Once it has finished, every tile package in it is checksummed and
+ * kept in a content-addressed store, named by its SHA-256, with the area's copy replaced by a hard link to the stored
+ * one. Identical basemaps downloaded for different areas so take up space once.
+ *
+ * The hard link count of a stored package is its reference count: deleting an area removes its links, and a stored
+ * package that no area links to any more is deleted with it. Deletion runs in the background, after the area's
+ * directory has been moved out of the way, so it doesn't block the main thread.
+ */
+public class PreplannedAreaDownloader {
+
+  private static final String TAG = PreplannedAreaDownloader.class.getSimpleName();
+
+  private static final String[] TILE_PACKAGE_EXTENSIONS = { ".tpk", ".tpkx", ".vtpk" };
+  private static final String DELETED_SUFFIX = ".deleted-";
+
+  private final OfflineMapTask mOfflineMapTask;
+  private final File mOfflineMapDirectory;
+  private final File mStoreDirectory;
+  private final int mMaxConcurrentDownloads;
+  // checksums and deletion run in order on one thread, so the store is never changed concurrently
+  private final ExecutorService mFileExecutor = Executors.newSingleThreadExecutor();
+  private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+  private final ArrayDeque<PreplannedMapArea> mPendingAreas = new ArrayDeque<>();
+  private final Map<PreplannedMapArea, DownloadPreplannedOfflineMapJob> mRunningJobs = new HashMap<>();
+  // areas cancelled while their job parameters were still being created, so their jobs mustn't be started
+  private final Set<PreplannedMapArea> mCancelledAreas = new HashSet<>();
+  private int mBatchSize;
+  private int mFinishedCount;
+  private long mBytesDeduplicated;
+  private Listener mListener;
+
+  /**
+   * Receives the progress of a batch of downloads on the main thread.
+   */
+  public interface Listener {
+
+    /**
+     * @param progress overall progress of the batch, from 0 to 100
+     */
+    void onProgress(int progress);
+
+    void onAreaDownloaded(PreplannedMapArea area, DownloadPreplannedOfflineMapResult result);
+
+    void onAreaFailed(PreplannedMapArea area, String error);
+
+    void onBatchDone();
+  }
+
+  /**
+   * @param offlineMapTask the task to download areas with
+   * @param offlineMapDirectory where each area's directory is created
+   * @param storeDirectory where shared tile packages are kept, on the same filesystem as the offline map directory
+   * @param maxConcurrentDownloads how many areas are downloaded at the same time
+   */
+  public PreplannedAreaDownloader(OfflineMapTask offlineMapTask, File offlineMapDirectory, File storeDirectory,
+      int maxConcurrentDownloads) {
+    mOfflineMapTask = offlineMapTask;
+    mOfflineMapDirectory = offlineMapDirectory;
+    mStoreDirectory = storeDirectory;
+    mMaxConcurrentDownloads = maxConcurrentDownloads;
+  }
+
+  /**
+   * @param area a preplanned map area
+   * @return the directory the area is downloaded to
+   */
+  public File getAreaDirectory(PreplannedMapArea area) {
+    return new File(mOfflineMapDirectory, area.getPortalItem().getTitle());
+  }
+
+  public boolean isDownloading() {
+    return mBatchSize > 0;
+  }
+
+  /**
+   * @return bytes of tile packages that were already in the store, so are not stored again
+   */
+  public long getBytesDeduplicated() {
+    return mBytesDeduplicated;
+  }
+
+  /**
+   * Downloads a batch of areas, a few at a time. Areas already downloaded are skipped.
+   *
+   * @param areas the areas to download
+   * @param listener receives progress and results on the main thread
+   */
+  public void download(List<PreplannedMapArea> areas, Listener listener) {
+    mListener = listener;
+    for (PreplannedMapArea area : areas) {
+      if (!getAreaDirectory(area).exists() && !mPendingAreas.contains(area) && !mRunningJobs.containsKey(area)) {
+        mPendingAreas.add(area);
+        mBatchSize++;
+      }
+    }
+    if (mBatchSize == 0) {
+      listener.onBatchDone();
+      return;
+    }
+    startPendingDownloads();
+  }
+
+  /**
+   * Cancels every running and pending download.
+   */
+  public void cancel() {
+    mPendingAreas.clear();
+    for (PreplannedMapArea area : new ArrayList<>(mRunningJobs.keySet())) {
+      DownloadPreplannedOfflineMapJob job = mRunningJobs.get(area);
+      if (job != null) {
+        job.cancel();
+      } else {
+        // the job is started once its parameters are created, unless it is cancelled by then
+        mCancelledAreas.add(area);
+      }
+    }
+  }
+
+  /**
+   * Deletes a downloaded area in the background, along with any stored tile packages no other area uses.
+   *
+   * @param area the area to delete
+   */
+  public void deleteArea(PreplannedMapArea area) {
+    deleteInBackground(getAreaDirectory(area));
+  }
+
+  /**
+   * Deletes every downloaded area and the store in the background, including any left behind by a previous run.
+   */
+  public void deleteAll() {
+    File parent = mOfflineMapDirectory.getParentFile();
+    deleteInBackground(mOfflineMapDirectory);
+    deleteInBackground(mStoreDirectory);
+    // directories moved aside for deletion before the app last stopped
+    File[] children = parent != null ? parent.listFiles() : null;
+    if (children != null) {
+      for (File child : children) {
+        if (child.getName().contains(DELETED_SUFFIX)) {
+          mFileExecutor.execute(() -> deleteRecursively(child));
+        }
+      }
+    }
+  }
+
+  public void shutdown() {
+    cancel();
+    mFileExecutor.shutdown();
+  }
+
+  private void startPendingDownloads() {
+    while (mRunningJobs.size() < mMaxConcurrentDownloads && !mPendingAreas.isEmpty()) {
+      PreplannedMapArea area = mPendingAreas.poll();
+      // reserve the slot while the parameters are created
+      mRunningJobs.put(area, null);
+      ListenableFuture<DownloadPreplannedOfflineMapParameters> parametersFuture = mOfflineMapTask
+          .createDefaultDownloadPreplannedOfflineMapParametersAsync(area);
+      parametersFuture.addDoneListener(() -> {
+        if (mCancelledAreas.remove(area)) {
+          fail(area, "Download cancelled");
+          return;
+        }
+        try {
+          DownloadPreplannedOfflineMapParameters parameters = parametersFuture.get();
+          // set the update mode to not receive updates
+          parameters.setUpdateMode(PreplannedUpdateMode.NO_UPDATES);
+          DownloadPreplannedOfflineMapJob job = mOfflineMapTask.downloadPreplannedOfflineMap(parameters,
+              getAreaDirectory(area).getPath());
+          mRunningJobs.put(area, job);
+          job.addProgressChangedListener(this::reportProgress);
+          job.addJobDoneListener(() -> onJobDone(area, job));
+          job.start();
+        } catch (InterruptedException | ExecutionException e) {
+          fail(area, "Failed to generate default parameters for the download job: " + e.getMessage());
+        }
+      });
+    }
+  }
+
+  private void onJobDone(PreplannedMapArea area, DownloadPreplannedOfflineMapJob job) {
+    if (job.getStatus() != Job.Status.SUCCEEDED) {
+      fail(area, "Job finished with an error: " + job.getError());
+      return;
+    }
+    DownloadPreplannedOfflineMapResult result = job.getResult();
+    // deduplicate the area's tile packages before reporting it, so the area is only seen once it's in its final form
+    File areaDirectory = getAreaDirectory(area);
+    mFileExecutor.execute(() -> {
+      long bytes = deduplicate(areaDirectory);
+      mMainHandler.post(() -> {
+        mBytesDeduplicated += bytes;
+        finish(area, () -> mListener.onAreaDownloaded(area, result));
+      });
+    });
+  }
+
+  /**
+   * Reports an area that wasn't downloaded, deleting anything a failed or cancelled job left in its directory in the
+   * background, since areas whose directory exists are skipped as already downloaded.
+   */
+  private void fail(PreplannedMapArea area, String error) {
+    deleteInBackground(getAreaDirectory(area));
+    finish(area, () -> mListener.onAreaFailed(area, error));
+  }
+
+  private void finish(PreplannedMapArea area, Runnable report) {
+    mRunningJobs.remove(area);
+    mFinishedCount++;
+    report.run();
+    reportProgress();
+    if (mRunningJobs.isEmpty() && mPendingAreas.isEmpty()) {
+      mBatchSize = 0;
+      mFinishedCount = 0;
+      mListener.onBatchDone();
+    } else {
+      startPendingDownloads();
+    }
+  }
+
+  private void reportProgress() {
+    if (mBatchSize == 0) {
+      return;
+    }
+    int progress = mFinishedCount * 100;
+    for (DownloadPreplannedOfflineMapJob job : mRunningJobs.values()) {
+      if (job != null) {
+        progress += job.getProgress();
+      }
+    }
+    mListener.onProgress(progress / mBatchSize);
+  }
+
+  /**
+   * Replaces each tile package in the directory with a hard link to the stored package with the same checksum,
+   * storing it first if there is none.
+   *
+   * @return bytes of tile packages that were already stored
+   */
+  private long deduplicate(File directory) {
+    long bytesDeduplicated = 0;
+    List<File> tilePackages = new ArrayList<>();
+    findTilePackages(directory, tilePackages);
+    if (!tilePackages.isEmpty() && !mStoreDirectory.exists() && !mStoreDirectory.mkdirs()) {
+      Log.e(TAG, "Failed to create " + mStoreDirectory);
+      return 0;
+    }
+    for (File tilePackage : tilePackages) {
+      try {
+        String name = tilePackage.getName();
+        File stored = new File(mStoreDirectory, checksum(tilePackage) + name.substring(name.lastIndexOf('.')));
+        if (stored.exists()) {
+          // link the stored package next to the area's copy, then swap it in atomically
+          File link = new File(tilePackage.getPath() + ".link");
+          Os.link(stored.getPath(), link.getPath());
+          Os.rename(link.getPath(), tilePackage.getPath());
+          bytesDeduplicated += stored.length();
+        } else {
+          Os.link(tilePackage.getPath(), stored.getPath());
+        }
+      } catch (IOException | ErrnoException e) {
+        // the area keeps its own copy of the package
+        Log.w(TAG, "Failed to deduplicate " + tilePackage + ": " + e.getMessage());
+      }
+    }
+    return bytesDeduplicated;
+  }
+
+  private void deleteInBackground(File directory) {
+    if (!directory.exists()) {
+      return;
+    }
+    // moving the directory aside is instant, so it can be recreated straight away
+    File deleted = new File(directory.getPath() + DELETED_SUFFIX + System.nanoTime());
+    File target = directory.renameTo(deleted) ? deleted : directory;
+    mFileExecutor.execute(() -> {
+      deleteRecursively(target);
+      collectGarbage();
+    });
+  }
+
+  /**
+   * Deletes stored packages that are no longer linked from any area.
+   */
+  private void collectGarbage() {
+    File[] stored = mStoreDirectory.listFiles();
+    if (stored == null) {
+      return;
+    }
+    for (File file : stored) {
+      try {
+        if (Os.stat(file.getPath()).st_nlink <= 1 && !file.delete()) {
+          Log.w(TAG, "Failed to delete " + file);
+        }
+      } catch (ErrnoException e) {
+        Log.w(TAG, "Failed to check references to " + file + ": " + e.getMessage());
+      }
+    }
+  }
+
+  private static void findTilePackages(File directory, List<File> tilePackages) {
+    File[] children = directory.listFiles();
+    if (children == null) {
+      return;
+    }
+    for (File child : children) {
+      if (child.isDirectory()) {
+        findTilePackages(child, tilePackages);
+      } else {
+        for (String extension : TILE_PACKAGE_EXTENSIONS) {
+          if (child.getName().toLowerCase(Locale.US).endsWith(extension)) {
+            tilePackages.add(child);
+            break;
+          }
+        }
+      }
+    }
+  }
+
+  private static String checksum(File file) throws IOException {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      byte[] buffer = new byte[64 * 1024];
+      try (InputStream in = new FileInputStream(file)) {
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+          digest.update(buffer, 0, read);
+        }
+      }
+      StringBuilder hex = new StringBuilder();
+      for (byte b : digest.digest()) {
+        hex.append(String.format(Locale.US, "%02x", b));
+      }
+      return hex.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private static void deleteRecursively(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteRecursively(child);
+      }
+    }
+    if (file.exists() && !file.delete()) {
+      Log.w(TAG, "Failed to delete " + file);
+    }
+  }
+}
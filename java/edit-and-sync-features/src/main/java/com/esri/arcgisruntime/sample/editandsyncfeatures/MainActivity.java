@@ -56,13 +56,17 @@ import com.esri.arcgisruntime.tasks.geodatabase.GenerateGeodatabaseJob;
 import com.esri.arcgisruntime.tasks.geodatabase.GenerateGeodatabaseParameters;
 import com.esri.arcgisruntime.tasks.geodatabase.GeodatabaseSyncTask;
 import com.esri.arcgisruntime.tasks.geodatabase.SyncGeodatabaseJob;
-import com.esri.arcgisruntime.tasks.geodatabase.SyncGeodatabaseParameters;
-import com.esri.arcgisruntime.tasks.geodatabase.SyncLayerOption;
 
 public class MainActivity extends AppCompatActivity {
 
   private final String TAG = MainActivity.class.getSimpleName();
 
+  // sync by itself after this many edits, or once the oldest unsynced edit is this old
+  private static final long SYNC_PENDING_EDITS_THRESHOLD = 10;
+  private static final long SYNC_PENDING_TIME_THRESHOLD_MILLIS = 5 * 60 * 1000;
+  // split syncs with more edits than this into a job per layer
+  private static final long MAX_EDITS_PER_SYNC_JOB = 100;
+
   private Button mGeodatabaseButton;
 
   private MapView mMapView;
@@ -70,6 +74,7 @@ public class MainActivity extends AppCompatActivity {
   // objects that implement Loadable must be class fields to prevent being garbage collected before loading
   private GeodatabaseSyncTask mGeodatabaseSyncTask;
   private Geodatabase mGeodatabase;
+  private SyncOrchestrator mSyncOrchestrator;
 
   private List<Feature> mSelectedFeatures;
   private MainActivity.EditState mCurrentEditState;
@@ -161,6 +166,7 @@ public class MainActivity extends AppCompatActivity {
                   // add geodatabase layer to the map as a feature layer and make it selectable
                   mMapView.getMap().getOperationalLayers().add(geodatabaseFeatureLayer);
                   mGeodatabaseButton.setVisibility(View.GONE);
+                  createSyncOrchestrator();
                   Log.i(TAG, "Local geodatabase stored at: " + localGeodatabasePath);
                 } else {
                   Log.e(TAG, "Error loading geodatabase: " + mGeodatabase.getLoadError().getMessage());
@@ -188,36 +194,45 @@ public class MainActivity extends AppCompatActivity {
   }
 
   /**
-   * Syncs changes made on either the local or web service geodatabase with each other.
+   * Creates a sync orchestrator which syncs the geodatabase once enough edits are pending, or once they have been
+   * pending long enough.
    */
-  private void syncGeodatabase() {
-    // create parameters for the sync task
-    SyncGeodatabaseParameters syncGeodatabaseParameters = new SyncGeodatabaseParameters();
-    syncGeodatabaseParameters.setSyncDirection(SyncGeodatabaseParameters.SyncDirection.BIDIRECTIONAL);
-    syncGeodatabaseParameters.setRollbackOnFailure(false);
-    // get the layer ID for each feature table in the geodatabase, then add to the sync job
-    for (GeodatabaseFeatureTable geodatabaseFeatureTable : mGeodatabase.getGeodatabaseFeatureTables()) {
-      long serviceLayerId = geodatabaseFeatureTable.getServiceLayerId();
-      SyncLayerOption syncLayerOption = new SyncLayerOption(serviceLayerId);
-      syncGeodatabaseParameters.getLayerOptions().add(syncLayerOption);
-    }
-
-    final SyncGeodatabaseJob syncGeodatabaseJob = mGeodatabaseSyncTask
-        .syncGeodatabase(syncGeodatabaseParameters, mGeodatabase);
+  private void createSyncOrchestrator() {
+    mSyncOrchestrator = new SyncOrchestrator(mGeodatabaseSyncTask, mGeodatabase, new SyncOrchestrator.Listener() {
+      @Override public void onPendingEditsChanged(long pendingEdits) {
+        if (pendingEdits > 0 && mCurrentEditState != EditState.NotReady) {
+          mGeodatabaseButton.setText(getString(R.string.sync_pending_edits_button_text, pendingEdits));
+        }
+      }
 
-    syncGeodatabaseJob.start();
+      @Override public void onSyncJobStarted(SyncGeodatabaseJob job) {
+        createProgressDialog(job);
+      }
 
-    createProgressDialog(syncGeodatabaseJob);
+      @Override public void onSyncCompleted(SyncOrchestrator.SyncMetrics metrics) {
+        Toast.makeText(MainActivity.this, "Sync complete: " + metrics, Toast.LENGTH_LONG).show();
+        if (mSyncOrchestrator.getPendingEdits() == 0) {
+          mGeodatabaseButton.setVisibility(View.INVISIBLE);
+        }
+      }
 
-    syncGeodatabaseJob.addJobDoneListener(() -> {
-      if (syncGeodatabaseJob.getStatus() == Job.Status.SUCCEEDED) {
-        Toast.makeText(this, "Sync complete", Toast.LENGTH_SHORT).show();
-        mGeodatabaseButton.setVisibility(View.INVISIBLE);
-      } else {
-        Log.e(TAG, "Database did not sync correctly!");
-        Toast.makeText(this, "Database did not sync correctly!", Toast.LENGTH_LONG).show();
+      @Override public void onSyncFailed(String error) {
+        Log.e(TAG, error);
+        Toast.makeText(MainActivity.this, error, Toast.LENGTH_LONG).show();
       }
     });
+    mSyncOrchestrator.setThresholds(SYNC_PENDING_EDITS_THRESHOLD, SYNC_PENDING_TIME_THRESHOLD_MILLIS);
+    mSyncOrchestrator.setMaxEditsPerJob(MAX_EDITS_PER_SYNC_JOB);
+    mSyncOrchestrator.setAutoSync(true);
+  }
+
+  /**
+   * Syncs changes made on either the local or web service geodatabase with each other.
+   */
+  private void syncGeodatabase() {
+    if (mSyncOrchestrator != null) {
+      mSyncOrchestrator.syncNow();
+    }
   }
 
   /**
@@ -287,7 +302,10 @@ public class MainActivity extends AppCompatActivity {
   private void moveSelectedFeatureTo(Point point) {
     for (Feature feature : mSelectedFeatures) {
       feature.setGeometry(point);
-      feature.getFeatureTable().updateFeatureAsync(feature);
+      GeodatabaseFeatureTable featureTable = (GeodatabaseFeatureTable) feature.getFeatureTable();
+      ListenableFuture<Void> updateFuture = featureTable.updateFeatureAsync(feature);
+      // let the sync orchestrator recount the table's pending edits once the update is applied
+      updateFuture.addDoneListener(() -> mSyncOrchestrator.notifyEdited(featureTable));
     }
     mSelectedFeatures.clear();
     mCurrentEditState = MainActivity.EditState.Ready;
@@ -322,6 +340,9 @@ public class MainActivity extends AppCompatActivity {
   }
 
   @Override protected void onDestroy() {
+    if (mSyncOrchestrator != null) {
+      mSyncOrchestrator.shutdown();
+    }
     mMapView.dispose();
     super.onDestroy();
   }
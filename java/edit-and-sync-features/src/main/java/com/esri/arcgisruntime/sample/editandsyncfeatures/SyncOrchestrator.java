@@ -0,0 +1,388 @@
+/* Copyright 2021 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgisruntime.sample.editandsyncfeatures;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import android.net.TrafficStats;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.esri.arcgisruntime.concurrent.Job;
+import com.esri.arcgisruntime.concurrent.ListenableFuture;
+import com.esri.arcgisruntime.data.FeatureEditResult;
+import com.esri.arcgisruntime.data.Geodatabase;
+import com.esri.arcgisruntime.data.GeodatabaseFeatureTable;
+import com.esri.arcgisruntime.tasks.geodatabase.GeodatabaseSyncTask;
+import com.esri.arcgisruntime.tasks.geodatabase.SyncGeodatabaseJob;
+import com.esri.arcgisruntime.tasks.geodatabase.SyncGeodatabaseParameters;
+import com.esri.arcgisruntime.tasks.geodatabase.SyncLayerOption;
+import com.esri.arcgisruntime.tasks.geodatabase.SyncLayerResult;
+
+/**
+ * Decides when to sync a geodatabase and splits large syncs into smaller jobs.
+ *
+ * The number of local edits pending in each table is recounted whenever the app reports an edit. A sync starts once
+ * the pending edits reach a count threshold, or once the oldest pending edit reaches an age threshold. When more edits
+ * are pending than one job should upload, the sync is split into one job per table, run one after another, so no
+ * single job has to upload everything at once. If a job for one table fails, for example because the geodatabase
+ * can't be synced per layer, the tables left are synced in a single job instead.
+ *
+ * Edits made while a sync runs keep their age, so they still trigger the next sync in time. After a failed sync the
+ * age threshold is checked again once it has passed once more, so automatic syncs carry on.
+ *
+ * Each sync reports the bytes the app sent and received while it ran, its duration and the number of edits the server
+ * rejected.
+ */
+public class SyncOrchestrator {
+
+  private static final String TAG = SyncOrchestrator.class.getSimpleName();
+
+  // how often the age threshold is checked again while a sync is still running
+  private static final long SYNC_RUNNING_RECHECK_MILLIS = 30 * 1000;
+
+  private final GeodatabaseSyncTask mGeodatabaseSyncTask;
+  private final Geodatabase mGeodatabase;
+  private final Handler mHandler = new Handler(Looper.getMainLooper());
+  private final Map<GeodatabaseFeatureTable, Long> mPendingEdits = new HashMap<>();
+  private final Runnable mTimeThresholdCheck = this::checkThresholds;
+
+  private long mMaxPendingEdits = 50;
+  private long mMaxPendingMillis = 15 * 60 * 1000;
+  private long mMaxEditsPerJob = 200;
+  private long mOldestPendingEditTime = -1;
+  // the oldest edit made since the running sync started, which that sync may not upload
+  private long mOldestEditDuringSync = -1;
+  private boolean mAutoSync;
+  private SyncGeodatabaseJob mCurrentJob;
+  private Listener mListener;
+
+  /**
+   * Receives pending edit counts and sync results on the main thread.
+   */
+  public interface Listener {
+
+    void onPendingEditsChanged(long pendingEdits);
+
+    void onSyncJobStarted(SyncGeodatabaseJob job);
+
+    void onSyncCompleted(SyncMetrics metrics);
+
+    void onSyncFailed(String error);
+  }
+
+  /**
+   * What a sync transferred, how long it took and how many edits the server rejected.
+   */
+  public static class SyncMetrics {
+
+    private int mJobCount;
+    private long mBytesUploaded;
+    private long mBytesDownloaded;
+    private long mElapsedMillis;
+    private int mEditResults;
+    private int mRejectedEdits;
+
+    public int getJobCount() {
+      return mJobCount;
+    }
+
+    /**
+     * @return bytes sent by the app while the sync ran, or -1 if the device doesn't report traffic
+     */
+    public long getBytesUploaded() {
+      return mBytesUploaded;
+    }
+
+    /**
+     * @return bytes received by the app while the sync ran, or -1 if the device doesn't report traffic
+     */
+    public long getBytesDownloaded() {
+      return mBytesDownloaded;
+    }
+
+    /**
+     * @return time from the first job starting to the last job finishing, most of which is spent on the server
+     */
+    public long getElapsedMillis() {
+      return mElapsedMillis;
+    }
+
+    public int getEditResults() {
+      return mEditResults;
+    }
+
+    /**
+     * @return edits the server rejected, for example because they conflict with edits made since the last sync
+     */
+    public int getRejectedEdits() {
+      return mRejectedEdits;
+    }
+
+    @Override public String toString() {
+      return String.format(Locale.US, "%d job(s), %d bytes up, %d bytes down, %d ms, %d of %d edits rejected",
+          mJobCount, mBytesUploaded, mBytesDownloaded, mElapsedMillis, mRejectedEdits, mEditResults);
+    }
+  }
+
+  /**
+   * @param geodatabaseSyncTask the loaded task for the geodatabase's feature service
+   * @param geodatabase the loaded geodatabase to sync
+   * @param listener receives pending edit counts and sync results on the main thread
+   */
+  public SyncOrchestrator(GeodatabaseSyncTask geodatabaseSyncTask, Geodatabase geodatabase, Listener listener) {
+    mGeodatabaseSyncTask = geodatabaseSyncTask;
+    mGeodatabase = geodatabase;
+    mListener = listener;
+    for (GeodatabaseFeatureTable table : geodatabase.getGeodatabaseFeatureTables()) {
+      recount(table);
+    }
+  }
+
+  /**
+   * Sets when a sync starts by itself.
+   *
+   * @param maxPendingEdits sync once this many edits are pending
+   * @param maxPendingMillis sync once the oldest pending edit is this old
+   */
+  public void setThresholds(long maxPendingEdits, long maxPendingMillis) {
+    mMaxPendingEdits = maxPendingEdits;
+    mMaxPendingMillis = maxPendingMillis;
+  }
+
+  /**
+   * Sets the number of pending edits above which a sync is split into one job per table.
+   */
+  public void setMaxEditsPerJob(long maxEditsPerJob) {
+    mMaxEditsPerJob = maxEditsPerJob;
+  }
+
+  /**
+   * Turns syncing when a threshold is reached on or off. Syncs can always be started with {@link #syncNow()}.
+   */
+  public void setAutoSync(boolean autoSync) {
+    mAutoSync = autoSync;
+    checkThresholds();
+  }
+
+  /**
+   * Recounts the pending edits of a table after it has been edited.
+   *
+   * @param table the edited table
+   */
+  public void notifyEdited(GeodatabaseFeatureTable table) {
+    if (isSyncing()) {
+      if (mOldestEditDuringSync < 0) {
+        mOldestEditDuringSync = SystemClock.elapsedRealtime();
+      }
+    } else if (mOldestPendingEditTime < 0) {
+      mOldestPendingEditTime = SystemClock.elapsedRealtime();
+    }
+    // the recount checks the thresholds, and schedules the age check
+    recount(table);
+  }
+
+  public long getPendingEdits() {
+    long total = 0;
+    for (long count : mPendingEdits.values()) {
+      total += count;
+    }
+    return total;
+  }
+
+  public long getPendingEdits(GeodatabaseFeatureTable table) {
+    Long count = mPendingEdits.get(table);
+    return count == null ? 0 : count;
+  }
+
+  public boolean isSyncing() {
+    return mCurrentJob != null;
+  }
+
+  /**
+   * Starts a sync now, split into one job per table if more edits are pending than one job should upload.
+   */
+  public void syncNow() {
+    if (isSyncing()) {
+      return;
+    }
+    mHandler.removeCallbacks(mTimeThresholdCheck);
+    List<GeodatabaseFeatureTable> tables = new ArrayList<>(mGeodatabase.getGeodatabaseFeatureTables());
+    ArrayDeque<List<GeodatabaseFeatureTable>> batches = new ArrayDeque<>();
+    if (getPendingEdits() > mMaxEditsPerJob && tables.size() > 1) {
+      // tables with edits go first, so the uploads aren't held up by downloads
+      for (GeodatabaseFeatureTable table : tables) {
+        if (getPendingEdits(table) > 0) {
+          List<GeodatabaseFeatureTable> batch = new ArrayList<>();
+          batch.add(table);
+          batches.add(batch);
+        }
+      }
+      for (GeodatabaseFeatureTable table : tables) {
+        if (getPendingEdits(table) == 0) {
+          List<GeodatabaseFeatureTable> batch = new ArrayList<>();
+          batch.add(table);
+          batches.add(batch);
+        }
+      }
+    } else {
+      batches.add(tables);
+    }
+    SyncMetrics metrics = new SyncMetrics();
+    long rxBytes = TrafficStats.getUidRxBytes(Process.myUid());
+    long txBytes = TrafficStats.getUidTxBytes(Process.myUid());
+    long startTime = SystemClock.elapsedRealtime();
+    runBatches(batches, metrics, () -> {
+      metrics.mElapsedMillis = SystemClock.elapsedRealtime() - startTime;
+      long rxBytesAfter = TrafficStats.getUidRxBytes(Process.myUid());
+      long txBytesAfter = TrafficStats.getUidTxBytes(Process.myUid());
+      metrics.mBytesDownloaded = rxBytes == TrafficStats.UNSUPPORTED ? -1 : rxBytesAfter - rxBytes;
+      metrics.mBytesUploaded = txBytes == TrafficStats.UNSUPPORTED ? -1 : txBytesAfter - txBytes;
+      Log.i(TAG, "Sync complete: " + metrics);
+      mListener.onSyncCompleted(metrics);
+    });
+  }
+
+  public void shutdown() {
+    mHandler.removeCallbacks(mTimeThresholdCheck);
+    if (mCurrentJob != null) {
+      mCurrentJob.cancel();
+    }
+  }
+
+  private void runBatches(ArrayDeque<List<GeodatabaseFeatureTable>> batches, SyncMetrics metrics,
+      Runnable onComplete) {
+    List<GeodatabaseFeatureTable> batch = batches.poll();
+    if (batch == null) {
+      mCurrentJob = null;
+      // edits made while syncing may not have been uploaded, so they keep their age
+      mOldestPendingEditTime = mOldestEditDuringSync;
+      mOldestEditDuringSync = -1;
+      for (GeodatabaseFeatureTable table : mGeodatabase.getGeodatabaseFeatureTables()) {
+        recount(table);
+      }
+      onComplete.run();
+      return;
+    }
+    // create parameters for the sync task
+    SyncGeodatabaseParameters syncGeodatabaseParameters = new SyncGeodatabaseParameters();
+    syncGeodatabaseParameters.setSyncDirection(SyncGeodatabaseParameters.SyncDirection.BIDIRECTIONAL);
+    syncGeodatabaseParameters.setRollbackOnFailure(false);
+    for (GeodatabaseFeatureTable table : batch) {
+      syncGeodatabaseParameters.getLayerOptions().add(new SyncLayerOption(table.getServiceLayerId()));
+    }
+    SyncGeodatabaseJob job = mGeodatabaseSyncTask.syncGeodatabase(syncGeodatabaseParameters, mGeodatabase);
+    mCurrentJob = job;
+    job.addJobDoneListener(() -> {
+      if (job.getStatus() == Job.Status.SUCCEEDED) {
+        metrics.mJobCount++;
+        for (SyncLayerResult layerResult : job.getResult()) {
+          for (FeatureEditResult editResult : layerResult.getEditResults()) {
+            metrics.mEditResults++;
+            if (editResult.hasCompletedWithErrors()) {
+              metrics.mRejectedEdits++;
+            }
+          }
+        }
+        runBatches(batches, metrics, onComplete);
+      } else if (batch.size() == 1 && !batches.isEmpty() && job.getStatus() == Job.Status.FAILED) {
+        // the geodatabase may not support syncing a layer at a time, so sync the tables left in one job instead
+        Log.w(TAG, "Per layer sync failed, syncing the remaining layers: " + job.getError().getMessage());
+        List<GeodatabaseFeatureTable> remainingTables = new ArrayList<>(batch);
+        for (List<GeodatabaseFeatureTable> remainingBatch : batches) {
+          remainingTables.addAll(remainingBatch);
+        }
+        ArrayDeque<List<GeodatabaseFeatureTable>> remainingLayers = new ArrayDeque<>();
+        remainingLayers.add(remainingTables);
+        runBatches(remainingLayers, metrics, onComplete);
+      } else {
+        String error = job.getError() != null ? job.getError().getMessage() : "Sync canceled";
+        onSyncFailed("Database did not sync correctly! " + error);
+      }
+    });
+    job.start();
+    mListener.onSyncJobStarted(job);
+  }
+
+  private void onSyncFailed(String error) {
+    mCurrentJob = null;
+    // the edits are still pending, so keep the oldest of them, or start their age now if it wasn't known
+    if (mOldestPendingEditTime < 0) {
+      mOldestPendingEditTime = mOldestEditDuringSync >= 0 ? mOldestEditDuringSync : SystemClock.elapsedRealtime();
+    }
+    mOldestEditDuringSync = -1;
+    // try again once the age threshold has passed once more, rather than straight away
+    scheduleTimeThresholdCheck(mMaxPendingMillis);
+    mListener.onSyncFailed(error);
+  }
+
+  private void checkThresholds() {
+    if (!mAutoSync) {
+      return;
+    }
+    if (isSyncing()) {
+      // the edits made while syncing are checked once the sync has finished
+      scheduleTimeThresholdCheck(SYNC_RUNNING_RECHECK_MILLIS);
+      return;
+    }
+    if (getPendingEdits() == 0) {
+      return;
+    }
+    long age = SystemClock.elapsedRealtime() - mOldestPendingEditTime;
+    if (getPendingEdits() >= mMaxPendingEdits || (mOldestPendingEditTime >= 0 && age >= mMaxPendingMillis)) {
+      syncNow();
+    } else if (mOldestPendingEditTime >= 0) {
+      scheduleTimeThresholdCheck(mMaxPendingMillis - age);
+    }
+  }
+
+  private void scheduleTimeThresholdCheck(long delayMillis) {
+    mHandler.removeCallbacks(mTimeThresholdCheck);
+    mHandler.postDelayed(mTimeThresholdCheck, delayMillis);
+  }
+
+  /**
+   * Counts the features added, updated and deleted in a table since the last sync.
+   */
+  private void recount(GeodatabaseFeatureTable table) {
+    ListenableFuture<Long> addedFuture = table.getAddedFeaturesCountAsync();
+    ListenableFuture<Long> updatedFuture = table.getUpdatedFeaturesCountAsync();
+    ListenableFuture<Long> deletedFuture = table.getDeletedFeaturesCountAsync();
+    Runnable onCounted = () -> {
+      if (addedFuture.isDone() && updatedFuture.isDone() && deletedFuture.isDone()) {
+        try {
+          mPendingEdits.put(table, addedFuture.get() + updatedFuture.get() + deletedFuture.get());
+          mListener.onPendingEditsChanged(getPendingEdits());
+          checkThresholds();
+        } catch (Exception e) {
+          Log.e(TAG, "Failed to count edits in " + table.getTableName() + ": " + e.getMessage());
+        }
+      }
+    };
+    addedFuture.addDoneListener(onCounted);
+    updatedFuture.addDoneListener(onCounted);
+    deletedFuture.addDoneListener(onCounted);
+  }
+}
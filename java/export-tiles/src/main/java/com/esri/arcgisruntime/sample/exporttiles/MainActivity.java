@@ -16,6 +16,12 @@
 
 package com.esri.arcgisruntime.sample.exporttiles;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 
 import android.app.ProgressDialog;
@@ -24,15 +30,18 @@ import android.os.Bundle;
 import android.util.Log;
 import android.view.View;
 import android.widget.Button;
+import android.widget.CheckBox;
 import android.widget.Toast;
 
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.constraintlayout.widget.ConstraintLayout;
+import com.esri.arcgisruntime.concurrent.Job;
 import com.esri.arcgisruntime.concurrent.ListenableFuture;
 import com.esri.arcgisruntime.data.TileCache;
 import com.esri.arcgisruntime.geometry.Envelope;
 import com.esri.arcgisruntime.geometry.Point;
 import com.esri.arcgisruntime.layers.ArcGISTiledLayer;
+import com.esri.arcgisruntime.layers.Layer;
 import com.esri.arcgisruntime.mapping.ArcGISMap;
 import com.esri.arcgisruntime.mapping.Basemap;
 import com.esri.arcgisruntime.mapping.Viewpoint;
@@ -43,17 +52,67 @@ import com.esri.arcgisruntime.tasks.tilecache.ExportTileCacheTask;
 
 public class MainActivity extends AppCompatActivity {
 
-  private final String TAG = MainActivity.class.getSimpleName();
+  private static final String TAG = MainActivity.class.getSimpleName();
+
+  // number of parts a split export is divided into, all exported at the same time
+  private static final int PARALLEL_EXPORT_PARTS = 4;
 
   private Button mExportTilesButton;
+  private CheckBox mSplitExportCheckBox;
   private ConstraintLayout mTileCachePreviewLayout;
   private View mPreviewMask;
 
   private MapView mMapView;
   private MapView mTileCachePreview;
   private ArcGISTiledLayer mTiledLayer;
-  private ExportTileCacheJob mExportTileCacheJob;
   private ExportTileCacheTask mExportTileCacheTask;
+  private OfflineJobQueue mOfflineJobQueue;
+  private TileCacheEstimator mTileCacheEstimator;
+  private SplitExportMerger mSplitExportMerger;
+  // the progress dialog shown by this activity for each queued job
+  private final Map<Job, ProgressDialog> mProgressDialogs = new HashMap<>();
+  private final OfflineJobQueue.Listener mJobQueueListener = new OfflineJobQueue.Listener() {
+    @Override public void onJobChanged(OfflineJobQueue.QueuedJob queuedJob) {
+      Job job = queuedJob.getJob();
+      ProgressDialog progressDialog = mProgressDialogs.get(job);
+      if (progressDialog != null) {
+        progressDialog.setProgress(job.getProgress());
+      } else if (job instanceof ExportTileCacheJob && (job.getStatus() == Job.Status.NOT_STARTED ||
+          job.getStatus() == Job.Status.STARTED || job.getStatus() == Job.Status.PAUSED)) {
+        // a job queued by an activity destroyed since, for example while its parameters were still being created
+        createProgressDialog((ExportTileCacheJob) job);
+      }
+    }
+
+    @Override public void onJobDone(OfflineJobQueue.QueuedJob queuedJob) {
+      // also covers a job cancelled while still waiting, which is never started so never reports done itself
+      ProgressDialog progressDialog = mProgressDialogs.remove(queuedJob.getJob());
+      if (progressDialog != null) {
+        progressDialog.dismiss();
+      }
+      // the parts of a split export are merged by the split export merger, which reports to its own listener
+      if (SplitExportMerger.SplitExport.fromTag(queuedJob.getTag()) == null
+          && queuedJob.getJob() instanceof ExportTileCacheJob) {
+        onExportTileCacheJobDone((ExportTileCacheJob) queuedJob.getJob());
+      }
+    }
+  };
+  private final SplitExportMerger.Listener mSplitExportListener = new SplitExportMerger.Listener() {
+    @Override public void onMerged(File output, TilePackageMerger.Stats stats) {
+      showMapPreview(Collections.singletonList(new TileCache(output.getPath())));
+    }
+
+    @Override public void onMergeFailed(List<File> partFiles, Exception e) {
+      // for example parts written as compact cache V1 .tpk packages, which can't be merged, so show them all
+      Toast.makeText(MainActivity.this, getString(R.string.merge_failed_message, e.getMessage()), Toast.LENGTH_LONG)
+          .show();
+      List<TileCache> tileCaches = new ArrayList<>();
+      for (File partFile : partFiles) {
+        tileCaches.add(new TileCache(partFile.getPath()));
+      }
+      showMapPreview(tileCaches);
+    }
+  };
 
   @Override
   protected void onCreate(Bundle savedInstanceState) {
@@ -76,11 +135,25 @@ public class MainActivity extends AppCompatActivity {
 
     mExportTilesButton = findViewById(R.id.exportTilesButton);
     mExportTilesButton.setOnClickListener(v -> initiateDownload());
+    mSplitExportCheckBox = findViewById(R.id.splitExportCheckBox);
 
     Button previewCloseButton = findViewById(R.id.closeButton);
     previewCloseButton.setOnClickListener(v -> clearPreview());
 
     clearPreview();
+
+    // jobs queued before the activity or the process was restarted carry on in the queue, so show their progress
+    mOfflineJobQueue = OfflineJobQueue.getInstance(this);
+    mOfflineJobQueue.setMaxConcurrentJobs(PARALLEL_EXPORT_PARTS);
+    mOfflineJobQueue.addListener(mJobQueueListener);
+    // the parts of split exports are merged from the queue, so they are merged even while no activity is shown
+    mSplitExportMerger = SplitExportMerger.getInstance(this);
+    mSplitExportMerger.addListener(mSplitExportListener);
+    for (OfflineJobQueue.QueuedJob queuedJob : mOfflineJobQueue.getJobs()) {
+      if (queuedJob.getJob() instanceof ExportTileCacheJob) {
+        createProgressDialog((ExportTileCacheJob) queuedJob.getJob());
+      }
+    }
   }
 
   /**
@@ -126,6 +199,7 @@ public class MainActivity extends AppCompatActivity {
     // show red preview mask
     mPreviewMask.bringToFront();
     mExportTilesButton.setVisibility(View.VISIBLE);
+    mSplitExportCheckBox.setVisibility(View.VISIBLE);
   }
 
   /**
@@ -142,35 +216,126 @@ public class MainActivity extends AppCompatActivity {
     }
     // initialize the export task
     mExportTileCacheTask = new ExportTileCacheTask(mTiledLayer.getUri());
+    final double exportMinScale = minScale;
     final ListenableFuture<ExportTileCacheParameters> parametersFuture = mExportTileCacheTask
         .createDefaultExportTileCacheParametersAsync(viewToExtent(), minScale, maxScale);
     parametersFuture.addDoneListener(() -> {
       try {
-        // export tile cache to directory
         ExportTileCacheParameters parameters = parametersFuture.get();
-        mExportTileCacheJob = mExportTileCacheTask
-            .exportTileCache(parameters, getCacheDir() + getString(R.string.world_street_map_tpk));
+        // estimate the export locally before starting it, since the service rejects exports over its tile limit
+        if (mTileCacheEstimator == null) {
+          mTileCacheEstimator = new TileCacheEstimator(mTiledLayer.getUri(), mTiledLayer.getTileInfo(),
+              mTiledLayer.getFullExtent());
+        }
+        mTileCacheEstimator.estimateAsync(parameters.getAreaOfInterest(), parameters.getLevelIds(), estimate -> {
+          Log.d(TAG, "Estimated export: " + estimate);
+          int maxTileCount = mExportTileCacheTask.getMapServiceInfo().getMaxExportTilesCount();
+          boolean overLimit = maxTileCount > 0 && estimate.getTotalTileCount() > maxTileCount;
+          if (!overLimit && !mSplitExportCheckBox.isChecked()) {
+            exportTileCache(parameters, getCacheDir() + getString(R.string.world_street_map_tpk));
+            return;
+          }
+          // split the area into parts the service accepts, or into parts exported in parallel if asked to
+          long partTileCount = overLimit ? maxTileCount : estimate.getTotalTileCount();
+          if (mSplitExportCheckBox.isChecked()) {
+            partTileCount = Math.min(partTileCount, Math.max(1, estimate.getTotalTileCount() / PARALLEL_EXPORT_PARTS));
+          }
+          TileCacheEstimator.Split split = mTileCacheEstimator
+              .split(parameters.getAreaOfInterest(), parameters.getLevelIds(), partTileCount);
+          List<Envelope> parts = split.getParts();
+          if (overLimit) {
+            if (!split.getOversizedParts().isEmpty()) {
+              // the service would reject those parts, so don't start an export that can't complete
+              Toast.makeText(this, getString(R.string.export_too_large_message, estimate.toString(), maxTileCount),
+                  Toast.LENGTH_LONG).show();
+              return;
+            }
+            Toast.makeText(this, getString(R.string.export_split_message, estimate.toString(), maxTileCount,
+                parts.size()), Toast.LENGTH_LONG).show();
+          }
+          exportParts(parts, exportMinScale, maxScale);
+        });
       } catch (InterruptedException e) {
         Log.e(TAG, "TileCacheParameters interrupted: " + e.getMessage());
       } catch (ExecutionException e) {
         Log.e(TAG, "Error generating parameters: " + e.getMessage());
       }
-      mExportTileCacheJob.start();
-
-      createProgressDialog(mExportTileCacheJob);
-
-      mExportTileCacheJob.addJobDoneListener(() -> {
-        if (mExportTileCacheJob.getResult() != null) {
-          TileCache exportedTileCacheResult = mExportTileCacheJob.getResult();
-          showMapPreview(exportedTileCacheResult);
-        } else {
-          Log.e(TAG, "Tile cache job result null. File size may be too big.");
-          Toast.makeText(this,
-              "Tile cache job result null. File size may be too big. Try zooming in before exporting tiles",
-              Toast.LENGTH_LONG).show();
+    });
+  }
+
+  /**
+   * Exports each part of an area to its own tile package, to be merged into one once they have all finished.
+   */
+  private void exportParts(List<Envelope> parts, double minScale, double maxScale) {
+    // parts are exported as compact cache V2 packages, which can be merged
+    String exportId = Long.toString(System.currentTimeMillis());
+    List<File> partFiles = new ArrayList<>();
+    for (int i = 0; i < parts.size(); i++) {
+      partFiles.add(new File(getCacheDir(), getString(R.string.world_street_map_part_tpkx, exportId, i)));
+    }
+    SplitExportMerger.SplitExport splitExport = new SplitExportMerger.SplitExport(exportId, partFiles,
+        new File(getCacheDir(), getString(R.string.world_street_map_merged_tpkx)));
+    // queue the parts only once every part's parameters are ready, so the queue always holds every unfinished part
+    ExportTileCacheParameters[] partParameters = new ExportTileCacheParameters[parts.size()];
+    int[] remaining = { parts.size() };
+    boolean[] failed = { false };
+    for (int i = 0; i < parts.size(); i++) {
+      int part = i;
+      ListenableFuture<ExportTileCacheParameters> partParametersFuture = mExportTileCacheTask
+          .createDefaultExportTileCacheParametersAsync(parts.get(i), minScale, maxScale);
+      partParametersFuture.addDoneListener(() -> {
+        try {
+          partParameters[part] = partParametersFuture.get();
+        } catch (InterruptedException | ExecutionException e) {
+          // none of the parts are queued, so report the first failure only
+          if (!failed[0]) {
+            failed[0] = true;
+            String error = "Error generating parameters: " + e.getMessage();
+            Log.e(TAG, error);
+            if (!isDestroyed()) {
+              Toast.makeText(this, error, Toast.LENGTH_LONG).show();
+            }
+          }
+        }
+        if (--remaining[0] > 0 || failed[0]) {
+          return;
+        }
+        for (int j = 0; j < partParameters.length; j++) {
+          ExportTileCacheJob partJob = mExportTileCacheTask
+              .exportTileCache(partParameters[j], partFiles.get(j).getPath());
+          mOfflineJobQueue.enqueue(partJob, partParameters[j].getAreaOfInterest(), splitExport.toTag());
+          if (!isDestroyed()) {
+            createProgressDialog(partJob);
+          }
         }
       });
-    });
+    }
+  }
+
+  /**
+   * Exports a tile cache to the given path, queued so that it survives the activity and the process being restarted.
+   */
+  private void exportTileCache(ExportTileCacheParameters parameters, String path) {
+    ExportTileCacheJob exportTileCacheJob = mExportTileCacheTask.exportTileCache(parameters, path);
+    mOfflineJobQueue.enqueue(exportTileCacheJob, parameters.getAreaOfInterest());
+    createProgressDialog(exportTileCacheJob);
+  }
+
+  /**
+   * Shows the result of a finished export tile cache job.
+   *
+   * @param exportTileCacheJob the finished job
+   */
+  private void onExportTileCacheJobDone(ExportTileCacheJob exportTileCacheJob) {
+    if (exportTileCacheJob.getResult() != null) {
+      TileCache exportedTileCacheResult = exportTileCacheJob.getResult();
+      showMapPreview(Collections.singletonList(exportedTileCacheResult));
+    } else if (exportTileCacheJob.getStatus() != Job.Status.CANCELED) {
+      Log.e(TAG, "Tile cache job result null. File size may be too big.");
+      Toast.makeText(this,
+          "Tile cache job result null. File size may be too big. Try zooming in before exporting tiles",
+          Toast.LENGTH_LONG).show();
+    }
   }
 
   /**
@@ -185,27 +350,43 @@ public class MainActivity extends AppCompatActivity {
     progressDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
     progressDialog.setCanceledOnTouchOutside(false);
     progressDialog.setButton(DialogInterface.BUTTON_NEGATIVE, "Cancel",
-        (dialogInterface, i) -> exportTileCacheJob.cancel());
+        (dialogInterface, i) -> cancelJob(exportTileCacheJob));
+    progressDialog.setProgress(exportTileCacheJob.getProgress());
     progressDialog.show();
 
-    exportTileCacheJob.addProgressChangedListener(() -> progressDialog.setProgress(exportTileCacheJob.getProgress()));
-    exportTileCacheJob.addJobDoneListener(progressDialog::dismiss);
+    // the queue listener updates and dismisses the dialog, so nothing of this activity is attached to the job itself
+    mProgressDialogs.put(exportTileCacheJob, progressDialog);
+  }
+
+  /**
+   * Cancels a job whether it is still waiting in the queue or already running.
+   */
+  private void cancelJob(Job job) {
+    for (OfflineJobQueue.QueuedJob queuedJob : mOfflineJobQueue.getJobs()) {
+      if (queuedJob.getJob() == job) {
+        mOfflineJobQueue.cancel(queuedJob);
+      }
+    }
   }
 
   /**
    * Show tile cache preview window including MapView.
    *
-   * @param result Takes the TileCache from the ExportTileCacheJob.
+   * @param results Takes the TileCache from the ExportTileCacheJob, or one for each part that couldn't be merged.
    */
-  private void showMapPreview(TileCache result) {
-    ArcGISTiledLayer newTiledLayer = new ArcGISTiledLayer(result);
-    ArcGISMap map = new ArcGISMap(new Basemap(newTiledLayer));
+  private void showMapPreview(List<TileCache> results) {
+    List<Layer> baseLayers = new ArrayList<>();
+    for (TileCache result : results) {
+      baseLayers.add(new ArcGISTiledLayer(result));
+    }
+    ArcGISMap map = new ArcGISMap(new Basemap(baseLayers, null));
     mTileCachePreview.setMap(map);
     mTileCachePreview.setViewpoint(mMapView.getCurrentViewpoint(Viewpoint.Type.CENTER_AND_SCALE));
     mTileCachePreview.setVisibility(View.VISIBLE);
     mTileCachePreviewLayout.bringToFront();
     mTileCachePreview.getChildAt(0).setVisibility(View.VISIBLE);
     mExportTilesButton.setVisibility(View.GONE);
+    mSplitExportCheckBox.setVisibility(View.GONE);
   }
 
   @Override
@@ -224,6 +405,16 @@ public class MainActivity extends AppCompatActivity {
 
   @Override
   protected void onDestroy() {
+    // the queued jobs outlive this activity, so let go of it and its dialogs, the recreated activity shows its own
+    mOfflineJobQueue.removeListener(mJobQueueListener);
+    mSplitExportMerger.removeListener(mSplitExportListener);
+    for (ProgressDialog progressDialog : mProgressDialogs.values()) {
+      progressDialog.dismiss();
+    }
+    mProgressDialogs.clear();
+    if (mTileCacheEstimator != null) {
+      mTileCacheEstimator.shutdown();
+    }
     mMapView.dispose();
     mTileCachePreview.dispose();
     super.onDestroy();
@@ -0,0 +1,324 @@
+/* Copyright 2021 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgisruntime.sample.exporttiles;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.esri.arcgisruntime.concurrent.Job;
+import com.esri.arcgisruntime.geometry.AreaUnit;
+import com.esri.arcgisruntime.geometry.AreaUnitId;
+import com.esri.arcgisruntime.geometry.GeodeticCurveType;
+import com.esri.arcgisruntime.geometry.Geometry;
+import com.esri.arcgisruntime.geometry.GeometryEngine;
+
+/**
+ * Runs offline jobs, such as ExportTileCacheJob, GenerateGeodatabaseJob and GenerateOfflineMapJob, with a limit on how
+ * many run at the same time.
+ *
+ * The queue is a process-wide singleton, so jobs keep running when an activity is recreated. Each job is saved as JSON
+ * whenever it changes, so after the process is restarted the queue recreates its jobs with Job.fromJson() and resumes
+ * them. Waiting jobs are started smallest area first, so quick jobs aren't held up behind large ones.
+ *
+ * All methods must be called on the main thread.
+ */
+public class OfflineJobQueue {
+
+  private static final String TAG = OfflineJobQueue.class.getSimpleName();
+
+  public static final int DEFAULT_MAX_CONCURRENT_JOBS = 2;
+  private static final String QUEUE_FILE_NAME = "offline_job_queue.json";
+
+  private static OfflineJobQueue sInstance;
+
+  private final File mQueueFile;
+  private final List<QueuedJob> mJobs = new ArrayList<>();
+  private final PriorityQueue<QueuedJob> mWaitingJobs = new PriorityQueue<>(11,
+      new Comparator<QueuedJob>() {
+        @Override public int compare(QueuedJob first, QueuedJob second) {
+          int byArea = Double.compare(first.mAreaSquareKilometers, second.mAreaSquareKilometers);
+          return byArea != 0 ? byArea : Long.compare(first.mSequence, second.mSequence);
+        }
+      });
+  private final List<Listener> mListeners = new CopyOnWriteArrayList<>();
+  private int mMaxConcurrentJobs = DEFAULT_MAX_CONCURRENT_JOBS;
+  private int mRunningJobs;
+  private long mNextSequence;
+
+  /**
+   * Receives changes to queued jobs on the main thread.
+   */
+  public interface Listener {
+
+    void onJobChanged(QueuedJob queuedJob);
+
+    void onJobDone(QueuedJob queuedJob);
+  }
+
+  /**
+   * A job in the queue.
+   */
+  public static class QueuedJob {
+
+    private final String mId;
+    private final Job mJob;
+    private final double mAreaSquareKilometers;
+    private final long mSequence;
+    private final String mTag;
+
+    QueuedJob(String id, Job job, double areaSquareKilometers, long sequence, String tag) {
+      mId = id;
+      mJob = job;
+      mAreaSquareKilometers = areaSquareKilometers;
+      mSequence = sequence;
+      mTag = tag;
+    }
+
+    public String getId() {
+      return mId;
+    }
+
+    public Job getJob() {
+      return mJob;
+    }
+
+    public double getAreaSquareKilometers() {
+      return mAreaSquareKilometers;
+    }
+
+    /**
+     * @return the caller's own data saved with the job, or null if there is none
+     */
+    public String getTag() {
+      return mTag;
+    }
+  }
+
+  /**
+   * Returns the queue, restoring and resuming any jobs saved by a previous process the first time it is called.
+   *
+   * @param context used to locate the file the queue is saved to
+   * @return the process-wide queue
+   */
+  public static OfflineJobQueue getInstance(Context context) {
+    if (sInstance == null) {
+      sInstance = new OfflineJobQueue(new File(context.getApplicationContext().getFilesDir(), QUEUE_FILE_NAME));
+      sInstance.restore();
+    }
+    return sInstance;
+  }
+
+  private OfflineJobQueue(File queueFile) {
+    mQueueFile = queueFile;
+  }
+
+  public void addListener(Listener listener) {
+    mListeners.add(listener);
+  }
+
+  public void removeListener(Listener listener) {
+    mListeners.remove(listener);
+  }
+
+  /**
+   * Sets how many jobs may run at the same time. Jobs that are already running are not affected.
+   */
+  public void setMaxConcurrentJobs(int maxConcurrentJobs) {
+    mMaxConcurrentJobs = maxConcurrentJobs;
+    startWaitingJobs();
+  }
+
+  /**
+   * @return the jobs that are waiting or running
+   */
+  public List<QueuedJob> getJobs() {
+    return new ArrayList<>(mJobs);
+  }
+
+  /**
+   * Adds a job that hasn't been started to the queue. It is started once fewer than the maximum number of jobs are
+   * running and no smaller job is waiting.
+   *
+   * @param job the job to run
+   * @param areaOfInterest the area the job covers, used to order waiting jobs
+   * @return the queued job
+   */
+  public QueuedJob enqueue(Job job, Geometry areaOfInterest) {
+    return enqueue(job, areaOfInterest, null);
+  }
+
+  /**
+   * Adds a job that hasn't been started to the queue, with data of the caller's own which is saved and restored with
+   * the job, so a recreated activity can tell what the job was for.
+   *
+   * @param job the job to run
+   * @param areaOfInterest the area the job covers, used to order waiting jobs
+   * @param tag data to save with the job, or null
+   * @return the queued job
+   */
+  public QueuedJob enqueue(Job job, Geometry areaOfInterest, String tag) {
+    double area = areaOfInterest == null ? 0 : Math.abs(GeometryEngine.areaGeodetic(areaOfInterest,
+        new AreaUnit(AreaUnitId.SQUARE_KILOMETERS), GeodeticCurveType.GEODESIC));
+    QueuedJob queuedJob = new QueuedJob(UUID.randomUUID().toString(), job, area, mNextSequence++, tag);
+    add(queuedJob, false);
+    save();
+    startWaitingJobs();
+    return queuedJob;
+  }
+
+  /**
+   * Cancels a queued job, whether it is waiting or running.
+   */
+  public void cancel(QueuedJob queuedJob) {
+    if (mWaitingJobs.remove(queuedJob)) {
+      mJobs.remove(queuedJob);
+      save();
+      for (Listener listener : mListeners) {
+        listener.onJobDone(queuedJob);
+      }
+    } else {
+      // the job done listener removes it from the queue
+      queuedJob.mJob.cancel();
+    }
+  }
+
+  private void add(QueuedJob queuedJob, boolean running) {
+    mJobs.add(queuedJob);
+    Job job = queuedJob.mJob;
+    job.addJobChangedListener(() -> {
+      // save on every change, so the latest server job state can be resumed
+      save();
+      for (Listener listener : mListeners) {
+        listener.onJobChanged(queuedJob);
+      }
+    });
+    job.addProgressChangedListener(() -> {
+      for (Listener listener : mListeners) {
+        listener.onJobChanged(queuedJob);
+      }
+    });
+    job.addJobDoneListener(() -> {
+      mJobs.remove(queuedJob);
+      mRunningJobs--;
+      save();
+      for (Listener listener : mListeners) {
+        listener.onJobDone(queuedJob);
+      }
+      startWaitingJobs();
+    });
+    if (running) {
+      mRunningJobs++;
+    } else {
+      mWaitingJobs.add(queuedJob);
+    }
+  }
+
+  private void startWaitingJobs() {
+    while (mRunningJobs < mMaxConcurrentJobs && !mWaitingJobs.isEmpty()) {
+      QueuedJob queuedJob = mWaitingJobs.poll();
+      mRunningJobs++;
+      queuedJob.mJob.start();
+    }
+  }
+
+  /**
+   * Writes every queued job, with its JSON, to the queue file.
+   */
+  private void save() {
+    try {
+      JSONArray entries = new JSONArray();
+      for (QueuedJob queuedJob : mJobs) {
+        JSONObject entry = new JSONObject();
+        entry.put("id", queuedJob.mId);
+        entry.put("area", queuedJob.mAreaSquareKilometers);
+        entry.put("sequence", queuedJob.mSequence);
+        entry.put("started", !mWaitingJobs.contains(queuedJob));
+        entry.put("job", queuedJob.mJob.toJson());
+        if (queuedJob.mTag != null) {
+          entry.put("tag", queuedJob.mTag);
+        }
+        entries.put(entry);
+      }
+      // write to a temporary file first, so a crash while saving doesn't lose the previous queue
+      File tempFile = new File(mQueueFile.getPath() + ".tmp");
+      try (OutputStream outputStream = new FileOutputStream(tempFile)) {
+        outputStream.write(entries.toString().getBytes(StandardCharsets.UTF_8));
+      }
+      if (!tempFile.renameTo(mQueueFile)) {
+        Log.e(TAG, "Failed to save offline job queue");
+      }
+    } catch (JSONException | IOException e) {
+      Log.e(TAG, "Failed to save offline job queue: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Recreates the jobs saved by a previous process. Jobs that had been started are resumed right away, the others
+   * wait for their turn.
+   */
+  private void restore() {
+    if (!mQueueFile.exists()) {
+      return;
+    }
+    try (InputStream inputStream = new FileInputStream(mQueueFile)) {
+      byte[] bytes = new byte[(int) mQueueFile.length()];
+      int offset = 0;
+      int read;
+      while (offset < bytes.length && (read = inputStream.read(bytes, offset, bytes.length - offset)) != -1) {
+        offset += read;
+      }
+      JSONArray entries = new JSONArray(new String(bytes, 0, offset, StandardCharsets.UTF_8));
+      for (int i = 0; i < entries.length(); i++) {
+        JSONObject entry = entries.getJSONObject(i);
+        Job job = Job.fromJson(entry.getString("job"));
+        if (job == null) {
+          continue;
+        }
+        long sequence = entry.getLong("sequence");
+        mNextSequence = Math.max(mNextSequence, sequence + 1);
+        QueuedJob queuedJob = new QueuedJob(entry.getString("id"), job, entry.getDouble("area"), sequence,
+            entry.has("tag") ? entry.getString("tag") : null);
+        boolean started = entry.getBoolean("started");
+        add(queuedJob, started);
+        if (started) {
+          job.start();
+        }
+      }
+    } catch (JSONException | IOException | RuntimeException e) {
+      Log.e(TAG, "Failed to restore offline job queue: " + e.getMessage());
+    }
+    startWaitingJobs();
+  }
+}
@@ -0,0 +1,207 @@
+/* Copyright 2021 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgisruntime.sample.exporttiles;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.esri.arcgisruntime.concurrent.Job;
+
+/**
+ * Merges the parts of a split export into a single tile package once the last of them has finished in the
+ * OfflineJobQueue, or cancels the others if one of them failed.
+ *
+ * The merger listens to the queue for the lifetime of the process, so parts that finish while no activity is shown,
+ * or after the process was restarted, are still merged. Each part's queued job is tagged with the split export it is
+ * part of, which lists the tile package of every part and the tile package they are merged into.
+ *
+ * All methods must be called on the main thread.
+ */
+public class SplitExportMerger implements OfflineJobQueue.Listener {
+
+  private static final String TAG = SplitExportMerger.class.getSimpleName();
+
+  private static SplitExportMerger sInstance;
+
+  private final OfflineJobQueue mOfflineJobQueue;
+  // lives as long as the process, like the queue
+  private final TilePackageMerger mTilePackageMerger = new TilePackageMerger();
+  private final List<Listener> mListeners = new CopyOnWriteArrayList<>();
+
+  /**
+   * Receives the outcome of merging a split export on the main thread.
+   */
+  public interface Listener {
+
+    void onMerged(File output, TilePackageMerger.Stats stats);
+
+    /**
+     * @param partFiles the tile package of each part, which are kept so they can be shown on their own
+     * @param e the reason the parts couldn't be merged
+     */
+    void onMergeFailed(List<File> partFiles, Exception e);
+  }
+
+  /**
+   * The parts of a split export, saved as the tag of each part's queued job.
+   */
+  static class SplitExport {
+
+    private final String mId;
+    // the tile package each part is written to, in the order they are merged
+    private final List<File> mPartFiles;
+    private final File mMergedFile;
+
+    SplitExport(String id, List<File> partFiles, File mergedFile) {
+      mId = id;
+      mPartFiles = partFiles;
+      mMergedFile = mergedFile;
+    }
+
+    String toTag() {
+      try {
+        JSONArray partFiles = new JSONArray();
+        for (File partFile : mPartFiles) {
+          partFiles.put(partFile.getPath());
+        }
+        return new JSONObject().put("splitExport", mId).put("partFiles", partFiles)
+            .put("mergedFile", mMergedFile.getPath()).toString();
+      } catch (JSONException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    /**
+     * @return the split export a queued job is part of, or null if it's a job of its own
+     */
+    static SplitExport fromTag(String tag) {
+      if (tag == null) {
+        return null;
+      }
+      try {
+        JSONObject json = new JSONObject(tag);
+        JSONArray partFiles = json.getJSONArray("partFiles");
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < partFiles.length(); i++) {
+          files.add(new File(partFiles.getString(i)));
+        }
+        return new SplitExport(json.getString("splitExport"), files, new File(json.getString("mergedFile")));
+      } catch (JSONException e) {
+        Log.e(TAG, "Unreadable queued job tag: " + e.getMessage());
+        return null;
+      }
+    }
+  }
+
+  /**
+   * Returns the merger, listening to the process-wide queue from the first time it is called.
+   *
+   * @param context used to get the queue
+   * @return the process-wide merger
+   */
+  public static SplitExportMerger getInstance(Context context) {
+    if (sInstance == null) {
+      sInstance = new SplitExportMerger(OfflineJobQueue.getInstance(context));
+      sInstance.mOfflineJobQueue.addListener(sInstance);
+    }
+    return sInstance;
+  }
+
+  private SplitExportMerger(OfflineJobQueue offlineJobQueue) {
+    mOfflineJobQueue = offlineJobQueue;
+  }
+
+  public void addListener(Listener listener) {
+    mListeners.add(listener);
+  }
+
+  public void removeListener(Listener listener) {
+    mListeners.remove(listener);
+  }
+
+  @Override public void onJobChanged(OfflineJobQueue.QueuedJob queuedJob) {
+    // only finished parts matter
+  }
+
+  @Override public void onJobDone(OfflineJobQueue.QueuedJob queuedJob) {
+    SplitExport splitExport = SplitExport.fromTag(queuedJob.getTag());
+    if (splitExport == null) {
+      return;
+    }
+    Job partJob = queuedJob.getJob();
+    boolean othersQueued = false;
+    for (OfflineJobQueue.QueuedJob other : mOfflineJobQueue.getJobs()) {
+      SplitExport otherExport = SplitExport.fromTag(other.getTag());
+      if (otherExport != null && otherExport.mId.equals(splitExport.mId)) {
+        othersQueued = true;
+        if (partJob.getResult() == null) {
+          // without every part the merged package would have holes, so don't finish the others
+          mOfflineJobQueue.cancel(other);
+        }
+      }
+    }
+    if (partJob.getResult() == null && partJob.getStatus() != Job.Status.CANCELED) {
+      Log.e(TAG, "Part export failed: " + (partJob.getError() != null ? partJob.getError().getMessage() : ""));
+    }
+    if (!othersQueued) {
+      merge(splitExport);
+    }
+  }
+
+  /**
+   * Merges the parts of a split export once every part has finished, unless a part failed or was cancelled and left
+   * no package.
+   */
+  private void merge(SplitExport splitExport) {
+    List<File> partFiles = splitExport.mPartFiles;
+    for (File partFile : partFiles) {
+      if (!partFile.exists()) {
+        for (File existing : partFiles) {
+          existing.delete();
+        }
+        return;
+      }
+    }
+    mTilePackageMerger.mergeAsync(partFiles, splitExport.mMergedFile, new TilePackageMerger.Callback() {
+      @Override public void onMerged(File output, TilePackageMerger.Stats stats) {
+        Log.d(TAG, "Merged " + partFiles.size() + " parts: " + stats);
+        for (File partFile : partFiles) {
+          partFile.delete();
+        }
+        for (Listener listener : mListeners) {
+          listener.onMerged(output, stats);
+        }
+      }
+
+      @Override public void onFailed(Exception e) {
+        Log.e(TAG, "Failed to merge parts: " + e.getMessage());
+        for (Listener listener : mListeners) {
+          listener.onMergeFailed(partFiles, e);
+        }
+      }
+    });
+  }
+}
@@ -0,0 +1,363 @@
+/* Copyright 2021 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgisruntime.sample.exporttiles;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.esri.arcgisruntime.arcgisservices.LevelOfDetail;
+import com.esri.arcgisruntime.arcgisservices.TileInfo;
+import com.esri.arcgisruntime.geometry.Envelope;
+import com.esri.arcgisruntime.geometry.Geometry;
+import com.esri.arcgisruntime.geometry.GeometryEngine;
+
+/**
+ * Estimates how many tiles, and how many bytes, exporting an area of a tiled service will produce, before any export
+ * job is started.
+ *
+ * Tile counts are exact for the envelope of the area of interest: the rows and columns it covers are computed for each
+ * level of detail from the service's TileInfo. Sizes are estimated from a few tiles downloaded at random from each
+ * level. An area whose tile count exceeds the service's export limit can be split into smaller envelopes that each fit.
+ */
+public class TileCacheEstimator {
+
+  private static final String TAG = TileCacheEstimator.class.getSimpleName();
+
+  // used for levels where no sampled tile could be downloaded
+  private static final long DEFAULT_BYTES_PER_TILE = 20 * 1024;
+  private static final int DEFAULT_SAMPLES_PER_LEVEL = 3;
+  // halvings after which an envelope is too small to split further, well below the size of the finest tile
+  private static final int MAX_SPLIT_DEPTH = 64;
+  // a sample tile that takes longer than this is skipped, rather than holding up the estimate
+  private static final int CONNECT_TIMEOUT_MILLIS = 10000;
+  private static final int READ_TIMEOUT_MILLIS = 10000;
+
+  private final String mServiceUrl;
+  private final TileInfo mTileInfo;
+  private final Envelope mFullExtent;
+  private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+  private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+  private final Random mRandom = new Random();
+  private int mSamplesPerLevel = DEFAULT_SAMPLES_PER_LEVEL;
+
+  /**
+   * Receives an estimate on the main thread.
+   */
+  public interface Callback {
+
+    void onEstimated(Estimate estimate);
+  }
+
+  /**
+   * The tile counts and estimated sizes of an export, per level of detail.
+   */
+  public static class Estimate {
+
+    private final List<Integer> mLevelIds;
+    private final long[] mTileCounts;
+    private final long[] mBytesPerTile;
+
+    Estimate(List<Integer> levelIds, long[] tileCounts, long[] bytesPerTile) {
+      mLevelIds = levelIds;
+      mTileCounts = tileCounts;
+      mBytesPerTile = bytesPerTile;
+    }
+
+    public List<Integer> getLevelIds() {
+      return mLevelIds;
+    }
+
+    public long getTileCount(int index) {
+      return mTileCounts[index];
+    }
+
+    public long getBytesPerTile(int index) {
+      return mBytesPerTile[index];
+    }
+
+    public long getTotalTileCount() {
+      long total = 0;
+      for (long count : mTileCounts) {
+        total += count;
+      }
+      return total;
+    }
+
+    public long getTotalBytes() {
+      long total = 0;
+      for (int i = 0; i < mTileCounts.length; i++) {
+        total += mTileCounts[i] * mBytesPerTile[i];
+      }
+      return total;
+    }
+
+    @Override public String toString() {
+      return String.format(Locale.US, "%d tiles, about %.1f MB", getTotalTileCount(),
+          getTotalBytes() / (1024.0 * 1024.0));
+    }
+  }
+
+  /**
+   * The envelopes an area was split into, and which of them still export more tiles than asked for.
+   */
+  public static class Split {
+
+    private final List<Envelope> mParts;
+    private final List<Envelope> mOversizedParts;
+
+    Split(List<Envelope> parts, List<Envelope> oversizedParts) {
+      mParts = parts;
+      mOversizedParts = oversizedParts;
+    }
+
+    /**
+     * @return every part, covering the whole area
+     */
+    public List<Envelope> getParts() {
+      return mParts;
+    }
+
+    /**
+     * @return the parts which could not be split below the tile count, because they already cover only one tile per
+     * level
+     */
+    public List<Envelope> getOversizedParts() {
+      return mOversizedParts;
+    }
+  }
+
+  /**
+   * @param serviceUrl the URL of the tiled map service, used to download sample tiles
+   * @param tileInfo the tiling scheme of the service, for example from ArcGISTiledLayer.getTileInfo()
+   * @param fullExtent the extent the service has tiles for, for example from ArcGISTiledLayer.getFullExtent()
+   */
+  public TileCacheEstimator(String serviceUrl, TileInfo tileInfo, Envelope fullExtent) {
+    mServiceUrl = serviceUrl;
+    mTileInfo = tileInfo;
+    mFullExtent = toTileInfoExtent(fullExtent);
+  }
+
+  public void setSamplesPerLevel(int samplesPerLevel) {
+    mSamplesPerLevel = samplesPerLevel;
+  }
+
+  /**
+   * Counts the tiles covering an area at each level, without any network requests.
+   *
+   * @param areaOfInterest the area to export, in any spatial reference
+   * @param levelIds the levels to export, as in ExportTileCacheParameters.getLevelIds()
+   * @return the number of tiles at each level, in the order of the level ids
+   */
+  public long[] countTiles(Geometry areaOfInterest, List<Integer> levelIds) {
+    Envelope extent = toTileInfoExtent(areaOfInterest);
+    long[] counts = new long[levelIds.size()];
+    for (int i = 0; i < levelIds.size(); i++) {
+      long[] range = tileRange(extent, levelIds.get(i));
+      counts[i] = range == null ? 0 : (range[2] - range[0] + 1) * (range[3] - range[1] + 1);
+    }
+    return counts;
+  }
+
+  /**
+   * Counts the tiles covering an area at each level, and estimates their size from sample tiles downloaded in the
+   * background.
+   *
+   * @param areaOfInterest the area to export, in any spatial reference
+   * @param levelIds the levels to export
+   * @param callback receives the estimate on the main thread
+   */
+  public void estimateAsync(Geometry areaOfInterest, List<Integer> levelIds, Callback callback) {
+    Envelope extent = toTileInfoExtent(areaOfInterest);
+    List<Integer> levels = new ArrayList<>(levelIds);
+    long[] counts = countTiles(extent, levels);
+    mExecutor.execute(() -> {
+      long[] bytesPerTile = new long[levels.size()];
+      for (int i = 0; i < levels.size(); i++) {
+        bytesPerTile[i] = sampleBytesPerTile(extent, levels.get(i));
+      }
+      Estimate estimate = new Estimate(levels, counts, bytesPerTile);
+      mMainHandler.post(() -> callback.onEstimated(estimate));
+    });
+  }
+
+  /**
+   * Splits an area into envelopes that each export no more than the given number of tiles, by repeatedly halving the
+   * envelopes that are too large along their longer side. Tiles on the boundary between two envelopes are counted in
+   * both. Halving stops only once an envelope fits, or covers a single tile at each level and can't get any smaller,
+   * in which case it is reported as oversized.
+   *
+   * @param areaOfInterest the area to export, in any spatial reference
+   * @param levelIds the levels to export
+   * @param maxTileCount the most tiles one export may contain, for example
+   * ArcGISMapServiceInfo.getMaxExportTilesCount()
+   * @return envelopes in the tiling scheme's spatial reference covering the area, and those still too large
+   */
+  public Split split(Geometry areaOfInterest, List<Integer> levelIds, long maxTileCount) {
+    List<Envelope> parts = new ArrayList<>();
+    List<Envelope> oversizedParts = new ArrayList<>();
+    split(toTileInfoExtent(areaOfInterest), levelIds, maxTileCount, 0, parts, oversizedParts);
+    return new Split(parts, oversizedParts);
+  }
+
+  public void shutdown() {
+    mExecutor.shutdownNow();
+  }
+
+  private void split(Envelope extent, List<Integer> levelIds, long maxTileCount, int depth, List<Envelope> parts,
+      List<Envelope> oversizedParts) {
+    long total = 0;
+    for (long count : countTiles(extent, levelIds)) {
+      total += count;
+    }
+    if (total <= maxTileCount) {
+      parts.add(extent);
+      return;
+    }
+    if (total <= levelIds.size() || depth >= MAX_SPLIT_DEPTH) {
+      // one tile per level is the least an envelope can cover, so halving it again wouldn't help
+      Log.w(TAG, "Part of " + total + " tiles can't be split below " + maxTileCount + " tiles");
+      parts.add(extent);
+      oversizedParts.add(extent);
+      return;
+    }
+    double xMin = extent.getXMin();
+    double yMin = extent.getYMin();
+    double xMax = extent.getXMax();
+    double yMax = extent.getYMax();
+    if (extent.getWidth() >= extent.getHeight()) {
+      double xMid = (xMin + xMax) / 2;
+      split(new Envelope(xMin, yMin, xMid, yMax, extent.getSpatialReference()), levelIds, maxTileCount, depth + 1,
+          parts, oversizedParts);
+      split(new Envelope(xMid, yMin, xMax, yMax, extent.getSpatialReference()), levelIds, maxTileCount, depth + 1,
+          parts, oversizedParts);
+    } else {
+      double yMid = (yMin + yMax) / 2;
+      split(new Envelope(xMin, yMin, xMax, yMid, extent.getSpatialReference()), levelIds, maxTileCount, depth + 1,
+          parts, oversizedParts);
+      split(new Envelope(xMin, yMid, xMax, yMax, extent.getSpatialReference()), levelIds, maxTileCount, depth + 1,
+          parts, oversizedParts);
+    }
+  }
+
+  private Envelope toTileInfoExtent(Geometry areaOfInterest) {
+    Geometry geometry = areaOfInterest;
+    if (mTileInfo.getSpatialReference() != null &&
+        !mTileInfo.getSpatialReference().equals(areaOfInterest.getSpatialReference())) {
+      geometry = GeometryEngine.project(areaOfInterest, mTileInfo.getSpatialReference());
+    }
+    return geometry.getExtent();
+  }
+
+  /**
+   * Returns the first column, first row, last column and last row of the tiles covering the extent at the given
+   * level, within the service's full extent, or null if the tiling scheme has no such level or the extent is outside
+   * the full extent.
+   */
+  private long[] tileRange(Envelope extent, int levelId) {
+    LevelOfDetail levelOfDetail = null;
+    for (LevelOfDetail candidate : mTileInfo.getLevelsOfDetail()) {
+      if (candidate.getLevel() == levelId) {
+        levelOfDetail = candidate;
+        break;
+      }
+    }
+    if (levelOfDetail == null) {
+      return null;
+    }
+    double tileWidth = mTileInfo.getTileWidth() * levelOfDetail.getResolution();
+    double tileHeight = mTileInfo.getTileHeight() * levelOfDetail.getResolution();
+    double originX = mTileInfo.getOrigin().getX();
+    double originY = mTileInfo.getOrigin().getY();
+    // rows count down from the origin at the top left of the tiling scheme, and there are no tiles beyond the full
+    // extent, so an area reaching past it doesn't count tiles the export won't contain
+    long minColumn = Math.max(0, (long) Math.floor((mFullExtent.getXMin() - originX) / tileWidth));
+    long maxColumn = (long) Math.ceil((mFullExtent.getXMax() - originX) / tileWidth) - 1;
+    long minRow = Math.max(0, (long) Math.floor((originY - mFullExtent.getYMax()) / tileHeight));
+    long maxRow = (long) Math.ceil((originY - mFullExtent.getYMin()) / tileHeight) - 1;
+    long firstColumn = Math.max(minColumn, (long) Math.floor((extent.getXMin() - originX) / tileWidth));
+    long lastColumn = Math.min(maxColumn, (long) Math.floor((extent.getXMax() - originX) / tileWidth));
+    long firstRow = Math.max(minRow, (long) Math.floor((originY - extent.getYMax()) / tileHeight));
+    long lastRow = Math.min(maxRow, (long) Math.floor((originY - extent.getYMin()) / tileHeight));
+    if (firstColumn > lastColumn || firstRow > lastRow) {
+      return null;
+    }
+    return new long[] { firstColumn, firstRow, lastColumn, lastRow };
+  }
+
+  /**
+   * Downloads a few random tiles from the level and returns their mean size.
+   */
+  private long sampleBytesPerTile(Envelope extent, int levelId) {
+    long[] range = tileRange(extent, levelId);
+    if (range == null) {
+      return DEFAULT_BYTES_PER_TILE;
+    }
+    long totalBytes = 0;
+    int sampled = 0;
+    for (int i = 0; i < mSamplesPerLevel; i++) {
+      long column = range[0] + (long) (mRandom.nextDouble() * (range[2] - range[0] + 1));
+      long row = range[1] + (long) (mRandom.nextDouble() * (range[3] - range[1] + 1));
+      long bytes = downloadTile(levelId, row, column);
+      if (bytes > 0) {
+        totalBytes += bytes;
+        sampled++;
+      }
+    }
+    return sampled == 0 ? DEFAULT_BYTES_PER_TILE : totalBytes / sampled;
+  }
+
+  private long downloadTile(int levelId, long row, long column) {
+    HttpURLConnection connection = null;
+    try {
+      URL url = new URL(String.format(Locale.US, "%s/tile/%d/%d/%d", mServiceUrl, levelId, row, column));
+      connection = (HttpURLConnection) url.openConnection();
+      connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+      connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+      if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+        return -1;
+      }
+      long bytes = 0;
+      byte[] buffer = new byte[8192];
+      try (InputStream inputStream = connection.getInputStream()) {
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+          bytes += read;
+        }
+      }
+      return bytes;
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to sample tile " + levelId + "/" + row + "/" + column + ": " + e.getMessage());
+      return -1;
+    } finally {
+      if (connection != null) {
+        connection.disconnect();
+      }
+    }
+  }
+}
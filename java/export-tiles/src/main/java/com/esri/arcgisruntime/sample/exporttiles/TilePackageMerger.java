@@ -0,0 +1,519 @@
+/* Copyright 2021 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgisruntime.sample.exporttiles;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Merges tile packages exported for neighbouring areas into a single tile package.
+ *
+ * The inputs must be .tpkx packages, whose tiles are stored in compact cache V2 bundles. Bundles with the same path
+ * in several inputs are merged tile by tile, keeping the first copy of tiles exported more than once where the areas
+ * meet. Within each bundle, tiles with identical content, such as empty ocean tiles, are stored once and shared by
+ * all their index entries. The extents in root.json are grown to cover every input. Every other file of every input is
+ * copied once: a file found in only one input, or with the same content in each, is copied as it is. Tile maps that
+ * differ between inputs each list only their own input's tiles, so they are left out and tiles are looked up in the
+ * bundles instead. Any other file that differs, such as the item description, is taken from the first input holding
+ * it.
+ *
+ * Bundles are merged one at a time and streamed tile by tile, so memory use doesn't grow with the size of the cache.
+ */
+public class TilePackageMerger {
+
+  private static final String ROOT_JSON = "root.json";
+  private static final String BUNDLE_EXTENSION = ".bundle";
+  private static final String LEGACY_INDEX_EXTENSION = ".bundlx";
+  private static final String TILEMAP = "tilemap";
+
+  // compact cache V2 bundle layout
+  private static final int BUNDLE_VERSION = 3;
+  private static final int TILES_PER_BUNDLE = 128 * 128;
+  private static final int HEADER_SIZE = 64;
+  private static final int INDEX_SIZE = 8 * TILES_PER_BUNDLE;
+  private static final long OFFSET_MASK = (1L << 40) - 1;
+
+  private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+  private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+  /**
+   * Receives the outcome of a merge on the main thread.
+   */
+  public interface Callback {
+
+    void onMerged(File output, Stats stats);
+
+    void onFailed(Exception e);
+  }
+
+  /**
+   * Counts of the tiles read and written by a merge.
+   */
+  public static class Stats {
+
+    private long mInputTiles;
+    private long mDuplicateTiles;
+    private long mSharedTiles;
+    private long mBytesWritten;
+
+    public long getInputTiles() {
+      return mInputTiles;
+    }
+
+    /**
+     * @return tiles present in more than one input, of which only the first copy was kept
+     */
+    public long getDuplicateTiles() {
+      return mDuplicateTiles;
+    }
+
+    /**
+     * @return tiles whose content was already stored in the same bundle, so they share that copy
+     */
+    public long getSharedTiles() {
+      return mSharedTiles;
+    }
+
+    public long getBytesWritten() {
+      return mBytesWritten;
+    }
+
+    @Override public String toString() {
+      return mInputTiles + " tiles read, " + mDuplicateTiles + " duplicates dropped, " + mSharedTiles +
+          " shared, " + mBytesWritten + " bytes written";
+    }
+  }
+
+  /**
+   * Merges tile packages in the background.
+   *
+   * @param inputs the tile packages to merge, earlier packages taking precedence
+   * @param output the tile package to write
+   * @param callback receives the result on the main thread
+   */
+  public void mergeAsync(List<File> inputs, File output, Callback callback) {
+    mExecutor.execute(() -> {
+      try {
+        Stats stats = merge(inputs, output);
+        mMainHandler.post(() -> callback.onMerged(output, stats));
+      } catch (IOException | JSONException e) {
+        output.delete();
+        mMainHandler.post(() -> callback.onFailed(e));
+      }
+    });
+  }
+
+  public void shutdown() {
+    mExecutor.shutdownNow();
+  }
+
+  /**
+   * Merges tile packages on the calling thread.
+   *
+   * @param inputs the tile packages to merge, earlier packages taking precedence
+   * @param output the tile package to write
+   * @return counts of the tiles merged
+   * @throws IOException if a package can't be read or written, or isn't a compact cache V2 tile package
+   * @throws JSONException if a package's root.json can't be parsed
+   */
+  public Stats merge(List<File> inputs, File output) throws IOException, JSONException {
+    Stats stats = new Stats();
+    List<ZipFile> zipFiles = new ArrayList<>();
+    // the tiles of each merged bundle are staged here, until the bundle's size and checksum are known
+    File tileDataFile = new File(output.getPath() + ".tiles");
+    try {
+      // group the entries of all inputs by path, in the order they first appear
+      Map<String, List<ZipFile>> entries = new LinkedHashMap<>();
+      for (File input : inputs) {
+        ZipFile zipFile = new ZipFile(input);
+        zipFiles.add(zipFile);
+        Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+        while (zipEntries.hasMoreElements()) {
+          ZipEntry entry = zipEntries.nextElement();
+          if (entry.getName().endsWith(LEGACY_INDEX_EXTENSION)) {
+            throw new IOException(input.getName() + " uses compact cache V1 bundles, export to .tpkx to merge");
+          }
+          if (!entry.isDirectory()) {
+            List<ZipFile> sources = entries.get(entry.getName());
+            if (sources == null) {
+              sources = new ArrayList<>();
+              entries.put(entry.getName(), sources);
+            }
+            sources.add(zipFile);
+          }
+        }
+      }
+
+      try (ZipOutputStream outputStream = new ZipOutputStream(new FileOutputStream(output))) {
+        for (Map.Entry<String, List<ZipFile>> entry : entries.entrySet()) {
+          String name = entry.getKey();
+          if (name.endsWith(BUNDLE_EXTENSION)) {
+            stats.mBytesWritten += mergeBundles(name, entry.getValue(), tileDataFile, outputStream, stats);
+          } else if (name.equals(ROOT_JSON)) {
+            byte[] bytes = mergeRootJson(entry.getValue());
+            writeStored(outputStream, name, bytes);
+            stats.mBytesWritten += bytes.length;
+          } else if (!name.toLowerCase(Locale.US).contains(TILEMAP) || isSameInEach(name, entry.getValue())) {
+            // a tile map of one input only would hide the tiles of the others, so differing tile maps are left out
+            stats.mBytesWritten += copyStored(entry.getValue().get(0), name, outputStream);
+          }
+        }
+      }
+    } finally {
+      for (ZipFile zipFile : zipFiles) {
+        zipFile.close();
+      }
+      tileDataFile.delete();
+    }
+    return stats;
+  }
+
+  /**
+   * Merges the bundles with the given path into a single bundle, written to the output package.
+   *
+   * Only the indexes of the bundles are held in memory. Tiles are streamed from each input bundle in the order they are
+   * stored, one at a time, and identical tiles are recognised by their digest.
+   *
+   * @return the size of the merged bundle
+   */
+  private static long mergeBundles(String name, List<ZipFile> sources, File tileDataFile,
+      ZipOutputStream outputStream, Stats stats) throws IOException {
+    // the input each tile is taken from, the first one holding it, and its index entry there
+    int[] tileSources = new int[TILES_PER_BUNDLE];
+    long[] tileEntries = new long[TILES_PER_BUNDLE];
+    Arrays.fill(tileSources, -1);
+    for (int source = 0; source < sources.size(); source++) {
+      ByteBuffer header = ByteBuffer.wrap(readHeader(sources.get(source), name)).order(ByteOrder.LITTLE_ENDIAN);
+      for (int i = 0; i < TILES_PER_BUNDLE; i++) {
+        long indexEntry = header.getLong(HEADER_SIZE + i * 8);
+        if ((indexEntry >>> 40) == 0) {
+          continue;
+        }
+        stats.mInputTiles++;
+        if (tileSources[i] >= 0) {
+          stats.mDuplicateTiles++;
+          continue;
+        }
+        tileSources[i] = source;
+        tileEntries[i] = indexEntry;
+      }
+    }
+
+    long[] outputEntries = new long[TILES_PER_BUNDLE];
+    Map<ByteBuffer, Long> offsets = new HashMap<>();
+    MessageDigest digest = newDigest();
+    long tileDataSize = 0;
+    int maxTileSize = 0;
+    ByteBuffer sizePrefix = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+    try (OutputStream tileData = new BufferedOutputStream(new FileOutputStream(tileDataFile))) {
+      for (int source = 0; source < sources.size(); source++) {
+        List<Integer> slots = new ArrayList<>();
+        for (int i = 0; i < TILES_PER_BUNDLE; i++) {
+          if (tileSources[i] == source) {
+            slots.add(i);
+          }
+        }
+        if (slots.isEmpty()) {
+          continue;
+        }
+        // read the tiles in the order they are stored, so the bundle is read once from start to end
+        Collections.sort(slots, (first, second) -> Long.compare(tileEntries[first] & OFFSET_MASK,
+            tileEntries[second] & OFFSET_MASK));
+        ZipFile zipFile = sources.get(source);
+        try (InputStream inputStream = new BufferedInputStream(zipFile.getInputStream(zipFile.getEntry(name)))) {
+          long position = 0;
+          long tileOffset = -1;
+          byte[] tile = null;
+          for (int slot : slots) {
+            long offset = tileEntries[slot] & OFFSET_MASK;
+            int size = (int) (tileEntries[slot] >>> 40);
+            // tiles sharing one copy within the input are only read once
+            if (offset != tileOffset) {
+              if (offset < position) {
+                throw new IOException(name + " in " + zipFile.getName() + " has overlapping tiles");
+              }
+              skipFully(inputStream, offset - position);
+              tile = new byte[size];
+              readFully(inputStream, tile);
+              position = offset + size;
+              tileOffset = offset;
+            }
+            ByteBuffer key = ByteBuffer.wrap(digest.digest(tile));
+            Long outputOffset = offsets.get(key);
+            if (outputOffset == null) {
+              sizePrefix.clear();
+              sizePrefix.putInt(tile.length);
+              tileData.write(sizePrefix.array(), 0, 4);
+              // offsets point past the size prefix, to the tile itself
+              outputOffset = HEADER_SIZE + INDEX_SIZE + tileDataSize + 4;
+              tileData.write(tile);
+              tileDataSize += 4 + tile.length;
+              offsets.put(key, outputOffset);
+              maxTileSize = Math.max(maxTileSize, tile.length);
+            } else {
+              stats.mSharedTiles++;
+            }
+            outputEntries[slot] = outputOffset | ((long) tile.length << 40);
+          }
+        }
+      }
+    }
+
+    long fileSize = HEADER_SIZE + INDEX_SIZE + tileDataSize;
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + INDEX_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    header.putInt(BUNDLE_VERSION);
+    header.putInt(TILES_PER_BUNDLE);
+    header.putInt(maxTileSize);
+    // offset byte count
+    header.putInt(5);
+    // slack space
+    header.putLong(0);
+    header.putLong(fileSize);
+    // user header offset and size
+    header.putLong(40);
+    header.putInt(20 + INDEX_SIZE);
+    // legacy fields
+    header.putInt(3);
+    header.putInt(16);
+    header.putInt(TILES_PER_BUNDLE);
+    header.putInt(5);
+    header.putInt(INDEX_SIZE);
+    for (long outputEntry : outputEntries) {
+      header.putLong(outputEntry);
+    }
+
+    // stored entries need their checksum up front, so the staged tiles are read twice
+    CRC32 crc = new CRC32();
+    crc.update(header.array());
+    try (InputStream inputStream = new FileInputStream(tileDataFile)) {
+      copy(inputStream, null, crc);
+    }
+    ZipEntry entry = newStoredEntry(name, fileSize, crc.getValue());
+    outputStream.putNextEntry(entry);
+    outputStream.write(header.array());
+    try (InputStream inputStream = new FileInputStream(tileDataFile)) {
+      copy(inputStream, outputStream, null);
+    }
+    outputStream.closeEntry();
+    return fileSize;
+  }
+
+  /**
+   * Reads the header and tile index at the start of a compact cache V2 bundle.
+   */
+  private static byte[] readHeader(ZipFile zipFile, String name) throws IOException {
+    byte[] header = new byte[HEADER_SIZE + INDEX_SIZE];
+    try (InputStream inputStream = zipFile.getInputStream(zipFile.getEntry(name))) {
+      readFully(inputStream, header);
+    } catch (EOFException e) {
+      throw new IOException(name + " in " + zipFile.getName() + " isn't a compact cache V2 bundle");
+    }
+    if (ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN).getInt(0) != BUNDLE_VERSION) {
+      throw new IOException(name + " in " + zipFile.getName() + " isn't a compact cache V2 bundle");
+    }
+    return header;
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      // every Android release provides SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Takes root.json from the first package, with its extents grown to cover the extents of every package.
+   */
+  private static byte[] mergeRootJson(List<ZipFile> sources) throws IOException, JSONException {
+    JSONObject merged = new JSONObject(new String(read(sources.get(0), ROOT_JSON), StandardCharsets.UTF_8));
+    for (int i = 1; i < sources.size(); i++) {
+      JSONObject root = new JSONObject(new String(read(sources.get(i), ROOT_JSON), StandardCharsets.UTF_8));
+      for (String extentName : new String[] { "fullExtent", "initialExtent" }) {
+        JSONObject extent = merged.optJSONObject(extentName);
+        JSONObject other = root.optJSONObject(extentName);
+        if (extent != null && other != null) {
+          extent.put("xmin", Math.min(extent.getDouble("xmin"), other.getDouble("xmin")));
+          extent.put("ymin", Math.min(extent.getDouble("ymin"), other.getDouble("ymin")));
+          extent.put("xmax", Math.max(extent.getDouble("xmax"), other.getDouble("xmax")));
+          extent.put("ymax", Math.max(extent.getDouble("ymax"), other.getDouble("ymax")));
+        }
+      }
+    }
+    return merged.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static byte[] read(ZipFile zipFile, String name) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (InputStream inputStream = zipFile.getInputStream(zipFile.getEntry(name))) {
+      copy(inputStream, bytes, null);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * @return whether an entry has the same size and checksum in each of the packages holding it
+   */
+  private static boolean isSameInEach(String name, List<ZipFile> sources) throws IOException {
+    long size = -1;
+    long crc = -1;
+    for (ZipFile zipFile : sources) {
+      ZipEntry entry = zipFile.getEntry(name);
+      long entrySize = entry.getSize();
+      long entryCrc = entry.getCrc();
+      if (entrySize < 0 || entryCrc < 0) {
+        CRC32 checksum = new CRC32();
+        try (InputStream inputStream = zipFile.getInputStream(entry)) {
+          entrySize = copy(inputStream, null, checksum);
+        }
+        entryCrc = checksum.getValue();
+      }
+      if (size >= 0 && (entrySize != size || entryCrc != crc)) {
+        return false;
+      }
+      size = entrySize;
+      crc = entryCrc;
+    }
+    return true;
+  }
+
+  /**
+   * Copies an entry of an input package to the output package uncompressed, without holding it in memory.
+   *
+   * @return the size of the entry
+   */
+  private static long copyStored(ZipFile zipFile, String name, ZipOutputStream outputStream) throws IOException {
+    ZipEntry source = zipFile.getEntry(name);
+    long size = source.getSize();
+    long crc = source.getCrc();
+    if (size < 0 || crc < 0) {
+      CRC32 checksum = new CRC32();
+      try (InputStream inputStream = zipFile.getInputStream(source)) {
+        size = copy(inputStream, null, checksum);
+      }
+      crc = checksum.getValue();
+    }
+    outputStream.putNextEntry(newStoredEntry(name, size, crc));
+    try (InputStream inputStream = zipFile.getInputStream(source)) {
+      copy(inputStream, outputStream, null);
+    }
+    outputStream.closeEntry();
+    return size;
+  }
+
+  /**
+   * Writes an uncompressed entry, since tile packages are read in place and their tiles are already compressed.
+   */
+  private static void writeStored(ZipOutputStream outputStream, String name, byte[] bytes) throws IOException {
+    CRC32 crc = new CRC32();
+    crc.update(bytes);
+    outputStream.putNextEntry(newStoredEntry(name, bytes.length, crc.getValue()));
+    outputStream.write(bytes);
+    outputStream.closeEntry();
+  }
+
+  private static ZipEntry newStoredEntry(String name, long size, long crc) {
+    ZipEntry entry = new ZipEntry(name);
+    entry.setMethod(ZipEntry.STORED);
+    entry.setSize(size);
+    entry.setCompressedSize(size);
+    entry.setCrc(crc);
+    return entry;
+  }
+
+  /**
+   * Copies a stream to an output stream and a checksum, either of which may be null.
+   *
+   * @return the number of bytes copied
+   */
+  private static long copy(InputStream inputStream, OutputStream outputStream, CRC32 crc) throws IOException {
+    byte[] buffer = new byte[8192];
+    long total = 0;
+    int read;
+    while ((read = inputStream.read(buffer)) != -1) {
+      if (outputStream != null) {
+        outputStream.write(buffer, 0, read);
+      }
+      if (crc != null) {
+        crc.update(buffer, 0, read);
+      }
+      total += read;
+    }
+    return total;
+  }
+
+  private static void readFully(InputStream inputStream, byte[] bytes) throws IOException {
+    int offset = 0;
+    while (offset < bytes.length) {
+      int read = inputStream.read(bytes, offset, bytes.length - offset);
+      if (read == -1) {
+        throw new EOFException();
+      }
+      offset += read;
+    }
+  }
+
+  private static void skipFully(InputStream inputStream, long count) throws IOException {
+    long remaining = count;
+    while (remaining > 0) {
+      long skipped = inputStream.skip(remaining);
+      if (skipped <= 0) {
+        // skip() may stop short without reaching the end, so read a byte to tell the two apart
+        if (inputStream.read() == -1) {
+          throw new EOFException();
+        }
+        skipped = 1;
+      }
+      remaining -= skipped;
+    }
+  }
+}
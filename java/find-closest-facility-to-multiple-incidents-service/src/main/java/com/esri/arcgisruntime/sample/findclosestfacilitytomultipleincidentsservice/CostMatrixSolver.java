@@ -0,0 +1,359 @@
+/*
+ *  Copyright 2021 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.esri.arcgisruntime.sample.findclosestfacilitytomultipleincidentsservice;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.util.Log;
+
+import com.esri.arcgisruntime.concurrent.ListenableFuture;
+import com.esri.arcgisruntime.geometry.Point;
+import com.esri.arcgisruntime.geometry.Polyline;
+import com.esri.arcgisruntime.tasks.networkanalysis.ClosestFacilityParameters;
+import com.esri.arcgisruntime.tasks.networkanalysis.ClosestFacilityResult;
+import com.esri.arcgisruntime.tasks.networkanalysis.ClosestFacilityRoute;
+import com.esri.arcgisruntime.tasks.networkanalysis.ClosestFacilityTask;
+import com.esri.arcgisruntime.tasks.networkanalysis.Facility;
+import com.esri.arcgisruntime.tasks.networkanalysis.Incident;
+
+/**
+ * Computes the travel time from every incident to every facility with a closest facility task.
+ *
+ * The incidents are split into partitions which are solved concurrently, each against every facility. Travel times are
+ * cached by the locations of the incident and facility, so when the matrix is recomputed only pairs involving a new or
+ * moved location are solved: new incidents against every facility, and the remaining incidents against new facilities
+ * only.
+ */
+public class CostMatrixSolver {
+
+  private static final String TAG = CostMatrixSolver.class.getSimpleName();
+
+  private final ClosestFacilityTask mClosestFacilityTask;
+  private final double mLocationTolerance;
+  private final Map<String, CachedRoute> mCache;
+
+  private int mIncidentsPerSolve = 25;
+  private int mMaxConcurrentSolves = 4;
+  private boolean mKeepRoutes;
+  private Solve mCurrentSolve;
+
+  /**
+   * Receives a solved matrix on the main thread.
+   */
+  public interface Callback {
+
+    void onSolved(CostMatrix costMatrix);
+
+    void onFailed(String error);
+  }
+
+  /**
+   * Travel times from incidents to facilities, in minutes, in the order they were given to {@link #solveAsync}.
+   */
+  public static class CostMatrix {
+
+    private final double[][] mCosts;
+    private final Polyline[][] mRoutes;
+    private int mCachedPairs;
+
+    private CostMatrix(int incidents, int facilities, boolean keepRoutes) {
+      mCosts = new double[incidents][facilities];
+      mRoutes = keepRoutes ? new Polyline[incidents][facilities] : null;
+    }
+
+    /**
+     * @return travel times indexed by incident then facility, infinite where there is no route
+     */
+    public double[][] getCosts() {
+      return mCosts;
+    }
+
+    /**
+     * @return the index of the facility nearest the incident, or -1 if no facility can be reached
+     */
+    public int getNearestFacility(int incident) {
+      int nearest = -1;
+      for (int facility = 0; facility < mCosts[incident].length; facility++) {
+        if (mCosts[incident][facility] < Double.POSITIVE_INFINITY
+            && (nearest < 0 || mCosts[incident][facility] < mCosts[incident][nearest])) {
+          nearest = facility;
+        }
+      }
+      return nearest;
+    }
+
+    /**
+     * @return the route from the incident to the facility, or null if there is none or routes aren't kept
+     */
+    public Polyline getRoute(int incident, int facility) {
+      return mRoutes != null ? mRoutes[incident][facility] : null;
+    }
+
+    /**
+     * @return the number of pairs taken from the cache instead of being solved
+     */
+    public int getCachedPairs() {
+      return mCachedPairs;
+    }
+  }
+
+  private static class CachedRoute {
+
+    private final double mCost;
+    private final Polyline mGeometry;
+
+    private CachedRoute(double cost, Polyline geometry) {
+      mCost = cost;
+      mGeometry = geometry;
+    }
+  }
+
+  /**
+   * @param closestFacilityTask a loaded closest facility task
+   * @param locationTolerance how far, in the units of the locations' spatial reference, a location can move and still
+   * be treated as the same location
+   * @param maxCachedPairs the most incident and facility pairs to keep in the cache
+   */
+  public CostMatrixSolver(ClosestFacilityTask closestFacilityTask, double locationTolerance, int maxCachedPairs) {
+    mClosestFacilityTask = closestFacilityTask;
+    mLocationTolerance = locationTolerance;
+    mCache = new LinkedHashMap<String, CachedRoute>(16, 0.75f, true) {
+      @Override protected boolean removeEldestEntry(Map.Entry<String, CachedRoute> eldest) {
+        return size() > maxCachedPairs;
+      }
+    };
+  }
+
+  /**
+   * Sets how the incidents are split between solves.
+   *
+   * @param incidentsPerSolve the most incidents to send in one solve
+   * @param maxConcurrentSolves the most solves to run at once
+   */
+  public void setPartitioning(int incidentsPerSolve, int maxConcurrentSolves) {
+    mIncidentsPerSolve = incidentsPerSolve;
+    mMaxConcurrentSolves = maxConcurrentSolves;
+  }
+
+  /**
+   * Keeps the geometry of every route, so it can be drawn. Routes take far more memory than travel times, so leave
+   * this off for large matrices.
+   */
+  public void setKeepRoutes(boolean keepRoutes) {
+    if (keepRoutes != mKeepRoutes) {
+      mCache.clear();
+    }
+    mKeepRoutes = keepRoutes;
+  }
+
+  public void clearCache() {
+    mCache.clear();
+  }
+
+  /**
+   * Computes the travel time from every incident to every facility. A solve still running is abandoned, though the
+   * travel times it finds are still cached.
+   *
+   * @param incidents the incident locations
+   * @param facilities the facility locations
+   * @param callback notified on the main thread
+   */
+  public void solveAsync(List<Point> incidents, List<Point> facilities, Callback callback) {
+    Solve solve = new Solve(incidents, facilities, callback);
+    mCurrentSolve = solve;
+    solve.start();
+  }
+
+  /**
+   * One computation of the matrix.
+   */
+  private class Solve {
+
+    private final List<Point> mIncidents;
+    private final List<Point> mFacilities;
+    private final String[] mIncidentKeys;
+    private final String[] mFacilityKeys;
+    private final Callback mCallback;
+    private final CostMatrix mCostMatrix;
+    private final ArrayDeque<int[][]> mPartitions = new ArrayDeque<>();
+    private int mRunning;
+    private boolean mFailed;
+
+    private Solve(List<Point> incidents, List<Point> facilities, Callback callback) {
+      mIncidents = incidents;
+      mFacilities = facilities;
+      mCallback = callback;
+      mCostMatrix = new CostMatrix(incidents.size(), facilities.size(), mKeepRoutes);
+      mIncidentKeys = new String[incidents.size()];
+      for (int i = 0; i < incidents.size(); i++) {
+        mIncidentKeys[i] = locationKey(incidents.get(i));
+      }
+      mFacilityKeys = new String[facilities.size()];
+      for (int j = 0; j < facilities.size(); j++) {
+        mFacilityKeys[j] = locationKey(facilities.get(j));
+      }
+    }
+
+    private void start() {
+      // fill the matrix from the cache, noting which incidents and facilities have pairs missing
+      boolean[] incidentMissing = new boolean[mIncidents.size()];
+      boolean[] facilityMissing = new boolean[mFacilities.size()];
+      for (int i = 0; i < mIncidents.size(); i++) {
+        for (int j = 0; j < mFacilities.size(); j++) {
+          CachedRoute cachedRoute = mCache.get(mIncidentKeys[i] + "|" + mFacilityKeys[j]);
+          if (cachedRoute == null) {
+            incidentMissing[i] = true;
+            facilityMissing[j] = true;
+          } else {
+            set(i, j, cachedRoute);
+            mCostMatrix.mCachedPairs++;
+          }
+        }
+      }
+      List<Integer> missingIncidents = new ArrayList<>();
+      List<Integer> completeIncidents = new ArrayList<>();
+      for (int i = 0; i < mIncidents.size(); i++) {
+        (incidentMissing[i] ? missingIncidents : completeIncidents).add(i);
+      }
+      List<Integer> missingFacilities = new ArrayList<>();
+      List<Integer> allFacilities = new ArrayList<>();
+      for (int j = 0; j < mFacilities.size(); j++) {
+        if (facilityMissing[j]) {
+          missingFacilities.add(j);
+        }
+        allFacilities.add(j);
+      }
+      // new incidents need every facility, the others only the facilities they haven't been solved against
+      addPartitions(missingIncidents, allFacilities);
+      addPartitions(completeIncidents, missingFacilities);
+      Log.i(TAG, "Solving " + mPartitions.size() + " partitions, " + mCostMatrix.mCachedPairs + " pairs cached");
+      startPartitions();
+    }
+
+    private void addPartitions(List<Integer> incidents, List<Integer> facilities) {
+      if (facilities.isEmpty()) {
+        return;
+      }
+      int[] facilityIndexes = toArray(facilities);
+      for (int start = 0; start < incidents.size(); start += mIncidentsPerSolve) {
+        int end = Math.min(incidents.size(), start + mIncidentsPerSolve);
+        mPartitions.add(new int[][] { toArray(incidents.subList(start, end)), facilityIndexes });
+      }
+    }
+
+    private void startPartitions() {
+      if (mPartitions.isEmpty() && mRunning == 0) {
+        if (mCurrentSolve == this) {
+          mCallback.onSolved(mCostMatrix);
+        }
+        return;
+      }
+      while (!mFailed && mRunning < mMaxConcurrentSolves && !mPartitions.isEmpty()) {
+        int[][] partition = mPartitions.poll();
+        mRunning++;
+        solvePartition(partition[0], partition[1]);
+      }
+    }
+
+    private void solvePartition(int[] incidentIndexes, int[] facilityIndexes) {
+      ListenableFuture<ClosestFacilityParameters> parametersFuture =
+          mClosestFacilityTask.createDefaultParametersAsync();
+      parametersFuture.addDoneListener(() -> {
+        try {
+          ClosestFacilityParameters parameters = parametersFuture.get();
+          List<Incident> incidents = new ArrayList<>();
+          for (int i : incidentIndexes) {
+            incidents.add(new Incident(mIncidents.get(i)));
+          }
+          List<Facility> facilities = new ArrayList<>();
+          for (int j : facilityIndexes) {
+            facilities.add(new Facility(mFacilities.get(j)));
+          }
+          parameters.setIncidents(incidents);
+          parameters.setFacilities(facilities);
+          // route to every facility rather than just the nearest
+          parameters.setDefaultTargetFacilityCount(facilities.size());
+          parameters.setReturnDirections(false);
+          ListenableFuture<ClosestFacilityResult> resultFuture = mClosestFacilityTask
+              .solveClosestFacilityAsync(parameters);
+          resultFuture.addDoneListener(() -> {
+            try {
+              storeResult(resultFuture.get(), incidentIndexes, facilityIndexes);
+              mRunning--;
+              startPartitions();
+            } catch (Exception e) {
+              fail("Error solving the closest facility task: " + e.getMessage());
+            }
+          });
+        } catch (Exception e) {
+          fail("Error getting default closest facility parameters: " + e.getMessage());
+        }
+      });
+    }
+
+    private void storeResult(ClosestFacilityResult result, int[] incidentIndexes, int[] facilityIndexes) {
+      for (int incident = 0; incident < incidentIndexes.length; incident++) {
+        for (int facility = 0; facility < facilityIndexes.length; facility++) {
+          ClosestFacilityRoute route = result.getRoute(facility, incident);
+          CachedRoute cachedRoute = route == null ? new CachedRoute(Double.POSITIVE_INFINITY, null)
+              : new CachedRoute(route.getTotalTime(), mKeepRoutes ? route.getRouteGeometry() : null);
+          int i = incidentIndexes[incident];
+          int j = facilityIndexes[facility];
+          mCache.put(mIncidentKeys[i] + "|" + mFacilityKeys[j], cachedRoute);
+          set(i, j, cachedRoute);
+        }
+      }
+    }
+
+    private void set(int incident, int facility, CachedRoute cachedRoute) {
+      mCostMatrix.mCosts[incident][facility] = cachedRoute.mCost;
+      if (mCostMatrix.mRoutes != null) {
+        mCostMatrix.mRoutes[incident][facility] = cachedRoute.mGeometry;
+      }
+    }
+
+    private void fail(String error) {
+      if (mFailed) {
+        return;
+      }
+      mFailed = true;
+      Log.e(TAG, error);
+      if (mCurrentSolve == this) {
+        mCallback.onFailed(error);
+      }
+    }
+  }
+
+  /**
+   * Snaps a location to a grid the size of the tolerance, so locations which barely moved share a key.
+   */
+  private String locationKey(Point point) {
+    return Math.round(point.getX() / mLocationTolerance) + "," + Math.round(point.getY() / mLocationTolerance);
+  }
+
+  private static int[] toArray(List<Integer> list) {
+    int[] array = new int[list.size()];
+    for (int i = 0; i < array.length; i++) {
+      array[i] = list.get(i);
+    }
+    return array;
+  }
+}
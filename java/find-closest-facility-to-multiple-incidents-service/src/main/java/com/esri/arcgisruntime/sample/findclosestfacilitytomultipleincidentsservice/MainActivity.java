@@ -48,20 +48,23 @@ import com.esri.arcgisruntime.mapping.view.MapView;
 import com.esri.arcgisruntime.symbology.PictureMarkerSymbol;
 import com.esri.arcgisruntime.symbology.SimpleLineSymbol;
 import com.esri.arcgisruntime.symbology.SimpleRenderer;
-import com.esri.arcgisruntime.tasks.networkanalysis.ClosestFacilityParameters;
-import com.esri.arcgisruntime.tasks.networkanalysis.ClosestFacilityResult;
-import com.esri.arcgisruntime.tasks.networkanalysis.ClosestFacilityRoute;
 import com.esri.arcgisruntime.tasks.networkanalysis.ClosestFacilityTask;
-import com.esri.arcgisruntime.tasks.networkanalysis.Facility;
-import com.esri.arcgisruntime.tasks.networkanalysis.Incident;
 
 public class MainActivity extends AppCompatActivity {
 
   private static final String TAG = MainActivity.class.getSimpleName();
 
+  // locations closer than this share cached travel times
+  private static final double LOCATION_TOLERANCE_METERS = 1;
+  private static final int MAX_CACHED_ROUTES = 10000;
+  // split the incidents into solves of this size, running a few at once
+  private static final int INCIDENTS_PER_SOLVE = 25;
+  private static final int MAX_CONCURRENT_SOLVES = 4;
+
   private MapView mMapView;
   // objects that implement Loadable must be class fields to prevent being garbage collected before loading
   private ClosestFacilityTask mClosestFacilityTask;
+  private CostMatrixSolver mCostMatrixSolver;
 
   @Override
   protected void onCreate(Bundle savedInstanceState) {
@@ -116,10 +119,10 @@ public class MainActivity extends AppCompatActivity {
     // add the layers to the map
     map.getOperationalLayers().addAll(Arrays.asList(facilitiesFeatureLayer, incidentsFeatureLayer));
 
-    // create the list to store the facilities
-    List<Facility> facilities = new ArrayList<>();
-    // create the list to store the incidents
-    List<Incident> incidents = new ArrayList<>();
+    // create the list to store the facility locations
+    List<Point> facilities = new ArrayList<>();
+    // create the list to store the incident locations
+    List<Point> incidents = new ArrayList<>();
 
     // wait for the feature layers to load to retrieve the facilities and incidents
     facilitiesFeatureLayer.addDoneLoadingListener(() -> incidentsFeatureLayer.addDoneLoadingListener(() -> {
@@ -139,8 +142,8 @@ public class MainActivity extends AppCompatActivity {
                 FeatureQueryResult facilitiesResult = result.get();
                 // add the found facilities to the list
                 for (Feature facilityFeature : facilitiesResult) {
-                  // since we know our feature layer only contains point features, we can cast them as Point in order to create a Facility
-                  facilities.add(new Facility((Point) facilityFeature.getGeometry()));
+                  // since we know our feature layer only contains point features, we can cast them as Point
+                  facilities.add((Point) facilityFeature.getGeometry());
                 }
               } catch (InterruptedException | ExecutionException e) {
                 String error = "Error retrieving list of facilities: " + e.getMessage();
@@ -156,8 +159,8 @@ public class MainActivity extends AppCompatActivity {
                 FeatureQueryResult incidentsResult = incidentsQueryResult.get();
                 // add the found incidents to the list
                 for (Feature incidentFeature : incidentsResult) {
-                  // since we know our feature layer only contains point features, we can cast them as Point in order to create an Incident
-                  incidents.add(new Incident((Point) incidentFeature.getGeometry()));
+                  // since we know our feature layer only contains point features, we can cast them as Point
+                  incidents.add((Point) incidentFeature.getGeometry());
                 }
               } catch (InterruptedException | ExecutionException e) {
                 String error = "Error retrieving list of incidents: " + e.getMessage();
@@ -175,47 +178,35 @@ public class MainActivity extends AppCompatActivity {
               mClosestFacilityTask.loadAsync();
               mClosestFacilityTask.addDoneLoadingListener(() -> {
                 if (mClosestFacilityTask.getLoadStatus() == LoadStatus.LOADED) {
-                  try {
-                    // create default parameters for the task and add facilities and incidents to parameters
-                    ClosestFacilityParameters closestFacilityParameters = mClosestFacilityTask
-                        .createDefaultParametersAsync().get();
-                    closestFacilityParameters.setFacilities(facilities);
-                    closestFacilityParameters.setIncidents(incidents);
-                    // solve closest facilities
-                    try {
-                      // use the task to solve for the closest facility
-                      ListenableFuture<ClosestFacilityResult> closestFacilityTaskResult = mClosestFacilityTask
-                          .solveClosestFacilityAsync(closestFacilityParameters);
-                      closestFacilityTaskResult.addDoneListener(() -> {
-                        try {
-                          ClosestFacilityResult closestFacilityResult = closestFacilityTaskResult.get();
-                          // find the closest facility for each incident
-                          for (int i = 0; i < incidents.size(); i++) {
-                            // get the index of the closest facility to incident
-                            Integer closestFacilityIndex = closestFacilityResult.getRankedFacilityIndexes(i).get(0);
-                            // get the route to the closest facility
-                            ClosestFacilityRoute closestFacilityRoute = closestFacilityResult
-                                .getRoute(closestFacilityIndex, i);
-                            // display the route on the graphics overlay
-                            graphicsOverlay.getGraphics()
-                                .add(new Graphic(closestFacilityRoute.getRouteGeometry(), simpleLineSymbol));
-                          }
-                        } catch (ExecutionException | InterruptedException ex) {
-                          String error = "Error getting the closest facility task result: " + ex.getMessage();
-                          Toast.makeText(this, error, Toast.LENGTH_LONG).show();
-                          Log.e(TAG, error);
+                  if (mCostMatrixSolver == null) {
+                    mCostMatrixSolver = new CostMatrixSolver(mClosestFacilityTask, LOCATION_TOLERANCE_METERS,
+                        MAX_CACHED_ROUTES);
+                    mCostMatrixSolver.setPartitioning(INCIDENTS_PER_SOLVE, MAX_CONCURRENT_SOLVES);
+                    // keep the route geometries so they can be drawn
+                    mCostMatrixSolver.setKeepRoutes(true);
+                  }
+                  // compute the travel time from every incident to every facility
+                  mCostMatrixSolver.solveAsync(incidents, facilities, new CostMatrixSolver.Callback() {
+                    @Override public void onSolved(CostMatrixSolver.CostMatrix costMatrix) {
+                      graphicsOverlay.getGraphics().clear();
+                      // find the closest facility for each incident
+                      for (int i = 0; i < incidents.size(); i++) {
+                        int closestFacilityIndex = costMatrix.getNearestFacility(i);
+                        if (closestFacilityIndex >= 0) {
+                          // display the route to the closest facility on the graphics overlay
+                          graphicsOverlay.getGraphics()
+                              .add(new Graphic(costMatrix.getRoute(i, closestFacilityIndex), simpleLineSymbol));
                         }
-                      });
-                    } catch (Exception ex) {
-                      String error = "Error solving the closest facility task: " + ex.getMessage();
-                      Toast.makeText(this, error, Toast.LENGTH_LONG).show();
-                      Log.e(TAG, error);
+                      }
+                      Log.i(TAG, "Solved routes, " + costMatrix.getCachedPairs() + " taken from the cache");
+                      solveRoutesButton.setEnabled(true);
                     }
-                  } catch (InterruptedException | ExecutionException ex) {
-                    String error = "Error getting default route parameters: " + ex.getMessage();
-                    Toast.makeText(this, error, Toast.LENGTH_LONG).show();
-                    Log.e(TAG, error);
-                  }
+
+                    @Override public void onFailed(String error) {
+                      Toast.makeText(MainActivity.this, error, Toast.LENGTH_LONG).show();
+                      solveRoutesButton.setEnabled(true);
+                    }
+                  });
                 } else {
                   String error = "Error loading route task: " + mClosestFacilityTask.getLoadError().getMessage();
                   Toast.makeText(this, error, Toast.LENGTH_LONG).show();
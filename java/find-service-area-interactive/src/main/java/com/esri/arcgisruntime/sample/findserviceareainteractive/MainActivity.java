@@ -32,6 +32,7 @@ import android.widget.Toast;
 import androidx.appcompat.app.AppCompatActivity;
 import com.esri.arcgisruntime.ArcGISRuntimeEnvironment;
 import com.esri.arcgisruntime.concurrent.ListenableFuture;
+import com.esri.arcgisruntime.geometry.Geometry;
 import com.esri.arcgisruntime.geometry.Point;
 import com.esri.arcgisruntime.geometry.Polyline;
 import com.esri.arcgisruntime.geometry.PolylineBuilder;
@@ -48,18 +49,19 @@ import com.esri.arcgisruntime.symbology.SimpleLineSymbol;
 import com.esri.arcgisruntime.tasks.networkanalysis.PolylineBarrier;
 import com.esri.arcgisruntime.tasks.networkanalysis.ServiceAreaFacility;
 import com.esri.arcgisruntime.tasks.networkanalysis.ServiceAreaParameters;
-import com.esri.arcgisruntime.tasks.networkanalysis.ServiceAreaPolygon;
 import com.esri.arcgisruntime.tasks.networkanalysis.ServiceAreaPolygonDetail;
-import com.esri.arcgisruntime.tasks.networkanalysis.ServiceAreaResult;
 import com.esri.arcgisruntime.tasks.networkanalysis.ServiceAreaTask;
 
 public class MainActivity extends AppCompatActivity {
 
   private static final String TAG = MainActivity.class.getSimpleName();
 
+  private static final int MAX_CACHED_FACILITIES = 100;
+
   private MapView mMapView;
   private ServiceAreaParameters mServiceAreaParameters;
   private PolylineBuilder mBarrierBuilder;
+  private ServiceAreaCache mServiceAreaCache;
 
   @Override
   protected void onCreate(Bundle savedInstanceState) {
@@ -83,6 +85,8 @@ public class MainActivity extends AppCompatActivity {
     // create service area task from url
     ServiceAreaTask serviceAreaTask = new ServiceAreaTask(this, getString(R.string.san_diego_service_area));
     serviceAreaTask.loadAsync();
+    // cache the service areas of each facility, so adding a facility only solves that facility
+    mServiceAreaCache = new ServiceAreaCache(serviceAreaTask, MAX_CACHED_FACILITIES);
     // create default parameters from task
     ListenableFuture<ServiceAreaParameters> serviceAreaParametersFuture = serviceAreaTask
         .createDefaultParametersAsync();
@@ -134,8 +138,8 @@ public class MainActivity extends AppCompatActivity {
 
     Button showServiceAreasButton = findViewById(R.id.showServiceAreasButton);
     showServiceAreasButton.setOnClickListener(
-        v -> showServiceAreas(serviceAreaFacilities, barrierOverlay, serviceAreasOverlay, serviceAreaTask, fillSymbols,
-            addFacilityButton, addBarrierButton));
+        v -> showServiceAreas(serviceAreaFacilities, barrierOverlay, serviceAreasOverlay, fillSymbols, addFacilityButton,
+            addBarrierButton));
 
     Button resetButton = findViewById(R.id.resetButton);
     resetButton.setOnClickListener(
@@ -193,8 +197,8 @@ public class MainActivity extends AppCompatActivity {
    * All service areas that are return will be displayed to the map view.
    */
   private void showServiceAreas(List<ServiceAreaFacility> serviceAreaFacilities, GraphicsOverlay barrierOverlay,
-      GraphicsOverlay serviceAreasOverlay, ServiceAreaTask serviceAreaTask, ArrayList<SimpleFillSymbol> fillSymbols,
-      Button addFacilityButton, Button addBarrierButton) {
+      GraphicsOverlay serviceAreasOverlay, ArrayList<SimpleFillSymbol> fillSymbols, Button addFacilityButton,
+      Button addBarrierButton) {
 
     // need at least one facility for the task to work
     if (!serviceAreaFacilities.isEmpty()) {
@@ -204,33 +208,30 @@ public class MainActivity extends AppCompatActivity {
       List<PolylineBarrier> polylineBarriers = new ArrayList<>();
       for (Graphic barrierGraphic : barrierOverlay.getGraphics()) {
         polylineBarriers.add(new PolylineBarrier((Polyline) barrierGraphic.getGeometry()));
-        mServiceAreaParameters.setPolylineBarriers(polylineBarriers);
       }
 
-      serviceAreasOverlay.getGraphics().clear();
-      mServiceAreaParameters.setFacilities(serviceAreaFacilities);
-      // find service areas around facility using parameters that were set
-      ListenableFuture<ServiceAreaResult> result = serviceAreaTask.solveServiceAreaAsync(mServiceAreaParameters);
-      result.addDoneListener(() -> {
-        try {
-          // display all service areas that were found to mapview
-          List<Graphic> graphics = serviceAreasOverlay.getGraphics();
-          ServiceAreaResult serviceAreaResult = result.get();
-          for (int i = 0; i < serviceAreaFacilities.size(); i++) {
-            List<ServiceAreaPolygon> polygons = serviceAreaResult.getResultPolygons(i);
-            // could be more than one service area
-            for (int j = 0; j < polygons.size(); j++) {
-              graphics.add(new Graphic(polygons.get(j).getGeometry(), fillSymbols.get(j % 2)));
+      // find service areas around facility using parameters that were set, solving only facilities not seen before
+      mServiceAreaCache.solveAsync(mServiceAreaParameters, serviceAreaFacilities, polylineBarriers,
+          new ServiceAreaCache.Callback() {
+            @Override public void onSolved(List<Geometry> serviceAreas, int solvedFacilities) {
+              // display the service areas of all facilities, merged for each cutoff, to mapview
+              List<Graphic> graphics = serviceAreasOverlay.getGraphics();
+              graphics.clear();
+              // could be more than one service area
+              for (int j = 0; j < serviceAreas.size(); j++) {
+                graphics.add(new Graphic(serviceAreas.get(j), fillSymbols.get(j % 2)));
+              }
+              Log.i(TAG, "Solved " + solvedFacilities + " of " + serviceAreaFacilities.size() + " facilities");
             }
-          }
-        } catch (ExecutionException | InterruptedException e) {
-          String error = e.getMessage().contains("Unable to complete operation") ?
-              "Facility not within San Diego area!" + e :
-              "Error getting the service area result: " + e;
-          Log.e(TAG, error);
-          Toast.makeText(this, error, Toast.LENGTH_LONG).show();
-        }
-      });
+
+            @Override public void onFailed(String message) {
+              String error = message != null && message.contains("Unable to complete operation") ?
+                  "Facility not within San Diego area!" + message :
+                  "Error getting the service area result: " + message;
+              Log.e(TAG, error);
+              Toast.makeText(MainActivity.this, error, Toast.LENGTH_LONG).show();
+            }
+          });
     } else {
       Toast.makeText(this, "Must have at least one Facility on the map!", Toast.LENGTH_LONG).show();
     }
@@ -250,6 +251,7 @@ public class MainActivity extends AppCompatActivity {
 
   @Override
   protected void onDestroy() {
+    mServiceAreaCache.shutdown();
     mMapView.dispose();
     super.onDestroy();
   }
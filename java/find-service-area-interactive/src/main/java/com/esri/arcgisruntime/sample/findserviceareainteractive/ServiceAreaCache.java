@@ -0,0 +1,225 @@
+/*
+ *  Copyright 2021 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.esri.arcgisruntime.sample.findserviceareainteractive;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.esri.arcgisruntime.concurrent.ListenableFuture;
+import com.esri.arcgisruntime.geometry.Geometry;
+import com.esri.arcgisruntime.geometry.GeometryEngine;
+import com.esri.arcgisruntime.geometry.Point;
+import com.esri.arcgisruntime.tasks.networkanalysis.PolylineBarrier;
+import com.esri.arcgisruntime.tasks.networkanalysis.ServiceAreaFacility;
+import com.esri.arcgisruntime.tasks.networkanalysis.ServiceAreaParameters;
+import com.esri.arcgisruntime.tasks.networkanalysis.ServiceAreaPolygon;
+import com.esri.arcgisruntime.tasks.networkanalysis.ServiceAreaResult;
+import com.esri.arcgisruntime.tasks.networkanalysis.ServiceAreaTask;
+
+/**
+ * Caches the service area polygons of each facility, so only new facilities are solved.
+ *
+ * Polygons are cached by the facility's location, the impedance cutoffs, the travel mode, how overlapping and
+ * cutoff geometries are returned, and the barriers, since changing any of these changes the service area. The
+ * facilities missing from the cache are solved together in one request, then the polygons of every facility are
+ * merged for each cutoff with {@link GeometryEngine#union(Iterable)} on a background thread.
+ */
+public class ServiceAreaCache {
+
+  private static final String TAG = ServiceAreaCache.class.getSimpleName();
+
+  private final ServiceAreaTask mServiceAreaTask;
+  private final Map<String, List<Geometry>> mCache;
+  private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+  private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+  private int mSolveCount;
+
+  /**
+   * Receives the merged service areas on the main thread.
+   */
+  public interface Callback {
+
+    /**
+     * @param serviceAreas the service areas of every facility merged, one for each cutoff
+     * @param solvedFacilities how many facilities were solved, the rest came from the cache
+     */
+    void onSolved(List<Geometry> serviceAreas, int solvedFacilities);
+
+    void onFailed(String error);
+  }
+
+  /**
+   * @param serviceAreaTask the task to solve service areas with
+   * @param maxCachedFacilities the most facilities to keep service areas for
+   */
+  public ServiceAreaCache(ServiceAreaTask serviceAreaTask, int maxCachedFacilities) {
+    mServiceAreaTask = serviceAreaTask;
+    mCache = new LinkedHashMap<String, List<Geometry>>(16, 0.75f, true) {
+      @Override protected boolean removeEldestEntry(Map.Entry<String, List<Geometry>> eldest) {
+        return size() > maxCachedFacilities;
+      }
+    };
+  }
+
+  /**
+   * Finds the service areas of the facilities, solving only the facilities not already cached.
+   *
+   * @param parameters the parameters to solve with, whose facilities and barriers are replaced
+   * @param facilities the facilities to find service areas for
+   * @param barriers the barriers the service areas can't cross
+   * @param callback notified on the main thread
+   */
+  public void solveAsync(ServiceAreaParameters parameters, List<ServiceAreaFacility> facilities,
+      List<PolylineBarrier> barriers, Callback callback) {
+    int solve = ++mSolveCount;
+    String settingsKey = settingsKey(parameters, barriers);
+    List<String> keys = new ArrayList<>();
+    // the polygons of each facility, taken from the cache now so later evictions can't drop them
+    Map<String, List<Geometry>> facilityPolygons = new HashMap<>();
+    List<ServiceAreaFacility> missingFacilities = new ArrayList<>();
+    List<String> missingKeys = new ArrayList<>();
+    for (ServiceAreaFacility facility : facilities) {
+      String key = locationKey(facility.getGeometry()) + "|" + settingsKey;
+      keys.add(key);
+      // get() rather than containsKey(), so the facilities in use are the last to be evicted
+      List<Geometry> polygons = mCache.get(key);
+      if (polygons != null) {
+        facilityPolygons.put(key, polygons);
+      } else if (!missingKeys.contains(key)) {
+        missingFacilities.add(facility);
+        missingKeys.add(key);
+      }
+    }
+    if (missingFacilities.isEmpty()) {
+      merge(solve, keys, facilityPolygons, 0, callback);
+      return;
+    }
+    parameters.setFacilities(missingFacilities);
+    parameters.setPolylineBarriers(barriers);
+    ListenableFuture<ServiceAreaResult> resultFuture = mServiceAreaTask.solveServiceAreaAsync(parameters);
+    resultFuture.addDoneListener(() -> {
+      try {
+        ServiceAreaResult serviceAreaResult = resultFuture.get();
+        // touch the facilities in use again, other solves may have used the cache since
+        for (String key : keys) {
+          mCache.get(key);
+        }
+        for (int i = 0; i < missingFacilities.size(); i++) {
+          List<Geometry> polygons = new ArrayList<>();
+          for (ServiceAreaPolygon polygon : serviceAreaResult.getResultPolygons(i)) {
+            polygons.add(polygon.getGeometry());
+          }
+          facilityPolygons.put(missingKeys.get(i), polygons);
+          mCache.put(missingKeys.get(i), polygons);
+        }
+        merge(solve, keys, facilityPolygons, missingFacilities.size(), callback);
+      } catch (Exception e) {
+        if (solve == mSolveCount) {
+          callback.onFailed(e.getMessage());
+        }
+      }
+    });
+  }
+
+  public void clear() {
+    mCache.clear();
+  }
+
+  public void shutdown() {
+    mExecutor.shutdown();
+  }
+
+  /**
+   * Merges the polygons of the facilities, one union for each cutoff, in the background. Every key has polygons,
+   * either cached or just solved, even if the cache has since evicted them.
+   */
+  private void merge(int solve, List<String> keys, Map<String, List<Geometry>> polygonsByKey, int solvedFacilities,
+      Callback callback) {
+    List<List<Geometry>> facilityPolygons = new ArrayList<>();
+    for (String key : new LinkedHashSet<>(keys)) {
+      facilityPolygons.add(polygonsByKey.get(key));
+    }
+    mExecutor.execute(() -> {
+      List<Geometry> serviceAreas = new ArrayList<>();
+      for (int cutoff = 0; ; cutoff++) {
+        List<Geometry> cutoffPolygons = new ArrayList<>();
+        for (List<Geometry> polygons : facilityPolygons) {
+          if (cutoff < polygons.size()) {
+            cutoffPolygons.add(polygons.get(cutoff));
+          }
+        }
+        if (cutoffPolygons.isEmpty()) {
+          break;
+        }
+        serviceAreas.add(GeometryEngine.union(cutoffPolygons));
+      }
+      Log.d(TAG, "Merged " + facilityPolygons.size() + " facilities, " + solvedFacilities + " solved");
+      mMainHandler.post(() -> {
+        // a newer solve supersedes this one
+        if (solve == mSolveCount) {
+          callback.onSolved(serviceAreas, solvedFacilities);
+        }
+      });
+    });
+  }
+
+  /**
+   * Identifies the settings which change every facility's service area: the cutoffs, travel mode, overlap and cutoff
+   * geometry options and barriers.
+   */
+  private static String settingsKey(ServiceAreaParameters parameters, List<PolylineBarrier> barriers) {
+    StringBuilder settings = new StringBuilder();
+    settings.append(parameters.getDefaultImpedanceCutoffs()).append('|');
+    settings.append(parameters.getTravelMode() != null ? parameters.getTravelMode().getName() : "").append('|');
+    settings.append(parameters.getGeometryAtOverlap()).append('|');
+    settings.append(parameters.getGeometryAtCutoff()).append('|');
+    for (PolylineBarrier barrier : barriers) {
+      settings.append(barrier.getGeometry().toJson()).append(';');
+    }
+    // hash the settings, since barrier geometries would make long keys
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      StringBuilder hex = new StringBuilder();
+      for (byte b : digest.digest(settings.toString().getBytes(StandardCharsets.UTF_8))) {
+        hex.append(String.format("%02x", b));
+      }
+      return hex.toString();
+    } catch (NoSuchAlgorithmException e) {
+      return settings.toString();
+    }
+  }
+
+  private static String locationKey(Geometry geometry) {
+    Point point = (Point) geometry;
+    // locations within a centimeter of each other are the same facility
+    return Math.round(point.getX() * 100) + "," + Math.round(point.getY() * 100);
+  }
+}
@@ -0,0 +1,405 @@
+/* Copyright 2021 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgisruntime.sample.formatcoordinates;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.esri.arcgisruntime.geometry.CoordinateFormatter;
+import com.esri.arcgisruntime.geometry.Point;
+import com.esri.arcgisruntime.geometry.SpatialReferences;
+
+/**
+ * Converts large streams of coordinate notation strings to points, or points to notation strings, in parallel.
+ *
+ * Input is read one coordinate per line and handed to a pool of workers in batches, while only a bounded number of
+ * batches is held in memory. Results are delivered in input order on the calling thread. Rows that fail to convert
+ * are reported to the handler and do not stop the conversion. Plain decimal degree strings are parsed in Java without
+ * a call to CoordinateFormatter.
+ */
+public class BulkCoordinateConverter {
+
+  private static final int BATCH_SIZE = 1000;
+
+  private final ExecutorService mExecutor;
+  private final int mMaxBatchesInFlight;
+
+  /**
+   * Coordinate notations supported by the converter.
+   */
+  public enum Notation {
+    DD,
+    DMS,
+    UTM,
+    USNG,
+    MGRS
+  }
+
+  /**
+   * Receives each converted row, in input order.
+   */
+  public interface RowHandler<T> {
+
+    void onRow(long rowIndex, T result) throws IOException;
+
+    void onRowError(long rowIndex, String input, String message);
+  }
+
+  /**
+   * Counts of the rows processed by a conversion.
+   */
+  public static class Summary {
+
+    public final long rows;
+    public final long errors;
+    public final long elapsedMillis;
+
+    Summary(long rows, long errors, long elapsedMillis) {
+      this.rows = rows;
+      this.errors = errors;
+      this.elapsedMillis = elapsedMillis;
+    }
+  }
+
+  /**
+   * The outcome of converting a single row.
+   */
+  private static class RowResult<T> {
+
+    final String mInput;
+    final T mResult;
+    final String mError;
+
+    RowResult(String input, T result, String error) {
+      mInput = input;
+      mResult = result;
+      mError = error;
+    }
+  }
+
+  private interface RowConverter<I, O> {
+    O convert(I input);
+  }
+
+  /**
+   * @param workerCount the number of conversions run at the same time
+   */
+  public BulkCoordinateConverter(int workerCount) {
+    mExecutor = Executors.newFixedThreadPool(workerCount);
+    mMaxBatchesInFlight = workerCount * 2;
+  }
+
+  /**
+   * Parses each line of the input into a WGS84 point. Blocks until the input is consumed, so call from a background
+   * thread.
+   *
+   * @param input coordinate strings, one per line
+   * @param notation the notation of the coordinate strings
+   * @param handler receives each point, or the error for rows that could not be parsed
+   * @return counts of the rows processed
+   * @throws IOException if reading the input or handling a row fails
+   */
+  public Summary toPoints(Reader input, Notation notation, RowHandler<Point> handler) throws IOException {
+    BufferedReader reader = input instanceof BufferedReader ? (BufferedReader) input : new BufferedReader(input);
+    Iterator<String> lines = new Iterator<String>() {
+      private String mNext = readLine();
+
+      private String readLine() {
+        try {
+          return reader.readLine();
+        } catch (IOException e) {
+          throw new IllegalStateException(e);
+        }
+      }
+
+      @Override public boolean hasNext() {
+        return mNext != null;
+      }
+
+      @Override public String next() {
+        String line = mNext;
+        mNext = readLine();
+        return line;
+      }
+    };
+    try {
+      return convert(lines, line -> parse(stripQuotes(line.trim()), notation), handler);
+    } catch (IllegalStateException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Formats each point in the given notation and writes it to the output, one per line. Blocks until all points are
+   * written, so call from a background thread.
+   *
+   * @param points the points to format
+   * @param notation the notation to format to
+   * @param output receives one coordinate string per line
+   * @param errorHandler receives rows that could not be formatted, may be null
+   * @return counts of the rows processed
+   * @throws IOException if writing the output fails
+   */
+  public Summary toNotation(Iterator<Point> points, Notation notation, Writer output,
+      RowHandler<String> errorHandler) throws IOException {
+    return convert(points, point -> format(point, notation), new RowHandler<String>() {
+      @Override public void onRow(long rowIndex, String result) throws IOException {
+        output.write(result);
+        output.write('\n');
+      }
+
+      @Override public void onRowError(long rowIndex, String input, String message) {
+        if (errorHandler != null) {
+          errorHandler.onRowError(rowIndex, input, message);
+        }
+      }
+    });
+  }
+
+  public void shutdown() {
+    mExecutor.shutdownNow();
+  }
+
+  /**
+   * Converts inputs in batches on the worker pool, keeping at most a fixed number of batches in flight and delivering
+   * results in input order.
+   */
+  private <I, O> Summary convert(Iterator<I> inputs, RowConverter<I, O> converter, RowHandler<O> handler)
+      throws IOException {
+    long start = System.currentTimeMillis();
+    ArrayDeque<Future<List<RowResult<O>>>> inFlight = new ArrayDeque<>();
+    long[] counts = new long[2];
+    try {
+      submitAndDeliver(inputs, converter, handler, inFlight, counts);
+    } catch (IOException | RuntimeException e) {
+      // stop the batches which are no longer going to be delivered
+      for (Future<List<RowResult<O>>> batch : inFlight) {
+        batch.cancel(true);
+      }
+      throw e;
+    }
+    return new Summary(counts[0], counts[1], System.currentTimeMillis() - start);
+  }
+
+  private <I, O> void submitAndDeliver(Iterator<I> inputs, RowConverter<I, O> converter, RowHandler<O> handler,
+      ArrayDeque<Future<List<RowResult<O>>>> inFlight, long[] counts) throws IOException {
+    while (inputs.hasNext()) {
+      List<I> batch = new ArrayList<>(BATCH_SIZE);
+      while (inputs.hasNext() && batch.size() < BATCH_SIZE) {
+        batch.add(inputs.next());
+      }
+      inFlight.add(mExecutor.submit(() -> {
+        List<RowResult<O>> results = new ArrayList<>(batch.size());
+        for (I input : batch) {
+          try {
+            results.add(new RowResult<O>(null, converter.convert(input), null));
+          } catch (RuntimeException e) {
+            // any failure on a malformed row is that row's error, rather than the whole conversion's
+            String message = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            results.add(new RowResult<O>(String.valueOf(input), null, message));
+          }
+        }
+        return results;
+      }));
+      if (inFlight.size() >= mMaxBatchesInFlight) {
+        deliver(inFlight.poll(), handler, counts);
+      }
+    }
+    while (!inFlight.isEmpty()) {
+      deliver(inFlight.poll(), handler, counts);
+    }
+  }
+
+  private static <O> void deliver(Future<List<RowResult<O>>> batch, RowHandler<O> handler, long[] counts)
+      throws IOException {
+    List<RowResult<O>> results;
+    try {
+      results = batch.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Conversion interrupted", e);
+    } catch (ExecutionException e) {
+      throw new IOException("Conversion failed", e.getCause());
+    }
+    for (RowResult<O> result : results) {
+      long rowIndex = counts[0]++;
+      if (result.mError != null) {
+        counts[1]++;
+        handler.onRowError(rowIndex, result.mInput, result.mError);
+      } else {
+        handler.onRow(rowIndex, result.mResult);
+      }
+    }
+  }
+
+  /**
+   * Parses a single coordinate string.
+   *
+   * @throws IllegalArgumentException if the string can't be parsed
+   */
+  static Point parse(String coordinate, Notation notation) {
+    if (coordinate.isEmpty()) {
+      throw new IllegalArgumentException("Empty coordinate");
+    }
+    Point point;
+    switch (notation) {
+      case DD:
+        point = parseDecimalDegrees(coordinate);
+        if (point == null) {
+          // fall back to the full parser for anything other than plain decimal degrees
+          point = CoordinateFormatter.fromLatitudeLongitude(coordinate, SpatialReferences.getWgs84());
+        }
+        break;
+      case DMS:
+        point = CoordinateFormatter.fromLatitudeLongitude(coordinate, SpatialReferences.getWgs84());
+        break;
+      case UTM:
+        point = CoordinateFormatter.fromUtm(coordinate, SpatialReferences.getWgs84(),
+            CoordinateFormatter.UtmConversionMode.LATITUDE_BAND_INDICATORS);
+        break;
+      case USNG:
+        point = CoordinateFormatter.fromUsng(coordinate, SpatialReferences.getWgs84());
+        break;
+      case MGRS:
+        point = CoordinateFormatter.fromMgrs(coordinate, SpatialReferences.getWgs84(),
+            CoordinateFormatter.MgrsConversionMode.AUTOMATIC);
+        break;
+      default:
+        throw new IllegalArgumentException("Unsupported notation " + notation);
+    }
+    if (point == null || point.isEmpty()) {
+      throw new IllegalArgumentException("Could not parse '" + coordinate + "'");
+    }
+    return point;
+  }
+
+  private static String format(Point point, Notation notation) {
+    switch (notation) {
+      case DD:
+        return CoordinateFormatter.toLatitudeLongitude(point,
+            CoordinateFormatter.LatitudeLongitudeFormat.DECIMAL_DEGREES, 4);
+      case DMS:
+        return CoordinateFormatter.toLatitudeLongitude(point,
+            CoordinateFormatter.LatitudeLongitudeFormat.DEGREES_MINUTES_SECONDS, 1);
+      case UTM:
+        return CoordinateFormatter.toUtm(point, CoordinateFormatter.UtmConversionMode.LATITUDE_BAND_INDICATORS, true);
+      case USNG:
+        return CoordinateFormatter.toUsng(point, 4, true);
+      case MGRS:
+        return CoordinateFormatter.toMgrs(point, CoordinateFormatter.MgrsConversionMode.AUTOMATIC, 4, true);
+      default:
+        throw new IllegalArgumentException("Unsupported notation " + notation);
+    }
+  }
+
+  /**
+   * Parses plain decimal degrees, such as "51.4779, -0.0015" or "51.4779N 0.0015W", without calling
+   * CoordinateFormatter. Latitude comes first unless hemisphere letters say otherwise.
+   *
+   * @param coordinate the coordinate string
+   * @return a WGS84 point, or null if the string is not plain decimal degrees
+   * @throws IllegalArgumentException if both values have hemisphere letters of the same axis, such as "51N 0.1N"
+   */
+  static Point parseDecimalDegrees(String coordinate) {
+    String[] tokens = coordinate.split("[\\s,]+");
+    if (tokens.length != 2) {
+      return null;
+    }
+    double[] values = new double[2];
+    char[] hemispheres = new char[2];
+    for (int i = 0; i < 2; i++) {
+      String token = tokens[i];
+      if (token.isEmpty()) {
+        return null;
+      }
+      char first = Character.toUpperCase(token.charAt(0));
+      char last = Character.toUpperCase(token.charAt(token.length() - 1));
+      if (isHemisphere(last)) {
+        hemispheres[i] = last;
+        token = token.substring(0, token.length() - 1);
+      } else if (isHemisphere(first)) {
+        hemispheres[i] = first;
+        token = token.substring(1);
+      }
+      if (!isDecimalNumber(token)) {
+        return null;
+      }
+      values[i] = Double.parseDouble(token);
+      if (hemispheres[i] == 'S' || hemispheres[i] == 'W') {
+        if (values[i] < 0) {
+          return null;
+        }
+        values[i] = -values[i];
+      }
+    }
+    if (hemispheres[0] != 0 && hemispheres[1] != 0 && isLatitude(hemispheres[0]) == isLatitude(hemispheres[1])) {
+      throw new IllegalArgumentException("Two hemispheres of the same axis in '" + coordinate + "'");
+    }
+    boolean swapped = hemispheres[0] == 'E' || hemispheres[0] == 'W' || hemispheres[1] == 'N' ||
+        hemispheres[1] == 'S';
+    double latitude = swapped ? values[1] : values[0];
+    double longitude = swapped ? values[0] : values[1];
+    if (Math.abs(latitude) > 90 || Math.abs(longitude) > 180) {
+      return null;
+    }
+    return new Point(longitude, latitude, SpatialReferences.getWgs84());
+  }
+
+  private static boolean isHemisphere(char c) {
+    return c == 'N' || c == 'S' || c == 'E' || c == 'W';
+  }
+
+  private static boolean isLatitude(char hemisphere) {
+    return hemisphere == 'N' || hemisphere == 'S';
+  }
+
+  private static boolean isDecimalNumber(String token) {
+    int digits = 0;
+    boolean decimalPoint = false;
+    for (int i = 0; i < token.length(); i++) {
+      char c = token.charAt(i);
+      if (c >= '0' && c <= '9') {
+        digits++;
+      } else if (c == '.' && !decimalPoint) {
+        decimalPoint = true;
+      } else if (!((c == '-' || c == '+') && i == 0)) {
+        return false;
+      }
+    }
+    return digits > 0;
+  }
+
+  private static String stripQuotes(String line) {
+    if (line.length() >= 2 && line.charAt(0) == '"' && line.charAt(line.length() - 1) == '"') {
+      return line.substring(1, line.length() - 1).trim();
+    }
+    return line;
+  }
+}
@@ -16,11 +16,22 @@
 
 package com.esri.arcgisruntime.sample.formatcoordinates;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 import android.content.Context;
+import android.content.Intent;
 import android.graphics.Color;
+import android.net.Uri;
 import android.os.Bundle;
 import android.text.TextUtils;
 import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.MotionEvent;
 import android.view.View;
 import android.widget.EditText;
@@ -30,7 +41,9 @@ import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import com.esri.arcgisruntime.ArcGISRuntimeException;
 import com.esri.arcgisruntime.geometry.CoordinateFormatter;
+import com.esri.arcgisruntime.geometry.Multipoint;
 import com.esri.arcgisruntime.geometry.Point;
+import com.esri.arcgisruntime.geometry.PointCollection;
 import com.esri.arcgisruntime.geometry.SpatialReferences;
 import com.esri.arcgisruntime.layers.ArcGISTiledLayer;
 import com.esri.arcgisruntime.mapping.ArcGISMap;
@@ -45,8 +58,19 @@ import com.google.android.material.snackbar.Snackbar;
 
 public class MainActivity extends AppCompatActivity {
 
+  private static final int IMPORT_COORDINATES_REQUEST = 1;
+
   private MapView mMapView;
 
+  // converts imported coordinate files on a worker per processor
+  private final BulkCoordinateConverter mBulkConverter =
+      new BulkCoordinateConverter(Runtime.getRuntime().availableProcessors());
+  // reads an imported file and feeds the converter, which blocks until the file is consumed
+  private final ExecutorService mImportExecutor = Executors.newSingleThreadExecutor();
+
+  // Graphic showing the imported coordinates
+  private Graphic mImportedLocations;
+
   // Graphic indicating coordinate location in the map
   private Graphic coordinateLocation;
 
@@ -111,8 +135,15 @@ public class MainActivity extends AppCompatActivity {
     Point convertedPoint = null;
     try {
       switch (type) {
-        case DMS:
         case DD:
+          // plain decimal degrees can be parsed without CoordinateFormatter, the parser throws an
+          // IllegalArgumentException for two hemispheres of the same axis
+          convertedPoint = BulkCoordinateConverter.parseDecimalDegrees(coordinateNotation.trim());
+          if (convertedPoint != null) {
+            break;
+          }
+          // otherwise fall through to CoordinateFormatter
+        case DMS:
           // use CoordinateFormatter to parse Latitude Longitude - different numeric notations (Decimal Degrees;
           // Degrees, Minutes, Seconds; Degrees, Decimal Minutes) can all be passed to this same method
           convertedPoint = CoordinateFormatter.fromLatitudeLongitude(coordinateNotation, null);
@@ -134,7 +165,7 @@ public class MainActivity extends AppCompatActivity {
       // update the location shown in the map
       toCoordinateNotationFromPoint(convertedPoint);
     }
-    catch (ArcGISRuntimeException convertException) {
+    catch (ArcGISRuntimeException | IllegalArgumentException convertException) {
       String message = String.format("%s '%s'\n%s", getString(R.string.failed_convert), coordinateNotation,
           convertException.getMessage());
       Snackbar.make(mMapView, message, BaseTransientBottomBar.LENGTH_SHORT).show();
@@ -226,12 +257,85 @@ public class MainActivity extends AppCompatActivity {
         new SimpleMarkerSymbol(SimpleMarkerSymbol.Style.CROSS, Color.YELLOW, 20f));
     mMapView.getGraphicsOverlays().add(new GraphicsOverlay());
     mMapView.getGraphicsOverlays().get(0).getGraphics().add(coordinateLocation);
+    mImportedLocations = new Graphic();
+    mImportedLocations.setSymbol(new SimpleMarkerSymbol(SimpleMarkerSymbol.Style.CIRCLE, Color.RED, 4f));
+    mMapView.getGraphicsOverlays().get(0).getGraphics().add(0, mImportedLocations);
     toCoordinateNotationFromPoint(initialPoint);
 
     // set up a map touch listener that shows coordinates when a user taps on the map view
     mMapView.setOnTouchListener(new ShowCoordinatesMapTouchListener(this, mMapView));
   }
 
+  @Override
+  public boolean onCreateOptionsMenu(Menu menu) {
+    getMenuInflater().inflate(R.menu.import_coordinates, menu);
+    return super.onCreateOptionsMenu(menu);
+  }
+
+  @Override
+  public boolean onOptionsItemSelected(MenuItem item) {
+    if (item.getItemId() == R.id.importCoordinates) {
+      // pick a text file with one latitude, longitude coordinate per line
+      Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+      intent.addCategory(Intent.CATEGORY_OPENABLE);
+      intent.setType("text/*");
+      startActivityForResult(intent, IMPORT_COORDINATES_REQUEST);
+      return true;
+    }
+    return super.onOptionsItemSelected(item);
+  }
+
+  @Override
+  protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+    super.onActivityResult(requestCode, resultCode, data);
+    if (requestCode == IMPORT_COORDINATES_REQUEST && resultCode == RESULT_OK && data != null
+        && data.getData() != null) {
+      importCoordinates(data.getData());
+    }
+  }
+
+  /**
+   * Converts every line of the given file to a point with the BulkCoordinateConverter, in the background, and shows
+   * the points on the map. Rows which can't be converted are counted and skipped.
+   *
+   * @param uri a text file of latitude, longitude coordinates, in decimal degrees or degrees, minutes, seconds
+   */
+  private void importCoordinates(Uri uri) {
+    Snackbar.make(mMapView, getString(R.string.importing_coordinates), BaseTransientBottomBar.LENGTH_SHORT).show();
+    mImportExecutor.execute(() -> {
+      PointCollection points = new PointCollection(SpatialReferences.getWgs84());
+      try (InputStream inputStream = getContentResolver().openInputStream(uri)) {
+        if (inputStream == null) {
+          throw new IOException("Can't open " + uri);
+        }
+        BulkCoordinateConverter.Summary summary = mBulkConverter.toPoints(
+            new InputStreamReader(inputStream, StandardCharsets.UTF_8), BulkCoordinateConverter.Notation.DD,
+            new BulkCoordinateConverter.RowHandler<Point>() {
+              @Override public void onRow(long rowIndex, Point result) {
+                points.add(result);
+              }
+
+              @Override public void onRowError(long rowIndex, String input, String message) {
+                // counted in the summary
+              }
+            });
+        String message = getString(R.string.imported_coordinates, summary.rows - summary.errors, summary.rows,
+            summary.errors, summary.elapsedMillis);
+        runOnUiThread(() -> {
+          if (!points.isEmpty()) {
+            Multipoint multipoint = new Multipoint(points);
+            mImportedLocations.setGeometry(multipoint);
+            mMapView.setViewpointGeometryAsync(multipoint.getExtent(), 50);
+          }
+          Snackbar.make(mMapView, message, BaseTransientBottomBar.LENGTH_LONG).show();
+        });
+      } catch (IOException | RuntimeException e) {
+        String message = getString(R.string.failed_import) + "\n" + e.getMessage();
+        runOnUiThread(() -> Snackbar.make(mMapView, message, BaseTransientBottomBar.LENGTH_LONG).show());
+      }
+    });
+  }
+
   /**
    * A map touch listener that updates formatted coordinates when a user taps on a location in the associated MapView.
    */
@@ -270,6 +374,8 @@ public class MainActivity extends AppCompatActivity {
 
   @Override
   protected void onDestroy() {
+    mImportExecutor.shutdownNow();
+    mBulkConverter.shutdown();
     super.onDestroy();
     mMapView.dispose();
   }
@@ -0,0 +1,239 @@
+/* Copyright 2021 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgisruntime.sample.generategeodatabase;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.esri.arcgisruntime.concurrent.Job;
+import com.esri.arcgisruntime.concurrent.ListenableFuture;
+import com.esri.arcgisruntime.data.Geodatabase;
+import com.esri.arcgisruntime.data.GeodatabaseFeatureTable;
+import com.esri.arcgisruntime.geometry.Envelope;
+import com.esri.arcgisruntime.geometry.Geometry;
+import com.esri.arcgisruntime.loadable.LoadStatus;
+import com.esri.arcgisruntime.tasks.geodatabase.GeodatabaseSyncTask;
+import com.esri.arcgisruntime.tasks.geodatabase.SyncGeodatabaseJob;
+import com.esri.arcgisruntime.tasks.geodatabase.SyncGeodatabaseParameters;
+import com.esri.arcgisruntime.tasks.geodatabase.SyncLayerOption;
+
+/**
+ * Geodatabases generated from parts of one area, kept together so they can be synced and unregistered as one.
+ *
+ * Each geodatabase is a separate replica on the service, holding only the features of its own part. The set records
+ * the path, sync ID and extent of each in a manifest, so it can be reopened with {@link #load(File)} after the app
+ * restarts.
+ */
+public class GeodatabaseReplicaSet {
+
+  private static final String TAG = GeodatabaseReplicaSet.class.getSimpleName();
+
+  public static final String MANIFEST_FILE_NAME = "replica_set.json";
+
+  private final File mManifestFile;
+  private final List<Geodatabase> mGeodatabases = new ArrayList<>();
+  private final List<Envelope> mExtents = new ArrayList<>();
+
+  /**
+   * Receives the outcome of syncing the set on the main thread.
+   */
+  public interface SyncCallback {
+
+    void onSynced();
+
+    void onFailed(String error);
+  }
+
+  /**
+   * @param manifestFile where the set's manifest is saved
+   */
+  public GeodatabaseReplicaSet(File manifestFile) {
+    mManifestFile = manifestFile;
+  }
+
+  /**
+   * Reopens a saved set. The geodatabases are not loaded.
+   *
+   * @param manifestFile the set's manifest
+   * @return the set
+   * @throws IOException if the manifest can't be read
+   */
+  public static GeodatabaseReplicaSet load(File manifestFile) throws IOException {
+    GeodatabaseReplicaSet replicaSet = new GeodatabaseReplicaSet(manifestFile);
+    try {
+      JSONArray replicas = new JSONObject(readText(manifestFile)).getJSONArray("replicas");
+      for (int i = 0; i < replicas.length(); i++) {
+        JSONObject replica = replicas.getJSONObject(i);
+        replicaSet.add(new Geodatabase(replica.getString("path")),
+            (Envelope) Geometry.fromJson(replica.getString("extent")));
+      }
+    } catch (JSONException e) {
+      throw new IOException("Unreadable replica set: " + e.getMessage());
+    }
+    return replicaSet;
+  }
+
+  public void add(Geodatabase geodatabase, Envelope extent) {
+    mGeodatabases.add(geodatabase);
+    mExtents.add(extent);
+  }
+
+  public List<Geodatabase> getGeodatabases() {
+    return Collections.unmodifiableList(mGeodatabases);
+  }
+
+  public List<Envelope> getExtents() {
+    return Collections.unmodifiableList(mExtents);
+  }
+
+  /**
+   * Writes the manifest, replacing any previous one.
+   *
+   * @throws IOException if the manifest can't be written
+   */
+  public void save() throws IOException {
+    try {
+      JSONArray replicas = new JSONArray();
+      for (int i = 0; i < mGeodatabases.size(); i++) {
+        Geodatabase geodatabase = mGeodatabases.get(i);
+        JSONObject replica = new JSONObject();
+        replica.put("path", geodatabase.getPath());
+        replica.put("syncId", String.valueOf(geodatabase.getSyncId()));
+        replica.put("extent", mExtents.get(i).toJson());
+        replicas.put(replica);
+      }
+      // replace the manifest atomically, so it is never seen half written
+      File tempFile = new File(mManifestFile.getPath() + ".tmp");
+      try (FileOutputStream out = new FileOutputStream(tempFile)) {
+        out.write(new JSONObject().put("replicas", replicas).toString().getBytes(StandardCharsets.UTF_8));
+        out.getFD().sync();
+      }
+      if (!tempFile.renameTo(mManifestFile)) {
+        throw new IOException("Failed to write " + mManifestFile);
+      }
+    } catch (JSONException e) {
+      throw new IOException("Failed to write replica set: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Syncs every geodatabase in the set both ways, one after another, loading each first if needed. Stops at the first
+   * geodatabase which fails to sync.
+   *
+   * @param geodatabaseSyncTask a loaded task for the feature service
+   * @param callback notified on the main thread
+   */
+  public void syncAsync(GeodatabaseSyncTask geodatabaseSyncTask, SyncCallback callback) {
+    syncFrom(0, geodatabaseSyncTask, callback);
+  }
+
+  private void syncFrom(int index, GeodatabaseSyncTask geodatabaseSyncTask, SyncCallback callback) {
+    if (index == mGeodatabases.size()) {
+      callback.onSynced();
+      return;
+    }
+    Geodatabase geodatabase = mGeodatabases.get(index);
+    // the layer options come from the geodatabase's tables, so it must be loaded
+    geodatabase.loadAsync();
+    geodatabase.addDoneLoadingListener(() -> {
+      if (geodatabase.getLoadStatus() == LoadStatus.LOADED) {
+        sync(index, geodatabase, geodatabaseSyncTask, callback);
+      } else {
+        callback.onFailed("Error loading " + geodatabase.getPath() + ": " + geodatabase.getLoadError().getMessage());
+      }
+    });
+  }
+
+  private void sync(int index, Geodatabase geodatabase, GeodatabaseSyncTask geodatabaseSyncTask,
+      SyncCallback callback) {
+    SyncGeodatabaseParameters syncGeodatabaseParameters = new SyncGeodatabaseParameters();
+    syncGeodatabaseParameters.setSyncDirection(SyncGeodatabaseParameters.SyncDirection.BIDIRECTIONAL);
+    syncGeodatabaseParameters.setRollbackOnFailure(false);
+    for (GeodatabaseFeatureTable table : geodatabase.getGeodatabaseFeatureTables()) {
+      syncGeodatabaseParameters.getLayerOptions().add(new SyncLayerOption(table.getServiceLayerId()));
+    }
+    SyncGeodatabaseJob job = geodatabaseSyncTask.syncGeodatabase(syncGeodatabaseParameters, geodatabase);
+    job.addJobDoneListener(() -> {
+      if (job.getStatus() == Job.Status.SUCCEEDED) {
+        syncFrom(index + 1, geodatabaseSyncTask, callback);
+      } else {
+        callback.onFailed(job.getError() != null ? job.getError().getMessage() : "Sync canceled");
+      }
+    });
+    job.start();
+  }
+
+  /**
+   * Closes every geodatabase in the set, so their files can be replaced.
+   */
+  public void close() {
+    for (Geodatabase geodatabase : mGeodatabases) {
+      geodatabase.close();
+    }
+  }
+
+  /**
+   * Unregisters every geodatabase in the set from the service, for when they won't be synced again.
+   *
+   * @param geodatabaseSyncTask a loaded task for the feature service
+   * @param onDone run on the main thread once every geodatabase has been unregistered, may be null
+   */
+  public void unregisterAsync(GeodatabaseSyncTask geodatabaseSyncTask, Runnable onDone) {
+    int[] remaining = { mGeodatabases.size() };
+    if (remaining[0] == 0 && onDone != null) {
+      onDone.run();
+    }
+    for (Geodatabase geodatabase : mGeodatabases) {
+      ListenableFuture<Void> unregisterFuture = geodatabaseSyncTask.unregisterGeodatabaseAsync(geodatabase);
+      unregisterFuture.addDoneListener(() -> {
+        try {
+          unregisterFuture.get();
+        } catch (Exception e) {
+          Log.e(TAG, "Failed to unregister " + geodatabase.getPath() + ": " + e.getMessage());
+        }
+        if (--remaining[0] == 0 && onDone != null) {
+          onDone.run();
+        }
+      });
+    }
+  }
+
+  private static String readText(File file) throws IOException {
+    byte[] bytes = new byte[(int) file.length()];
+    try (InputStream in = new FileInputStream(file)) {
+      int offset = 0;
+      int read;
+      while (offset < bytes.length && (read = in.read(bytes, offset, bytes.length - offset)) != -1) {
+        offset += read;
+      }
+      return new String(bytes, 0, offset, StandardCharsets.UTF_8);
+    }
+  }
+}
@@ -17,7 +17,8 @@
 package com.esri.arcgisruntime.sample.generategeodatabase;
 
 import java.io.File;
-import java.util.concurrent.ExecutionException;
+import java.io.IOException;
+import java.util.List;
 
 import android.graphics.Color;
 import android.os.Bundle;
@@ -30,8 +31,6 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.appcompat.app.AppCompatActivity;
-import com.esri.arcgisruntime.concurrent.Job;
-import com.esri.arcgisruntime.concurrent.ListenableFuture;
 import com.esri.arcgisruntime.data.Geodatabase;
 import com.esri.arcgisruntime.data.GeodatabaseFeatureTable;
 import com.esri.arcgisruntime.data.TileCache;
@@ -45,22 +44,32 @@ import com.esri.arcgisruntime.mapping.view.Graphic;
 import com.esri.arcgisruntime.mapping.view.GraphicsOverlay;
 import com.esri.arcgisruntime.mapping.view.MapView;
 import com.esri.arcgisruntime.symbology.SimpleLineSymbol;
-import com.esri.arcgisruntime.tasks.geodatabase.GenerateGeodatabaseJob;
-import com.esri.arcgisruntime.tasks.geodatabase.GenerateGeodatabaseParameters;
 import com.esri.arcgisruntime.tasks.geodatabase.GeodatabaseSyncTask;
 
 public class MainActivity extends AppCompatActivity {
 
   private final String TAG = MainActivity.class.getSimpleName();
 
+  // split the extent until each geodatabase holds at most this many features
+  private static final long MAX_FEATURES_PER_GEODATABASE = 500;
+  // generate at most this many geodatabases at once, to keep the load on the service down
+  private static final int MAX_CONCURRENT_JOBS = 3;
+
   private MapView mMapView;
+  private ArcGISMap mMap;
+  private GraphicsOverlay mGraphicsOverlay;
+  private SimpleLineSymbol mPartSymbol;
 
+  private Button mGenGeodatabaseButton;
+  private Button mSyncButton;
+  private ProgressBar mProgressBar;
   private TextView mProgressTextView;
   private RelativeLayout mProgressLayout;
   
   // objects that implement Loadable must be class fields to prevent being garbage collected before loading
   private GeodatabaseSyncTask mGeodatabaseSyncTask;
-  private Geodatabase mGeodatabase;
+  private PartitionedGeodatabaseGenerator mGenerator;
+  private GeodatabaseReplicaSet mReplicaSet;
 
   @Override
   protected void onCreate(Bundle savedInstanceState) {
@@ -73,108 +82,169 @@ public class MainActivity extends AppCompatActivity {
 
     // create a map view and add a map
     mMapView = findViewById(R.id.mapView);
-    final ArcGISMap map = new ArcGISMap(new Basemap(tiledLayer));
-    mMapView.setMap(map);
+    mMap = new ArcGISMap(new Basemap(tiledLayer));
+    mMapView.setMap(mMap);
 
-    // create a graphics overlay and symbol to mark the extent
-    final GraphicsOverlay graphicsOverlay = new GraphicsOverlay();
-    mMapView.getGraphicsOverlays().add(graphicsOverlay);
-    final SimpleLineSymbol boundarySymbol = new SimpleLineSymbol(SimpleLineSymbol.Style.SOLID, Color.RED, 5);
+    // create a graphics overlay and symbol to mark the extent of each part
+    mGraphicsOverlay = new GraphicsOverlay();
+    mMapView.getGraphicsOverlays().add(mGraphicsOverlay);
+    mPartSymbol = new SimpleLineSymbol(SimpleLineSymbol.Style.DASH, Color.RED, 2);
 
-    // inflate button and progress layout
-    final Button genGeodatabaseButton = findViewById(R.id.genGeodatabaseButton);
+    // inflate buttons and progress layout
+    mGenGeodatabaseButton = findViewById(R.id.genGeodatabaseButton);
+    mSyncButton = findViewById(R.id.syncButton);
     mProgressLayout = findViewById(R.id.progressLayout);
-    final ProgressBar progressBar = findViewById(R.id.taskProgressBar);
+    mProgressBar = findViewById(R.id.taskProgressBar);
     mProgressTextView = findViewById(R.id.progressTextView);
 
+    // the geodatabases and the manifest of the set they belong to are kept here between launches
+    File outputDirectory = new File(getCacheDir(), getString(R.string.wildfire_geodatabases));
+
     // create a geodatabase sync task
     mGeodatabaseSyncTask = new GeodatabaseSyncTask(getString(R.string.wildfire_sync));
     mGeodatabaseSyncTask.loadAsync();
     mGeodatabaseSyncTask.addDoneLoadingListener(() -> {
 
+      // reopen the geodatabases generated on an earlier launch, so they can still be synced
+      File manifestFile = new File(outputDirectory, GeodatabaseReplicaSet.MANIFEST_FILE_NAME);
+      if (manifestFile.exists()) {
+        try {
+          GeodatabaseReplicaSet replicaSet = GeodatabaseReplicaSet.load(manifestFile);
+          for (Envelope part : replicaSet.getExtents()) {
+            mGraphicsOverlay.getGraphics().add(new Graphic(part, mPartSymbol));
+          }
+          showReplicaSet(replicaSet);
+        } catch (IOException e) {
+          Log.e(TAG, "Error reopening geodatabases: " + e.getMessage());
+        }
+      }
+
       // generate the geodatabase sync task
-      genGeodatabaseButton.setOnClickListener(v -> {
+      mGenGeodatabaseButton.setOnClickListener(v -> {
 
-        // show the progress layout
-        progressBar.setProgress(0);
-        mProgressLayout.setVisibility(View.VISIBLE);
+        // stop a generation still running, and unregister what it has generated so far
+        if (mGenerator != null) {
+          mGenerator.cancel();
+        }
 
         // clear any previous operational layers and graphics if button clicked more than once
-        map.getOperationalLayers().clear();
-        graphicsOverlay.getGraphics().clear();
+        mMap.getOperationalLayers().clear();
+        mGraphicsOverlay.getGraphics().clear();
+        mSyncButton.setVisibility(View.GONE);
 
-        // show the extent used as a graphic
         Envelope extent = mMapView.getVisibleArea().getExtent();
-        Graphic boundary = new Graphic(extent, boundarySymbol);
-        graphicsOverlay.getGraphics().add(boundary);
-
-        // create generate geodatabase parameters for the current extent
-        final ListenableFuture<GenerateGeodatabaseParameters> defaultParameters = mGeodatabaseSyncTask
-            .createDefaultGenerateGeodatabaseParametersAsync(extent);
-        defaultParameters.addDoneListener(() -> {
-          try {
-            // set parameters and don't include attachments
-            GenerateGeodatabaseParameters parameters = defaultParameters.get();
-            parameters.setReturnAttachments(false);
-
-            // define the local path where the geodatabase will be stored
-            final String localGeodatabasePath =
-                getCacheDir() + File.separator + getString(R.string.wildfire_geodatabase);
-
-            // create and start the job
-            final GenerateGeodatabaseJob generateGeodatabaseJob = mGeodatabaseSyncTask
-                .generateGeodatabase(parameters, localGeodatabasePath);
-            generateGeodatabaseJob.start();
-            mProgressTextView.setText(getString(R.string.progress_started));
-
-            // update progress
-            generateGeodatabaseJob.addProgressChangedListener(() -> {
-              progressBar.setProgress(generateGeodatabaseJob.getProgress());
-              mProgressTextView.setText(getString(R.string.progress_fetching));
-            });
-
-            // get geodatabase when done
-            generateGeodatabaseJob.addJobDoneListener(() -> {
-              mProgressLayout.setVisibility(View.INVISIBLE);
-              if (generateGeodatabaseJob.getStatus() == Job.Status.SUCCEEDED) {
-                mGeodatabase = generateGeodatabaseJob.getResult();
-                mGeodatabase.loadAsync();
-                mGeodatabase.addDoneLoadingListener(() -> {
-                  if (mGeodatabase.getLoadStatus() == LoadStatus.LOADED) {
-                    mProgressTextView.setText(getString(R.string.progress_done));
-                    for (GeodatabaseFeatureTable geodatabaseFeatureTable : mGeodatabase
-                        .getGeodatabaseFeatureTables()) {
-                      geodatabaseFeatureTable.loadAsync();
-                      map.getOperationalLayers().add(new FeatureLayer(geodatabaseFeatureTable));
-                    }
-                    genGeodatabaseButton.setVisibility(View.GONE);
-                    Log.i(TAG, "Local geodatabase stored at: " + localGeodatabasePath);
-                  } else {
-                    Log.e(TAG, "Error loading geodatabase: " + mGeodatabase.getLoadError().getMessage());
-                  }
-                });
-                // unregister since we're not syncing
-                ListenableFuture unregisterGeodatabase = mGeodatabaseSyncTask.unregisterGeodatabaseAsync(mGeodatabase);
-                unregisterGeodatabase.addDoneListener(() -> {
-                  Log.i(TAG, "Geodatabase unregistered since we wont be editing it in this sample.");
-                  Toast.makeText(MainActivity.this,
-                      "Geodatabase unregistered since we wont be editing it in this sample.",
-                      Toast.LENGTH_LONG).show();
-                });
-              } else if (generateGeodatabaseJob.getError() != null) {
-                Log.e(TAG, "Error generating geodatabase: " + generateGeodatabaseJob.getError().getMessage());
-              } else {
-                Log.e(TAG, "Unknown Error generating geodatabase");
-              }
-            });
-          } catch (InterruptedException | ExecutionException e) {
-            Log.e(TAG, "Error generating geodatabase parameters : " + e.getMessage());
+        if (mReplicaSet != null) {
+          // the new geodatabases replace the previous set, which won't be synced again
+          GeodatabaseReplicaSet previousReplicaSet = mReplicaSet;
+          mReplicaSet = null;
+          mGenGeodatabaseButton.setEnabled(false);
+          previousReplicaSet.unregisterAsync(mGeodatabaseSyncTask, () -> {
+            previousReplicaSet.close();
+            mGenGeodatabaseButton.setEnabled(true);
+            generate(extent, outputDirectory);
+          });
+        } else {
+          generate(extent, outputDirectory);
+        }
+      });
+
+      // sync the edits in every geodatabase of the set with the service
+      mSyncButton.setOnClickListener(v -> {
+        // the set can't be replaced while it is syncing
+        mSyncButton.setEnabled(false);
+        mGenGeodatabaseButton.setEnabled(false);
+        mProgressBar.setProgress(0);
+        mProgressTextView.setText(getString(R.string.progress_syncing));
+        mProgressLayout.setVisibility(View.VISIBLE);
+        mReplicaSet.syncAsync(mGeodatabaseSyncTask, new GeodatabaseReplicaSet.SyncCallback() {
+          @Override public void onSynced() {
+            mProgressLayout.setVisibility(View.INVISIBLE);
+            mSyncButton.setEnabled(true);
+            mGenGeodatabaseButton.setEnabled(true);
+            Toast.makeText(MainActivity.this, getString(R.string.sync_done), Toast.LENGTH_SHORT).show();
+          }
+
+          @Override public void onFailed(String error) {
+            mProgressLayout.setVisibility(View.INVISIBLE);
+            mSyncButton.setEnabled(true);
+            mGenGeodatabaseButton.setEnabled(true);
+            Log.e(TAG, "Error syncing geodatabases: " + error);
+            Toast.makeText(MainActivity.this, "Error syncing geodatabases: " + error, Toast.LENGTH_LONG).show();
           }
         });
       });
     });
   }
 
+  /**
+   * Splits the extent into parts and generates a geodatabase for each, a few at a time.
+   */
+  private void generate(Envelope extent, File outputDirectory) {
+    // show the progress layout
+    mProgressBar.setProgress(0);
+    mProgressLayout.setVisibility(View.VISIBLE);
+
+    // show the extent used as a graphic
+    Graphic boundary = new Graphic(extent, new SimpleLineSymbol(SimpleLineSymbol.Style.SOLID, Color.RED, 5));
+    mGraphicsOverlay.getGraphics().add(boundary);
+
+    if (!outputDirectory.exists() && !outputDirectory.mkdirs()) {
+      Log.e(TAG, "Failed to create " + outputDirectory);
+      return;
+    }
+    mProgressTextView.setText(getString(R.string.progress_partitioning));
+    mGenerator = new PartitionedGeodatabaseGenerator(mGeodatabaseSyncTask, outputDirectory,
+        MAX_FEATURES_PER_GEODATABASE, MAX_CONCURRENT_JOBS);
+    mGenerator.generate(extent, new PartitionedGeodatabaseGenerator.Listener() {
+      @Override public void onPartitioned(List<Envelope> parts) {
+        // show the extent of each part
+        for (Envelope part : parts) {
+          mGraphicsOverlay.getGraphics().add(new Graphic(part, mPartSymbol));
+        }
+        mProgressTextView.setText(getString(R.string.progress_started));
+      }
+
+      @Override public void onProgress(int percent, int completedParts, int totalParts) {
+        mProgressBar.setProgress(percent);
+        mProgressTextView.setText(getString(R.string.progress_parts, completedParts, totalParts));
+      }
+
+      @Override public void onComplete(GeodatabaseReplicaSet replicaSet) {
+        mProgressLayout.setVisibility(View.INVISIBLE);
+        mProgressTextView.setText(getString(R.string.progress_done));
+        showReplicaSet(replicaSet);
+      }
+
+      @Override public void onFailed(String error) {
+        mProgressLayout.setVisibility(View.INVISIBLE);
+        Log.e(TAG, error);
+        Toast.makeText(MainActivity.this, error, Toast.LENGTH_LONG).show();
+      }
+    });
+  }
+
+  /**
+   * Adds a feature layer for each table of the set's geodatabases to the map, and lets the set be synced.
+   */
+  private void showReplicaSet(GeodatabaseReplicaSet replicaSet) {
+    mReplicaSet = replicaSet;
+    for (Geodatabase geodatabase : replicaSet.getGeodatabases()) {
+      geodatabase.loadAsync();
+      geodatabase.addDoneLoadingListener(() -> {
+        if (geodatabase.getLoadStatus() == LoadStatus.LOADED) {
+          for (GeodatabaseFeatureTable geodatabaseFeatureTable : geodatabase.getGeodatabaseFeatureTables()) {
+            geodatabaseFeatureTable.loadAsync();
+            mMap.getOperationalLayers().add(new FeatureLayer(geodatabaseFeatureTable));
+          }
+          Log.i(TAG, "Local geodatabase stored at: " + geodatabase.getPath());
+        } else {
+          Log.e(TAG, "Error loading geodatabase: " + geodatabase.getLoadError().getMessage());
+        }
+      });
+    }
+    mSyncButton.setVisibility(View.VISIBLE);
+  }
+
   @Override
   protected void onPause() {
     super.onPause();
@@ -189,6 +259,9 @@ public class MainActivity extends AppCompatActivity {
 
   @Override
   protected void onDestroy() {
+    if (mGenerator != null) {
+      mGenerator.cancel();
+    }
     super.onDestroy();
     mMapView.dispose();
   }
@@ -0,0 +1,524 @@
+/* Copyright 2021 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgisruntime.sample.generategeodatabase;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.esri.arcgisruntime.arcgisservices.IdInfo;
+import com.esri.arcgisruntime.concurrent.Job;
+import com.esri.arcgisruntime.concurrent.ListenableFuture;
+import com.esri.arcgisruntime.data.Feature;
+import com.esri.arcgisruntime.data.FeatureQueryResult;
+import com.esri.arcgisruntime.data.QueryParameters;
+import com.esri.arcgisruntime.data.ServiceFeatureTable;
+import com.esri.arcgisruntime.geometry.Envelope;
+import com.esri.arcgisruntime.geometry.Geometry;
+import com.esri.arcgisruntime.geometry.GeometryEngine;
+import com.esri.arcgisruntime.geometry.Multipoint;
+import com.esri.arcgisruntime.geometry.Point;
+import com.esri.arcgisruntime.geometry.Polygon;
+import com.esri.arcgisruntime.geometry.Polyline;
+import com.esri.arcgisruntime.tasks.geodatabase.GenerateGeodatabaseJob;
+import com.esri.arcgisruntime.tasks.geodatabase.GenerateGeodatabaseParameters;
+import com.esri.arcgisruntime.tasks.geodatabase.GenerateLayerOption;
+import com.esri.arcgisruntime.tasks.geodatabase.GeodatabaseSyncTask;
+
+/**
+ * Generates a large area as several geodatabases, a few at a time.
+ *
+ * The area is halved along its longer side, and each half halved again, until no part holds more features than
+ * {@code maxFeaturesPerPart}, so every part takes the server a similar amount of work to generate. Feature counts
+ * come from count queries against the service's layers, which are cheap compared to generating a geodatabase. Parts
+ * without features are skipped. At most {@code maxConcurrentJobs} jobs run at once, so the service isn't flooded with
+ * requests. The resulting geodatabases are collected into a {@link GeodatabaseReplicaSet}, whose manifest is saved to
+ * the output directory once every part has been generated.
+ *
+ * Each feature is given to exactly one part, the one holding a chosen point of the feature inside the area, so
+ * features which straddle the boundary between two parts are neither drawn twice nor editable in two replicas. Each
+ * part's geodatabase is generated with a where clause on the object IDs of its features. The features in a part are
+ * queried a page at a time, so parts holding more features than the service returns in one query are still complete,
+ * and the generation fails rather than leave out features the service didn't return.
+ */
+public class PartitionedGeodatabaseGenerator {
+
+  private static final String TAG = PartitionedGeodatabaseGenerator.class.getSimpleName();
+
+  // stop splitting after this many halvings, even if a part still has too many features
+  private static final int MAX_SPLIT_DEPTH = 6;
+  // page size for layers which don't report the most features a query returns
+  private static final int DEFAULT_PAGE_SIZE = 1000;
+  // most object IDs in one IN list, some databases reject longer lists
+  private static final int MAX_IDS_PER_IN_LIST = 1000;
+  // consecutive object IDs are selected with a range rather than listed, from this many on
+  private static final int MIN_RANGE_LENGTH = 3;
+
+  private final GeodatabaseSyncTask mGeodatabaseSyncTask;
+  private final File mOutputDirectory;
+  private final long mMaxFeaturesPerPart;
+  private final int mMaxConcurrentJobs;
+  private final List<ServiceFeatureTable> mLayerTables = new ArrayList<>();
+  private final List<Long> mLayerIds = new ArrayList<>();
+  private final List<GenerateGeodatabaseJob> mRunningJobs = new ArrayList<>();
+
+  private Listener mListener;
+  private Envelope mArea;
+  private List<Envelope> mParts;
+  private ArrayDeque<Integer> mQueuedParts;
+  private GeodatabaseReplicaSet mReplicaSet;
+  private int mPendingCounts;
+  private int mStartingJobs;
+  private int mCompletedParts;
+  private boolean mFailed;
+  private boolean mComplete;
+
+  /**
+   * Receives the progress of a generation on the main thread.
+   */
+  public interface Listener {
+
+    void onPartitioned(List<Envelope> parts);
+
+    void onProgress(int percent, int completedParts, int totalParts);
+
+    void onComplete(GeodatabaseReplicaSet replicaSet);
+
+    void onFailed(String error);
+  }
+
+  /**
+   * @param geodatabaseSyncTask a loaded task for the feature service
+   * @param outputDirectory where the geodatabases are written
+   * @param maxFeaturesPerPart the most features a part may hold before it is split
+   * @param maxConcurrentJobs the most generate geodatabase jobs to run at once
+   */
+  public PartitionedGeodatabaseGenerator(GeodatabaseSyncTask geodatabaseSyncTask, File outputDirectory,
+      long maxFeaturesPerPart, int maxConcurrentJobs) {
+    mGeodatabaseSyncTask = geodatabaseSyncTask;
+    mOutputDirectory = outputDirectory;
+    mMaxFeaturesPerPart = maxFeaturesPerPart;
+    mMaxConcurrentJobs = maxConcurrentJobs;
+    String serviceUrl = geodatabaseSyncTask.getUri();
+    for (IdInfo layerInfo : geodatabaseSyncTask.getFeatureServiceInfo().getLayerInfos()) {
+      mLayerTables.add(new ServiceFeatureTable(serviceUrl + "/" + layerInfo.getId()));
+      mLayerIds.add(layerInfo.getId());
+    }
+  }
+
+  /**
+   * Splits the area into parts, then generates a geodatabase for each.
+   *
+   * @param extent the area to take offline
+   * @param listener receives the progress on the main thread
+   */
+  public void generate(Envelope extent, Listener listener) {
+    mListener = listener;
+    mArea = extent;
+    mParts = new ArrayList<>();
+    mQueuedParts = new ArrayDeque<>();
+    // a manifest left from an earlier generation would list geodatabases about to be overwritten
+    File manifestFile = new File(mOutputDirectory, GeodatabaseReplicaSet.MANIFEST_FILE_NAME);
+    if (manifestFile.exists() && !manifestFile.delete()) {
+      Log.w(TAG, "Failed to delete " + manifestFile);
+    }
+    mReplicaSet = new GeodatabaseReplicaSet(manifestFile);
+    mRunningJobs.clear();
+    mStartingJobs = 0;
+    mCompletedParts = 0;
+    mFailed = false;
+    mComplete = false;
+    mPendingCounts = 1;
+    partition(extent, 0);
+  }
+
+  /**
+   * Cancels the running jobs and unregisters the geodatabases generated so far. Does nothing once the generation has
+   * completed.
+   */
+  public void cancel() {
+    if (!mComplete) {
+      fail("Generation canceled");
+    }
+  }
+
+  private void partition(Envelope area, int depth) {
+    countFeatures(area, count -> {
+      if (count > mMaxFeaturesPerPart && depth < MAX_SPLIT_DEPTH) {
+        double xMid = (area.getXMin() + area.getXMax()) / 2;
+        double yMid = (area.getYMin() + area.getYMax()) / 2;
+        mPendingCounts++;
+        if (area.getWidth() >= area.getHeight()) {
+          partition(new Envelope(area.getXMin(), area.getYMin(), xMid, area.getYMax(), area.getSpatialReference()),
+              depth + 1);
+          partition(new Envelope(xMid, area.getYMin(), area.getXMax(), area.getYMax(), area.getSpatialReference()),
+              depth + 1);
+        } else {
+          partition(new Envelope(area.getXMin(), area.getYMin(), area.getXMax(), yMid, area.getSpatialReference()),
+              depth + 1);
+          partition(new Envelope(area.getXMin(), yMid, area.getXMax(), area.getYMax(), area.getSpatialReference()),
+              depth + 1);
+        }
+        return;
+      }
+      // an empty part would only produce an empty geodatabase, unless it is the whole area
+      if (count > 0 || depth == 0) {
+        mParts.add(area);
+      }
+      mPendingCounts--;
+      if (mPendingCounts == 0) {
+        Log.i(TAG, "Generating " + mParts.size() + " parts");
+        mListener.onPartitioned(mParts);
+        for (int i = 0; i < mParts.size(); i++) {
+          mQueuedParts.add(i);
+        }
+        startQueuedParts();
+      }
+    });
+  }
+
+  private interface CountCallback {
+
+    void onCounted(long count);
+  }
+
+  /**
+   * Counts the features of every layer in the area.
+   */
+  private void countFeatures(Envelope area, CountCallback callback) {
+    QueryParameters query = new QueryParameters();
+    query.setGeometry(area);
+    long[] total = { 0 };
+    int[] remaining = { mLayerTables.size() };
+    for (ServiceFeatureTable table : mLayerTables) {
+      ListenableFuture<Long> countFuture = table.queryFeatureCountAsync(query);
+      countFuture.addDoneListener(() -> {
+        if (mFailed) {
+          return;
+        }
+        try {
+          total[0] += countFuture.get();
+        } catch (Exception e) {
+          fail("Error counting features: " + e.getMessage());
+          return;
+        }
+        if (--remaining[0] == 0) {
+          callback.onCounted(total[0]);
+        }
+      });
+    }
+  }
+
+  private void startQueuedParts() {
+    while (!mFailed && mRunningJobs.size() + mStartingJobs < mMaxConcurrentJobs && !mQueuedParts.isEmpty()) {
+      int part = mQueuedParts.poll();
+      Envelope extent = mParts.get(part);
+      ListenableFuture<GenerateGeodatabaseParameters> parametersFuture = mGeodatabaseSyncTask
+          .createDefaultGenerateGeodatabaseParametersAsync(extent);
+      mStartingJobs++;
+      parametersFuture.addDoneListener(() -> {
+        GenerateGeodatabaseParameters parameters;
+        try {
+          parameters = parametersFuture.get();
+        } catch (Exception e) {
+          mStartingJobs--;
+          fail("Error generating geodatabase parameters: " + e.getMessage());
+          return;
+        }
+        findPartFeatures(extent, whereClauses -> {
+          mStartingJobs--;
+          parameters.setReturnAttachments(false);
+          // take only the part's own features, instead of every feature intersecting the part
+          for (GenerateLayerOption layerOption : parameters.getLayerOptions()) {
+            String whereClause = whereClauses.get(layerOption.getLayerId());
+            if (whereClause != null) {
+              layerOption.setQueryOption(GenerateLayerOption.QueryOption.USE_FILTER);
+              layerOption.setUseGeometry(false);
+              layerOption.setWhereClause(whereClause);
+            }
+          }
+          File geodatabaseFile = new File(mOutputDirectory, "part" + part + ".geodatabase");
+          if (geodatabaseFile.exists() && !geodatabaseFile.delete()) {
+            fail("Failed to delete " + geodatabaseFile);
+            return;
+          }
+          startJob(mGeodatabaseSyncTask.generateGeodatabase(parameters, geodatabaseFile.getPath()), extent);
+        });
+      });
+    }
+  }
+
+  private interface PartFeaturesCallback {
+
+    void onFound(Map<Long, String> whereClauses);
+  }
+
+  /**
+   * Finds the features of each layer which belong to a part, and builds a where clause selecting them by object ID.
+   */
+  private void findPartFeatures(Envelope part, PartFeaturesCallback callback) {
+    Map<Long, String> whereClauses = new HashMap<>();
+    int[] remaining = { mLayerTables.size() };
+    for (int i = 0; i < mLayerTables.size(); i++) {
+      ServiceFeatureTable table = mLayerTables.get(i);
+      long layerId = mLayerIds.get(i);
+      QueryParameters countQuery = new QueryParameters();
+      countQuery.setGeometry(part);
+      ListenableFuture<Long> countFuture = table.queryFeatureCountAsync(countQuery);
+      countFuture.addDoneListener(() -> {
+        if (mFailed) {
+          return;
+        }
+        long count;
+        try {
+          count = countFuture.get();
+        } catch (Exception e) {
+          fail("Error counting features: " + e.getMessage());
+          return;
+        }
+        new OwnedFeatureQuery(part, table, count, objectIds -> {
+          whereClauses.put(layerId, objectIdClause(table.getObjectIdField(), objectIds));
+          if (--remaining[0] == 0) {
+            callback.onFound(whereClauses);
+          }
+        }).queryNextPage();
+      });
+    }
+  }
+
+  private interface OwnedFeaturesCallback {
+
+    void onFound(List<Long> objectIds);
+  }
+
+  /**
+   * Pages through a layer's features in a part, in object ID order, collecting the object IDs of those the part owns.
+   * Each page asks for the features after the last object ID seen, as many as the service returns in one query.
+   */
+  private class OwnedFeatureQuery {
+
+    private final Envelope mPart;
+    private final ServiceFeatureTable mTable;
+    private final long mExpectedCount;
+    private final OwnedFeaturesCallback mCallback;
+    private final int mPageSize;
+    private final List<Long> mOwnedIds = new ArrayList<>();
+    private long mFeaturesSeen;
+    private Long mLastObjectId;
+
+    /**
+     * @param expectedCount how many features the layer holds in the part
+     */
+    OwnedFeatureQuery(Envelope part, ServiceFeatureTable table, long expectedCount, OwnedFeaturesCallback callback) {
+      mPart = part;
+      mTable = table;
+      mExpectedCount = expectedCount;
+      mCallback = callback;
+      // the table is loaded by the count queries which come first
+      long maxRecordCount = table.getLayerInfo() != null ? table.getLayerInfo().getMaxRecordCount() : 0;
+      mPageSize = maxRecordCount > 0 ? (int) maxRecordCount : DEFAULT_PAGE_SIZE;
+    }
+
+    void queryNextPage() {
+      if (mFeaturesSeen >= mExpectedCount) {
+        mCallback.onFound(mOwnedIds);
+        return;
+      }
+      String objectIdField = mTable.getObjectIdField();
+      QueryParameters query = new QueryParameters();
+      query.setGeometry(mPart);
+      query.setReturnGeometry(true);
+      query.setMaxFeatures(mPageSize);
+      query.getOrderByFields().add(new QueryParameters.OrderBy(objectIdField, QueryParameters.SortOrder.ASCENDING));
+      if (mLastObjectId != null) {
+        query.setWhereClause(objectIdField + " > " + mLastObjectId);
+      }
+      ListenableFuture<FeatureQueryResult> queryFuture = mTable
+          .queryFeaturesAsync(query, ServiceFeatureTable.QueryFeatureFields.IDS_ONLY);
+      queryFuture.addDoneListener(() -> {
+        if (mFailed) {
+          return;
+        }
+        int pageCount = 0;
+        try {
+          for (Feature feature : queryFuture.get()) {
+            long objectId = ((Number) feature.getAttributes().get(objectIdField)).longValue();
+            if (feature.getGeometry() != null && ownsFeature(mPart, feature.getGeometry())) {
+              mOwnedIds.add(objectId);
+            }
+            mLastObjectId = mLastObjectId == null ? objectId : Math.max(mLastObjectId, objectId);
+            pageCount++;
+          }
+        } catch (Exception e) {
+          fail("Error querying features: " + e.getMessage());
+          return;
+        }
+        mFeaturesSeen += pageCount;
+        if (pageCount == 0 && mFeaturesSeen < mExpectedCount) {
+          // leaving out the features the service didn't return would lose them from every part
+          fail("Only " + mFeaturesSeen + " of " + mExpectedCount + " features returned by " + mTable.getUri());
+          return;
+        }
+        queryNextPage();
+      });
+    }
+  }
+
+  /**
+   * Builds a where clause selecting the given object IDs. Runs of consecutive IDs are selected with a range and the
+   * rest are listed in IN lists of at most {@link #MAX_IDS_PER_IN_LIST}, so the clause stays short enough to send.
+   */
+  private static String objectIdClause(String objectIdField, List<Long> objectIds) {
+    if (objectIds.isEmpty()) {
+      return "1=0";
+    }
+    List<Long> sortedIds = new ArrayList<>(objectIds);
+    Collections.sort(sortedIds);
+    List<String> terms = new ArrayList<>();
+    List<Long> listedIds = new ArrayList<>();
+    int runStart = 0;
+    for (int i = 1; i <= sortedIds.size(); i++) {
+      if (i < sortedIds.size() && sortedIds.get(i) == sortedIds.get(i - 1) + 1) {
+        continue;
+      }
+      if (i - runStart >= MIN_RANGE_LENGTH) {
+        terms.add(objectIdField + " BETWEEN " + sortedIds.get(runStart) + " AND " + sortedIds.get(i - 1));
+      } else {
+        listedIds.addAll(sortedIds.subList(runStart, i));
+      }
+      runStart = i;
+    }
+    for (int i = 0; i < listedIds.size(); i += MAX_IDS_PER_IN_LIST) {
+      List<Long> chunk = listedIds.subList(i, Math.min(i + MAX_IDS_PER_IN_LIST, listedIds.size()));
+      terms.add(objectIdField + " IN (" + TextUtils.join(",", chunk) + ")");
+    }
+    return TextUtils.join(" OR ", terms);
+  }
+
+  /**
+   * Whether a feature belongs to the part: a point of the feature inside the area, see {@link #ownerPoint}, is in the
+   * part. Parts include their lower edges but not their upper ones, except along the area's own upper edges, so a
+   * point on the boundary between two parts belongs to only one of them.
+   */
+  private boolean ownsFeature(Envelope part, Geometry geometry) {
+    Point point = ownerPoint(geometry);
+    if (point == null) {
+      return false;
+    }
+    double x = point.getX();
+    double y = point.getY();
+    boolean inX = x >= part.getXMin() && (x < part.getXMax() || part.getXMax() == mArea.getXMax());
+    boolean inY = y >= part.getYMin() && (y < part.getYMax() || part.getYMax() == mArea.getYMax());
+    return inX && inY;
+  }
+
+  /**
+   * A point which lies on the feature and inside the area, so the part it falls in is always one whose query returns
+   * the feature. The feature is clipped to the area first, then the label point of a polygon, or the first vertex of
+   * anything else, is used.
+   *
+   * @return the point, or null if the feature doesn't reach into the area
+   */
+  private Point ownerPoint(Geometry geometry) {
+    if (geometry.getSpatialReference() != null && !geometry.getSpatialReference().equals(mArea.getSpatialReference())) {
+      geometry = GeometryEngine.project(geometry, mArea.getSpatialReference());
+    }
+    Geometry clipped = GeometryEngine.clip(geometry, mArea);
+    if (clipped == null || clipped.isEmpty()) {
+      return null;
+    }
+    if (clipped instanceof Point) {
+      return (Point) clipped;
+    } else if (clipped instanceof Multipoint) {
+      return ((Multipoint) clipped).getPoints().get(0);
+    } else if (clipped instanceof Polyline) {
+      return ((Polyline) clipped).getParts().get(0).getStartPoint();
+    }
+    return GeometryEngine.labelPoint((Polygon) clipped);
+  }
+
+  private void startJob(GenerateGeodatabaseJob job, Envelope extent) {
+    if (mFailed) {
+      return;
+    }
+    mRunningJobs.add(job);
+    job.addProgressChangedListener(this::reportProgress);
+    job.addJobDoneListener(() -> {
+      mRunningJobs.remove(job);
+      if (mFailed) {
+        return;
+      }
+      if (job.getStatus() != Job.Status.SUCCEEDED) {
+        fail(job.getError() != null ? "Error generating geodatabase: " + job.getError().getMessage()
+            : "Unknown error generating geodatabase");
+        return;
+      }
+      mReplicaSet.add(job.getResult(), extent);
+      mCompletedParts++;
+      reportProgress();
+      if (mCompletedParts == mParts.size()) {
+        try {
+          mReplicaSet.save();
+        } catch (IOException e) {
+          fail("Error saving replica set: " + e.getMessage());
+          return;
+        }
+        mComplete = true;
+        mListener.onComplete(mReplicaSet);
+      } else {
+        startQueuedParts();
+      }
+    });
+    job.start();
+  }
+
+  private void reportProgress() {
+    // parts still queued count as not started
+    int progress = mCompletedParts * 100;
+    for (GenerateGeodatabaseJob job : mRunningJobs) {
+      progress += job.getProgress();
+    }
+    mListener.onProgress(progress / Math.max(1, mParts.size()), mCompletedParts, mParts.size());
+  }
+
+  private void fail(String error) {
+    if (mFailed) {
+      return;
+    }
+    mFailed = true;
+    for (GenerateGeodatabaseJob job : mRunningJobs) {
+      job.cancel();
+    }
+    mRunningJobs.clear();
+    // don't leave replicas registered on the service for parts nobody will sync
+    if (mReplicaSet != null) {
+      mReplicaSet.unregisterAsync(mGeodatabaseSyncTask, null);
+    }
+    Log.e(TAG, error);
+    if (mListener != null) {
+      mListener.onFailed(error);
+    }
+  }
+}
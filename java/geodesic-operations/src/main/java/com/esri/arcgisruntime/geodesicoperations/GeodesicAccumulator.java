@@ -0,0 +1,205 @@
+/* Copyright 2021 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgisruntime.geodesicoperations;
+
+import com.esri.arcgisruntime.geometry.Point;
+
+/**
+ * Keeps the geodesic length, bearing and enclosed area of a path up to date as points are appended, so the cost of
+ * each update doesn't depend on the length of the path.
+ *
+ * Distances and bearings are computed on the WGS84 ellipsoid with Vincenty's inverse formula, falling back to a
+ * spherical distance for the nearly antipodal points where it doesn't converge. The area is that of the ring closing
+ * the path, computed on a sphere of the same surface area as the ellipsoid. Points must be in WGS84.
+ */
+public class GeodesicAccumulator {
+
+  // WGS84 ellipsoid
+  private static final double SEMI_MAJOR_AXIS = 6378137.0;
+  private static final double FLATTENING = 1 / 298.257223563;
+  private static final double SEMI_MINOR_AXIS = SEMI_MAJOR_AXIS * (1 - FLATTENING);
+  // radius of the sphere with the same surface area as the WGS84 ellipsoid
+  private static final double AUTHALIC_RADIUS = 6371007.181;
+  private static final int MAX_ITERATIONS = 100;
+  private static final double CONVERGENCE = 1e-12;
+
+  private int mPointCount;
+  private double mFirstLongitude;
+  private double mFirstLatitude;
+  private double mLastLongitude;
+  private double mLastLatitude;
+  private double mLengthMeters;
+  private double mBearing = Double.NaN;
+  private double mRingSum;
+
+  /**
+   * Appends a point to the path and updates the running measurements.
+   *
+   * @param point a point in WGS84
+   */
+  public void append(Point point) {
+    append(point.getX(), point.getY());
+  }
+
+  /**
+   * Appends a point to the path and updates the running measurements.
+   *
+   * @param longitude in degrees
+   * @param latitude in degrees
+   */
+  public void append(double longitude, double latitude) {
+    if (mPointCount == 0) {
+      mFirstLongitude = longitude;
+      mFirstLatitude = latitude;
+    } else {
+      double[] inverse = inverse(mLastLongitude, mLastLatitude, longitude, latitude);
+      mLengthMeters += inverse[0];
+      if (inverse[0] > 0) {
+        mBearing = inverse[1];
+      }
+      mRingSum += ringEdge(mLastLongitude, mLastLatitude, longitude, latitude);
+    }
+    mLastLongitude = longitude;
+    mLastLatitude = latitude;
+    mPointCount++;
+  }
+
+  public void clear() {
+    mPointCount = 0;
+    mLengthMeters = 0;
+    mBearing = Double.NaN;
+    mRingSum = 0;
+  }
+
+  public int getPointCount() {
+    return mPointCount;
+  }
+
+  /**
+   * @return geodesic length of the path in meters
+   */
+  public double getLengthMeters() {
+    return mLengthMeters;
+  }
+
+  /**
+   * @return azimuth, in degrees clockwise from north, at the start of the last non-zero segment, or NaN if there
+   * isn't one
+   */
+  public double getBearing() {
+    return mBearing;
+  }
+
+  /**
+   * @return area in square meters of the ring formed by closing the path back to its first point
+   */
+  public double getAreaSquareMeters() {
+    if (mPointCount < 3) {
+      return 0;
+    }
+    double sum = mRingSum + ringEdge(mLastLongitude, mLastLatitude, mFirstLongitude, mFirstLatitude);
+    return Math.abs(sum * AUTHALIC_RADIUS * AUTHALIC_RADIUS / 2);
+  }
+
+  /**
+   * Solves the inverse geodesic problem with Vincenty's formula.
+   *
+   * @return the distance in meters and the initial azimuth in degrees
+   */
+  static double[] inverse(double longitude1, double latitude1, double longitude2, double latitude2) {
+    double l = Math.toRadians(longitude2 - longitude1);
+    double u1 = Math.atan((1 - FLATTENING) * Math.tan(Math.toRadians(latitude1)));
+    double u2 = Math.atan((1 - FLATTENING) * Math.tan(Math.toRadians(latitude2)));
+    double sinU1 = Math.sin(u1);
+    double cosU1 = Math.cos(u1);
+    double sinU2 = Math.sin(u2);
+    double cosU2 = Math.cos(u2);
+
+    double lambda = l;
+    double sinSigma;
+    double cosSigma;
+    double sigma;
+    double cosSquaredAlpha;
+    double cos2SigmaM;
+    double sinLambda;
+    double cosLambda;
+    int iteration = 0;
+    double previousLambda;
+    do {
+      sinLambda = Math.sin(lambda);
+      cosLambda = Math.cos(lambda);
+      sinSigma = Math.sqrt((cosU2 * sinLambda) * (cosU2 * sinLambda) +
+          (cosU1 * sinU2 - sinU1 * cosU2 * cosLambda) * (cosU1 * sinU2 - sinU1 * cosU2 * cosLambda));
+      if (sinSigma == 0) {
+        // coincident points
+        return new double[] { 0, 0 };
+      }
+      cosSigma = sinU1 * sinU2 + cosU1 * cosU2 * cosLambda;
+      sigma = Math.atan2(sinSigma, cosSigma);
+      double sinAlpha = cosU1 * cosU2 * sinLambda / sinSigma;
+      cosSquaredAlpha = 1 - sinAlpha * sinAlpha;
+      // on the equator cos2SigmaM is undefined, and its term vanishes
+      cos2SigmaM = cosSquaredAlpha == 0 ? 0 : cosSigma - 2 * sinU1 * sinU2 / cosSquaredAlpha;
+      double c = FLATTENING / 16 * cosSquaredAlpha * (4 + FLATTENING * (4 - 3 * cosSquaredAlpha));
+      previousLambda = lambda;
+      lambda = l + (1 - c) * FLATTENING * sinAlpha *
+          (sigma + c * sinSigma * (cos2SigmaM + c * cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM)));
+    } while (Math.abs(lambda - previousLambda) > CONVERGENCE && ++iteration < MAX_ITERATIONS);
+
+    if (iteration >= MAX_ITERATIONS) {
+      return sphericalInverse(longitude1, latitude1, longitude2, latitude2);
+    }
+
+    double uSquared = cosSquaredAlpha * (SEMI_MAJOR_AXIS * SEMI_MAJOR_AXIS - SEMI_MINOR_AXIS * SEMI_MINOR_AXIS) /
+        (SEMI_MINOR_AXIS * SEMI_MINOR_AXIS);
+    double a = 1 + uSquared / 16384 * (4096 + uSquared * (-768 + uSquared * (320 - 175 * uSquared)));
+    double b = uSquared / 1024 * (256 + uSquared * (-128 + uSquared * (74 - 47 * uSquared)));
+    double deltaSigma = b * sinSigma * (cos2SigmaM + b / 4 * (cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM) -
+        b / 6 * cos2SigmaM * (-3 + 4 * sinSigma * sinSigma) * (-3 + 4 * cos2SigmaM * cos2SigmaM)));
+    double distance = SEMI_MINOR_AXIS * a * (sigma - deltaSigma);
+    double azimuth = Math.toDegrees(Math.atan2(cosU2 * sinLambda, cosU1 * sinU2 - sinU1 * cosU2 * cosLambda));
+    return new double[] { distance, (azimuth + 360) % 360 };
+  }
+
+  private static double[] sphericalInverse(double longitude1, double latitude1, double longitude2,
+      double latitude2) {
+    double phi1 = Math.toRadians(latitude1);
+    double phi2 = Math.toRadians(latitude2);
+    double deltaLambda = Math.toRadians(longitude2 - longitude1);
+    double h = Math.pow(Math.sin((phi2 - phi1) / 2), 2) +
+        Math.cos(phi1) * Math.cos(phi2) * Math.pow(Math.sin(deltaLambda / 2), 2);
+    double distance = 2 * AUTHALIC_RADIUS * Math.asin(Math.min(1, Math.sqrt(h)));
+    double azimuth = Math.toDegrees(Math.atan2(Math.sin(deltaLambda) * Math.cos(phi2),
+        Math.cos(phi1) * Math.sin(phi2) - Math.sin(phi1) * Math.cos(phi2) * Math.cos(deltaLambda)));
+    return new double[] { distance, (azimuth + 360) % 360 };
+  }
+
+  /**
+   * One edge's contribution to the spherical area of a ring, before scaling by the radius squared.
+   */
+  private static double ringEdge(double longitude1, double latitude1, double longitude2, double latitude2) {
+    double deltaLongitude = longitude2 - longitude1;
+    // take the short way around the antimeridian
+    if (deltaLongitude > 180) {
+      deltaLongitude -= 360;
+    } else if (deltaLongitude < -180) {
+      deltaLongitude += 360;
+    }
+    return Math.toRadians(deltaLongitude) *
+        (2 + Math.sin(Math.toRadians(latitude1)) + Math.sin(Math.toRadians(latitude2)));
+  }
+}
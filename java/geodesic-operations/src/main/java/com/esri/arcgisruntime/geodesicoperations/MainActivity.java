@@ -17,6 +17,7 @@
 package com.esri.arcgisruntime.geodesicoperations;
 
 import java.util.Arrays;
+import java.util.Locale;
 
 import android.graphics.Color;
 import android.os.Bundle;
@@ -47,7 +48,10 @@ import com.esri.arcgisruntime.symbology.SimpleMarkerSymbol;
 public class MainActivity extends AppCompatActivity {
 
   private MapView mMapView;
+  private TextView mTrackTextView;
   private final LinearUnit mUnitOfMeasurement = new LinearUnit(LinearUnitId.KILOMETERS);
+  // the track through the start and every tapped location
+  private final GeodesicAccumulator mTrackAccumulator = new GeodesicAccumulator();
 
   @Override
   protected void onCreate(Bundle savedInstanceState) {
@@ -65,6 +69,8 @@ public class MainActivity extends AppCompatActivity {
     mMapView = findViewById(R.id.mapView);
     mMapView.setMap(map);
 
+    mTrackTextView = findViewById(R.id.trackTextView);
+
     // create a graphic overlay
     GraphicsOverlay graphicsOverlay = new GraphicsOverlay();
     mMapView.getGraphicsOverlays().add(graphicsOverlay);
@@ -74,6 +80,8 @@ public class MainActivity extends AppCompatActivity {
     SimpleMarkerSymbol locationMarker = new SimpleMarkerSymbol(SimpleMarkerSymbol.Style.CIRCLE, Color.BLUE, 10);
     Graphic startLocation = new Graphic(start, locationMarker);
     graphicsOverlay.getGraphics().add(startLocation);
+    mTrackAccumulator.append(start);
+    showTrack();
 
     // create graphic for the destination
     final Graphic endLocation = new Graphic();
@@ -104,6 +112,9 @@ public class MainActivity extends AppCompatActivity {
         path.setGeometry(pathGeometry);
         // calculate the path distance
         double distance = GeometryEngine.lengthGeodetic(pathGeometry, mUnitOfMeasurement, GeodeticCurveType.GEODESIC);
+        // extend the track through every tapped location, whose measurements are kept up to date incrementally
+        mTrackAccumulator.append(destination);
+        showTrack();
 
         // create a textview for the callout
         TextView calloutContent = new TextView(getApplicationContext());
@@ -122,6 +133,17 @@ public class MainActivity extends AppCompatActivity {
 
   }
 
+  /**
+   * Shows the running length, last bearing and enclosed area of the track through the start and every tapped location.
+   */
+  private void showTrack() {
+    double bearing = mTrackAccumulator.getBearing();
+    mTrackTextView.setText(getString(R.string.track_measurements, mTrackAccumulator.getPointCount(),
+        mTrackAccumulator.getLengthMeters() / 1000,
+        Double.isNaN(bearing) ? "-" : String.format(Locale.US, "%.1f°", bearing),
+        mTrackAccumulator.getAreaSquareMeters() / 1e6));
+  }
+
   @Override
   protected void onPause() {
     mMapView.pause();
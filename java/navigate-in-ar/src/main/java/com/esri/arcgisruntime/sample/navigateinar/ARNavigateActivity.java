@@ -18,6 +18,7 @@ package com.esri.arcgisruntime.sample.navigateinar;
 
 import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
 
 import android.Manifest;
 import android.content.pm.PackageManager;
@@ -35,7 +36,11 @@ import android.widget.Button;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.esri.arcgisruntime.geometry.GeometryEngine;
 import com.esri.arcgisruntime.geometry.Point;
+import com.esri.arcgisruntime.geometry.PointCollection;
+import com.esri.arcgisruntime.geometry.Polyline;
+import com.esri.arcgisruntime.geometry.SpatialReferences;
 import com.esri.arcgisruntime.location.AndroidLocationDataSource;
 import com.esri.arcgisruntime.mapping.ArcGISScene;
 import com.esri.arcgisruntime.mapping.ArcGISTiledElevationSource;
@@ -61,6 +66,15 @@ public class ARNavigateActivity extends AppCompatActivity {
 
   private static final String TAG = ARNavigateActivity.class.getSimpleName();
 
+  // how far ahead of the user the route is drawn in full detail, and the most distance between its vertices, in meters
+  private static final double ROUTE_DETAIL_DISTANCE = 300;
+  private static final double ROUTE_DENSIFY_SPACING = 2;
+  // how far ahead of the user the route is drawn at all, and how far generalizing may move it, in meters
+  private static final double ROUTE_FAR_DISTANCE = 2000;
+  private static final double ROUTE_FAR_DEVIATION = 5;
+  // how far the user moves along the route before it is redrawn, in meters
+  private static final double ROUTE_UPDATE_DISTANCE = 5;
+
   private ArcGISArView mArView;
 
   private TextView mHelpLabel;
@@ -76,6 +90,9 @@ public class ARNavigateActivity extends AppCompatActivity {
 
   private float mCurrentVerticalOffset;
 
+  private Graphic mRouteGraphic;
+  private RouteLevelOfDetail mRouteLevelOfDetail;
+
   @Override
   protected void onCreate(Bundle savedInstanceState) {
     super.onCreate(savedInstanceState);
@@ -118,8 +135,13 @@ public class ARNavigateActivity extends AppCompatActivity {
     // create and add a graphics overlay for showing the route line
     GraphicsOverlay routeOverlay = new GraphicsOverlay();
     mArView.getSceneView().getGraphicsOverlays().add(routeOverlay);
-    Graphic routeGraphic = new Graphic(sRouteResult.getRoutes().get(0).getRouteGeometry());
-    routeOverlay.getGraphics().add(routeGraphic);
+    // only draw the route ahead of the user, in full detail near them, so long routes don't slow down the ar view
+    Polyline routeGeometry = sRouteResult.getRoutes().get(0).getRouteGeometry();
+    mRouteLevelOfDetail = createRouteLevelOfDetail(routeGeometry);
+    mRouteGraphic = new Graphic();
+    routeOverlay.getGraphics().add(mRouteGraphic);
+    // draw from the start of the route until the first location arrives
+    updateRouteGraphic(routeGeometry.getParts().getPartsAsPoints().iterator().next());
     // display the graphic 3 meters above the ground
     routeOverlay.getSceneProperties().setSurfacePlacement(LayerSceneProperties.SurfacePlacement.RELATIVE);
     routeOverlay.getSceneProperties().setAltitudeOffset(3);
@@ -222,12 +244,52 @@ public class ARNavigateActivity extends AppCompatActivity {
           new Point(updatedLocation.getX(), updatedLocation.getY(), updatedLocation.getZ() + mCurrentVerticalOffset),
           mArView.getOriginCamera().getHeading(), mArView.getOriginCamera().getPitch(),
           mArView.getOriginCamera().getRoll()));
+      // redraw the route ahead of the new location
+      updateRouteGraphic(updatedLocation);
     });
 
     // remind the user to calibrate the heading and altitude before starting navigation
     Toast.makeText(this, "Calibrate your heading and altitude before navigating!", Toast.LENGTH_LONG).show();
   }
 
+  /**
+   * Creates the level of detail for drawing the route, in web mercator.
+   */
+  private RouteLevelOfDetail createRouteLevelOfDetail(Polyline routeGeometry) {
+    Polyline route = (Polyline) GeometryEngine.project(routeGeometry, SpatialReferences.getWebMercator());
+    List<Point> points = new ArrayList<>();
+    for (Point point : route.getParts().getPartsAsPoints()) {
+      points.add(point);
+    }
+    double[] xs = new double[points.size()];
+    double[] ys = new double[points.size()];
+    for (int i = 0; i < points.size(); i++) {
+      xs[i] = points.get(i).getX();
+      ys[i] = points.get(i).getY();
+    }
+    // web mercator stretches distances by 1 / cos(latitude), so scale them back to meters at the start of the route
+    Point start = (Point) GeometryEngine.project(points.get(0), SpatialReferences.getWgs84());
+    RouteLevelOfDetail routeLevelOfDetail = new RouteLevelOfDetail(xs, ys, Math.cos(Math.toRadians(start.getY())));
+    routeLevelOfDetail.setDetail(ROUTE_DETAIL_DISTANCE, ROUTE_DENSIFY_SPACING);
+    routeLevelOfDetail.setFarDetail(ROUTE_FAR_DISTANCE, ROUTE_FAR_DEVIATION);
+    routeLevelOfDetail.setUpdateDistance(ROUTE_UPDATE_DISTANCE);
+    return routeLevelOfDetail;
+  }
+
+  /**
+   * Redraws the route ahead of the location, if the user has moved far enough along it since it was last drawn.
+   */
+  private void updateRouteGraphic(Point location) {
+    Point position = (Point) GeometryEngine.project(location, SpatialReferences.getWebMercator());
+    if (mRouteLevelOfDetail.update(position.getX(), position.getY())) {
+      PointCollection points = new PointCollection(SpatialReferences.getWebMercator());
+      for (int i = 0; i < mRouteLevelOfDetail.getVertexCount(); i++) {
+        points.add(mRouteLevelOfDetail.getX(i), mRouteLevelOfDetail.getY(i));
+      }
+      mRouteGraphic.setGeometry(new Polyline(points));
+    }
+  }
+
   /**
    * Request read external storage for API level 23+.
    */
@@ -0,0 +1,349 @@
+/*
+ *  Copyright 2021 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.esri.arcgisruntime.sample.navigateinar;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Chooses which part of a route to draw, and in how much detail, as the user moves along it, so the number of vertices
+ * drawn stays about the same however long the route is.
+ *
+ * - The route from the user to the detail distance ahead is densified, so the line follows the surface closely where
+ * it is seen best.
+ * - The route beyond that, up to the far distance ahead, is drawn with the vertices of a generalized copy of the route.
+ * The route behind the user and past the far distance isn't drawn.
+ * - The user is located by searching the segments near their last position along the route, and the vertices are only
+ * rebuilt once they have moved the update distance along it.
+ *
+ * The route and locations are plain coordinates in a projected spatial reference, so this class doesn't depend on the
+ * scene and can be exercised with synthetic tracks.
+ */
+public class RouteLevelOfDetail {
+
+  // how far behind and ahead of the last position along the route to search for the user, in meters
+  private static final double SEARCH_BEHIND_DISTANCE = 50;
+  private static final double SEARCH_AHEAD_DISTANCE = 200;
+  // how far from the searched segments the user can be before the whole route is searched, in meters
+  private static final double OFF_ROUTE_DISTANCE = 30;
+
+  private final double[] mXs;
+  private final double[] mYs;
+  private final double mMetersPerUnit;
+  // the distance along the route to each vertex, in meters
+  private final double[] mDistances;
+
+  private double mDetailDistance = 300;
+  private double mDensifySpacing = 2;
+  private double mFarDistance = 2000;
+  private double mFarDeviation = 5;
+  private double mUpdateDistance = 5;
+
+  // the vertices kept by generalizing the route, and their distances along it
+  private int[] mFarVertices;
+  private double[] mFarDistances;
+
+  private double mProgress;
+  private double mDrawnProgress = Double.NaN;
+
+  // the vertices to draw, reused between updates
+  private double[] mDrawnXs = new double[64];
+  private double[] mDrawnYs = new double[64];
+  private int mDrawnCount;
+
+  /**
+   * @param xs the x coordinates of the route's vertices, in order
+   * @param ys the y coordinates of the route's vertices, in order
+   * @param metersPerUnit how many meters one unit of the coordinates spans on the ground
+   */
+  public RouteLevelOfDetail(double[] xs, double[] ys, double metersPerUnit) {
+    if (xs.length != ys.length) {
+      throw new IllegalArgumentException("The route needs as many x as y coordinates");
+    }
+    mXs = xs;
+    mYs = ys;
+    mMetersPerUnit = metersPerUnit;
+    mDistances = cumulativeDistances(xs, ys, metersPerUnit);
+    generalizeFarSection();
+  }
+
+  /**
+   * Sets how much of the route ahead of the user is drawn in full detail.
+   *
+   * @param detailDistance how far ahead of the user to draw in full detail, in meters
+   * @param densifySpacing the most distance between vertices in the detailed section, in meters
+   */
+  public void setDetail(double detailDistance, double densifySpacing) {
+    mDetailDistance = detailDistance;
+    mDensifySpacing = densifySpacing;
+    mDrawnProgress = Double.NaN;
+  }
+
+  /**
+   * Sets how much of the route beyond the detailed section is drawn, and how coarsely.
+   *
+   * @param farDistance how far ahead of the user to draw the route at all, in meters
+   * @param farDeviation how far generalizing may move the route beyond the detailed section, in meters
+   */
+  public void setFarDetail(double farDistance, double farDeviation) {
+    mFarDistance = farDistance;
+    mFarDeviation = farDeviation;
+    generalizeFarSection();
+    mDrawnProgress = Double.NaN;
+  }
+
+  /**
+   * @param updateDistance how far the user moves along the route before the vertices are rebuilt, in meters
+   */
+  public void setUpdateDistance(double updateDistance) {
+    mUpdateDistance = updateDistance;
+  }
+
+  /**
+   * Locates the user on the route, and rebuilds the vertices to draw if they have moved far enough along it.
+   *
+   * @return true if the vertices to draw changed
+   */
+  public boolean update(double x, double y) {
+    if (mXs.length < 2) {
+      return false;
+    }
+    locate(x, y);
+    if (!Double.isNaN(mDrawnProgress) && Math.abs(mProgress - mDrawnProgress) < mUpdateDistance) {
+      return false;
+    }
+    mDrawnProgress = mProgress;
+    build(mProgress);
+    return true;
+  }
+
+  /**
+   * @return how far along the route the user was last located, in meters
+   */
+  public double getProgress() {
+    return mProgress;
+  }
+
+  /**
+   * @return the length of the route, in meters
+   */
+  public double getLength() {
+    return mDistances.length == 0 ? 0 : mDistances[mDistances.length - 1];
+  }
+
+  public int getVertexCount() {
+    return mDrawnCount;
+  }
+
+  public double getX(int vertex) {
+    return mDrawnXs[vertex];
+  }
+
+  public double getY(int vertex) {
+    return mDrawnYs[vertex];
+  }
+
+  /**
+   * Finds how far along the route the user is, searching the segments near their last position first.
+   */
+  private void locate(double x, double y) {
+    int first = segmentAt(mProgress - SEARCH_BEHIND_DISTANCE);
+    int last = segmentAt(mProgress + SEARCH_AHEAD_DISTANCE);
+    int segment = nearestSegment(mXs, mYs, first, last, x, y);
+    if (distanceToSegment(mXs, mYs, segment, x, y) * mMetersPerUnit > OFF_ROUTE_DISTANCE) {
+      // the user isn't near where they were last, such as on the first location, so search the whole route
+      segment = nearestSegment(mXs, mYs, 0, mXs.length - 2, x, y);
+    }
+    double fraction = fraction(mXs[segment], mYs[segment], mXs[segment + 1], mYs[segment + 1], x, y);
+    mProgress = mDistances[segment] + fraction * (mDistances[segment + 1] - mDistances[segment]);
+  }
+
+  /**
+   * Rebuilds the vertices to draw, from the start distance along the route.
+   */
+  private void build(double start) {
+    mDrawnCount = 0;
+    double detailEnd = Math.min(start + mDetailDistance, getLength());
+    double farEnd = Math.max(detailEnd, Math.min(start + mFarDistance, getLength()));
+
+    // the detailed section, with the route's vertices and enough between them to keep within the densify spacing
+    addPointAt(start);
+    double previous = start;
+    for (int vertex = segmentAt(start) + 1; vertex < mXs.length && mDistances[vertex] < detailEnd; vertex++) {
+      addSpacedPoints(previous, mDistances[vertex]);
+      previous = mDistances[vertex];
+    }
+    addSpacedPoints(previous, detailEnd);
+
+    // the far section, with the generalized route's vertices
+    int farVertex = Arrays.binarySearch(mFarDistances, detailEnd);
+    farVertex = farVertex < 0 ? -farVertex - 1 : farVertex + 1;
+    for (; farVertex < mFarVertices.length && mFarDistances[farVertex] < farEnd; farVertex++) {
+      addPoint(mXs[mFarVertices[farVertex]], mYs[mFarVertices[farVertex]]);
+    }
+    if (farEnd > detailEnd) {
+      addPointAt(farEnd);
+    }
+  }
+
+  /**
+   * Adds evenly spaced points after the from distance along the route, up to and including the to distance.
+   */
+  private void addSpacedPoints(double from, double to) {
+    if (to <= from) {
+      return;
+    }
+    int steps = Math.max(1, (int) Math.ceil((to - from) / mDensifySpacing));
+    for (int step = 1; step <= steps; step++) {
+      addPointAt(from + (to - from) * step / steps);
+    }
+  }
+
+  private void addPointAt(double distance) {
+    int segment = segmentAt(distance);
+    double length = mDistances[segment + 1] - mDistances[segment];
+    double fraction = length > 0 ? Math.max(0, Math.min(1, (distance - mDistances[segment]) / length)) : 0;
+    addPoint(mXs[segment] + fraction * (mXs[segment + 1] - mXs[segment]),
+        mYs[segment] + fraction * (mYs[segment + 1] - mYs[segment]));
+  }
+
+  private void addPoint(double x, double y) {
+    if (mDrawnCount == mDrawnXs.length) {
+      mDrawnXs = Arrays.copyOf(mDrawnXs, mDrawnCount * 2);
+      mDrawnYs = Arrays.copyOf(mDrawnYs, mDrawnCount * 2);
+    }
+    mDrawnXs[mDrawnCount] = x;
+    mDrawnYs[mDrawnCount] = y;
+    mDrawnCount++;
+  }
+
+  /**
+   * @return the segment the distance along the route falls on, clamped to the route's first and last segments
+   */
+  private int segmentAt(double distance) {
+    int index = Arrays.binarySearch(mDistances, distance);
+    int segment = index < 0 ? -index - 2 : index;
+    return Math.max(0, Math.min(mXs.length - 2, segment));
+  }
+
+  private void generalizeFarSection() {
+    mFarVertices = generalize(mXs, mYs, mFarDeviation / mMetersPerUnit);
+    mFarDistances = new double[mFarVertices.length];
+    for (int i = 0; i < mFarVertices.length; i++) {
+      mFarDistances[i] = mDistances[mFarVertices[i]];
+    }
+  }
+
+  /**
+   * @return the distance along the line to each vertex, in meters
+   */
+  static double[] cumulativeDistances(double[] xs, double[] ys, double metersPerUnit) {
+    double[] distances = new double[xs.length];
+    for (int i = 1; i < xs.length; i++) {
+      distances[i] = distances[i - 1] + Math.hypot(xs[i] - xs[i - 1], ys[i] - ys[i - 1]) * metersPerUnit;
+    }
+    return distances;
+  }
+
+  /**
+   * @return the segment, between the first and last segments inclusive, nearest the location
+   */
+  static int nearestSegment(double[] xs, double[] ys, int first, int last, double x, double y) {
+    int nearest = first;
+    double nearestDistance = Double.MAX_VALUE;
+    for (int segment = first; segment <= last; segment++) {
+      double distance = distanceToSegment(xs, ys, segment, x, y);
+      if (distance < nearestDistance) {
+        nearest = segment;
+        nearestDistance = distance;
+      }
+    }
+    return nearest;
+  }
+
+  /**
+   * @return the distance from the location to the segment, in the units of the coordinates
+   */
+  static double distanceToSegment(double[] xs, double[] ys, int segment, double x, double y) {
+    return distanceToSegment(xs[segment], ys[segment], xs[segment + 1], ys[segment + 1], x, y);
+  }
+
+  /**
+   * Generalizes the line with the Douglas-Peucker algorithm.
+   *
+   * @param tolerance how far the generalized line may be from the line, in the units of the coordinates
+   * @return the indices of the vertices kept, in order, always including the first and last
+   */
+  static int[] generalize(double[] xs, double[] ys, double tolerance) {
+    boolean[] kept = new boolean[xs.length];
+    if (xs.length > 0) {
+      kept[0] = true;
+      kept[xs.length - 1] = true;
+    }
+    // split each range at its vertex farthest from the line between its ends, until every vertex is close enough
+    ArrayDeque<int[]> ranges = new ArrayDeque<>();
+    if (xs.length > 2) {
+      ranges.push(new int[] { 0, xs.length - 1 });
+    }
+    while (!ranges.isEmpty()) {
+      int[] range = ranges.pop();
+      int farthest = -1;
+      double farthestDistance = tolerance;
+      for (int i = range[0] + 1; i < range[1]; i++) {
+        double distance = distanceToSegment(xs[range[0]], ys[range[0]], xs[range[1]], ys[range[1]], xs[i], ys[i]);
+        if (distance > farthestDistance) {
+          farthest = i;
+          farthestDistance = distance;
+        }
+      }
+      if (farthest >= 0) {
+        kept[farthest] = true;
+        ranges.push(new int[] { range[0], farthest });
+        ranges.push(new int[] { farthest, range[1] });
+      }
+    }
+    int count = 0;
+    for (boolean isKept : kept) {
+      count += isKept ? 1 : 0;
+    }
+    int[] vertices = new int[count];
+    for (int i = 0, vertex = 0; i < kept.length; i++) {
+      if (kept[i]) {
+        vertices[vertex++] = i;
+      }
+    }
+    return vertices;
+  }
+
+  private static double distanceToSegment(double x1, double y1, double x2, double y2, double x, double y) {
+    double fraction = fraction(x1, y1, x2, y2, x, y);
+    return Math.hypot(x - (x1 + fraction * (x2 - x1)), y - (y1 + fraction * (y2 - y1)));
+  }
+
+  /**
+   * @return how far along the segment the point nearest the location is, from 0 at its start to 1 at its end
+   */
+  private static double fraction(double x1, double y1, double x2, double y2, double x, double y) {
+    double dx = x2 - x1;
+    double dy = y2 - y1;
+    double lengthSquared = dx * dx + dy * dy;
+    if (lengthSquared == 0) {
+      return 0;
+    }
+    return Math.max(0, Math.min(1, ((x - x1) * dx + (y - y1) * dy) / lengthSquared));
+  }
+}
@@ -16,6 +16,7 @@
 
 package com.esri.arcgisruntime.sample.navigateroute;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
@@ -38,6 +39,7 @@ import com.esri.arcgisruntime.concurrent.ListenableFuture;
 import com.esri.arcgisruntime.geometry.Point;
 import com.esri.arcgisruntime.geometry.Polyline;
 import com.esri.arcgisruntime.geometry.SpatialReferences;
+import com.esri.arcgisruntime.location.LocationDataSource;
 import com.esri.arcgisruntime.location.RouteTrackerLocationDataSource;
 import com.esri.arcgisruntime.location.SimulatedLocationDataSource;
 import com.esri.arcgisruntime.location.SimulationParameters;
@@ -61,10 +63,20 @@ public class MainActivity extends AppCompatActivity {
 
   private static final String TAG = MainActivity.class.getSimpleName();
 
+  // fixes closer together than this are dropped, unless none has been passed on for the given time
+  private static final double MIN_FIX_DISTANCE_METERS = 2;
+  private static final long MAX_FIX_SILENCE_MILLIS = 5000;
+  // a recorded track pushed to the app's files directory, in any of the formats the replay reads
+  private static final String TRACK_NAME = "track";
+  private static final String[] TRACK_EXTENSIONS = { "gpx", "nmea", "csv" };
+  // how many times faster than recorded to replay the track
+  private static final double TRACK_SPEED_MULTIPLIER = 1;
+
   private TextToSpeech mTextToSpeech;
   private boolean mIsTextToSpeechInitialized = false;
 
-  private SimulatedLocationDataSource mSimulatedLocationDataSource;
+  private LocationDataSource mSourceLocationDataSource;
+  private SmoothedLocationDataSource mSmoothedLocationDataSource;
 
   private MapView mMapView;
   private RouteTracker mRouteTracker;
@@ -174,18 +186,34 @@ public class MainActivity extends AppCompatActivity {
 
     // get the map view's location display
     LocationDisplay locationDisplay = mMapView.getLocationDisplay();
-    // set up a simulated location data source which simulates movement along the route
-    mSimulatedLocationDataSource = new SimulatedLocationDataSource();
-    SimulationParameters simulationParameters = new SimulationParameters(Calendar.getInstance(), 35, 5, 5);
-    mSimulatedLocationDataSource.setLocations(routeGeometry, simulationParameters);
+    // replay a recorded track if one has been pushed to the device
+    if (mSourceLocationDataSource instanceof RecordedTrackLocationDataSource) {
+      ((RecordedTrackLocationDataSource) mSourceLocationDataSource).shutdown();
+    }
+    File recordedTrack = findRecordedTrack();
+    if (recordedTrack != null) {
+      mSourceLocationDataSource = new RecordedTrackLocationDataSource(recordedTrack, TRACK_SPEED_MULTIPLIER);
+    } else {
+      // otherwise set up a simulated location data source which simulates movement along the route
+      SimulatedLocationDataSource simulatedLocationDataSource = new SimulatedLocationDataSource();
+      SimulationParameters simulationParameters = new SimulationParameters(Calendar.getInstance(), 35, 5, 5);
+      simulatedLocationDataSource.setLocations(routeGeometry, simulationParameters);
+      mSourceLocationDataSource = simulatedLocationDataSource;
+    }
 
     // set up a RouteTracker for navigation along the calculated route
     mRouteTracker = new RouteTracker(getApplicationContext(), routeResult, 0, true);
     mRouteTracker.enableReroutingAsync(routeTask, routeParameters,
         RouteTracker.ReroutingStrategy.TO_NEXT_WAYPOINT, true);
 
+    // smooth the fixes, drop redundant ones and only pass on as many as the route tracker keeps up with
+    mSmoothedLocationDataSource = new SmoothedLocationDataSource(mSourceLocationDataSource);
+    mSmoothedLocationDataSource.setMovementThreshold(MIN_FIX_DISTANCE_METERS, MAX_FIX_SILENCE_MILLIS);
+    mSmoothedLocationDataSource.setRouteTracker(mRouteTracker);
+
     // create a route tracker location data source to snap the location display to the route
-    RouteTrackerLocationDataSource routeTrackerLocationDataSource = new RouteTrackerLocationDataSource(mRouteTracker, mSimulatedLocationDataSource);
+    RouteTrackerLocationDataSource routeTrackerLocationDataSource = new RouteTrackerLocationDataSource(mRouteTracker,
+        mSmoothedLocationDataSource);
     // set the route tracker location data source as the location data source for this app
     locationDisplay.setLocationDataSource(routeTrackerLocationDataSource);
     locationDisplay.setAutoPanMode(LocationDisplay.AutoPanMode.NAVIGATION);
@@ -197,16 +225,16 @@ public class MainActivity extends AppCompatActivity {
     TextView timeRemainingTextView = findViewById(R.id.timeRemainingTextView);
     TextView nextDirectionTextView = findViewById(R.id.nextDirectionTextView);
 
+    // listen for new voice guidance events, once for the route tracker rather than on every location change
+    mRouteTracker.addNewVoiceGuidanceListener(newVoiceGuidanceEvent -> {
+      // use Android's text to speech to speak the voice guidance
+      speakVoiceGuidance(newVoiceGuidanceEvent.getVoiceGuidance().getText());
+      nextDirectionTextView
+          .setText(getString(R.string.next_direction, newVoiceGuidanceEvent.getVoiceGuidance().getText()));
+    });
+
     // listen for changes in location
     locationDisplay.addLocationChangedListener(locationChangedEvent -> {
-        // listen for new voice guidance events
-        mRouteTracker.addNewVoiceGuidanceListener(newVoiceGuidanceEvent -> {
-          // use Android's text to speech to speak the voice guidance
-          speakVoiceGuidance(newVoiceGuidanceEvent.getVoiceGuidance().getText());
-          nextDirectionTextView
-              .setText(getString(R.string.next_direction, newVoiceGuidanceEvent.getVoiceGuidance().getText()));
-        });
-
         // get the route's tracking status
         TrackingStatus trackingStatus = mRouteTracker.getTrackingStatus();
         // set geometries for the route ahead and the remaining route
@@ -237,11 +265,27 @@ public class MainActivity extends AppCompatActivity {
         }
     });
 
-    // start the LocationDisplay, which starts the RouteTrackerLocationDataSource and SimulatedLocationDataSource
+    // start the LocationDisplay, which starts the RouteTrackerLocationDataSource, SmoothedLocationDataSource and the
+    // recorded track or simulated location data source
     locationDisplay.startAsync();
     Toast.makeText(this, "Navigating to the first stop, the USS San Diego Memorial.", Toast.LENGTH_LONG).show();
   }
 
+  /**
+   * Finds a recorded track in the app's files directory.
+   *
+   * @return the track, or null if there isn't one
+   */
+  private File findRecordedTrack() {
+    for (String extension : TRACK_EXTENSIONS) {
+      File track = new File(getExternalFilesDir(null), TRACK_NAME + "." + extension);
+      if (track.exists()) {
+        return track;
+      }
+    }
+    return null;
+  }
+
   /**
    * Uses Android's text to speak to say the latest voice guidance from the RouteTracker out loud.
    */
@@ -286,6 +330,9 @@ public class MainActivity extends AppCompatActivity {
 
   @Override
   protected void onDestroy() {
+    if (mSourceLocationDataSource instanceof RecordedTrackLocationDataSource) {
+      ((RecordedTrackLocationDataSource) mSourceLocationDataSource).shutdown();
+    }
     mMapView.dispose();
     super.onDestroy();
   }
@@ -0,0 +1,558 @@
+/*
+ *  Copyright 2021 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.esri.arcgisruntime.sample.navigateroute;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Xml;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import com.esri.arcgisruntime.geometry.Point;
+import com.esri.arcgisruntime.geometry.SpatialReferences;
+import com.esri.arcgisruntime.location.LocationDataSource;
+
+/**
+ * Replays a recorded track from a file as if the fixes were arriving now, keeping the time between fixes.
+ *
+ * The format is chosen by the file's extension:
+ * <ul>
+ * <li>.gpx: the track points of a GPX file, with their ele, time, speed and course elements</li>
+ * <li>.nmea, .txt or .log: the RMC sentences of an NMEA log, with the HDOP and altitude of the latest GGA
+ * sentence</li>
+ * <li>.csv: a header naming the columns, with time (ISO 8601 or epoch milliseconds), latitude and longitude required
+ * and altitude, accuracy, speed and course optional</li>
+ * </ul>
+ *
+ * The file is read one fix ahead of the replay on a background thread, so tracks of any length replay without being
+ * loaded into memory. The fixes keep their recorded timestamps. Where a fix has no speed or course, they are derived
+ * from the previous fix.
+ */
+public class RecordedTrackLocationDataSource extends LocationDataSource {
+
+  private static final String TAG = RecordedTrackLocationDataSource.class.getSimpleName();
+
+  public static final double MIN_SPEED_MULTIPLIER = 1;
+  public static final double MAX_SPEED_MULTIPLIER = 100;
+
+  private static final double EARTH_RADIUS_METERS = 6378137;
+  private static final double KNOTS_TO_METERS_PER_SECOND = 0.514444;
+  // HDOP times a typical range error gives a rough accuracy in meters
+  private static final double HDOP_TO_METERS = 5;
+  private static final Pattern ISO_TIME = Pattern
+      .compile("(\\d{4})-(\\d{2})-(\\d{2})[T ](\\d{2}):(\\d{2}):(\\d{2})(\\.\\d+)?(Z|[+-]\\d{2}:?\\d{2})?");
+
+  private final File mFile;
+  private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+  // fixes are read and timed in the background, but delivered on the main thread like those of other data sources
+  private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+  private volatile double mSpeedMultiplier;
+  private volatile boolean mLooping;
+  private Future<?> mReplay;
+
+  /**
+   * @param file the recorded track
+   * @param speedMultiplier how many times faster than recorded to replay, from 1 to 100
+   */
+  public RecordedTrackLocationDataSource(File file, double speedMultiplier) {
+    mFile = file;
+    setSpeedMultiplier(speedMultiplier);
+  }
+
+  /**
+   * Sets how many times faster than recorded the track is replayed, from 1 to 100. Can be changed during a replay.
+   */
+  public void setSpeedMultiplier(double speedMultiplier) {
+    mSpeedMultiplier = Math.max(MIN_SPEED_MULTIPLIER, Math.min(MAX_SPEED_MULTIPLIER, speedMultiplier));
+  }
+
+  public double getSpeedMultiplier() {
+    return mSpeedMultiplier;
+  }
+
+  /**
+   * Sets whether to start the track again from the beginning after its last fix.
+   */
+  public void setLooping(boolean looping) {
+    mLooping = looping;
+  }
+
+  /**
+   * Stops the background thread. The data source can't be started again.
+   */
+  public void shutdown() {
+    mExecutor.shutdownNow();
+  }
+
+  @Override
+  protected void onStart() {
+    mReplay = mExecutor.submit(() -> {
+      TrackReader reader;
+      try {
+        reader = openTrack();
+      } catch (IOException e) {
+        mMainHandler.post(() -> onStartCompleted(e));
+        return;
+      }
+      mMainHandler.post(() -> onStartCompleted(null));
+      replay(reader);
+    });
+  }
+
+  @Override
+  protected void onStop() {
+    if (mReplay != null) {
+      mReplay.cancel(true);
+      mReplay = null;
+    }
+  }
+
+  private void replay(TrackReader firstReader) {
+    TrackReader reader = firstReader;
+    int fixesReplayed = 0;
+    try {
+      while (!Thread.currentThread().isInterrupted()) {
+        // the replay clock is rebased on the first fix, on every loop and whenever the speed changes
+        long baseFixTime = Long.MIN_VALUE;
+        long baseElapsed = 0;
+        double multiplier = mSpeedMultiplier;
+        Fix previous = null;
+        Fix fix;
+        while ((fix = reader.next()) != null) {
+          if (baseFixTime == Long.MIN_VALUE || multiplier != mSpeedMultiplier) {
+            multiplier = mSpeedMultiplier;
+            baseFixTime = previous != null ? previous.mTime : fix.mTime;
+            baseElapsed = SystemClock.elapsedRealtime();
+          }
+          // wait out the recorded gap, so a fix that is late doesn't delay the rest of the track
+          long wait = (long) ((fix.mTime - baseFixTime) / multiplier) - (SystemClock.elapsedRealtime() - baseElapsed);
+          if (wait > 0) {
+            Thread.sleep(wait);
+          }
+          Location location = fix.toLocation(previous);
+          mMainHandler.post(() -> {
+            if (isStarted()) {
+              updateLocation(location);
+            }
+          });
+          fixesReplayed++;
+          previous = fix;
+        }
+        reader.close();
+        if (!mLooping) {
+          Log.d(TAG, "Replayed " + fixesReplayed + " fixes from " + mFile.getName());
+          return;
+        }
+        reader = openTrack();
+      }
+    } catch (InterruptedException e) {
+      // stopped
+    } catch (Exception e) {
+      Log.e(TAG, "Replay of " + mFile.getName() + " stopped after " + fixesReplayed + " fixes: " + e.getMessage());
+    } finally {
+      try {
+        reader.close();
+      } catch (IOException e) {
+        Log.e(TAG, "Failed to close " + mFile.getName() + ": " + e.getMessage());
+      }
+    }
+  }
+
+  private TrackReader openTrack() throws IOException {
+    String name = mFile.getName().toLowerCase(Locale.US);
+    String extension = name.substring(name.lastIndexOf('.') + 1);
+    InputStream input = new FileInputStream(mFile);
+    switch (extension) {
+      case "gpx":
+        return new GpxReader(input);
+      case "nmea":
+      case "txt":
+      case "log":
+        return new NmeaReader(new BufferedReader(new InputStreamReader(input, StandardCharsets.US_ASCII)));
+      case "csv":
+        return new CsvReader(new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8)));
+      default:
+        input.close();
+        throw new IOException("Unsupported track format: " + mFile.getName());
+    }
+  }
+
+  /**
+   * Parses an ISO 8601 time such as 2021-03-04T05:06:07.8Z, taken as UTC if it has no offset.
+   *
+   * @return the time in milliseconds, or null if it isn't an ISO 8601 time
+   */
+  private static Long parseIsoTime(String text) {
+    Matcher matcher = ISO_TIME.matcher(text);
+    if (!matcher.matches()) {
+      return null;
+    }
+    Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+    calendar.clear();
+    calendar.set(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)) - 1,
+        Integer.parseInt(matcher.group(3)), Integer.parseInt(matcher.group(4)), Integer.parseInt(matcher.group(5)),
+        Integer.parseInt(matcher.group(6)));
+    if (matcher.group(7) != null) {
+      calendar.set(Calendar.MILLISECOND, (int) (Double.parseDouble(matcher.group(7)) * 1000));
+    }
+    long offsetMillis = 0;
+    String offset = matcher.group(8) != null ? matcher.group(8).replace(":", "") : "";
+    if (offset.length() == 5) {
+      int sign = offset.charAt(0) == '-' ? -1 : 1;
+      offsetMillis = sign * (Integer.parseInt(offset.substring(1, 3)) * 60 + Integer.parseInt(offset.substring(3, 5)))
+          * 60000L;
+    }
+    return calendar.getTimeInMillis() - offsetMillis;
+  }
+
+  private static double parseDouble(String text) {
+    if (text == null || text.trim().isEmpty()) {
+      return Double.NaN;
+    }
+    try {
+      return Double.parseDouble(text.trim());
+    } catch (NumberFormatException e) {
+      return Double.NaN;
+    }
+  }
+
+  /**
+   * A recorded fix, with NaN for what wasn't recorded.
+   */
+  private static class Fix {
+
+    private final long mTime;
+    private final double mLatitude;
+    private final double mLongitude;
+    private final double mAltitude;
+    private final double mAccuracy;
+    private final double mSpeed;
+    private final double mCourse;
+
+    private Fix(long time, double latitude, double longitude, double altitude, double accuracy, double speed,
+        double course) {
+      mTime = time;
+      mLatitude = latitude;
+      mLongitude = longitude;
+      mAltitude = altitude;
+      mAccuracy = accuracy;
+      mSpeed = speed;
+      mCourse = course;
+    }
+
+    private Location toLocation(Fix previous) {
+      double speed = mSpeed;
+      double course = mCourse;
+      if (previous != null && (Double.isNaN(speed) || Double.isNaN(course))) {
+        double dLatitude = Math.toRadians(mLatitude - previous.mLatitude);
+        double dLongitude = Math.toRadians(mLongitude - previous.mLongitude) * Math.cos(Math.toRadians(mLatitude));
+        double seconds = (mTime - previous.mTime) / 1000.0;
+        if (Double.isNaN(speed) && seconds > 0) {
+          speed = Math.hypot(dLatitude, dLongitude) * EARTH_RADIUS_METERS / seconds;
+        }
+        if (Double.isNaN(course) && (dLatitude != 0 || dLongitude != 0)) {
+          course = (Math.toDegrees(Math.atan2(dLongitude, dLatitude)) + 360) % 360;
+        }
+      }
+      Point position = Double.isNaN(mAltitude) ?
+          new Point(mLongitude, mLatitude, SpatialReferences.getWgs84()) :
+          new Point(mLongitude, mLatitude, mAltitude, SpatialReferences.getWgs84());
+      Calendar timeStamp = Calendar.getInstance();
+      timeStamp.setTimeInMillis(mTime);
+      return new Location(position, mAccuracy, Double.NaN, speed, course, false, timeStamp);
+    }
+  }
+
+  private interface TrackReader extends Closeable {
+
+    /**
+     * @return the next fix, or null at the end of the track
+     */
+    Fix next() throws IOException;
+  }
+
+  private static class GpxReader implements TrackReader {
+
+    private final InputStream mInput;
+    private final XmlPullParser mParser;
+
+    private GpxReader(InputStream input) throws IOException {
+      mInput = input;
+      mParser = Xml.newPullParser();
+      try {
+        mParser.setInput(input, null);
+      } catch (XmlPullParserException e) {
+        input.close();
+        throw new IOException(e.getMessage());
+      }
+    }
+
+    @Override
+    public Fix next() throws IOException {
+      double latitude = Double.NaN;
+      double longitude = Double.NaN;
+      boolean inTrackPoint = false;
+      Map<String, String> values = new HashMap<>();
+      String element = "";
+      try {
+        while (true) {
+          switch (mParser.next()) {
+            case XmlPullParser.END_DOCUMENT:
+              return null;
+            case XmlPullParser.START_TAG:
+              element = localName(mParser.getName());
+              if (element.equals("trkpt")) {
+                inTrackPoint = true;
+                latitude = parseDouble(mParser.getAttributeValue(null, "lat"));
+                longitude = parseDouble(mParser.getAttributeValue(null, "lon"));
+                values.clear();
+              }
+              break;
+            case XmlPullParser.TEXT:
+              if (inTrackPoint) {
+                values.put(element, mParser.getText().trim());
+              }
+              break;
+            case XmlPullParser.END_TAG:
+              element = "";
+              if (inTrackPoint && localName(mParser.getName()).equals("trkpt")) {
+                inTrackPoint = false;
+                // points without a time can't be replayed in time
+                Long time = values.containsKey("time") ? parseIsoTime(values.get("time")) : null;
+                if (time != null && !Double.isNaN(latitude) && !Double.isNaN(longitude)) {
+                  return new Fix(time, latitude, longitude, parseDouble(values.get("ele")), Double.NaN,
+                      parseDouble(values.get("speed")), parseDouble(values.get("course")));
+                }
+              }
+              break;
+            default:
+              break;
+          }
+        }
+      } catch (XmlPullParserException e) {
+        throw new IOException(e.getMessage());
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      mInput.close();
+    }
+
+    private static String localName(String name) {
+      return name.substring(name.indexOf(':') + 1);
+    }
+  }
+
+  private static class NmeaReader implements TrackReader {
+
+    private final BufferedReader mReader;
+    private double mAccuracy = Double.NaN;
+    private double mAltitude = Double.NaN;
+
+    private NmeaReader(BufferedReader reader) {
+      mReader = reader;
+    }
+
+    @Override
+    public Fix next() throws IOException {
+      String sentence;
+      while ((sentence = mReader.readLine()) != null) {
+        sentence = sentence.trim();
+        if (!hasValidChecksum(sentence)) {
+          continue;
+        }
+        int star = sentence.lastIndexOf('*');
+        String[] fields = (star < 0 ? sentence : sentence.substring(0, star)).split(",", -1);
+        // the talker ID (GP, GN, GL...) doesn't matter
+        String type = fields[0].length() >= 3 ? fields[0].substring(fields[0].length() - 3) : "";
+        if (type.equals("GGA") && fields.length > 9) {
+          mAccuracy = parseDouble(fields[8]) * HDOP_TO_METERS;
+          mAltitude = parseDouble(fields[9]);
+        } else if (type.equals("RMC") && fields.length > 9 && fields[2].equals("A")) {
+          double latitude = parseCoordinate(fields[3], fields[4]);
+          double longitude = parseCoordinate(fields[5], fields[6]);
+          Long time = parseTime(fields[9], fields[1]);
+          if (!Double.isNaN(latitude) && !Double.isNaN(longitude) && time != null) {
+            return new Fix(time, latitude, longitude, mAltitude, mAccuracy,
+                parseDouble(fields[7]) * KNOTS_TO_METERS_PER_SECOND, parseDouble(fields[8]));
+          }
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+      mReader.close();
+    }
+
+    private static boolean hasValidChecksum(String sentence) {
+      if (!sentence.startsWith("$")) {
+        return false;
+      }
+      int star = sentence.lastIndexOf('*');
+      if (star < 0) {
+        return true;
+      }
+      int checksum = 0;
+      for (int i = 1; i < star; i++) {
+        checksum ^= sentence.charAt(i);
+      }
+      try {
+        return Integer.parseInt(sentence.substring(star + 1), 16) == checksum;
+      } catch (NumberFormatException e) {
+        return false;
+      }
+    }
+
+    /**
+     * Converts NMEA's degrees and decimal minutes, such as 3342.1234 for 33° 42.1234', to decimal degrees.
+     */
+    private static double parseCoordinate(String value, String hemisphere) {
+      double degreesAndMinutes = parseDouble(value);
+      double degrees = Math.floor(degreesAndMinutes / 100);
+      double coordinate = degrees + (degreesAndMinutes - degrees * 100) / 60;
+      return hemisphere.equals("S") || hemisphere.equals("W") ? -coordinate : coordinate;
+    }
+
+    private static Long parseTime(String date, String time) {
+      if (date.length() < 6 || time.length() < 6) {
+        return null;
+      }
+      try {
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        calendar.clear();
+        calendar.set(2000 + Integer.parseInt(date.substring(4, 6)), Integer.parseInt(date.substring(2, 4)) - 1,
+            Integer.parseInt(date.substring(0, 2)), Integer.parseInt(time.substring(0, 2)),
+            Integer.parseInt(time.substring(2, 4)), Integer.parseInt(time.substring(4, 6)));
+        double fraction = parseDouble(time.substring(6));
+        if (!Double.isNaN(fraction)) {
+          calendar.set(Calendar.MILLISECOND, (int) (fraction * 1000));
+        }
+        return calendar.getTimeInMillis();
+      } catch (NumberFormatException e) {
+        return null;
+      }
+    }
+  }
+
+  private static class CsvReader implements TrackReader {
+
+    private final BufferedReader mReader;
+    private final Map<String, Integer> mColumns = new HashMap<>();
+
+    private CsvReader(BufferedReader reader) throws IOException {
+      mReader = reader;
+      String header = reader.readLine();
+      String[] names = header != null ? header.split(",") : new String[0];
+      for (int i = 0; i < names.length; i++) {
+        switch (names[i].trim().toLowerCase(Locale.US)) {
+          case "time":
+          case "timestamp":
+            mColumns.put("time", i);
+            break;
+          case "lat":
+          case "latitude":
+            mColumns.put("latitude", i);
+            break;
+          case "lon":
+          case "lng":
+          case "longitude":
+            mColumns.put("longitude", i);
+            break;
+          case "alt":
+          case "altitude":
+          case "elevation":
+            mColumns.put("altitude", i);
+            break;
+          case "accuracy":
+          case "horizontal_accuracy":
+            mColumns.put("accuracy", i);
+            break;
+          case "speed":
+            mColumns.put("speed", i);
+            break;
+          case "course":
+          case "bearing":
+            mColumns.put("course", i);
+            break;
+          default:
+            break;
+        }
+      }
+      if (!mColumns.containsKey("time") || !mColumns.containsKey("latitude") || !mColumns.containsKey("longitude")) {
+        reader.close();
+        throw new IOException("A CSV track needs time, latitude and longitude columns");
+      }
+    }
+
+    @Override
+    public Fix next() throws IOException {
+      String line;
+      while ((line = mReader.readLine()) != null) {
+        String[] values = line.split(",", -1);
+        String timeText = value(values, "time");
+        Long time = null;
+        if (timeText != null) {
+          time = timeText.matches("\\d+") ? Long.valueOf(timeText) : parseIsoTime(timeText);
+        }
+        double latitude = parseDouble(value(values, "latitude"));
+        double longitude = parseDouble(value(values, "longitude"));
+        if (time != null && !Double.isNaN(latitude) && !Double.isNaN(longitude)) {
+          return new Fix(time, latitude, longitude, parseDouble(value(values, "altitude")),
+              parseDouble(value(values, "accuracy")), parseDouble(value(values, "speed")),
+              parseDouble(value(values, "course")));
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+      mReader.close();
+    }
+
+    private String value(String[] values, String column) {
+      Integer index = mColumns.get(column);
+      return index != null && index < values.length ? values[index].trim() : null;
+    }
+  }
+}
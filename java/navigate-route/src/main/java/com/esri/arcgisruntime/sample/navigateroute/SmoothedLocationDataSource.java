@@ -0,0 +1,373 @@
+/*
+ *  Copyright 2021 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.esri.arcgisruntime.sample.navigateroute;
+
+import java.util.Calendar;
+import java.util.Locale;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.esri.arcgisruntime.geometry.Point;
+import com.esri.arcgisruntime.geometry.SpatialReference;
+import com.esri.arcgisruntime.location.LocationDataSource;
+import com.esri.arcgisruntime.navigation.RouteTracker;
+
+/**
+ * Cleans up fixes from another location data source before they reach a route tracker.
+ *
+ * <ul>
+ * <li>Fixes are smoothed with a constant velocity Kalman filter, which also estimates speed and course.</li>
+ * <li>Fixes which moved less than a threshold since the last one passed on are dropped, unless the last one passed on
+ * is getting old.</li>
+ * <li>When fixes stop arriving, for example in a tunnel, positions are dead reckoned from the last estimated
+ * velocity for a limited time.</li>
+ * <li>Once a location is passed on, no other is passed on until the route tracker has finished tracking it. Fixes
+ * arriving meanwhile replace each other, so only the latest is tracked next and fixes never queue up.</li>
+ * </ul>
+ *
+ * The filter runs on the fixes' own timestamps, so replaying the same recorded fixes gives the same smoothed track.
+ */
+public class SmoothedLocationDataSource extends LocationDataSource {
+
+  private static final String TAG = SmoothedLocationDataSource.class.getSimpleName();
+
+  private static final double EARTH_RADIUS_METERS = 6378137;
+  // Web Mercator, with its older WKID
+  private static final int WEB_MERCATOR_WKID = 3857;
+  private static final int WEB_MERCATOR_LEGACY_WKID = 102100;
+
+  private final LocationDataSource mSource;
+  private final Handler mHandler = new Handler(Looper.getMainLooper());
+  private final LocationChangedListener mSourceListener =
+      locationChangedEvent -> mHandler.post(() -> onFix(locationChangedEvent.getLocation()));
+  private final Runnable mDeadReckoning = this::deadReckon;
+  private final Runnable mTrackerTimeout = this::onTracked;
+
+  // how the filter and the thresholds behave, see the setters
+  private double mAccelerationNoise = 3;
+  private double mMinDistanceMeters = 2;
+  private long mMaxSilenceMillis = 5000;
+  private long mDeadReckoningDelayMillis = 1500;
+  private long mDeadReckoningIntervalMillis = 1000;
+  private long mMaxDeadReckoningMillis = 30000;
+  private long mTrackerTimeoutMillis = 2000;
+
+  // whether this data source is waiting for the source to start
+  private boolean mStarting;
+
+  private RouteTracker mRouteTracker;
+  private RouteTracker.TrackingStatusChangedListener mTrackingStatusListener;
+
+  // the filter works in meters east and north of the first fix
+  private SpatialReference mSpatialReference;
+  private double mOriginX;
+  private double mOriginY;
+  private double mMetersPerUnitX;
+  private double mMetersPerUnitY;
+  private AxisFilter mEast;
+  private AxisFilter mNorth;
+  private long mFilterTime;
+  private long mLastFixElapsed;
+
+  private double mLastEmittedEast;
+  private double mLastEmittedNorth;
+  private long mLastEmittedTime = Long.MIN_VALUE;
+  private boolean mAwaitingTracker;
+  private Location mPendingLocation;
+
+  private int mFixesReceived;
+  private int mFixesDropped;
+  private int mFixesReplaced;
+  private int mLocationsDeadReckoned;
+
+  /**
+   * @param source the data source whose fixes are smoothed, started and stopped with this one
+   */
+  public SmoothedLocationDataSource(LocationDataSource source) {
+    mSource = source;
+    // added once here rather than on every start, so listeners don't pile up across stops and starts
+    mSource.addStartedListener(() -> {
+      if (!mStarting) {
+        return;
+      }
+      mStarting = false;
+      if (mSource.isStarted()) {
+        onStartCompleted(null);
+      } else {
+        onStartCompleted(mSource.getError());
+      }
+    });
+  }
+
+  /**
+   * Holds back each location until the route tracker has tracked the previous one. Pass the tracker which the
+   * RouteTrackerLocationDataSource wrapping this data source feeds.
+   */
+  public void setRouteTracker(RouteTracker routeTracker) {
+    if (mRouteTracker != null) {
+      mRouteTracker.removeTrackingStatusChangedListener(mTrackingStatusListener);
+    }
+    mRouteTracker = routeTracker;
+    mAwaitingTracker = false;
+    if (routeTracker != null) {
+      mTrackingStatusListener = trackingStatusChangedEvent -> mHandler.post(this::onTracked);
+      routeTracker.addTrackingStatusChangedListener(mTrackingStatusListener);
+    }
+  }
+
+  /**
+   * @param accelerationNoise how sharply, in meters per second squared, the vehicle is expected to speed up, slow down
+   * or turn. Lower values smooth more but lag behind real maneuvers.
+   */
+  public void setAccelerationNoise(double accelerationNoise) {
+    mAccelerationNoise = accelerationNoise;
+  }
+
+  /**
+   * @param minDistanceMeters fixes closer than this to the last location passed on are dropped
+   * @param maxSilenceMillis a location is passed on at least this often while fixes arrive, even without movement
+   */
+  public void setMovementThreshold(double minDistanceMeters, long maxSilenceMillis) {
+    mMinDistanceMeters = minDistanceMeters;
+    mMaxSilenceMillis = maxSilenceMillis;
+  }
+
+  /**
+   * @param delayMillis how long without fixes before dead reckoning starts
+   * @param intervalMillis how often dead reckoned locations are passed on
+   * @param maxMillis how long without fixes before dead reckoning gives up
+   */
+  public void setDeadReckoning(long delayMillis, long intervalMillis, long maxMillis) {
+    mDeadReckoningDelayMillis = delayMillis;
+    mDeadReckoningIntervalMillis = intervalMillis;
+    mMaxDeadReckoningMillis = maxMillis;
+  }
+
+  /**
+   * @return counts of the fixes received, dropped and replaced, and of the locations dead reckoned
+   */
+  public String getStatistics() {
+    return String.format(Locale.US, "%d fixes, %d dropped as redundant, %d replaced while tracking, %d dead reckoned",
+        mFixesReceived, mFixesDropped, mFixesReplaced, mLocationsDeadReckoned);
+  }
+
+  @Override
+  protected void onStart() {
+    mEast = null;
+    mNorth = null;
+    mPendingLocation = null;
+    mAwaitingTracker = false;
+    mLastEmittedTime = Long.MIN_VALUE;
+    mSource.addLocationChangedListener(mSourceListener);
+    mStarting = true;
+    mSource.startAsync();
+  }
+
+  @Override
+  protected void onStop() {
+    mStarting = false;
+    mHandler.removeCallbacks(mDeadReckoning);
+    mHandler.removeCallbacks(mTrackerTimeout);
+    mSource.removeLocationChangedListener(mSourceListener);
+    mSource.stop();
+    Log.i(TAG, getStatistics());
+  }
+
+  private void onFix(Location fix) {
+    if (!isStarted() || fix.getPosition() == null) {
+      return;
+    }
+    mFixesReceived++;
+    long time = fix.getTimeStamp() != null ? fix.getTimeStamp().getTimeInMillis() : System.currentTimeMillis();
+    Point position = fix.getPosition();
+    if (mEast == null || !position.getSpatialReference().equals(mSpatialReference)) {
+      startFilter(position, time);
+    } else if (time <= mFilterTime) {
+      // out of order fixes would move the filter backwards
+      mFixesDropped++;
+      return;
+    }
+    double accuracy = fix.getHorizontalAccuracy() > 0 ? fix.getHorizontalAccuracy() : 10;
+    double dt = (time - mFilterTime) / 1000.0;
+    mEast.predict(dt, mAccelerationNoise);
+    mNorth.predict(dt, mAccelerationNoise);
+    mEast.update((position.getX() - mOriginX) * mMetersPerUnitX, accuracy * accuracy);
+    mNorth.update((position.getY() - mOriginY) * mMetersPerUnitY, accuracy * accuracy);
+    mFilterTime = time;
+    mLastFixElapsed = SystemClock.elapsedRealtime();
+
+    // drop fixes which add nothing but work for the tracker
+    double moved = Math.hypot(mEast.mPosition - mLastEmittedEast, mNorth.mPosition - mLastEmittedNorth);
+    if (mLastEmittedTime != Long.MIN_VALUE && moved < mMinDistanceMeters
+        && time - mLastEmittedTime < mMaxSilenceMillis) {
+      mFixesDropped++;
+    } else {
+      emit(toLocation(time, fix.getVerticalAccuracy(), false));
+    }
+    mHandler.removeCallbacks(mDeadReckoning);
+    mHandler.postDelayed(mDeadReckoning, mDeadReckoningDelayMillis);
+  }
+
+  private void startFilter(Point position, long time) {
+    mSpatialReference = position.getSpatialReference();
+    mOriginX = position.getX();
+    mOriginY = position.getY();
+    if (mSpatialReference != null && mSpatialReference.isGeographic()) {
+      // degrees to meters near the origin, close enough over the distances between fixes
+      mMetersPerUnitY = Math.toRadians(1) * EARTH_RADIUS_METERS;
+      mMetersPerUnitX = mMetersPerUnitY * Math.cos(Math.toRadians(mOriginY));
+    } else if (mSpatialReference != null && (mSpatialReference.getWkid() == WEB_MERCATOR_WKID
+        || mSpatialReference.getWkid() == WEB_MERCATOR_LEGACY_WKID)) {
+      // Web Mercator stretches distances by 1 / cos(latitude), so a unit is shorter than a meter away from the equator
+      double latitude = 2 * Math.atan(Math.exp(mOriginY / EARTH_RADIUS_METERS)) - Math.PI / 2;
+      mMetersPerUnitX = Math.cos(latitude);
+      mMetersPerUnitY = mMetersPerUnitX;
+    } else {
+      mMetersPerUnitX = 1;
+      mMetersPerUnitY = 1;
+    }
+    mEast = new AxisFilter();
+    mNorth = new AxisFilter();
+    mFilterTime = time;
+  }
+
+  private void deadReckon() {
+    if (!isStarted() || mEast == null) {
+      return;
+    }
+    long silence = SystemClock.elapsedRealtime() - mLastFixElapsed;
+    if (silence > mMaxDeadReckoningMillis) {
+      Log.d(TAG, "No fixes for " + silence + " ms, dead reckoning stopped");
+      return;
+    }
+    // predict forward from the last fix without updating the filter, which only moves on real fixes
+    double dt = silence / 1000.0;
+    double east = mEast.mPosition + mEast.mVelocity * dt;
+    double north = mNorth.mPosition + mNorth.mVelocity * dt;
+    // the uncertainty of a position predicted from an uncertain velocity grows with time
+    double accuracy = Math.sqrt(Math.max(mEast.mPositionVariance, mNorth.mPositionVariance))
+        + 0.5 * mAccelerationNoise * dt * dt;
+    mLocationsDeadReckoned++;
+    emit(new Location(toPoint(east, north), accuracy, Double.NaN, speed(), course(), false, toCalendar(mFilterTime
+        + silence)));
+    mHandler.postDelayed(mDeadReckoning, mDeadReckoningIntervalMillis);
+  }
+
+  /**
+   * Passes a location on, or holds it if the tracker hasn't finished with the previous one.
+   */
+  private void emit(Location location) {
+    if (mAwaitingTracker) {
+      if (mPendingLocation != null) {
+        mFixesReplaced++;
+      }
+      mPendingLocation = location;
+      return;
+    }
+    mLastEmittedEast = mEast.mPosition;
+    mLastEmittedNorth = mNorth.mPosition;
+    mLastEmittedTime = mFilterTime;
+    if (mRouteTracker != null) {
+      mAwaitingTracker = true;
+      // don't stall if the tracker never reports back
+      mHandler.postDelayed(mTrackerTimeout, mTrackerTimeoutMillis);
+    }
+    updateLocation(location);
+  }
+
+  private void onTracked() {
+    mHandler.removeCallbacks(mTrackerTimeout);
+    mAwaitingTracker = false;
+    if (mPendingLocation != null && isStarted()) {
+      Location location = mPendingLocation;
+      mPendingLocation = null;
+      emit(location);
+    }
+  }
+
+  private Location toLocation(long time, double verticalAccuracy, boolean lastKnown) {
+    double accuracy = Math.sqrt(Math.max(mEast.mPositionVariance, mNorth.mPositionVariance));
+    return new Location(toPoint(mEast.mPosition, mNorth.mPosition), accuracy, verticalAccuracy, speed(), course(),
+        lastKnown, toCalendar(time));
+  }
+
+  private Point toPoint(double east, double north) {
+    return new Point(mOriginX + east / mMetersPerUnitX, mOriginY + north / mMetersPerUnitY, mSpatialReference);
+  }
+
+  private double speed() {
+    return Math.hypot(mEast.mVelocity, mNorth.mVelocity);
+  }
+
+  private double course() {
+    // degrees clockwise from north
+    return (Math.toDegrees(Math.atan2(mEast.mVelocity, mNorth.mVelocity)) + 360) % 360;
+  }
+
+  private static Calendar toCalendar(long time) {
+    Calendar calendar = Calendar.getInstance();
+    calendar.setTimeInMillis(time);
+    return calendar;
+  }
+
+  /**
+   * A Kalman filter tracking position and velocity along one axis.
+   */
+  private static class AxisFilter {
+
+    private double mPosition;
+    private double mVelocity;
+    // covariance of position and velocity, starting out unknown
+    private double mPositionVariance = 1e6;
+    private double mCovariance;
+    private double mVelocityVariance = 1e6;
+    private boolean mInitialized;
+
+    private void predict(double dt, double accelerationNoise) {
+      if (!mInitialized || dt <= 0) {
+        return;
+      }
+      mPosition += mVelocity * dt;
+      double q = accelerationNoise * accelerationNoise;
+      double dt2 = dt * dt;
+      mPositionVariance += dt * (2 * mCovariance + dt * mVelocityVariance) + q * dt2 * dt2 / 4;
+      mCovariance += dt * mVelocityVariance + q * dt2 * dt / 2;
+      mVelocityVariance += q * dt2;
+    }
+
+    private void update(double measurement, double measurementVariance) {
+      if (!mInitialized) {
+        mPosition = measurement;
+        mPositionVariance = measurementVariance;
+        mInitialized = true;
+        return;
+      }
+      double s = mPositionVariance + measurementVariance;
+      double positionGain = mPositionVariance / s;
+      double velocityGain = mCovariance / s;
+      double residual = measurement - mPosition;
+      mPosition += positionGain * residual;
+      mVelocity += velocityGain * residual;
+      mVelocityVariance -= velocityGain * mCovariance;
+      mCovariance -= positionGain * mCovariance;
+      mPositionVariance -= positionGain * mPositionVariance;
+    }
+  }
+}
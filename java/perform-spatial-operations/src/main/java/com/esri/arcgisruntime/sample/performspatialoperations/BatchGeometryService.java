@@ -0,0 +1,320 @@
+/* Copyright 2021 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgisruntime.sample.performspatialoperations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.esri.arcgisruntime.geometry.Envelope;
+import com.esri.arcgisruntime.geometry.Geometry;
+import com.esri.arcgisruntime.geometry.GeometryEngine;
+import com.esri.arcgisruntime.geometry.SpatialReference;
+
+/**
+ * Runs a GeometryEngine operation over a collection of geometries on a bounded pool of worker threads.
+ *
+ * Inputs are split into chunks, each chunk is processed by one worker, and results are returned in input order on
+ * the main thread together with per-operation timings. A running batch can be stopped with a
+ * {@link CancellationToken}.
+ */
+public class BatchGeometryService {
+
+  public static final int DEFAULT_CHUNK_SIZE = 256;
+
+  private final ExecutorService mExecutor;
+  private final int mChunkSize;
+  private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+  /**
+   * An operation applied to each geometry of a batch.
+   */
+  public interface GeometryOperation {
+    Geometry apply(Geometry geometry);
+  }
+
+  private interface IndexedOperation {
+    Geometry apply(int index);
+  }
+
+  /**
+   * Receives the outcome of a batch on the main thread.
+   */
+  public interface Callback {
+
+    void onComplete(Result result);
+
+    void onCancelled();
+
+    void onError(Exception e);
+  }
+
+  /**
+   * Stops a running batch. Chunks already started finish their current geometry and then stop.
+   */
+  public static class CancellationToken {
+
+    private final AtomicBoolean mCancelled = new AtomicBoolean();
+
+    public void cancel() {
+      mCancelled.set(true);
+    }
+
+    public boolean isCancelled() {
+      return mCancelled.get();
+    }
+  }
+
+  /**
+   * Results of a batch, in input order, and how long it took.
+   */
+  public static class Result {
+
+    private final List<Geometry> mGeometries;
+    private final int mOperationCount;
+    private final long mElapsedMillis;
+    private final long mTotalOperationNanos;
+    private final long mMaxOperationNanos;
+
+    Result(List<Geometry> geometries, int operationCount, long elapsedMillis, long totalOperationNanos,
+        long maxOperationNanos) {
+      mGeometries = geometries;
+      mOperationCount = operationCount;
+      mElapsedMillis = elapsedMillis;
+      mTotalOperationNanos = totalOperationNanos;
+      mMaxOperationNanos = maxOperationNanos;
+    }
+
+    public List<Geometry> getGeometries() {
+      return mGeometries;
+    }
+
+    /**
+     * @return wall clock time of the whole batch
+     */
+    public long getElapsedMillis() {
+      return mElapsedMillis;
+    }
+
+    /**
+     * @return mean time of the operation per input geometry, across all workers
+     */
+    public double getMeanOperationMillis() {
+      return mOperationCount == 0 ? 0 : mTotalOperationNanos / 1e6 / mOperationCount;
+    }
+
+    /**
+     * @return time of the slowest single operation
+     */
+    public double getMaxOperationMillis() {
+      return mMaxOperationNanos / 1e6;
+    }
+  }
+
+  /**
+   * Creates a service with one worker per available processor.
+   */
+  public BatchGeometryService() {
+    this(Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_SIZE);
+  }
+
+  /**
+   * @param workerCount the maximum number of geometries processed at the same time
+   * @param chunkSize the number of geometries handed to a worker at once
+   */
+  public BatchGeometryService(int workerCount, int chunkSize) {
+    mExecutor = Executors.newFixedThreadPool(workerCount);
+    mChunkSize = chunkSize;
+  }
+
+  public static GeometryOperation buffer(double distance) {
+    return geometry -> GeometryEngine.buffer(geometry, distance);
+  }
+
+  public static GeometryOperation generalize(double maxDeviation) {
+    return geometry -> GeometryEngine.generalize(geometry, maxDeviation, true);
+  }
+
+  public static GeometryOperation clip(Envelope envelope) {
+    return geometry -> GeometryEngine.clip(geometry, envelope);
+  }
+
+  public static GeometryOperation project(SpatialReference spatialReference) {
+    return geometry -> GeometryEngine.project(geometry, spatialReference);
+  }
+
+  public static GeometryOperation intersection(Geometry other) {
+    return geometry -> GeometryEngine.intersection(geometry, other);
+  }
+
+  public static GeometryOperation union(Geometry other) {
+    return geometry -> GeometryEngine.union(geometry, other);
+  }
+
+  public static GeometryOperation difference(Geometry other) {
+    return geometry -> GeometryEngine.difference(geometry, other);
+  }
+
+  public static GeometryOperation symmetricDifference(Geometry other) {
+    return geometry -> GeometryEngine.symmetricDifference(geometry, other);
+  }
+
+  /**
+   * Applies an operation to every geometry of a batch.
+   *
+   * @param geometries the input geometries
+   * @param operation the operation to apply to each geometry
+   * @param cancellationToken stops the batch when cancelled, may be null
+   * @param callback receives the results in input order
+   */
+  public void applyAsync(List<Geometry> geometries, GeometryOperation operation, CancellationToken cancellationToken,
+      Callback callback) {
+    run(geometries.size(), mChunkSize, index -> operation.apply(geometries.get(index)), cancellationToken, callback);
+  }
+
+  /**
+   * Unions all geometries of a batch into one, by unioning each chunk on a worker and then unioning the partial
+   * results.
+   *
+   * @param geometries the geometries to union
+   * @param cancellationToken stops the batch when cancelled, may be null
+   * @param callback receives a result holding the single unioned geometry
+   */
+  public void unionAllAsync(List<Geometry> geometries, CancellationToken cancellationToken, Callback callback) {
+    List<List<Geometry>> chunks = new ArrayList<>();
+    for (int from = 0; from < geometries.size(); from += mChunkSize) {
+      chunks.add(geometries.subList(from, Math.min(from + mChunkSize, geometries.size())));
+    }
+    CancellationToken token = cancellationToken != null ? cancellationToken : new CancellationToken();
+    // each chunk's union is a task of its own, so the chunks are unioned in parallel
+    run(chunks.size(), 1, index -> GeometryEngine.union(chunks.get(index)), token, new Callback() {
+      @Override public void onComplete(Result result) {
+        if (result.getGeometries().isEmpty()) {
+          callback.onComplete(result);
+          return;
+        }
+        long start = SystemClock.elapsedRealtime();
+        mExecutor.execute(() -> {
+          // the batch may have been cancelled while the chunks' unions were being delivered
+          if (token.isCancelled()) {
+            mMainHandler.post(callback::onCancelled);
+            return;
+          }
+          try {
+            long unionStart = System.nanoTime();
+            Geometry union = GeometryEngine.union(result.getGeometries());
+            long unionNanos = System.nanoTime() - unionStart;
+            // the time of every union counts towards each input geometry's share
+            Result unionResult = new Result(Collections.singletonList(union), geometries.size(),
+                result.getElapsedMillis() + SystemClock.elapsedRealtime() - start,
+                result.mTotalOperationNanos + unionNanos, Math.max(result.mMaxOperationNanos, unionNanos));
+            postResult(token, unionResult, callback);
+          } catch (Exception e) {
+            mMainHandler.post(() -> callback.onError(e));
+          }
+        });
+      }
+
+      @Override public void onCancelled() {
+        callback.onCancelled();
+      }
+
+      @Override public void onError(Exception e) {
+        callback.onError(e);
+      }
+    });
+  }
+
+  /**
+   * Computes count results on the worker pool, taskSize results per task, and reports them in index order.
+   */
+  private void run(int count, int taskSize, IndexedOperation operation, CancellationToken cancellationToken,
+      Callback callback) {
+    CancellationToken token = cancellationToken != null ? cancellationToken : new CancellationToken();
+    Geometry[] results = new Geometry[count];
+    long start = SystemClock.elapsedRealtime();
+    AtomicLong totalNanos = new AtomicLong();
+    AtomicLong maxNanos = new AtomicLong();
+    AtomicBoolean failed = new AtomicBoolean();
+    int chunkCount = (count + taskSize - 1) / taskSize;
+    AtomicInteger remainingChunks = new AtomicInteger(chunkCount);
+    if (chunkCount == 0) {
+      mMainHandler.post(() -> callback.onComplete(new Result(Collections.<Geometry>emptyList(), 0, 0, 0, 0)));
+      return;
+    }
+
+    for (int chunk = 0; chunk < chunkCount; chunk++) {
+      int from = chunk * taskSize;
+      int to = Math.min(from + taskSize, count);
+      mExecutor.execute(() -> {
+        try {
+          for (int i = from; i < to && !token.isCancelled() && !failed.get(); i++) {
+            long operationStart = System.nanoTime();
+            results[i] = operation.apply(i);
+            long operationNanos = System.nanoTime() - operationStart;
+            totalNanos.addAndGet(operationNanos);
+            long max = maxNanos.get();
+            while (operationNanos > max && !maxNanos.compareAndSet(max, operationNanos)) {
+              max = maxNanos.get();
+            }
+          }
+        } catch (Exception e) {
+          // report the first failure only, and stop the other chunks
+          if (failed.compareAndSet(false, true)) {
+            mMainHandler.post(() -> callback.onError(e));
+          }
+        }
+        if (remainingChunks.decrementAndGet() == 0 && !failed.get()) {
+          if (token.isCancelled()) {
+            mMainHandler.post(callback::onCancelled);
+          } else {
+            Result result = new Result(Arrays.asList(results), count, SystemClock.elapsedRealtime() - start,
+                totalNanos.get(), maxNanos.get());
+            postResult(token, result, callback);
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * Delivers a result on the main thread, unless the batch was cancelled before it got there.
+   */
+  private void postResult(CancellationToken token, Result result, Callback callback) {
+    mMainHandler.post(() -> {
+      if (token.isCancelled()) {
+        callback.onCancelled();
+      } else {
+        callback.onComplete(result);
+      }
+    });
+  }
+
+  public void shutdown() {
+    mExecutor.shutdownNow();
+  }
+}
@@ -16,9 +16,13 @@
 
 package com.esri.arcgisruntime.sample.performspatialoperations;
 
+import java.util.Collections;
+
 import android.os.Bundle;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
+import android.widget.Toast;
 
 import androidx.appcompat.app.AppCompatActivity;
 import com.esri.arcgisruntime.ArcGISRuntimeEnvironment;
@@ -40,6 +44,12 @@ import com.esri.arcgisruntime.symbology.SimpleLineSymbol;
 
 public class MainActivity extends AppCompatActivity {
 
+  private static final String TAG = MainActivity.class.getSimpleName();
+
+  // runs spatial operations off the UI thread
+  final private BatchGeometryService batchGeometryService = new BatchGeometryService();
+  private BatchGeometryService.CancellationToken currentOperationToken;
+
   final private GraphicsOverlay inputGeometryOverlay = new GraphicsOverlay();
   final private GraphicsOverlay resultGeometryOverlay = new GraphicsOverlay();
   // simple black (0xFF000000) line symbol for outlines
@@ -106,8 +116,11 @@ public class MainActivity extends AppCompatActivity {
     // handle menu item selection
     int itemId = item.getItemId();
 
-    // clear previous operation result
+    // clear previous operation result, and cancel it if it is still running
     resultGeometryOverlay.getGraphics().clear();
+    if (currentOperationToken != null) {
+      currentOperationToken.cancel();
+    }
 
     // perform spatial operations and add results as graphics, depending on the option selected
     // if-else is used because this sample is used elsewhere as a Library module
@@ -117,26 +130,60 @@ public class MainActivity extends AppCompatActivity {
       return true;
     } else if (itemId == R.id.action_intersection) {
       intersectionMenuItem.setChecked(true);
-      showGeometry(GeometryEngine.intersection(inputPolygon1, inputPolygon2));
+      applyOperation(BatchGeometryService.intersection(inputPolygon2));
       return true;
     } else if (itemId == R.id.action_union) {
       unionMenuItem.setChecked(true);
-      showGeometry(GeometryEngine.union(inputPolygon1, inputPolygon2));
+      applyOperation(BatchGeometryService.union(inputPolygon2));
       return true;
     } else if (itemId == R.id.action_difference) {
       differenceMenuItem.setChecked(true);
       // note that the difference method gives different results depending on the order of input geometries
-      showGeometry(GeometryEngine.difference(inputPolygon1, inputPolygon2));
+      applyOperation(BatchGeometryService.difference(inputPolygon2));
       return true;
     } else if (itemId == R.id.action_symmetric_difference) {
       symmetricDifferenceMenuItem.setChecked(true);
-      showGeometry(GeometryEngine.symmetricDifference(inputPolygon1, inputPolygon2));
+      applyOperation(BatchGeometryService.symmetricDifference(inputPolygon2));
       return true;
     } else {
       return super.onOptionsItemSelected(item);
     }
   }
 
+  /**
+   * Apply the given operation to input polygon 1 in the background and show the result.
+   *
+   * @param operation the spatial operation to perform
+   */
+  private void applyOperation(BatchGeometryService.GeometryOperation operation) {
+    BatchGeometryService.CancellationToken token = new BatchGeometryService.CancellationToken();
+    currentOperationToken = token;
+    batchGeometryService.applyAsync(Collections.<Geometry>singletonList(inputPolygon1), operation,
+        token, new BatchGeometryService.Callback() {
+          @Override public void onComplete(BatchGeometryService.Result result) {
+            // a different operation was selected since this one started, its result will be shown instead
+            if (token != currentOperationToken) {
+              return;
+            }
+            Log.i(TAG, "Spatial operation took " + result.getMeanOperationMillis() + " ms");
+            showGeometry(result.getGeometries().get(0));
+          }
+
+          @Override public void onCancelled() {
+            // a different operation was selected, its result will be shown instead
+          }
+
+          @Override public void onError(Exception e) {
+            if (token != currentOperationToken) {
+              return;
+            }
+            String error = "Spatial operation failed: " + e.getMessage();
+            Toast.makeText(MainActivity.this, error, Toast.LENGTH_LONG).show();
+            Log.e(TAG, error);
+          }
+        });
+  }
+
   private void showGeometry(Geometry resultGeometry) {
     // add a graphic from the result geometry, showing result in red (0xFFE91F1F)
     Graphic resultGraphic = new Graphic(resultGeometry, resultFillSymbol);
@@ -204,6 +251,7 @@ public class MainActivity extends AppCompatActivity {
 
   @Override
   protected void onDestroy() {
+    batchGeometryService.shutdown();
     super.onDestroy();
     mMapView.dispose();
   }
@@ -0,0 +1,458 @@
+/*
+ *  Copyright 2021 Esri
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.esri.arcgisruntime.sample.playkmltour;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.Xml;
+
+import com.esri.arcgisruntime.concurrent.ListenableFuture;
+import com.esri.arcgisruntime.geometry.Point;
+import com.esri.arcgisruntime.geometry.SpatialReferences;
+import com.esri.arcgisruntime.mapping.Surface;
+import com.esri.arcgisruntime.ogc.kml.KmlTourController;
+
+/**
+ * Warms the scene's elevation surface for the camera positions a KML tour is about to fly to.
+ *
+ * The tour's playlist is read from the KML file on a background thread, since the runtime does not expose its FlyTo
+ * and Wait primitives. The prefetcher follows the tour controller's current position, so it stays with the tour
+ * through pauses, resets and seeks. The elevation tiles under the footprint of each of the next few FlyTo steps are
+ * warmed by sampling each tile's center with Surface.getElevationAsync(), which makes the surface load the tile before
+ * the camera arrives.
+ * The steps warmed ahead of the camera are bounded by a memory budget, which counts the step's elevation tiles and the
+ * imagery tiles the scene will load for the same footprint, each at the size of its decoded tile.
+ */
+public class KmlTourPrefetcher {
+
+  private static final String TAG = KmlTourPrefetcher.class.getSimpleName();
+
+  // size of a decoded elevation tile, a 257 x 257 grid of 32-bit heights
+  private static final long ELEVATION_TILE_BYTES = 257 * 257 * 4;
+  // size of a decoded 256 x 256 RGBA imagery tile
+  private static final long IMAGERY_TILE_BYTES = 256 * 256 * 4;
+  // imagery is drawn one level finer than elevation, so each elevation tile is covered by four imagery tiles
+  private static final int IMAGERY_LEVEL_OFFSET = 1;
+  private static final int MAX_LEVEL = 20;
+  private static final double EARTH_CIRCUMFERENCE_METERS = 40075016.686;
+  private static final double METERS_PER_DEGREE = 111320;
+  private static final long TICK_MILLIS = 250;
+
+  private final Surface mSurface;
+  private final KmlTourController mTourController;
+  private final File mKmlFile;
+  private final int mLookahead;
+  private final long mMemoryBudgetBytes;
+  private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+  private final Handler mHandler = new Handler(Looper.getMainLooper());
+  private final Runnable mTick = this::tick;
+
+  // empty until the playlist has been read
+  private List<TourStep> mSteps = Collections.emptyList();
+  private boolean mReading;
+  private boolean mRunning;
+  // bumped on each restart, so elevation requests made before it aren't counted as ready
+  private int mGeneration;
+  private int mCurrentStep = -1;
+  private long mBytesAhead;
+
+  /**
+   * A FlyTo or Wait entry of a tour playlist.
+   */
+  public static class TourStep {
+
+    final boolean mFlyTo;
+    final double mStartSeconds;
+    final double mDurationSeconds;
+    final double mLongitude;
+    final double mLatitude;
+    final double mRadiusMeters;
+
+    long mBytes;
+    int mRequested;
+    int mReady;
+    int mReadyOnArrival;
+    boolean mPrefetched;
+
+    TourStep(boolean flyTo, double startSeconds, double durationSeconds, double longitude, double latitude,
+        double radiusMeters) {
+      mFlyTo = flyTo;
+      mStartSeconds = startSeconds;
+      mDurationSeconds = durationSeconds;
+      mLongitude = longitude;
+      mLatitude = latitude;
+      mRadiusMeters = radiusMeters;
+    }
+  }
+
+  /**
+   * @param surface the scene's base surface
+   * @param tourController the controller playing the tour, whose position the prefetcher follows
+   * @param kmlFile the KML or KMZ file of the tour, whose playlist is read when the prefetcher is first started
+   * @param lookahead number of upcoming FlyTo steps to warm
+   * @param memoryBudgetBytes upper bound on the elevation and imagery data loaded for steps ahead of the camera
+   */
+  public KmlTourPrefetcher(Surface surface, KmlTourController tourController, File kmlFile, int lookahead,
+      long memoryBudgetBytes) {
+    mSurface = surface;
+    mTourController = tourController;
+    mKmlFile = kmlFile;
+    mLookahead = lookahead;
+    mMemoryBudgetBytes = memoryBudgetBytes;
+  }
+
+  /**
+   * Starts following the tour's position.
+   */
+  public void start() {
+    if (mSteps.isEmpty() && !mReading) {
+      readSteps();
+    }
+    if (!mRunning) {
+      mRunning = true;
+      mHandler.post(mTick);
+    }
+  }
+
+  /**
+   * Stops following the tour's position.
+   */
+  public void stop() {
+    mRunning = false;
+    mHandler.removeCallbacks(mTick);
+  }
+
+  /**
+   * Stops following the tour's position and releases the thread reading the playlist.
+   */
+  public void shutdown() {
+    stop();
+    mExecutor.shutdownNow();
+  }
+
+  /**
+   * Reads the playlist on the executor and hands it to the main thread, where the tour's position is followed.
+   */
+  private void readSteps() {
+    mReading = true;
+    mExecutor.execute(() -> {
+      try {
+        List<TourStep> steps = readTourSteps(mKmlFile);
+        mHandler.post(() -> {
+          mReading = false;
+          mSteps = steps;
+          // follow the tour from its current position on the next tick
+          mCurrentStep = -1;
+        });
+      } catch (IOException e) {
+        Log.e(TAG, "Tour will play without prefetching: " + e.getMessage());
+      }
+    });
+  }
+
+  private void tick() {
+    int step = findStep(mTourController.getCurrentPosition());
+    if (step < mCurrentStep) {
+      // the tour was reset or moved back, so start over from its new position
+      restart();
+    }
+    if (step != mCurrentStep) {
+      // release the steps passed, including any skipped by a seek
+      for (int i = mCurrentStep + 1; i <= step && i < mSteps.size(); i++) {
+        onStepReached(i);
+      }
+      mCurrentStep = step;
+      prefetchAhead(step);
+    }
+    if (mRunning) {
+      mHandler.postDelayed(mTick, TICK_MILLIS);
+    }
+  }
+
+  private void restart() {
+    mGeneration++;
+    mCurrentStep = -1;
+    mBytesAhead = 0;
+    for (TourStep step : mSteps) {
+      step.mBytes = 0;
+      step.mRequested = 0;
+      step.mReady = 0;
+      step.mReadyOnArrival = 0;
+      step.mPrefetched = false;
+    }
+  }
+
+  private int findStep(double position) {
+    for (int i = 0; i < mSteps.size(); i++) {
+      TourStep step = mSteps.get(i);
+      if (position < step.mStartSeconds + step.mDurationSeconds) {
+        return i;
+      }
+    }
+    return mSteps.size();
+  }
+
+  private void onStepReached(int index) {
+    TourStep step = mSteps.get(index);
+    if (step.mFlyTo) {
+      step.mReadyOnArrival = step.mReady;
+      // the step's tiles no longer count against the budget once the camera is there
+      mBytesAhead -= step.mBytes;
+      step.mBytes = 0;
+      Log.i(TAG, String.format(Locale.US, "Step %d: %d of %d elevation tiles ready on arrival", index,
+          step.mReadyOnArrival, step.mRequested));
+    }
+  }
+
+  /**
+   * Request elevation for the next FlyTo steps after the given one, as far as the lookahead and budget allow.
+   */
+  private void prefetchAhead(int current) {
+    int flyTosAhead = 0;
+    for (int i = current + 1; i < mSteps.size() && flyTosAhead < mLookahead; i++) {
+      TourStep step = mSteps.get(i);
+      if (!step.mFlyTo) {
+        continue;
+      }
+      flyTosAhead++;
+      if (step.mPrefetched) {
+        continue;
+      }
+      // always warm the next step, even if it alone is over the budget
+      long stepBytes = estimateBytes(step);
+      if (mBytesAhead > 0 && mBytesAhead + stepBytes > mMemoryBudgetBytes) {
+        break;
+      }
+      prefetch(step, stepBytes);
+    }
+  }
+
+  /**
+   * Estimates the memory taken by the step's elevation tiles and the imagery tiles drawn over the same footprint.
+   */
+  private static long estimateBytes(TourStep step) {
+    int level = elevationLevel(step);
+    int[] elevationTiles = tileRange(step, level);
+    int[] imageryTiles = tileRange(step, Math.min(level + IMAGERY_LEVEL_OFFSET, MAX_LEVEL));
+    return tileCount(elevationTiles) * ELEVATION_TILE_BYTES + tileCount(imageryTiles) * IMAGERY_TILE_BYTES;
+  }
+
+  private void prefetch(TourStep step, long stepBytes) {
+    step.mPrefetched = true;
+    step.mBytes = stepBytes;
+    mBytesAhead += stepBytes;
+    // sample the center of each elevation tile under the footprint, so each tile is loaded once
+    int level = elevationLevel(step);
+    int[] tiles = tileRange(step, level);
+    int generation = mGeneration;
+    for (int column = tiles[0]; column <= tiles[2]; column++) {
+      for (int row = tiles[1]; row <= tiles[3]; row++) {
+        Point tileCenter = new Point(tileLongitude(column + 0.5, level), tileLatitude(row + 0.5, level),
+            SpatialReferences.getWgs84());
+        ListenableFuture<Double> elevationFuture = mSurface.getElevationAsync(tileCenter);
+        step.mRequested++;
+        elevationFuture.addDoneListener(() -> {
+          if (generation == mGeneration) {
+            step.mReady++;
+          }
+        });
+      }
+    }
+  }
+
+  /**
+   * @return the web mercator level whose tiles are about as wide as the step's footprint radius
+   */
+  private static int elevationLevel(TourStep step) {
+    double groundWidth = EARTH_CIRCUMFERENCE_METERS * Math.max(Math.cos(Math.toRadians(step.mLatitude)), 0.01);
+    int level = (int) Math.floor(Math.log(groundWidth / step.mRadiusMeters) / Math.log(2));
+    return Math.max(0, Math.min(MAX_LEVEL, level));
+  }
+
+  /**
+   * @return the first column, first row, last column and last row of the web mercator tiles covering the footprint
+   */
+  private static int[] tileRange(TourStep step, int level) {
+    double latitudeSpan = step.mRadiusMeters / METERS_PER_DEGREE;
+    double longitudeSpan = latitudeSpan / Math.max(Math.cos(Math.toRadians(step.mLatitude)), 0.01);
+    return new int[] {
+        tileColumn(step.mLongitude - longitudeSpan, level), tileRow(step.mLatitude + latitudeSpan, level),
+        tileColumn(step.mLongitude + longitudeSpan, level), tileRow(step.mLatitude - latitudeSpan, level)
+    };
+  }
+
+  private static long tileCount(int[] tiles) {
+    return (long) (tiles[2] - tiles[0] + 1) * (tiles[3] - tiles[1] + 1);
+  }
+
+  private static int tileColumn(double longitude, int level) {
+    int tiles = 1 << level;
+    return Math.max(0, Math.min(tiles - 1, (int) Math.floor((longitude + 180) / 360 * tiles)));
+  }
+
+  private static int tileRow(double latitude, int level) {
+    int tiles = 1 << level;
+    double radians = Math.toRadians(Math.max(-85, Math.min(85, latitude)));
+    double y = (1 - Math.log(Math.tan(radians) + 1 / Math.cos(radians)) / Math.PI) / 2;
+    return Math.max(0, Math.min(tiles - 1, (int) Math.floor(y * tiles)));
+  }
+
+  private static double tileLongitude(double column, int level) {
+    return column / (1 << level) * 360 - 180;
+  }
+
+  private static double tileLatitude(double row, int level) {
+    return Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1 - 2 * row / (1 << level)))));
+  }
+
+  /**
+   * Returns a summary of how many elevation tiles were ready when the camera reached each FlyTo step.
+   */
+  public String getReadinessSummary() {
+    int requested = 0;
+    int ready = 0;
+    for (int i = 0; i <= mCurrentStep && i < mSteps.size(); i++) {
+      requested += mSteps.get(i).mRequested;
+      ready += mSteps.get(i).mReadyOnArrival;
+    }
+    return String.format(Locale.US, "%d of %d elevation tiles ready on arrival", ready, requested);
+  }
+
+  /**
+   * Reads the playlist of the first tour in a KML or KMZ file. This does file I/O, so call it off the main thread.
+   *
+   * @param kmlFile a KML file, or a KMZ archive containing one
+   * @return the tour steps in playback order, or an empty list if the file has no tour
+   * @throws IOException if the file can't be read or parsed
+   */
+  public static List<TourStep> readTourSteps(File kmlFile) throws IOException {
+    if (kmlFile.getName().toLowerCase(Locale.US).endsWith(".kmz")) {
+      try (ZipFile zipFile = new ZipFile(kmlFile)) {
+        // the root document of a KMZ is its first KML entry
+        ZipEntry kmlEntry = null;
+        for (ZipEntry entry : Collections.list(zipFile.entries())) {
+          if (entry.getName().toLowerCase(Locale.US).endsWith(".kml")) {
+            kmlEntry = entry;
+            break;
+          }
+        }
+        if (kmlEntry == null) {
+          throw new IOException("No KML document in " + kmlFile.getName());
+        }
+        try (InputStream inputStream = zipFile.getInputStream(kmlEntry)) {
+          return parseTourSteps(inputStream);
+        }
+      }
+    }
+    try (InputStream inputStream = new FileInputStream(kmlFile)) {
+      return parseTourSteps(inputStream);
+    }
+  }
+
+  private static List<TourStep> parseTourSteps(InputStream inputStream) throws IOException {
+    List<TourStep> steps = new ArrayList<>();
+    try {
+      XmlPullParser parser = Xml.newPullParser();
+      parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+      parser.setInput(inputStream, null);
+
+      boolean inTour = false;
+      boolean inFlyTo = false;
+      boolean inWait = false;
+      double startSeconds = 0;
+      double duration = 0;
+      double longitude = 0;
+      double latitude = 0;
+      double altitude = 0;
+      double range = 0;
+      String text = null;
+      for (int event = parser.getEventType(); event != XmlPullParser.END_DOCUMENT; event = parser.next()) {
+        String name = parser.getName();
+        if (event == XmlPullParser.START_TAG) {
+          if ("Tour".equals(name)) {
+            inTour = true;
+          } else if (inTour && "FlyTo".equals(name)) {
+            inFlyTo = true;
+            duration = longitude = latitude = altitude = range = 0;
+          } else if (inTour && "Wait".equals(name)) {
+            inWait = true;
+            duration = 0;
+          }
+          text = null;
+        } else if (event == XmlPullParser.TEXT) {
+          text = parser.getText().trim();
+        } else if (event == XmlPullParser.END_TAG) {
+          if ("Tour".equals(name) && inTour) {
+            // only the first tour is played
+            break;
+          } else if ("FlyTo".equals(name) && inFlyTo) {
+            // a LookAt's range, or a Camera's altitude, approximates the radius of the visible ground
+            double radius = Math.max(range > 0 ? range : altitude, 1000);
+            steps.add(new TourStep(true, startSeconds, duration, longitude, latitude, radius));
+            startSeconds += duration;
+            inFlyTo = false;
+          } else if ("Wait".equals(name) && inWait) {
+            steps.add(new TourStep(false, startSeconds, duration, 0, 0, 0));
+            startSeconds += duration;
+            inWait = false;
+          } else if ((inFlyTo || inWait) && text != null && !text.isEmpty()) {
+            switch (name) {
+              case "duration":
+                duration = Double.parseDouble(text);
+                break;
+              case "longitude":
+                longitude = Double.parseDouble(text);
+                break;
+              case "latitude":
+                latitude = Double.parseDouble(text);
+                break;
+              case "altitude":
+                altitude = Double.parseDouble(text);
+                break;
+              case "range":
+                range = Double.parseDouble(text);
+                break;
+              default:
+                break;
+            }
+          }
+          text = null;
+        }
+      }
+    } catch (XmlPullParserException | NumberFormatException e) {
+      throw new IOException("Failed to read KML tour: " + e.getMessage(), e);
+    }
+    return steps;
+  }
+}
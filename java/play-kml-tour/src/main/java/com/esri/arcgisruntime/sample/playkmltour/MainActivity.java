@@ -16,6 +16,7 @@
 
 package com.esri.arcgisruntime.sample.playkmltour;
 
+import java.io.File;
 import java.util.List;
 
 import android.os.Bundle;
@@ -41,8 +42,13 @@ public class MainActivity extends AppCompatActivity {
 
   private static final String TAG = MainActivity.class.getSimpleName();
 
+  // warm the next three camera positions of the tour, within 16 MB of elevation and imagery data
+  private static final int PREFETCH_LOOKAHEAD = 3;
+  private static final long PREFETCH_MEMORY_BUDGET = 16 * 1024 * 1024;
+
   private SceneView mSceneView;
   private KmlTourController mKmlTourController;
+  private KmlTourPrefetcher mKmlTourPrefetcher;
 
   @Override
   protected void onCreate(Bundle savedInstanceState) {
@@ -64,7 +70,8 @@ public class MainActivity extends AppCompatActivity {
     scene.setBaseSurface(surface);
 
     // add a KML layer from a KML dataset with a KML tour
-    KmlDataset kmlDataset = new KmlDataset(getExternalFilesDir(null) + getString(R.string.kml_tour_path));
+    String kmlTourPath = getExternalFilesDir(null) + getString(R.string.kml_tour_path);
+    KmlDataset kmlDataset = new KmlDataset(kmlTourPath);
     KmlLayer kmlLayer = new KmlLayer(kmlDataset);
     mSceneView.getScene().getOperationalLayers().add(kmlLayer);
 
@@ -75,7 +82,12 @@ public class MainActivity extends AppCompatActivity {
 
     // handle pause click, not enabled until kml layer has loaded
     AppCompatImageButton pauseButton = findViewById(R.id.pauseButton);
-    pauseButton.setOnClickListener(v -> mKmlTourController.pause());
+    pauseButton.setOnClickListener(v -> {
+      mKmlTourController.pause();
+      if (mKmlTourPrefetcher != null) {
+        Log.i(TAG, mKmlTourPrefetcher.getReadinessSummary());
+      }
+    });
     pauseButton.setEnabled(false);
 
     // handle reset click, not enabled until kml layer has loaded
@@ -89,6 +101,10 @@ public class MainActivity extends AppCompatActivity {
         if (kmlTour != null) {
           // set the tour to the tour controller and enable UI controls
           mKmlTourController.setTour(kmlTour);
+          // warm the elevation under upcoming camera positions, following the tour, once its playlist has been read
+          mKmlTourPrefetcher = new KmlTourPrefetcher(surface, mKmlTourController, new File(kmlTourPath),
+              PREFETCH_LOOKAHEAD, PREFETCH_MEMORY_BUDGET);
+          mKmlTourPrefetcher.start();
           playButton.setEnabled(true);
           pauseButton.setEnabled(true);
           resetButton.setEnabled(true);
@@ -123,6 +139,9 @@ public class MainActivity extends AppCompatActivity {
 
   @Override
   protected void onPause() {
+    if (mKmlTourPrefetcher != null) {
+      mKmlTourPrefetcher.stop();
+    }
     mSceneView.pause();
     super.onPause();
   }
@@ -131,10 +150,16 @@ public class MainActivity extends AppCompatActivity {
   protected void onResume() {
     super.onResume();
     mSceneView.resume();
+    if (mKmlTourPrefetcher != null) {
+      mKmlTourPrefetcher.start();
+    }
   }
 
   @Override
   protected void onDestroy() {
+    if (mKmlTourPrefetcher != null) {
+      mKmlTourPrefetcher.shutdown();
+    }
     mSceneView.dispose();
     super.onDestroy();
   }
@@ -0,0 +1,215 @@
+/* Copyright 2021 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgisruntime.sample.transformsbysuitability;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import com.esri.arcgisruntime.geometry.DatumTransformation;
+import com.esri.arcgisruntime.geometry.Envelope;
+import com.esri.arcgisruntime.geometry.GeometryEngine;
+import com.esri.arcgisruntime.geometry.Multipoint;
+import com.esri.arcgisruntime.geometry.Point;
+import com.esri.arcgisruntime.geometry.PointCollection;
+import com.esri.arcgisruntime.geometry.SpatialReference;
+import com.esri.arcgisruntime.geometry.SpatialReferences;
+import com.esri.arcgisruntime.geometry.TransformationCatalog;
+
+/**
+ * Projects points and point collections, caching the transformation catalog lookups for each pair of spatial
+ * references and extent of interest.
+ *
+ * The transformation used for a pair of spatial references is the one chosen with
+ * {@link #setTransformation(SpatialReference, SpatialReference, DatumTransformation)}, or the catalog's default. A
+ * point collection is projected as one multipoint, in a single call to GeometryEngine. Projections between WGS84 and
+ * Web Mercator share a datum, so points without z or m values are projected directly, without a call to GeometryEngine
+ * at all. The suitability lookups are kept for the most recently used extents only, each rounded to a grid cell.
+ */
+public class CachedProjector {
+
+  private static final double EARTH_RADIUS = 6378137.0;
+  // Web Mercator is undefined at the poles, so latitudes are clamped to its usual limit
+  private static final double MAX_LATITUDE = 85.0511287798;
+  // the most suitability lookups to keep, for the most recently used extents
+  private static final int MAX_CACHED_SUITABILITIES = 32;
+  // how many grid cells an extent's width is split into, so panning a little reuses the lookup of the same cell
+  private static final int EXTENT_GRID_CELLS = 4;
+
+  private final Map<String, List<DatumTransformation>> mSuitabilityCache =
+      new LinkedHashMap<String, List<DatumTransformation>>(16, 0.75f, true) {
+        @Override protected boolean removeEldestEntry(Map.Entry<String, List<DatumTransformation>> eldest) {
+          return size() > MAX_CACHED_SUITABILITIES;
+        }
+      };
+  private final Map<String, DatumTransformation> mTransformationCache = new HashMap<>();
+
+  /**
+   * Returns the transformations between two spatial references, ordered by suitability, looking them up in the
+   * transformation catalog only the first time.
+   *
+   * @param inputSr the spatial reference to project from
+   * @param outputSr the spatial reference to project to
+   * @param extentOfInterest the extent to order the transformations for, or null to use the whole spatial reference
+   * @return transformations ordered by suitability
+   */
+  public synchronized List<DatumTransformation> getTransformationsBySuitability(SpatialReference inputSr,
+      SpatialReference outputSr, Envelope extentOfInterest) {
+    String key = createKey(inputSr, outputSr, extentOfInterest);
+    // the first extent looked up in a cell is the one the cell's transformations are ordered for
+    List<DatumTransformation> transformations = mSuitabilityCache.get(key);
+    if (transformations == null) {
+      transformations = extentOfInterest == null ?
+          TransformationCatalog.getTransformationsBySuitability(inputSr, outputSr) :
+          TransformationCatalog.getTransformationsBySuitability(inputSr, outputSr, extentOfInterest);
+      mSuitabilityCache.put(key, transformations);
+    }
+    return transformations;
+  }
+
+  /**
+   * Returns the transformation used between two spatial references: the chosen one if one was set, otherwise the
+   * catalog's default, which is looked up only the first time.
+   *
+   * @param inputSr the spatial reference to project from
+   * @param outputSr the spatial reference to project to
+   * @return the transformation, or null if none is needed
+   */
+  public synchronized DatumTransformation getTransformation(SpatialReference inputSr, SpatialReference outputSr) {
+    String key = createKey(inputSr, outputSr, null);
+    if (!mTransformationCache.containsKey(key)) {
+      mTransformationCache.put(key, TransformationCatalog.getTransformation(inputSr, outputSr));
+    }
+    return mTransformationCache.get(key);
+  }
+
+  /**
+   * Chooses the transformation used for all later projections between two spatial references.
+   *
+   * @param inputSr the spatial reference to project from
+   * @param outputSr the spatial reference to project to
+   * @param transformation the transformation to use
+   */
+  public synchronized void setTransformation(SpatialReference inputSr, SpatialReference outputSr,
+      DatumTransformation transformation) {
+    mTransformationCache.put(createKey(inputSr, outputSr, null), transformation);
+  }
+
+  /**
+   * Projects a point to the given spatial reference.
+   *
+   * @param point the point to project
+   * @param outputSr the spatial reference to project to
+   * @return the projected point
+   */
+  public Point project(Point point, SpatialReference outputSr) {
+    SpatialReference inputSr = point.getSpatialReference();
+    if (inputSr.equals(outputSr)) {
+      return point;
+    }
+    // the direct projection only handles x and y, so points with z or m values are left to GeometryEngine
+    if (point.hasZ() || point.hasM()) {
+      return (Point) GeometryEngine.project(point, outputSr, getTransformation(inputSr, outputSr));
+    }
+    if (isWgs84ToWebMercator(inputSr, outputSr)) {
+      double[] xy = toWebMercator(point.getX(), point.getY());
+      return new Point(xy[0], xy[1], outputSr);
+    } else if (isWgs84ToWebMercator(outputSr, inputSr)) {
+      double[] xy = toWgs84(point.getX(), point.getY());
+      return new Point(xy[0], xy[1], outputSr);
+    }
+    return (Point) GeometryEngine.project(point, outputSr, getTransformation(inputSr, outputSr));
+  }
+
+  /**
+   * Projects all points of a collection to the given spatial reference in one call.
+   *
+   * @param points the points to project
+   * @param outputSr the spatial reference to project to
+   * @return a new collection of the projected points, in the same order
+   */
+  public PointCollection project(PointCollection points, SpatialReference outputSr) {
+    SpatialReference inputSr = points.getSpatialReference();
+    if (inputSr.equals(outputSr)) {
+      return points;
+    }
+    boolean toWebMercator = isWgs84ToWebMercator(inputSr, outputSr);
+    if ((toWebMercator || isWgs84ToWebMercator(outputSr, inputSr)) && !hasZOrM(points)) {
+      PointCollection projected = new PointCollection(outputSr);
+      for (Point point : points) {
+        double[] xy = toWebMercator ? toWebMercator(point.getX(), point.getY()) : toWgs84(point.getX(), point.getY());
+        projected.add(xy[0], xy[1]);
+      }
+      return projected;
+    }
+    // project the whole collection as a single multipoint
+    Multipoint multipoint = (Multipoint) GeometryEngine.project(new Multipoint(points), outputSr,
+        getTransformation(inputSr, outputSr));
+    return new PointCollection(multipoint.getPoints(), outputSr);
+  }
+
+  public synchronized void clear() {
+    mSuitabilityCache.clear();
+    mTransformationCache.clear();
+  }
+
+  private static boolean hasZOrM(PointCollection points) {
+    for (Point point : points) {
+      if (point.hasZ() || point.hasM()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isWgs84ToWebMercator(SpatialReference inputSr, SpatialReference outputSr) {
+    return inputSr.getWkid() == SpatialReferences.getWgs84().getWkid() &&
+        outputSr.getWkid() == SpatialReferences.getWebMercator().getWkid();
+  }
+
+  private static double[] toWebMercator(double longitude, double latitude) {
+    double clampedLatitude = Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, latitude));
+    double x = EARTH_RADIUS * Math.toRadians(longitude);
+    double y = EARTH_RADIUS * Math.log(Math.tan(Math.PI / 4 + Math.toRadians(clampedLatitude) / 2));
+    return new double[] { x, y };
+  }
+
+  private static double[] toWgs84(double x, double y) {
+    double longitude = Math.toDegrees(x / EARTH_RADIUS);
+    double latitude = Math.toDegrees(2 * Math.atan(Math.exp(y / EARTH_RADIUS)) - Math.PI / 2);
+    return new double[] { longitude, latitude };
+  }
+
+  private static String createKey(SpatialReference inputSr, SpatialReference outputSr, Envelope extent) {
+    StringBuilder key = new StringBuilder();
+    key.append(inputSr.getWkid() != 0 ? String.valueOf(inputSr.getWkid()) : inputSr.getWKText());
+    key.append('|');
+    key.append(outputSr.getWkid() != 0 ? String.valueOf(outputSr.getWkid()) : outputSr.getWKText());
+    if (extent != null) {
+      // key the extent by a grid cell whose size follows the extent's width, rounded to a power of two, and the cell
+      // its center falls in
+      double width = Math.max(extent.getWidth(), extent.getHeight());
+      int band = width > 0 ? (int) Math.ceil(Math.log(width / EXTENT_GRID_CELLS) / Math.log(2)) : 0;
+      double cellSize = Math.pow(2, band);
+      key.append(String.format(Locale.US, "|%d:%d,%d", band, (long) Math.floor(extent.getCenter().getX() / cellSize),
+          (long) Math.floor(extent.getCenter().getY() / cellSize)));
+    }
+    return key.toString();
+  }
+}
@@ -32,7 +32,6 @@ import androidx.appcompat.app.AppCompatActivity;
 import com.esri.arcgisruntime.ArcGISRuntimeEnvironment;
 import com.esri.arcgisruntime.ArcGISRuntimeException;
 import com.esri.arcgisruntime.geometry.DatumTransformation;
-import com.esri.arcgisruntime.geometry.GeometryEngine;
 import com.esri.arcgisruntime.geometry.Point;
 import com.esri.arcgisruntime.geometry.SpatialReference;
 import com.esri.arcgisruntime.geometry.TransformationCatalog;
@@ -56,6 +55,8 @@ public class MainActivity extends AppCompatActivity {
   private DatumTransformationAdapter mTransformAdapter;
   private final ArrayList<DatumTransformation> mTransformValues = new ArrayList<>();
   private boolean mUseExtentForSuitability = false;
+  // caches transformation catalog lookups, and projects with the chosen transformation
+  private final CachedProjector mProjector = new CachedProjector();
 
   @Override
   protected void onCreate(Bundle savedInstanceState) {
@@ -79,9 +80,11 @@ public class MainActivity extends AppCompatActivity {
 
       Point projectedGeometry;
       try {
-        // Use the selected transformation to reproject the Geometry
-        projectedGeometry = (Point) GeometryEngine.project(mOriginalGeometry, mMapView.getSpatialReference(),
+        // Use the selected transformation to reproject the Geometry, and for any later projections between these
+        // spatial references
+        mProjector.setTransformation(mOriginalGeometry.getSpatialReference(), mMapView.getSpatialReference(),
             selectedTransform);
+        projectedGeometry = mProjector.project(mOriginalGeometry, mMapView.getSpatialReference());
 
       } catch (ArcGISRuntimeException agsEx) {
         // Catch errors thrown from project method. If a transformation is missing grid files, then it cannot be
@@ -159,6 +162,8 @@ public class MainActivity extends AppCompatActivity {
 
     try {
       TransformationCatalog.setProjectionEngineDirectory(peDataDirectory.getAbsolutePath());
+      // the available transformations depend on the projection engine files, so discard any cached lookups
+      mProjector.clear();
       showPEDirectorySuccessMessage();
 
     } catch (ArcGISRuntimeException agsEx) {
@@ -209,15 +214,10 @@ public class MainActivity extends AppCompatActivity {
     SpatialReference outputSr = mArcGISMap.getSpatialReference();
 
     // Get the list of transformations applicable to the input and output spatial references. Check if list
-    // should account for the map's extent when ordering the list of transformations by suitability.
-    List<DatumTransformation> transformationsBySuitability;
-    if (mUseExtentForSuitability) {
-      transformationsBySuitability = TransformationCatalog.getTransformationsBySuitability(inputSr, outputSr,
-          mMapView.getVisibleArea().getExtent());
-
-    } else {
-      transformationsBySuitability = TransformationCatalog.getTransformationsBySuitability(inputSr, outputSr);
-    }
+    // should account for the map's extent when ordering the list of transformations by suitability. The projector
+    // only queries the TransformationCatalog the first time each combination is requested.
+    List<DatumTransformation> transformationsBySuitability = mProjector.getTransformationsBySuitability(inputSr,
+        outputSr, mUseExtentForSuitability ? mMapView.getVisibleArea().getExtent() : null);
     //[DocRef: END]
 
     //[DocRef: Name=Get default transform, Category=Fundamentals, Topic=Spatial references]
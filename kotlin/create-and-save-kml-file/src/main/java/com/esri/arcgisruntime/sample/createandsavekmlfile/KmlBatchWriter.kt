@@ -0,0 +1,244 @@
+/*
+ * Copyright 2021 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgisruntime.sample.createandsavekmlfile
+
+import android.os.Handler
+import android.os.Looper
+import android.util.Log
+import com.esri.arcgisruntime.geometry.Geometry
+import com.esri.arcgisruntime.geometry.GeometryEngine
+import com.esri.arcgisruntime.geometry.SpatialReferences
+import com.esri.arcgisruntime.ogc.kml.KmlAltitudeMode
+import com.esri.arcgisruntime.ogc.kml.KmlDocument
+import com.esri.arcgisruntime.ogc.kml.KmlFolder
+import com.esri.arcgisruntime.ogc.kml.KmlGeometry
+import com.esri.arcgisruntime.ogc.kml.KmlPlacemark
+import com.esri.arcgisruntime.ogc.kml.KmlStyle
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.util.concurrent.Executors
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+
+/**
+ * Converts batches of geometries into KML placemarks on a background thread and writes each batch once, as a folder
+ * in its own KML chunk file. Saving a KMZ only packages the chunk files that have already been written, linked from
+ * a small root document, so previously saved batches are never serialized again.
+ *
+ * A writer belongs to one document: it starts by discarding any chunk files in its directory, so create it once for
+ * the document rather than once for each activity showing it.
+ *
+ * @param onFolderWritten called on the main thread with each folder once it has been written, including folders
+ * retried by a later save, for example to add it to the displayed document
+ */
+class KmlBatchWriter(
+  private val chunkDirectory: File,
+  private val batchSize: Int = DEFAULT_BATCH_SIZE,
+  private val onFolderWritten: ((KmlFolder) -> Unit)? = null
+) {
+
+  /**
+   * A geometry with the name, attributes and style of the placemark to create from it.
+   */
+  data class PlacemarkSource(
+    val geometry: Geometry,
+    val name: String? = null,
+    val attributes: Map<String, Any?> = emptyMap(),
+    val createStyle: (() -> KmlStyle)? = null
+  )
+
+  private val TAG: String = KmlBatchWriter::class.java.simpleName
+
+  // a single worker keeps chunk files and KMZ packaging in submission order
+  private val executor = Executors.newSingleThreadExecutor()
+  private val mainHandler = Handler(Looper.getMainLooper())
+  private val chunkFiles = mutableListOf<Pair<String, File>>()
+  private val pendingSources = mutableListOf<PlacemarkSource>()
+
+  init {
+    // each writer starts a new document, so discard chunks left over from a previous one
+    chunkDirectory.mkdirs()
+    chunkDirectory.listFiles()?.forEach { it.delete() }
+  }
+
+  /**
+   * Queue a single placemark source to be written with the next [flushAsync] or [saveKmzAsync].
+   */
+  fun add(source: PlacemarkSource) {
+    synchronized(pendingSources) { pendingSources.add(source) }
+  }
+
+  /**
+   * Write all queued placemark sources to chunk files.
+   *
+   * @param folderName name given to the folders created for the queued sources
+   */
+  fun flushAsync(folderName: String) {
+    val sources = synchronized(pendingSources) {
+      pendingSources.toList().also { pendingSources.clear() }
+    }
+    if (sources.isNotEmpty()) {
+      addBatchAsync(folderName, sources)
+    }
+  }
+
+  /**
+   * Convert the given sources into placemarks, grouped into folders of at most [batchSize] placemarks, and write
+   * each folder to its own chunk file.
+   *
+   * @param folderName name given to the folders created for this batch
+   * @param sources geometries and attributes to convert
+   * @param onError called on the main thread with the first exception if any folder failed to be written. The sources
+   * of failed folders are queued again, so the next save retries them.
+   */
+  fun addBatchAsync(
+    folderName: String,
+    sources: List<PlacemarkSource>,
+    onError: ((Exception) -> Unit)? = null
+  ) {
+    executor.execute {
+      writeBatch(folderName, sources)?.let { error ->
+        onError?.let { callback -> mainHandler.post { callback(error) } }
+      }
+    }
+  }
+
+  /**
+   * Write any queued sources and package all chunk files written so far into a KMZ file.
+   *
+   * @param kmzPath path of the KMZ file to write
+   * @param documentName name of the root KML document
+   * @param onComplete called on the main thread with null on success, or the exception that caused the save to fail
+   */
+  fun saveKmzAsync(kmzPath: String, documentName: String, onComplete: (Exception?) -> Unit) {
+    val sources = synchronized(pendingSources) {
+      pendingSources.toList().also { pendingSources.clear() }
+    }
+    executor.execute {
+      // don't package a KMZ missing the placemarks which failed to be written
+      val error = writeBatch(documentName, sources) ?: try {
+        writeKmz(File(kmzPath), documentName)
+        null
+      } catch (e: Exception) {
+        e
+      }
+      mainHandler.post { onComplete(error) }
+    }
+  }
+
+  fun shutdown() {
+    executor.shutdown()
+  }
+
+  /**
+   * Write the sources as folders of chunk files, on the executor's thread.
+   *
+   * @return the first exception if any folder failed to be written, whose sources are queued again
+   */
+  private fun writeBatch(folderName: String, sources: List<PlacemarkSource>): Exception? {
+    var firstError: Exception? = null
+    sources.chunked(batchSize).forEachIndexed { index, chunk ->
+      val chunkFile = File(chunkDirectory, "chunk-%05d.kml".format(chunkFiles.size))
+      try {
+        val folder = KmlFolder().apply {
+          name = if (sources.size > batchSize) "$folderName (${index + 1})" else folderName
+        }
+        chunk.forEach { folder.childNodes.add(createPlacemark(it)) }
+
+        // write the folder once, as the only node of its own document
+        val chunkDocument = KmlDocument().apply { childNodes.add(folder) }
+        chunkDocument.saveAsAsync(chunkFile.path).get()
+        chunkFiles.add(folder.name to chunkFile)
+
+        // detach the folder so it can be shown in another document
+        chunkDocument.childNodes.remove(folder)
+        onFolderWritten?.let { callback -> mainHandler.post { callback(folder) } }
+      } catch (e: Exception) {
+        // keep the chunk's sources for the next save to retry, rather than losing them or the executor's thread
+        Log.e(TAG, "Failed to write ${chunkFile.name}: ${e.message}")
+        chunkFile.delete()
+        synchronized(pendingSources) { pendingSources.addAll(chunk) }
+        firstError = firstError ?: e
+      }
+    }
+    return firstError
+  }
+
+  private fun createPlacemark(source: PlacemarkSource): KmlPlacemark {
+    // project the geometry to WGS84 to comply with the KML standard
+    val geometry = if (source.geometry.spatialReference == SpatialReferences.getWgs84()) {
+      source.geometry
+    } else {
+      GeometryEngine.project(source.geometry, SpatialReferences.getWgs84())
+    }
+    return KmlPlacemark(KmlGeometry(geometry, KmlAltitudeMode.CLAMP_TO_GROUND)).apply {
+      source.name?.let { name = it }
+      if (source.attributes.isNotEmpty()) {
+        description = source.attributes.entries.joinToString(
+          separator = "",
+          prefix = "<table>",
+          postfix = "</table>"
+        ) { (key, value) -> "<tr><td>${escape(key)}</td><td>${escape(value.toString())}</td></tr>" }
+      }
+      source.createStyle?.let { style = it() }
+    }
+  }
+
+  /**
+   * Write a KMZ whose root document links to each chunk file, copying the chunk files into the archive as they are.
+   */
+  private fun writeKmz(kmzFile: File, documentName: String) {
+    val tempFile = File(kmzFile.path + ".part")
+    ZipOutputStream(FileOutputStream(tempFile)).use { zip ->
+      // the root document must be the first entry in a KMZ
+      zip.putNextEntry(ZipEntry("doc.kml"))
+      zip.write(createRootDocument(documentName).toByteArray(Charsets.UTF_8))
+      zip.closeEntry()
+      chunkFiles.forEach { (_, chunkFile) ->
+        zip.putNextEntry(ZipEntry("$CHUNK_ENTRY_DIRECTORY/${chunkFile.name}"))
+        FileInputStream(chunkFile).use { it.copyTo(zip) }
+        zip.closeEntry()
+      }
+    }
+    if (!tempFile.renameTo(kmzFile)) {
+      throw IllegalStateException("Failed to write ${kmzFile.path}")
+    }
+  }
+
+  private fun createRootDocument(documentName: String) = buildString {
+    append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+    append("<kml xmlns=\"http://www.opengis.net/kml/2.2\"><Document>")
+    append("<name>${escape(documentName)}</name>")
+    chunkFiles.forEach { (chunkName, chunkFile) ->
+      append("<NetworkLink><name>${escape(chunkName)}</name>")
+      append("<Link><href>$CHUNK_ENTRY_DIRECTORY/${chunkFile.name}</href></Link></NetworkLink>")
+    }
+    append("</Document></kml>\n")
+  }
+
+  private fun escape(text: String) = text
+    .replace("&", "&amp;")
+    .replace("<", "&lt;")
+    .replace(">", "&gt;")
+
+  companion object {
+    const val DEFAULT_BATCH_SIZE = 5000
+    private const val CHUNK_ENTRY_DIRECTORY = "files"
+  }
+}
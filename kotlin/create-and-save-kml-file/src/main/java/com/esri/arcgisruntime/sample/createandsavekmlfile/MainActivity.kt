@@ -28,31 +28,30 @@ import android.widget.Toast
 import androidx.appcompat.app.AlertDialog
 import androidx.appcompat.app.AppCompatActivity
 import com.esri.arcgisruntime.ArcGISRuntimeEnvironment
-import com.esri.arcgisruntime.geometry.GeometryEngine
 import com.esri.arcgisruntime.geometry.GeometryType
-import com.esri.arcgisruntime.geometry.SpatialReferences
 import com.esri.arcgisruntime.layers.KmlLayer
 import com.esri.arcgisruntime.mapping.ArcGISMap
 import com.esri.arcgisruntime.mapping.BasemapStyle
 import com.esri.arcgisruntime.mapping.view.SketchCreationMode
 import com.esri.arcgisruntime.mapping.view.SketchEditor
 import com.esri.arcgisruntime.mapping.view.SketchStyle
-import com.esri.arcgisruntime.ogc.kml.KmlAltitudeMode
 import com.esri.arcgisruntime.ogc.kml.KmlDataset
 import com.esri.arcgisruntime.ogc.kml.KmlDocument
-import com.esri.arcgisruntime.ogc.kml.KmlGeometry
 import com.esri.arcgisruntime.ogc.kml.KmlIcon
 import com.esri.arcgisruntime.ogc.kml.KmlIconStyle
 import com.esri.arcgisruntime.ogc.kml.KmlLineStyle
-import com.esri.arcgisruntime.ogc.kml.KmlPlacemark
 import com.esri.arcgisruntime.ogc.kml.KmlPolygonStyle
 import com.esri.arcgisruntime.ogc.kml.KmlStyle
 import kotlinx.android.synthetic.main.activity_main.*
 import kotlinx.android.synthetic.main.kml_geometry_controls_layout.*
 import java.io.File
+import java.util.Locale
 
 val kmlDocument by lazy { KmlDocument() }
 
+// the writer lives as long as the document, so a recreated activity keeps the chunks of the placemarks already shown
+private var documentWriter: KmlBatchWriter? = null
+
 val pointSymbolUrls by lazy {
   listOf(
     "http://static.arcgis.com/images/Symbols/Shapes/BlueCircleLargeB.png",
@@ -69,6 +68,14 @@ var color: Int = Color.parseColor("Blue")
 
 class MainActivity : AppCompatActivity() {
 
+  // writes placemarks to KML chunk files in the background, so saving only packages what has already been written,
+  // and adds each written folder to the kml document
+  private val kmlBatchWriter: KmlBatchWriter
+    get() = documentWriter ?: KmlBatchWriter(
+      File(applicationContext.cacheDir, getString(R.string.kml_chunk_directory)),
+      onFolderWritten = { folder -> kmlDocument.childNodes.add(folder) }
+    ).also { documentWriter = it }
+
   override fun onCreate(savedInstanceState: Bundle?) {
     super.onCreate(savedInstanceState)
     setContentView(R.layout.activity_main)
@@ -112,58 +119,72 @@ class MainActivity : AppCompatActivity() {
   }
 
   /**
-   * Take the current sketch and use it to create a KML placemark. Add the KML placemark as a child
-   * node to the KML document.
+   * Take the current sketch and use it to create a KML placemark. Add the KML placemark, in a folder of its own, as a
+   * child node to the KML document.
    */
   fun addKmlPlaceMark(view: View) {
     if (mapView.sketchEditor.isSketchValid) {
-      // project the sketched geometry to WGS84 to comply with the KML standard
       val sketchGeometry = mapView.sketchEditor.geometry
-      val projectedGeometry = GeometryEngine.project(sketchGeometry, SpatialReferences.getWgs84())
 
       // stop the current sketch
       mapView.sketchEditor.stop()
 
-      // create a new KML placemark
-      val currentKmlPlacemark =
-        KmlPlacemark(KmlGeometry(projectedGeometry, KmlAltitudeMode.CLAMP_TO_GROUND))
+      // create the KML placemark in the background, writing it once, and show it when it has been written
+      val geometryType = sketchGeometry.geometryType
+      val pointSymbolUrl = pointSymbolUrls[pointSymbolSpinner.selectedItemPosition]
+      val styleColor = color
+      if (geometryType == GeometryType.POINT || geometryType == GeometryType.POLYLINE ||
+        geometryType == GeometryType.POLYGON
+      ) {
+        val placemarkSource = KmlBatchWriter.PlacemarkSource(sketchGeometry, createStyle = {
+          createKmlStyle(geometryType, pointSymbolUrl, styleColor)
+        })
+        kmlBatchWriter.addBatchAsync(geometryType.name.toLowerCase(Locale.ROOT).capitalize(), listOf(placemarkSource),
+          onError = { exception ->
+            Toast.makeText(
+              applicationContext,
+              "Placemark not written, retrying on save: " + exception.message,
+              Toast.LENGTH_LONG
+            ).show()
+          })
+      } else {
+        Toast.makeText(this, "Geometry type not supported in this sample.", Toast.LENGTH_LONG)
+          .show()
+      }
+    } else {
+      Toast.makeText(this, "Sketch invalid!", Toast.LENGTH_LONG).show()
+    }
+    // start a new sketch
+    startSketch(
+      mapView.sketchEditor,
+      SketchCreationMode.valueOf(sketchCreationModeSpinner.selectedItem.toString())
+    )
+  }
 
-      // update the style of the current KML placemark
-      val kmlStyle = KmlStyle()
-      when (sketchGeometry.geometryType) {
+
+  /**
+   * Create a KML style for the given geometry type, using the point symbol for points and the color for lines and
+   * polygons.
+   */
+  private fun createKmlStyle(geometryType: GeometryType, pointSymbolUrl: String, styleColor: Int): KmlStyle {
+    return KmlStyle().apply {
+      when (geometryType) {
         GeometryType.POINT -> {
-          kmlStyle.iconStyle =
-            KmlIconStyle(KmlIcon(pointSymbolUrls[pointSymbolSpinner.selectedItemPosition]), 1.0)
+          iconStyle = KmlIconStyle(KmlIcon(pointSymbolUrl), 1.0)
         }
         GeometryType.POLYLINE -> {
-          kmlStyle.lineStyle = KmlLineStyle(color, 8.0)
+          lineStyle = KmlLineStyle(styleColor, 8.0)
         }
-        GeometryType.POLYGON -> {
-          kmlStyle.polygonStyle = KmlPolygonStyle(color).apply {
+        else -> {
+          polygonStyle = KmlPolygonStyle(styleColor).apply {
             isFilled = true
             isOutlined = false
           }
         }
-        else -> {
-          Toast.makeText(this, "Geometry type not supported in this sample.", Toast.LENGTH_LONG)
-            .show()
-        }
       }
-      currentKmlPlacemark.style = kmlStyle
-
-      // add the placemark to the kml document
-      kmlDocument.childNodes.add(currentKmlPlacemark)
-    } else {
-      Toast.makeText(this, "Sketch invalid!", Toast.LENGTH_LONG).show()
     }
-    // start a new sketch
-    startSketch(
-      mapView.sketchEditor,
-      SketchCreationMode.valueOf(sketchCreationModeSpinner.selectedItem.toString())
-    )
   }
 
-
   /**
    * Create a save dialog to get a file name and save the KML Document to a KMZ file.
    */
@@ -181,24 +202,24 @@ class MainActivity : AppCompatActivity() {
       setView(fileNameEditText)
       // set positive button to call save async on the KML document
       setPositiveButton("Save") { _: DialogInterface, _: Int ->
-        // save the KML document to the device with the file name from the edit text box
-        val saveFuture =
-          kmlDocument.saveAsAsync(getExternalFilesDir(null)?.path + File.separator + fileNameEditText.text.toString())
-        saveFuture.addDoneListener {
-          try {
-            // call get on the save future to check if it saved correctly
-            saveFuture.get()
+        // write any new placemarks in the background and package everything written so far into a KMZ file
+        val fileName = fileNameEditText.text.toString()
+        kmlBatchWriter.saveKmzAsync(
+          getExternalFilesDir(null)?.path + File.separator + fileName,
+          fileName.substringBeforeLast('.')
+        ) { exception ->
+          if (exception == null) {
             // notify the file has been saved
             Toast.makeText(
               applicationContext,
-              "Your KML document was saved as: " + fileNameEditText.text,
+              "Your KML document was saved as: $fileName",
               Toast.LENGTH_LONG
             ).show()
-          } catch (e: Exception) {
+          } else {
             // notify the file was not saved correctly
             Toast.makeText(
               applicationContext,
-              "KML document was not saved: " + e.message,
+              "KML document was not saved: " + exception.message,
               Toast.LENGTH_LONG
             ).show()
           }
@@ -303,6 +324,7 @@ class MainActivity : AppCompatActivity() {
   }
 
   override fun onDestroy() {
+    // the writer isn't shut down, it is kept with the document for the next activity
     mapView.dispose()
     super.onDestroy()
   }
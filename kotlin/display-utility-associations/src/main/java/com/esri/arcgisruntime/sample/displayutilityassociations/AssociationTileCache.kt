@@ -0,0 +1,192 @@
+/*
+ *  Copyright 2021 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.esri.arcgisruntime.sample.displayutilityassociations
+
+import android.util.Log
+import com.esri.arcgisruntime.geometry.Envelope
+import com.esri.arcgisruntime.geometry.SpatialReference
+import com.esri.arcgisruntime.mapping.view.Graphic
+import com.esri.arcgisruntime.mapping.view.GraphicsOverlay
+import com.esri.arcgisruntime.symbology.Symbol
+import com.esri.arcgisruntime.utilitynetworks.UtilityAssociation
+import com.esri.arcgisruntime.utilitynetworks.UtilityAssociationType
+import com.esri.arcgisruntime.utilitynetworks.UtilityElement
+import com.esri.arcgisruntime.utilitynetworks.UtilityNetwork
+import kotlin.math.ceil
+import kotlin.math.floor
+import kotlin.math.hypot
+import kotlin.math.ln
+import kotlin.math.max
+import kotlin.math.pow
+
+/**
+ * Loads associations one grid cell at a time, so navigating only requests the cells which haven't been loaded yet.
+ *
+ * The grid's cell size follows the scale band of the view, the scale rounded up to a power of two, so a cell covers a
+ * similar part of the screen at any scale. A cell is loaded if it, or a larger cell from a coarser band covering it,
+ * has had its associations requested. Each association gets one graphic however many cells it is found in, and the
+ * graphic is removed once none of the loaded cells holds it. When more than [maxLoadedCells] are loaded, the cells
+ * farthest from the view are evicted.
+ *
+ * @param symbolFor the symbol for each association type, or null not to draw the type
+ * @param maxLoadedCells the most cells to keep associations for
+ */
+class AssociationTileCache(
+  private val utilityNetwork: UtilityNetwork,
+  private val associationsOverlay: GraphicsOverlay,
+  private val symbolFor: (UtilityAssociationType) -> Symbol?,
+  private val maxLoadedCells: Int
+) {
+
+  private val TAG: String = AssociationTileCache::class.java.simpleName
+
+  // the association keys found in each loaded cell
+  private val loadedCells = HashMap<Cell, List<String>>()
+  private val loadingCells = HashSet<Cell>()
+  // one graphic per association, with how many loaded cells hold it
+  private val graphics = HashMap<String, Graphic>()
+  private val cellCounts = HashMap<String, Int>()
+
+  /**
+   * A grid cell, as its column and row in the grid of a scale band.
+   */
+  private data class Cell(val band: Int, val column: Long, val row: Long) {
+
+    val size: Double
+      get() = cellSize(band)
+
+    fun toEnvelope(spatialReference: SpatialReference): Envelope =
+      Envelope(column * size, row * size, (column + 1) * size, (row + 1) * size, spatialReference)
+
+    /**
+     * @return the cell of a coarser band covering this one
+     */
+    fun parent(coarserBand: Int): Cell {
+      val factor = 2.0.pow(coarserBand - band)
+      return Cell(coarserBand, floor(column / factor).toLong(), floor(row / factor).toLong())
+    }
+  }
+
+  /**
+   * Requests the associations of the cells in the extent which aren't loaded, then evicts cells far from it.
+   *
+   * @param extent the extent of the view, in a spatial reference with linear units
+   * @param scale the scale of the view
+   */
+  fun update(extent: Envelope, scale: Double) {
+    val band = max(0, ceil(ln(scale) / ln(2.0)).toInt())
+    val size = cellSize(band)
+    val cells = mutableListOf<Cell>()
+    for (column in floor(extent.xMin / size).toLong()..floor(extent.xMax / size).toLong()) {
+      for (row in floor(extent.yMin / size).toLong()..floor(extent.yMax / size).toLong()) {
+        cells.add(Cell(band, column, row))
+      }
+    }
+    cells.filterNot { isLoaded(it) || it in loadingCells }.forEach { load(it, extent.spatialReference) }
+    evictFarFrom(extent)
+  }
+
+  fun clear() {
+    loadedCells.clear()
+    loadingCells.clear()
+    associationsOverlay.graphics.removeAll(graphics.values)
+    graphics.clear()
+    cellCounts.clear()
+  }
+
+  private fun isLoaded(cell: Cell): Boolean {
+    if (loadedCells.containsKey(cell)) {
+      return true
+    }
+    // a loaded cell of a coarser band already holds this cell's associations
+    return loadedCells.keys.any { it.band > cell.band && cell.parent(it.band) == it }
+  }
+
+  private fun load(cell: Cell, spatialReference: SpatialReference) {
+    loadingCells.add(cell)
+    val associationsFuture = utilityNetwork.getAssociationsAsync(cell.toEnvelope(spatialReference))
+    associationsFuture.addDoneListener {
+      // the cache was cleared since the cell was requested
+      if (!loadingCells.remove(cell)) {
+        return@addDoneListener
+      }
+      try {
+        val newGraphics = mutableListOf<Graphic>()
+        val keys = associationsFuture.get().mapNotNull { association ->
+          val symbol = symbolFor(association.associationType) ?: return@mapNotNull null
+          val key = associationKey(association)
+          val count = cellCounts[key] ?: 0
+          cellCounts[key] = count + 1
+          if (count == 0) {
+            val graphic = Graphic(association.geometry, symbol).apply {
+              attributes["GlobalId"] = association.globalId
+            }
+            graphics[key] = graphic
+            newGraphics.add(graphic)
+          }
+          key
+        }
+        loadedCells[cell] = keys
+        associationsOverlay.graphics.addAll(newGraphics)
+        Log.d(TAG, "Loaded ${keys.size} associations, ${newGraphics.size} new, in ${loadedCells.size} cells")
+      } catch (e: Exception) {
+        // the cell isn't marked loaded, so it is requested again next time
+        Log.e(TAG, "Error getting associations: ${e.message}")
+      }
+    }
+  }
+
+  private fun evictFarFrom(extent: Envelope) {
+    val overflow = loadedCells.size - maxLoadedCells
+    if (overflow <= 0) {
+      return
+    }
+    val centerX = (extent.xMin + extent.xMax) / 2
+    val centerY = (extent.yMin + extent.yMax) / 2
+    val evicted = loadedCells.keys.sortedByDescending { cell ->
+      hypot((cell.column + 0.5) * cell.size - centerX, (cell.row + 0.5) * cell.size - centerY)
+    }.take(overflow)
+    val removedGraphics = mutableListOf<Graphic>()
+    evicted.forEach { cell ->
+      loadedCells.remove(cell)?.forEach { key ->
+        val count = (cellCounts[key] ?: 1) - 1
+        if (count > 0) {
+          cellCounts[key] = count
+        } else {
+          cellCounts.remove(key)
+          graphics.remove(key)?.let { removedGraphics.add(it) }
+        }
+      }
+    }
+    associationsOverlay.graphics.removeAll(removedGraphics)
+  }
+
+  companion object {
+    // how many map units a cell spans for each unit of its scale band, so a cell at 1:2048 spans about 100 meters
+    private const val CELL_SIZE_PER_SCALE = 0.05
+
+    private fun cellSize(band: Int) = 2.0.pow(band) * CELL_SIZE_PER_SCALE
+
+    /**
+     * Identifies an association by the elements it joins and its type, the same however many cells it is found in.
+     */
+    private fun associationKey(association: UtilityAssociation): String =
+      "${elementKey(association.fromElement)}|${elementKey(association.toElement)}|${association.associationType}"
+
+    private fun elementKey(element: UtilityElement) = "${element.globalId}:${element.terminal?.terminalId}"
+  }
+}
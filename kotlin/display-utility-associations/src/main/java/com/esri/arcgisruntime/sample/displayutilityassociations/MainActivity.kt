@@ -24,7 +24,6 @@ import com.esri.arcgisruntime.layers.FeatureLayer
 import com.esri.arcgisruntime.mapping.ArcGISMap
 import com.esri.arcgisruntime.mapping.BasemapStyle
 import com.esri.arcgisruntime.mapping.Viewpoint
-import com.esri.arcgisruntime.mapping.view.Graphic
 import com.esri.arcgisruntime.mapping.view.GraphicsOverlay
 import com.esri.arcgisruntime.security.UserCredential
 import com.esri.arcgisruntime.symbology.SimpleLineSymbol
@@ -33,7 +32,6 @@ import com.esri.arcgisruntime.utilitynetworks.UtilityNetwork
 import com.esri.arcgisruntime.utilitynetworks.UtilityNetworkSource
 import kotlinx.android.synthetic.main.activity_main.*
 import kotlinx.android.synthetic.main.utility_association_legend.*
-import java.util.*
 
 class MainActivity : AppCompatActivity() {
 
@@ -51,6 +49,17 @@ class MainActivity : AppCompatActivity() {
   // overlay to hold graphics for all of the associations
   private val associationsOverlay by lazy { GraphicsOverlay() }
 
+  // loads and draws associations one grid cell at a time
+  private val associationTileCache by lazy {
+    AssociationTileCache(utilityNetwork, associationsOverlay, { associationType ->
+      when (associationType) {
+        UtilityAssociationType.ATTACHMENT -> attachmentSymbol
+        UtilityAssociationType.CONNECTIVITY -> connectivitySymbol
+        else -> null
+      }
+    }, MAX_LOADED_CELLS)
+  }
+
   // create a green dotted line symbol for attachment
   private val attachmentSymbol by lazy {
     SimpleLineSymbol(
@@ -139,30 +148,9 @@ class MainActivity : AppCompatActivity() {
       return
     }
 
-    // check if the current viewpoint has an extent
+    // load the associations of the grid cells in the current extent which haven't been loaded yet
     (mapView.getCurrentViewpoint(Viewpoint.Type.BOUNDING_GEOMETRY).targetGeometry.extent)?.let { extent ->
-      // get all of the associations in extent
-      val associationsFuture = utilityNetwork.getAssociationsAsync(extent)
-      associationsFuture.addDoneListener {
-        val associations = associationsFuture.get()
-        associations.forEach { association ->
-          // if the graphics overlay doesn't already contain the association
-          if (!associationsOverlay.graphics.any {
-              UUID.fromString(it.attributes["GlobalId"]?.toString()) == association.globalId
-            }) {
-            // add a graphic for the association
-            val symbol = when (association.associationType) {
-              UtilityAssociationType.ATTACHMENT -> attachmentSymbol
-              UtilityAssociationType.CONNECTIVITY -> connectivitySymbol
-              else -> null
-            }
-            val graphic = Graphic(association.geometry, symbol).apply {
-              attributes["GlobalId"] = association.globalId
-            }
-            associationsOverlay.graphics.add(graphic)
-          }
-        }
-      }
+      associationTileCache.update(extent, mapView.mapScale)
     }
   }
 
@@ -180,4 +168,9 @@ class MainActivity : AppCompatActivity() {
     mapView.dispose()
     super.onDestroy()
   }
+
+  companion object {
+    // how many grid cells of associations to keep, evicting the farthest from the view
+    private const val MAX_LOADED_CELLS = 64
+  }
 }
@@ -28,6 +28,7 @@ import androidx.appcompat.app.AppCompatActivity
 import com.esri.arcgisruntime.concurrent.Job
 import com.esri.arcgisruntime.data.Feature
 import com.esri.arcgisruntime.data.Geodatabase
+import com.esri.arcgisruntime.data.GeodatabaseFeatureTable
 import com.esri.arcgisruntime.data.TileCache
 import com.esri.arcgisruntime.geometry.Point
 import com.esri.arcgisruntime.layers.ArcGISTiledLayer
@@ -42,8 +43,6 @@ import com.esri.arcgisruntime.symbology.SimpleLineSymbol
 import com.esri.arcgisruntime.tasks.geodatabase.GenerateGeodatabaseJob
 import com.esri.arcgisruntime.tasks.geodatabase.GeodatabaseSyncTask
 import com.esri.arcgisruntime.tasks.geodatabase.SyncGeodatabaseJob
-import com.esri.arcgisruntime.tasks.geodatabase.SyncGeodatabaseParameters
-import com.esri.arcgisruntime.tasks.geodatabase.SyncLayerOption
 import kotlinx.android.synthetic.main.activity_main.*
 import kotlinx.android.synthetic.main.dialog_layout.*
 import java.util.ArrayList
@@ -58,6 +57,7 @@ class MainActivity : AppCompatActivity() {
   private val graphicsOverlay by lazy { GraphicsOverlay() }
   private val geodatabaseSyncTask by lazy { GeodatabaseSyncTask("https://sampleserver6.arcgisonline.com/arcgis/rest/services/Sync/WildfireSync/FeatureServer") }
   private var geodatabase: Geodatabase? = null
+  private var syncOrchestrator: SyncOrchestrator? = null
   private val selectedFeatures by lazy { ArrayList<Feature>() }
 
   override fun onCreate(savedInstanceState: Bundle?) {
@@ -194,58 +194,65 @@ class MainActivity : AppCompatActivity() {
           geodatabase.geodatabaseFeatureTables.map { featureTable -> FeatureLayer(featureTable) }
         mapView.map.operationalLayers.addAll(featureLayers)
         syncButton.isEnabled = false
+        createSyncOrchestrator(geodatabase)
       }
     }
   }
 
   /**
-   * Syncs changes made on either the local or web service geodatabase with each other.
+   * Creates a sync orchestrator which syncs the geodatabase once enough edits are pending, or once they have been
+   * pending long enough.
+   *
+   * @param geodatabase the loaded geodatabase to sync
    */
-  private fun syncGeodatabase() {
-    // create parameters for the sync task
-    val syncGeodatabaseParameters = SyncGeodatabaseParameters()
-    syncGeodatabaseParameters.syncDirection = SyncGeodatabaseParameters.SyncDirection.BIDIRECTIONAL
-    syncGeodatabaseParameters.isRollbackOnFailure = false
-    geodatabase?.let { geodatabase ->
-      // get the layer ID for each feature table in the geodatabase, then add to the sync job
-      geodatabase.geodatabaseFeatureTables.forEach { geodatabaseFeatureTable ->
-        val serviceLayerId = geodatabaseFeatureTable.serviceLayerId
-        val syncLayerOption = SyncLayerOption(serviceLayerId)
-        syncGeodatabaseParameters.layerOptions.add(syncLayerOption)
+  private fun createSyncOrchestrator(geodatabase: Geodatabase) {
+    syncOrchestrator = SyncOrchestrator(geodatabaseSyncTask, geodatabase, object : SyncOrchestrator.Listener {
+      override fun onPendingEditsChanged(pendingEdits: Long) {
+        if (pendingEdits > 0) {
+          syncButton.text = getString(R.string.sync_pending_edits, pendingEdits)
+        }
       }
-      
-      val syncGeodatabaseJob: SyncGeodatabaseJob = geodatabaseSyncTask
-        .syncGeodatabase(syncGeodatabaseParameters, geodatabase)
-      syncGeodatabaseJob.start()
-      
-      val syncDialog = createProgressDialog(syncGeodatabaseJob)
-      syncDialog.show()
-      
-      syncGeodatabaseJob.apply {
 
-        addProgressChangedListener {
-          syncDialog.progressBar.progress = this.progress
-          syncDialog.progressTextView.text = "${this.progress}%"
+      override fun onSyncJobStarted(job: SyncGeodatabaseJob) {
+        val syncDialog = createProgressDialog(job)
+        syncDialog.show()
+        job.apply {
+          addProgressChangedListener {
+            syncDialog.progressBar.progress = this.progress
+            syncDialog.progressTextView.text = "${this.progress}%"
+          }
+          // close the progress dialog
+          addJobDoneListener { syncDialog.dismiss() }
         }
+      }
 
-        addJobDoneListener {
-          if (syncGeodatabaseJob.status == Job.Status.SUCCEEDED) {
-            // close the progress dialog
-            syncDialog.dismiss()
-            syncButton.isEnabled = false
-            currentEditState = EditState.READY
-            
-            Toast.makeText(this@MainActivity, "Sync complete", Toast.LENGTH_SHORT).show()
-          } else {
-            Log.e(TAG, "Database did not sync correctly!")
-            Toast.makeText(this@MainActivity, "Database did not sync correctly!", Toast.LENGTH_LONG)
-              .show()
-          }
+      override fun onSyncCompleted(metrics: SyncOrchestrator.SyncMetrics) {
+        if (syncOrchestrator?.totalPendingEdits == 0L) {
+          syncButton.isEnabled = false
+          syncButton.text = getString(R.string.sync_geodatabase)
         }
+        Toast.makeText(this@MainActivity, "Sync complete: $metrics", Toast.LENGTH_LONG).show()
       }
+
+      override fun onSyncFailed(error: String) {
+        Log.e(TAG, error)
+        Toast.makeText(this@MainActivity, error, Toast.LENGTH_LONG).show()
+      }
+    }).apply {
+      maxPendingEdits = SYNC_PENDING_EDITS_THRESHOLD
+      maxPendingMillis = SYNC_PENDING_TIME_THRESHOLD_MILLIS
+      maxEditsPerJob = MAX_EDITS_PER_SYNC_JOB
+      isAutoSync = true
     }
   }
 
+  /**
+   * Syncs changes made on either the local or web service geodatabase with each other.
+   */
+  private fun syncGeodatabase() {
+    syncOrchestrator?.syncNow()
+  }
+
   /**
    * Create a progress dialog box for tracking the generate geodatabase job.
    *
@@ -299,7 +306,11 @@ class MainActivity : AppCompatActivity() {
   private fun moveSelectedFeatureTo(point: Point) {
     selectedFeatures.forEach { feature ->
       feature.geometry = point
-      feature.featureTable.updateFeatureAsync(feature)
+      val featureTable = feature.featureTable as GeodatabaseFeatureTable
+      // let the sync orchestrator recount the table's pending edits once the update is applied
+      featureTable.updateFeatureAsync(feature).addDoneListener {
+        syncOrchestrator?.notifyEdited(featureTable)
+      }
     }
 
     // clear the list of selected features
@@ -339,10 +350,19 @@ class MainActivity : AppCompatActivity() {
   }
 
   override fun onDestroy() {
+    syncOrchestrator?.shutdown()
     mapView.dispose()
     super.onDestroy()
   }
 
+  companion object {
+    // sync by itself after this many edits, or once the oldest unsynced edit is this old
+    private const val SYNC_PENDING_EDITS_THRESHOLD = 10L
+    private const val SYNC_PENDING_TIME_THRESHOLD_MILLIS = 5 * 60 * 1000L
+    // split syncs with more edits than this into a job per layer
+    private const val MAX_EDITS_PER_SYNC_JOB = 100L
+  }
+
   // enumeration to track editing of points
   internal enum class EditState {
     NOT_READY,  // Geodatabase has not yet been generated
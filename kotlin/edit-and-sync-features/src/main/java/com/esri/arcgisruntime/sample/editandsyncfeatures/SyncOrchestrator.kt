@@ -0,0 +1,290 @@
+/*
+ * Copyright 2021 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgisruntime.sample.editandsyncfeatures
+
+import android.net.TrafficStats
+import android.os.Handler
+import android.os.Looper
+import android.os.Process
+import android.os.SystemClock
+import android.util.Log
+import com.esri.arcgisruntime.concurrent.Job
+import com.esri.arcgisruntime.data.Geodatabase
+import com.esri.arcgisruntime.data.GeodatabaseFeatureTable
+import com.esri.arcgisruntime.tasks.geodatabase.GeodatabaseSyncTask
+import com.esri.arcgisruntime.tasks.geodatabase.SyncGeodatabaseJob
+import com.esri.arcgisruntime.tasks.geodatabase.SyncGeodatabaseParameters
+import com.esri.arcgisruntime.tasks.geodatabase.SyncLayerOption
+import java.util.ArrayDeque
+
+/**
+ * Decides when to sync a geodatabase and splits large syncs into smaller jobs.
+ *
+ * The number of local edits pending in each table is recounted whenever the app reports an edit. A sync starts once
+ * the pending edits reach [maxPendingEdits], or once the oldest pending edit is [maxPendingMillis] old. When more than
+ * [maxEditsPerJob] edits are pending, the sync is split into one job per table, run one after another. If a job for
+ * one table fails, for example because the geodatabase can't be synced per layer, the tables left are synced in a
+ * single job instead.
+ *
+ * Edits made while a sync runs keep their age, so they still trigger the next sync in time. After a failed sync the
+ * age threshold is checked again once it has passed once more, so automatic syncs carry on.
+ *
+ * Each sync reports the bytes the app sent and received while it ran, its duration and the number of edits the server
+ * rejected.
+ */
+class SyncOrchestrator(
+  private val geodatabaseSyncTask: GeodatabaseSyncTask,
+  private val geodatabase: Geodatabase,
+  private val listener: Listener
+) {
+
+  private val TAG: String? = SyncOrchestrator::class.simpleName
+
+  private val handler = Handler(Looper.getMainLooper())
+  private val pendingEdits = HashMap<GeodatabaseFeatureTable, Long>()
+  private val timeThresholdCheck = Runnable { checkThresholds() }
+
+  var maxPendingEdits = 50L
+  var maxPendingMillis = 15 * 60 * 1000L
+  var maxEditsPerJob = 200L
+  var isAutoSync = false
+    set(value) {
+      field = value
+      checkThresholds()
+    }
+
+  private var oldestPendingEditTime = -1L
+  // the oldest edit made since the running sync started, which that sync may not upload
+  private var oldestEditDuringSync = -1L
+  private var currentJob: SyncGeodatabaseJob? = null
+
+  val isSyncing: Boolean
+    get() = currentJob != null
+
+  val totalPendingEdits: Long
+    get() = pendingEdits.values.sum()
+
+  /**
+   * Receives pending edit counts and sync results on the main thread.
+   */
+  interface Listener {
+    fun onPendingEditsChanged(pendingEdits: Long)
+    fun onSyncJobStarted(job: SyncGeodatabaseJob)
+    fun onSyncCompleted(metrics: SyncMetrics)
+    fun onSyncFailed(error: String)
+  }
+
+  /**
+   * What a sync transferred, how long it took and how many edits the server rejected. Byte counts are -1 if the
+   * device doesn't report traffic.
+   */
+  class SyncMetrics {
+    var jobCount = 0
+      internal set
+    var bytesUploaded = 0L
+      internal set
+    var bytesDownloaded = 0L
+      internal set
+    // time from the first job starting to the last job finishing, most of which is spent on the server
+    var elapsedMillis = 0L
+      internal set
+    var editResults = 0
+      internal set
+    // edits the server rejected, for example because they conflict with edits made since the last sync
+    var rejectedEdits = 0
+      internal set
+
+    override fun toString() =
+      "$jobCount job(s), $bytesUploaded bytes up, $bytesDownloaded bytes down, $elapsedMillis ms, " +
+          "$rejectedEdits of $editResults edits rejected"
+  }
+
+  init {
+    geodatabase.geodatabaseFeatureTables.forEach { recount(it) }
+  }
+
+  /**
+   * Recounts the pending edits of a table after it has been edited.
+   *
+   * @param table the edited table
+   */
+  fun notifyEdited(table: GeodatabaseFeatureTable) {
+    if (isSyncing) {
+      if (oldestEditDuringSync < 0) {
+        oldestEditDuringSync = SystemClock.elapsedRealtime()
+      }
+    } else if (oldestPendingEditTime < 0) {
+      oldestPendingEditTime = SystemClock.elapsedRealtime()
+    }
+    // the recount checks the thresholds, and schedules the age check
+    recount(table)
+  }
+
+  fun getPendingEdits(table: GeodatabaseFeatureTable) = pendingEdits[table] ?: 0L
+
+  /**
+   * Starts a sync now, split into one job per table if more edits are pending than one job should upload.
+   */
+  fun syncNow() {
+    if (isSyncing) {
+      return
+    }
+    handler.removeCallbacks(timeThresholdCheck)
+    val tables = geodatabase.geodatabaseFeatureTables.toList()
+    val batches = ArrayDeque<List<GeodatabaseFeatureTable>>()
+    if (totalPendingEdits > maxEditsPerJob && tables.size > 1) {
+      // tables with edits go first, so the uploads aren't held up by downloads
+      tables.sortedByDescending { getPendingEdits(it) > 0 }.forEach { batches.add(listOf(it)) }
+    } else {
+      batches.add(tables)
+    }
+    val metrics = SyncMetrics()
+    val rxBytes = TrafficStats.getUidRxBytes(Process.myUid())
+    val txBytes = TrafficStats.getUidTxBytes(Process.myUid())
+    val startTime = SystemClock.elapsedRealtime()
+    runBatches(batches, metrics) {
+      metrics.elapsedMillis = SystemClock.elapsedRealtime() - startTime
+      val rxBytesAfter = TrafficStats.getUidRxBytes(Process.myUid())
+      val txBytesAfter = TrafficStats.getUidTxBytes(Process.myUid())
+      metrics.bytesDownloaded = if (rxBytes == TrafficStats.UNSUPPORTED.toLong()) -1 else rxBytesAfter - rxBytes
+      metrics.bytesUploaded = if (txBytes == TrafficStats.UNSUPPORTED.toLong()) -1 else txBytesAfter - txBytes
+      Log.i(TAG, "Sync complete: $metrics")
+      listener.onSyncCompleted(metrics)
+    }
+  }
+
+  fun shutdown() {
+    handler.removeCallbacks(timeThresholdCheck)
+    currentJob?.cancel()
+  }
+
+  private fun runBatches(
+    batches: ArrayDeque<List<GeodatabaseFeatureTable>>,
+    metrics: SyncMetrics,
+    onComplete: () -> Unit
+  ) {
+    val batch = batches.poll()
+    if (batch == null) {
+      currentJob = null
+      // edits made while syncing may not have been uploaded, so they keep their age
+      oldestPendingEditTime = oldestEditDuringSync
+      oldestEditDuringSync = -1
+      geodatabase.geodatabaseFeatureTables.forEach { recount(it) }
+      onComplete()
+      return
+    }
+    // create parameters for the sync task
+    val syncGeodatabaseParameters = SyncGeodatabaseParameters().apply {
+      syncDirection = SyncGeodatabaseParameters.SyncDirection.BIDIRECTIONAL
+      isRollbackOnFailure = false
+      batch.forEach { layerOptions.add(SyncLayerOption(it.serviceLayerId)) }
+    }
+    val job = geodatabaseSyncTask.syncGeodatabase(syncGeodatabaseParameters, geodatabase)
+    currentJob = job
+    job.addJobDoneListener {
+      when {
+        job.status == Job.Status.SUCCEEDED -> {
+          metrics.jobCount++
+          job.result.flatMap { it.editResults }.forEach { editResult ->
+            metrics.editResults++
+            if (editResult.hasCompletedWithErrors()) {
+              metrics.rejectedEdits++
+            }
+          }
+          runBatches(batches, metrics, onComplete)
+        }
+        batch.size == 1 && batches.isNotEmpty() && job.status == Job.Status.FAILED -> {
+          // the geodatabase may not support syncing a layer at a time, so sync the tables left in one job instead
+          Log.w(TAG, "Per layer sync failed, syncing the remaining layers: " + job.error?.message)
+          val remainingLayers = ArrayDeque<List<GeodatabaseFeatureTable>>()
+          remainingLayers.add(batch + batches.flatten())
+          runBatches(remainingLayers, metrics, onComplete)
+        }
+        else -> onSyncFailed("Database did not sync correctly! " + (job.error?.message ?: "Sync canceled"))
+      }
+    }
+    job.start()
+    listener.onSyncJobStarted(job)
+  }
+
+  private fun onSyncFailed(error: String) {
+    currentJob = null
+    // the edits are still pending, so keep the oldest of them, or start their age now if it wasn't known
+    if (oldestPendingEditTime < 0) {
+      oldestPendingEditTime =
+        if (oldestEditDuringSync >= 0) oldestEditDuringSync else SystemClock.elapsedRealtime()
+    }
+    oldestEditDuringSync = -1
+    // try again once the age threshold has passed once more, rather than straight away
+    scheduleTimeThresholdCheck(maxPendingMillis)
+    listener.onSyncFailed(error)
+  }
+
+  private fun checkThresholds() {
+    if (!isAutoSync) {
+      return
+    }
+    if (isSyncing) {
+      // the edits made while syncing are checked once the sync has finished
+      scheduleTimeThresholdCheck(SYNC_RUNNING_RECHECK_MILLIS)
+      return
+    }
+    if (totalPendingEdits == 0L) {
+      return
+    }
+    val age = SystemClock.elapsedRealtime() - oldestPendingEditTime
+    if (totalPendingEdits >= maxPendingEdits || (oldestPendingEditTime >= 0 && age >= maxPendingMillis)) {
+      syncNow()
+    } else if (oldestPendingEditTime >= 0) {
+      scheduleTimeThresholdCheck(maxPendingMillis - age)
+    }
+  }
+
+  private fun scheduleTimeThresholdCheck(delayMillis: Long) {
+    handler.removeCallbacks(timeThresholdCheck)
+    handler.postDelayed(timeThresholdCheck, delayMillis)
+  }
+
+  /**
+   * Counts the features added, updated and deleted in a table since the last sync.
+   */
+  private fun recount(table: GeodatabaseFeatureTable) {
+    val addedFuture = table.addedFeaturesCountAsync
+    val updatedFuture = table.updatedFeaturesCountAsync
+    val deletedFuture = table.deletedFeaturesCountAsync
+    val onCounted = Runnable {
+      if (addedFuture.isDone && updatedFuture.isDone && deletedFuture.isDone) {
+        try {
+          pendingEdits[table] = addedFuture.get() + updatedFuture.get() + deletedFuture.get()
+          listener.onPendingEditsChanged(totalPendingEdits)
+          checkThresholds()
+        } catch (e: Exception) {
+          Log.e(TAG, "Failed to count edits in ${table.tableName}: ${e.message}")
+        }
+      }
+    }
+    addedFuture.addDoneListener(onCounted)
+    updatedFuture.addDoneListener(onCounted)
+    deletedFuture.addDoneListener(onCounted)
+  }
+
+  companion object {
+    // how often the age threshold is checked again while a sync is still running
+    private const val SYNC_RUNNING_RECHECK_MILLIS = 30 * 1000L
+  }
+}
@@ -29,7 +29,6 @@ import android.widget.Toast
 import androidx.appcompat.app.AppCompatActivity
 import androidx.coordinatorlayout.widget.CoordinatorLayout
 import com.esri.arcgisruntime.ArcGISRuntimeEnvironment
-import com.esri.arcgisruntime.data.QueryParameters
 import com.esri.arcgisruntime.data.ServiceGeodatabase
 import com.esri.arcgisruntime.geometry.Point
 import com.esri.arcgisruntime.layers.FeatureLayer
@@ -77,6 +76,11 @@ class MainActivity : AppCompatActivity() {
         ServiceGeodatabase(featureServiceUrl)
     }
 
+    // selects the features of trace results in chunks
+    private val traceResultSelector by lazy {
+        TraceResultSelector(DEFAULT_MAX_IDS_PER_QUERY, MAX_CONCURRENT_QUERIES)
+    }
+
     // create and apply renderers for the starting point graphics overlay
     private val startingPointSymbol: SimpleMarkerSymbol by lazy {
         SimpleMarkerSymbol(
@@ -251,6 +255,8 @@ class MainActivity : AppCompatActivity() {
         traceConfiguration: UtilityTraceConfiguration,
         startingLocation: UtilityElement
     ) {
+        // spin until the trace is done, then fill in as the features are selected
+        progressBar.isIndeterminate = true
         progressBar.visibility = View.VISIBLE
         // create a category comparison for the trace
         // NOTE: UtilityNetworkAttributeComparison or UtilityCategoryComparisonOperator.DOES_NOT_EXIST
@@ -277,26 +283,24 @@ class MainActivity : AppCompatActivity() {
                 // get the first element of the trace result if it is not null
                 (utilityTraceResultsFuture.get()[0] as? UtilityElementTraceResult)?.let { utilityElementTraceResult ->
                     if (utilityElementTraceResult.elements.isNotEmpty()) {
-                        // iterate over the map's feature layers
-                        mapView.map.operationalLayers.filterIsInstance<FeatureLayer>()
-                            .forEach { featureLayer ->
-                                // clear any selections from a previous trace
-                                featureLayer.clearSelection()
+                        // select the features of the elements in the map's feature layers, a chunk of object IDs at a
+                        // time, showing how many are selected and hiding the progress bar once every chunk is done
+                        traceResultSelector.select(
+                            utilityElementTraceResult.elements,
+                            mapView.map.operationalLayers.filterIsInstance<FeatureLayer>(),
+                            object : TraceResultSelector.Listener {
+                                override fun onProgress(selected: Int, total: Int) {
+                                    progressBar.isIndeterminate = false
+                                    progressBar.max = total
+                                    progressBar.progress = selected
+                                }
 
-                                val queryParameters = QueryParameters()
-                                // for each utility element in the trace, check if its network source is the same as
-                                // the feature table, and if it is, add it to the query parameters to be selected
-                                utilityElementTraceResult.elements.filter { it.networkSource.name == featureLayer.featureTable.tableName }
-                                    .forEach { utilityElement ->
-                                        queryParameters.objectIds.add(utilityElement.objectId)
-                                    }
-
-                                // select features that match the query
-                                featureLayer.selectFeaturesAsync(
-                                    queryParameters,
-                                    FeatureLayer.SelectionMode.NEW
-                                )
-                            }
+                                override fun onCompleted(selected: Int, total: Int) {
+                                    Log.i(TAG, "Selected $selected of $total features")
+                                    progressBar.visibility = View.GONE
+                                }
+                            })
+                        return@addDoneListener
                     } else {
                         // iterate over the map's feature layers
                         mapView.map.operationalLayers.filterIsInstance<FeatureLayer>()
@@ -364,4 +368,11 @@ class MainActivity : AppCompatActivity() {
         mapView.dispose()
         super.onDestroy()
     }
+
+    companion object {
+        // how many object IDs to select with one query, for layers whose maximum record count isn't known
+        private const val DEFAULT_MAX_IDS_PER_QUERY = 1000
+        // how many selection queries to run at once
+        private const val MAX_CONCURRENT_QUERIES = 4
+    }
 }
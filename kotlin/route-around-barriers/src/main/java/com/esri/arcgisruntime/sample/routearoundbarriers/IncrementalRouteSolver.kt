@@ -0,0 +1,241 @@
+/*
+ * Copyright 2021 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgisruntime.sample.routearoundbarriers
+
+import android.util.Log
+import com.esri.arcgisruntime.geometry.GeometryEngine
+import com.esri.arcgisruntime.geometry.Polyline
+import com.esri.arcgisruntime.tasks.networkanalysis.DirectionManeuver
+import com.esri.arcgisruntime.tasks.networkanalysis.DirectionManeuverType
+import com.esri.arcgisruntime.tasks.networkanalysis.PolygonBarrier
+import com.esri.arcgisruntime.tasks.networkanalysis.Route
+import com.esri.arcgisruntime.tasks.networkanalysis.RouteTask
+import com.esri.arcgisruntime.tasks.networkanalysis.Stop
+
+/**
+ * Solves a route through stops in a fixed order one leg at a time, so an edit only re-solves the legs it affects.
+ *
+ * Each leg, from one stop to the next, is solved as its own two stop route. Adding a stop solves only the new last
+ * leg. Adding a barrier re-solves only the legs whose current route crosses it: a barrier can only close roads, so a
+ * route which doesn't cross it is still the best route. The legs are spliced into one route geometry and one list of
+ * directions, without the arrive and depart maneuvers where one leg joins the next.
+ *
+ * A leg which fails to solve is left out of the spliced route and solved again on the next edit.
+ *
+ * Reordering stops to find the best sequence depends on every leg at once, so it can't be solved this way.
+ */
+class IncrementalRouteSolver(private val routeTask: RouteTask, private val listener: Listener) {
+
+  private val TAG: String = IncrementalRouteSolver::class.java.simpleName
+
+  private val stops = mutableListOf<Stop>()
+  private val barriers = mutableListOf<PolygonBarrier>()
+  // the route of each leg, null while the leg is being solved or if it failed
+  private val legs = mutableListOf<Route?>()
+  // the legs whose last solve failed
+  private val failedLegs = mutableSetOf<Int>()
+  // the solve each leg is waiting for, so results of superseded solves are dropped
+  private val legVersions = mutableListOf<Int>()
+  private var lastVersion = 0
+  private var legsSolved = 0
+
+  /**
+   * Receives the spliced route on the main thread.
+   */
+  interface Listener {
+    fun onRouteUpdated(route: SplicedRoute)
+    fun onSolveFailed(error: String)
+  }
+
+  /**
+   * The route through every stop, spliced from its legs.
+   *
+   * @property legsSolved how many legs were solved since the previous update, the rest were reused
+   * @property legsFailed how many legs failed to solve and are missing from the route
+   */
+  class SplicedRoute(
+    val routeGeometry: Polyline,
+    val directionManeuvers: List<DirectionManeuver>,
+    val totalTime: Double,
+    val legCount: Int,
+    val legsSolved: Int,
+    val legsFailed: Int
+  )
+
+  /**
+   * Replaces the stops and barriers and solves every leg.
+   */
+  fun setStopsAndBarriers(stops: List<Stop>, barriers: List<PolygonBarrier>) {
+    clear()
+    this.barriers.addAll(barriers)
+    stops.forEach { stop ->
+      this.stops.add(stop)
+      if (this.stops.size > 1) {
+        legs.add(null)
+        legVersions.add(0)
+        solveLeg(legs.lastIndex)
+      }
+    }
+  }
+
+  /**
+   * Adds a stop to the end of the route, solving only the leg to it and any legs which failed before.
+   */
+  fun addStop(stop: Stop) {
+    failedLegs.toList().forEach { solveLeg(it) }
+    stops.add(stop)
+    if (stops.size > 1) {
+      legs.add(null)
+      legVersions.add(0)
+      solveLeg(legs.lastIndex)
+    }
+  }
+
+  /**
+   * Adds a barrier, re-solving only the legs whose route crosses it.
+   */
+  fun addBarrier(barrier: PolygonBarrier) {
+    barriers.add(barrier)
+    legs.forEachIndexed { leg, route ->
+      // a leg still being solved was sent without this barrier, and a failed leg is retried
+      if (route == null || crosses(route, barrier)) {
+        solveLeg(leg)
+      }
+    }
+    publishIfSolved()
+  }
+
+  fun clear() {
+    stops.clear()
+    barriers.clear()
+    legs.clear()
+    legVersions.clear()
+    failedLegs.clear()
+    legsSolved = 0
+  }
+
+  private fun crosses(route: Route, barrier: PolygonBarrier): Boolean {
+    val barrierGeometry =
+      GeometryEngine.project(barrier.geometry, route.routeGeometry.spatialReference)
+    return GeometryEngine.intersects(route.routeGeometry, barrierGeometry)
+  }
+
+  private fun solveLeg(leg: Int) {
+    legs[leg] = null
+    failedLegs.remove(leg)
+    val version = ++lastVersion
+    legVersions[leg] = version
+    val legStops = listOf(stops[leg], stops[leg + 1])
+    val legBarriers = barriers.toList()
+    legsSolved++
+    val routeParametersFuture = routeTask.createDefaultParametersAsync()
+    routeParametersFuture.addDoneListener {
+      if (isSuperseded(leg, version)) {
+        return@addDoneListener
+      }
+      try {
+        val routeParameters = routeParametersFuture.get().apply {
+          isReturnStops = true
+          isReturnDirections = true
+          setStops(legStops)
+          setPolygonBarriers(legBarriers)
+        }
+        val routeResultFuture = routeTask.solveRouteAsync(routeParameters)
+        routeResultFuture.addDoneListener {
+          if (isSuperseded(leg, version)) {
+            return@addDoneListener
+          }
+          try {
+            val routes = routeResultFuture.get().routes
+            if (routes.isEmpty()) {
+              failLeg(leg, "No route found from stop ${leg + 1} to stop ${leg + 2}.")
+              return@addDoneListener
+            }
+            legs[leg] = routes[0]
+            publishIfSolved()
+          } catch (e: Exception) {
+            failLeg(leg, "Solve route task failed: " + e.message)
+          }
+        }
+      } catch (e: Exception) {
+        failLeg(leg, "Cannot create RouteTask parameters " + e.message)
+      }
+    }
+  }
+
+  /**
+   * Whether the leg was cleared or sent again since this solve, so its result should be dropped.
+   */
+  private fun isSuperseded(leg: Int, version: Int) = leg >= legVersions.size || legVersions[leg] != version
+
+  private fun failLeg(leg: Int, error: String) {
+    failedLegs.add(leg)
+    listener.onSolveFailed(error)
+    publishIfSolved()
+  }
+
+  private fun publishIfSolved() {
+    // wait for legs still being solved, failed legs are left out
+    if (legs.isEmpty() || legs.indices.any { legs[it] == null && it !in failedLegs }) {
+      return
+    }
+    val routes = legs.filterNotNull()
+    if (routes.isEmpty()) {
+      return
+    }
+    val routeGeometry = GeometryEngine.union(routes.map { it.routeGeometry }) as Polyline
+    Log.d(TAG, "Spliced ${routes.size} legs, $legsSolved solved, ${failedLegs.size} failed")
+    listener.onRouteUpdated(
+      SplicedRoute(
+        routeGeometry,
+        spliceDirections(),
+        routes.sumByDouble { it.totalTime },
+        legs.size,
+        legsSolved,
+        failedLegs.size
+      )
+    )
+    legsSolved = 0
+  }
+
+  /**
+   * Concatenates the directions of the legs. Each leg arrives at its last stop and departs from its first, so where
+   * one leg joins the next the arrive and depart maneuvers are dropped. They are kept around a failed leg, which
+   * leaves a gap in the route.
+   */
+  private fun spliceDirections(): List<DirectionManeuver> {
+    val directionManeuvers = mutableListOf<DirectionManeuver>()
+    legs.forEachIndexed { leg, route ->
+      if (route == null) {
+        return@forEachIndexed
+      }
+      val joinsPrevious = leg > 0 && legs[leg - 1] != null
+      val joinsNext = leg < legs.lastIndex && legs[leg + 1] != null
+      route.directionManeuvers.forEachIndexed { index, maneuver ->
+        val isJoinDepart =
+          joinsPrevious && index == 0 && maneuver.maneuverType == DirectionManeuverType.DEPART
+        val isJoinArrive = joinsNext && index == route.directionManeuvers.lastIndex &&
+            maneuver.maneuverType == DirectionManeuverType.STOP
+        if (!isJoinDepart && !isJoinArrive) {
+          directionManeuvers.add(maneuver)
+        }
+      }
+    }
+    return directionManeuvers
+  }
+}
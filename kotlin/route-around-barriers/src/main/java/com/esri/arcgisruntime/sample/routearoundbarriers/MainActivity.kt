@@ -34,6 +34,7 @@ import androidx.core.content.ContextCompat
 import com.esri.arcgisruntime.ArcGISRuntimeEnvironment
 import com.esri.arcgisruntime.geometry.GeometryEngine
 import com.esri.arcgisruntime.geometry.Point
+import com.esri.arcgisruntime.geometry.Polyline
 import com.esri.arcgisruntime.loadable.LoadStatus
 import com.esri.arcgisruntime.mapping.ArcGISMap
 import com.esri.arcgisruntime.mapping.BasemapStyle
@@ -68,6 +69,7 @@ class MainActivity : AppCompatActivity() {
 
   private var routeTask: RouteTask? = null
   private var routeParameters: RouteParameters? = null
+  private var incrementalRouteSolver: IncrementalRouteSolver? = null
   private var pinSymbol: PictureMarkerSymbol? = null
 
   private val routeGraphicsOverlay by lazy { GraphicsOverlay() }
@@ -157,6 +159,21 @@ class MainActivity : AppCompatActivity() {
               Log.e(TAG, "Cannot create RouteTask parameters " + e.message)
             }
           }
+          // solve routes in stop order a leg at a time, so edits only re-solve the legs they affect
+          incrementalRouteSolver = IncrementalRouteSolver(this, object : IncrementalRouteSolver.Listener {
+            override fun onRouteUpdated(route: IncrementalRouteSolver.SplicedRoute) {
+              Log.d(
+                TAG,
+                "Route updated, ${route.legsSolved} of ${route.legCount} legs solved, ${route.legsFailed} failed"
+              )
+              displayRoute(route.routeGeometry, route.directionManeuvers)
+            }
+
+            override fun onSolveFailed(error: String) {
+              Log.e(TAG, error)
+              Toast.makeText(this@MainActivity, error, Toast.LENGTH_LONG).show()
+            }
+          })
         } else {
           Log.e(TAG, "Unable to load RouteTask $loadStatus")
         }
@@ -188,9 +205,25 @@ class MainActivity : AppCompatActivity() {
     addBarrierButton.setOnClickListener { addStopButton.isChecked = false }
 
     // solve route on checkbox change state
-    reorderCheckBox.setOnCheckedChangeListener { _, _ -> createAndDisplayRoute() }
-    preserveFirstStopCheckBox.setOnCheckedChangeListener { _, _ -> createAndDisplayRoute() }
-    preserveLastStopCheckBox.setOnCheckedChangeListener { _, _ -> createAndDisplayRoute() }
+    reorderCheckBox.setOnCheckedChangeListener { _, isChecked ->
+      if (isChecked) {
+        // drop the legs still being solved, so they don't replace the reordered route
+        incrementalRouteSolver?.clear()
+        createAndDisplayRoute()
+      } else {
+        // solve every leg again, so later edits can be solved incrementally
+        routeGraphicsOverlay.graphics.clear()
+        directionsList.clear()
+        incrementalRouteSolver?.setStopsAndBarriers(stopList, barrierList)
+      }
+    }
+    // the first and last stops only move when the stops are reordered
+    preserveFirstStopCheckBox.setOnCheckedChangeListener { _, _ ->
+      if (reorderCheckBox.isChecked) createAndDisplayRoute()
+    }
+    preserveLastStopCheckBox.setOnCheckedChangeListener { _, _ ->
+      if (reorderCheckBox.isChecked) createAndDisplayRoute()
+    }
 
     // start sample with add stop button true
     addStopButton.isChecked = true
@@ -216,20 +249,31 @@ class MainActivity : AppCompatActivity() {
       stopList.add(stopPoint)
       // create a marker symbol and graphics, and add the graphics to the graphics overlay
       stopsGraphicsOverlay.graphics.add(Graphic(mapPoint, createCompositeStopSymbol(stopList.size)))
+      if (!reorderCheckBox.isChecked) {
+        // only the leg to the new stop needs to be solved
+        incrementalRouteSolver?.addStop(stopPoint)
+      }
     } else if (addBarrierButton.isChecked) {
       // create a buffered polygon around the clicked point
       val bufferedBarrierPolygon = GeometryEngine.buffer(mapPoint, 200.0)
       // create a polygon barrier for the routing task, and add it to the list of barriers
-      barrierList.add(PolygonBarrier(bufferedBarrierPolygon))
+      val barrier = PolygonBarrier(bufferedBarrierPolygon)
+      barrierList.add(barrier)
       // build graphics for the barrier and add it to the graphics overlay
       barriersGraphicsOverlay.graphics.add(Graphic(bufferedBarrierPolygon, barrierSymbol))
+      if (!reorderCheckBox.isChecked) {
+        // only the legs which cross the barrier need to be solved
+        incrementalRouteSolver?.addBarrier(barrier)
+      }
+    }
+    if (reorderCheckBox.isChecked) {
+      createAndDisplayRoute()
     }
-    createAndDisplayRoute()
   }
 
   /**
-   * Create route parameters and a route task from them. Display the route result geometry as a
-   * graphic and call showDirectionsInBottomSheet which shows directions in a list view.
+   * Create route parameters and a route task from them, solving the whole route at once so the
+   * stops can be reordered. Display the route result with displayRoute.
    */
   private fun createAndDisplayRoute() {
     if (stopList.size < 2) {
@@ -262,15 +306,7 @@ class MainActivity : AppCompatActivity() {
         if (routeResult.routes.isNotEmpty()) {
           // get the first route result
           val firstRoute: Route = routeResult.routes[0]
-
-          // create a graphic for the route and add it to the graphics overlay
-          val routeGraphic = Graphic(firstRoute.routeGeometry)
-          routeGraphicsOverlay.graphics.add(routeGraphic)
-
-          // get the direction text for each maneuver and add them to the list to display
-          directionsList.addAll(firstRoute.directionManeuvers)
-
-          showDirectionsInBottomSheet()
+          displayRoute(firstRoute.routeGeometry, firstRoute.directionManeuvers)
         } else {
           Toast.makeText(this, "No routes found.", Toast.LENGTH_LONG).show()
         }
@@ -285,6 +321,28 @@ class MainActivity : AppCompatActivity() {
     }
   }
 
+  /**
+   * Display the route geometry as a graphic and call showDirectionsInBottomSheet which shows
+   * directions in a list view.
+   *
+   * @param routeGeometry of the route
+   * @param directionManeuvers along the route
+   */
+  private fun displayRoute(routeGeometry: Polyline, directionManeuvers: List<DirectionManeuver>) {
+    // clear the previous route from the graphics overlay, if it exists
+    routeGraphicsOverlay.graphics.clear()
+    // create a graphic for the route and add it to the graphics overlay
+    routeGraphicsOverlay.graphics.add(Graphic(routeGeometry))
+
+    // get the direction text for each maneuver and add them to the list to display
+    directionsList.clear()
+    directionsList.addAll(directionManeuvers)
+
+    showDirectionsInBottomSheet()
+    // show the reset button
+    resetButton.visibility = VISIBLE
+  }
+
   /**
    * Clear all stops and polygon barriers from the route parameters, stop and barrier
    * lists and all graphics overlays. Also hide the directions list view and show the control
@@ -299,6 +357,7 @@ class MainActivity : AppCompatActivity() {
     // clear barriers from route parameters and barriers list
     routeParameters?.clearPolygonBarriers()
     barrierList.clear()
+    incrementalRouteSolver?.clear()
     // clear the directions list
     directionsList.clear()
     // clear all graphics overlays
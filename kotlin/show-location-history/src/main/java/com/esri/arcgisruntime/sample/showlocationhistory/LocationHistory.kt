@@ -0,0 +1,278 @@
+/*
+ * Copyright 2021 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgisruntime.sample.showlocationhistory
+
+import android.util.Log
+import com.esri.arcgisruntime.geometry.GeometryEngine
+import com.esri.arcgisruntime.geometry.Point
+import com.esri.arcgisruntime.geometry.PointCollection
+import com.esri.arcgisruntime.geometry.Polyline
+import com.esri.arcgisruntime.geometry.SpatialReference
+import com.esri.arcgisruntime.geometry.SpatialReferences
+import com.esri.arcgisruntime.location.LocationDataSource
+import com.esri.arcgisruntime.mapping.view.Graphic
+import com.esri.arcgisruntime.mapping.view.GraphicsOverlay
+import java.io.BufferedWriter
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.OutputStreamWriter
+import java.util.Locale
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+
+/**
+ * Keeps a location history whose drawing cost stays the same however long it is recorded for.
+ *
+ * - Only the most recent fixes are drawn as points, by a fixed ring of point graphics whose geometry is reused once
+ * the ring is full, rather than adding a graphic for every fix.
+ * - The line keeps the recent fixes at full resolution. Older fixes are generalized in tiers by age: each batch of
+ * fixes leaving the recent fixes becomes a tier generalized with the first deviation, and two tiers of the same age
+ * are merged into one generalized with double their deviation, like the carries of a binary counter. Each fix is
+ * generalized only a few times, older parts of the line are the coarsest, and tiers which aren't merged are left
+ * alone. If the tiers still grow past their budget, the oldest two are merged.
+ * - Every fix is appended at full resolution to a CSV file on a background thread, with the columns
+ * [RecordedTrackLocationDataSource] reads, so the history can be replayed. The file holds the current session only:
+ * a new session moves the previous session's file aside the first time a fix is written, while a history recreated
+ * within the same session, after a rotation for example, appends to the file.
+ *
+ * @param pointsOverlay shows the recent fixes as points
+ * @param lineOverlay shows the line through the whole history
+ * @param spatialReference the spatial reference to draw the history in, which must have linear units
+ * @param historyFile the file to append fixes to, or null not to keep them
+ * @param continueSession whether to append to the file of the current session rather than start a new one
+ * @param recentCapacity how many recent fixes to draw as points and keep at full resolution in the line
+ * @param simplifiedCapacity how many vertices the generalized part of the line may have
+ * @param maxDeviation how far, in the spatial reference's units, generalizing may move the newest tier, each older
+ * tier may move twice as far
+ */
+class LocationHistory(
+  pointsOverlay: GraphicsOverlay,
+  lineOverlay: GraphicsOverlay,
+  private val spatialReference: SpatialReference,
+  private val historyFile: File?,
+  private val continueSession: Boolean,
+  private val recentCapacity: Int,
+  private val simplifiedCapacity: Int,
+  private val maxDeviation: Double
+) {
+
+  private val TAG: String = LocationHistory::class.java.simpleName
+
+  // a ring of point graphics, where the next fix reuses the graphic of the oldest
+  private val pointGraphics = Array(recentCapacity) { Graphic() }
+  private var nextPointGraphic = 0
+
+  // the recent fixes at full resolution, oldest first, in the same ring order as the point graphics
+  private val recentPoints = arrayOfNulls<Point>(recentCapacity)
+  private var recentCount = 0
+
+  // fixes which left the recent fixes since the newest tier was made
+  private val pendingPoints = mutableListOf<Point>()
+  // the older fixes generalized in tiers, oldest first
+  private val tiers = mutableListOf<Tier>()
+
+  private val lineGraphic = Graphic()
+  private var fixCount = 0
+
+  private var writer: BufferedWriter? = null
+  private var closed = false
+
+  /**
+   * Fixes generalized with `maxDeviation` doubled once for each level.
+   */
+  private class Tier(val points: List<Point>, val level: Int)
+
+  init {
+    pointsOverlay.graphics.addAll(pointGraphics)
+    lineOverlay.graphics.add(lineGraphic)
+  }
+
+  /**
+   * How many fixes have been added, however many are still drawn.
+   */
+  val size: Int
+    get() = fixCount
+
+  /**
+   * How many vertices the line is drawn with.
+   */
+  val vertexCount: Int
+    get() = tiers.sumBy { it.points.size } + pendingPoints.size + recentCount
+
+  /**
+   * Adds a fix to the end of the history.
+   */
+  fun add(location: LocationDataSource.Location) {
+    val point = GeometryEngine.project(location.position, spatialReference) as Point
+    fixCount++
+    append(location)
+
+    // the oldest recent fix leaves the ring and joins the generalized part of the line
+    if (recentCount == recentCapacity) {
+      recentPoints[nextPointGraphic]?.let { pendingPoints.add(it) }
+      recentCount--
+      if (pendingPoints.size == recentCapacity) {
+        addTier()
+      }
+    }
+    recentPoints[nextPointGraphic] = point
+    recentCount++
+    pointGraphics[nextPointGraphic].geometry = point
+    nextPointGraphic = (nextPointGraphic + 1) % recentCapacity
+
+    lineGraphic.geometry = line()
+  }
+
+  /**
+   * Removes every fix from the map. The history file is kept.
+   */
+  fun clear() {
+    pointGraphics.forEach { it.geometry = null }
+    recentPoints.fill(null)
+    recentCount = 0
+    nextPointGraphic = 0
+    pendingPoints.clear()
+    tiers.clear()
+    lineGraphic.geometry = null
+  }
+
+  /**
+   * Finishes writing the history file. Fixes added afterwards are still drawn, but not written.
+   */
+  fun close() {
+    if (closed) {
+      return
+    }
+    closed = true
+    writeExecutor.execute {
+      try {
+        writer?.close()
+      } catch (e: IOException) {
+        Log.e(TAG, "Failed to close ${historyFile?.name}: ${e.message}")
+      }
+      writer = null
+    }
+  }
+
+  /**
+   * Generalizes the pending fixes into a new tier, then merges tiers of the same age, and the oldest tiers for as
+   * long as they are over their budget.
+   */
+  private fun addTier() {
+    tiers.add(Tier(generalize(pendingPoints, maxDeviation), 0))
+    pendingPoints.clear()
+    while (tiers.size > 1 && tiers[tiers.lastIndex - 1].level == tiers.last().level) {
+      mergeTiers(tiers.lastIndex - 1)
+    }
+    while (tiers.size > 1 && tiers.sumBy { it.points.size } > simplifiedCapacity) {
+      mergeTiers(0)
+    }
+    Log.d(TAG, "$fixCount fixes drawn with $vertexCount vertices in ${tiers.size} tiers, " +
+        "oldest level ${tiers.first().level}")
+  }
+
+  /**
+   * Replaces a tier and the next with one tier a level coarser than either.
+   */
+  private fun mergeTiers(index: Int) {
+    val older = tiers[index]
+    val newer = tiers.removeAt(index + 1)
+    val level = maxOf(older.level, newer.level) + 1
+    tiers[index] = Tier(generalize(older.points + newer.points, maxDeviation * (1 shl level)), level)
+  }
+
+  private fun generalize(points: List<Point>, deviation: Double): List<Point> {
+    if (points.size < 3) {
+      return points.toList()
+    }
+    val polyline = Polyline(PointCollection(points, spatialReference))
+    val generalized = GeometryEngine.generalize(polyline, deviation, true) as Polyline
+    return generalized.parts.flatMap { it.points }
+  }
+
+  private fun line(): Polyline {
+    val points = PointCollection(spatialReference)
+    tiers.forEach { points.addAll(it.points) }
+    points.addAll(pendingPoints)
+    // the recent fixes in order, starting from the oldest in the ring
+    val oldest = (nextPointGraphic - recentCount + recentCapacity) % recentCapacity
+    for (i in 0 until recentCount) {
+      recentPoints[(oldest + i) % recentCapacity]?.let { points.add(it) }
+    }
+    return Polyline(points)
+  }
+
+  private fun append(location: LocationDataSource.Location) {
+    // a late fix after close() would reopen the file
+    if (closed) {
+      return
+    }
+    val file = historyFile ?: return
+    val position = GeometryEngine.project(location.position, SpatialReferences.getWgs84()) as Point
+    val time = location.timeStamp?.timeInMillis ?: System.currentTimeMillis()
+    val line = String.format(
+      Locale.US, "%d,%.7f,%.7f,%.1f,%.2f,%.1f", time, position.y, position.x, location.horizontalAccuracy,
+      location.velocity, location.course
+    )
+    // flush now and then rather than for every fix, a crash loses at most the last few fixes
+    val flush = fixCount % FLUSH_INTERVAL == 0
+    writeExecutor.execute {
+      try {
+        val historyWriter = writer ?: openWriter(file).also { writer = it }
+        historyWriter.write(line)
+        historyWriter.newLine()
+        if (flush) {
+          historyWriter.flush()
+        }
+      } catch (e: IOException) {
+        Log.e(TAG, "Failed to append to ${file.name}: ${e.message}")
+      }
+    }
+  }
+
+  /**
+   * Opens the file for appending. A new session first moves the file of the previous one aside, so a replay doesn't
+   * jump between the tracks of different runs.
+   */
+  private fun openWriter(file: File): BufferedWriter {
+    if (!continueSession && file.exists()) {
+      val previousFile = File(file.parentFile, "${file.nameWithoutExtension}$PREVIOUS_SUFFIX.${file.extension}")
+      if ((previousFile.exists() && !previousFile.delete()) || !file.renameTo(previousFile)) {
+        throw IOException("Failed to move ${file.name} to ${previousFile.name}")
+      }
+    }
+    val newFile = !file.exists() || file.length() == 0L
+    val historyWriter = BufferedWriter(OutputStreamWriter(FileOutputStream(file, true), Charsets.UTF_8))
+    if (newFile) {
+      historyWriter.write("time,latitude,longitude,accuracy,speed,course")
+      historyWriter.newLine()
+    }
+    return historyWriter
+  }
+
+  companion object {
+    private const val FLUSH_INTERVAL = 10
+    // the previous session's file is kept under the history file's name with this suffix
+    private const val PREVIOUS_SUFFIX = "_previous"
+
+    // shared by every history in the process, so a recreated history only appends once the one it replaces has
+    // finished writing and closed the file
+    private val writeExecutor: ExecutorService = Executors.newSingleThreadExecutor()
+  }
+}
@@ -23,26 +23,28 @@ import androidx.appcompat.app.AppCompatActivity
 import androidx.coordinatorlayout.widget.CoordinatorLayout
 import com.esri.arcgisruntime.geometry.Point
 import com.esri.arcgisruntime.geometry.Polyline
-import com.esri.arcgisruntime.geometry.PolylineBuilder
 import com.esri.arcgisruntime.geometry.SpatialReference
 import com.esri.arcgisruntime.location.LocationDataSource
 import com.esri.arcgisruntime.location.SimulatedLocationDataSource
 import com.esri.arcgisruntime.location.SimulationParameters
 import com.esri.arcgisruntime.mapping.ArcGISMap
 import com.esri.arcgisruntime.mapping.Viewpoint
-import com.esri.arcgisruntime.mapping.view.Graphic
 import com.esri.arcgisruntime.mapping.view.GraphicsOverlay
 import com.esri.arcgisruntime.mapping.view.LocationDisplay
 import com.esri.arcgisruntime.symbology.SimpleLineSymbol
 import com.esri.arcgisruntime.symbology.SimpleMarkerSymbol
 import com.esri.arcgisruntime.symbology.SimpleRenderer
 import kotlinx.android.synthetic.main.activity_main.*
+import java.io.File
 import java.util.Calendar
 
 class MainActivity : AppCompatActivity() {
 
   var isTrackLocation: Boolean = false
 
+  private var recordedTrackLocationDataSource: RecordedTrackLocationDataSource? = null
+  private var locationHistory: LocationHistory? = null
+
   override fun onCreate(savedInstanceState: Bundle?) {
     super.onCreate(savedInstanceState)
     setContentView(R.layout.activity_main)
@@ -69,35 +71,46 @@ class MainActivity : AppCompatActivity() {
       graphicsOverlays.addAll(listOf(locationHistoryOverlay, locationHistoryLineOverlay))
     }
 
-    // create a polyline builder to connect the location points
-    val polylineBuilder = PolylineBuilder(SpatialReference.create(102100))
-
-    // create a simulated location data source from json data with simulation parameters to set a consistent velocity
-    val simulatedLocationDataSource = SimulatedLocationDataSource().apply {
-      setLocations(
-        Polyline.fromJson(getString(R.string.polyline_data)) as Polyline,
-        SimulationParameters(Calendar.getInstance(), 30.0, 0.0, 0.0)
-      )
+    // keep a history which draws only the recent fixes as points and generalizes the older part of the line, and
+    // which appends every fix to a file, carrying on with the same file when the activity is recreated
+    val locationHistory = LocationHistory(
+      locationHistoryOverlay,
+      locationHistoryLineOverlay,
+      SpatialReference.create(102100),
+      File(getExternalFilesDir(null), HISTORY_FILE_NAME),
+      savedInstanceState != null,
+      RECENT_FIXES,
+      SIMPLIFIED_VERTICES,
+      SIMPLIFY_DEVIATION_METERS
+    ).also { this.locationHistory = it }
+
+    // replay a recorded track if one has been pushed to the device, otherwise simulate one
+    val recordedTrack = TRACK_EXTENSIONS.map { File(getExternalFilesDir(null), "$TRACK_NAME.$it") }
+      .firstOrNull { it.exists() }
+    val locationDataSource: LocationDataSource = if (recordedTrack != null) {
+      RecordedTrackLocationDataSource(recordedTrack, TRACK_SPEED_MULTIPLIER).also {
+        recordedTrackLocationDataSource = it
+      }
+    } else {
+      // create a simulated location data source from json data with simulation parameters to set a consistent velocity
+      SimulatedLocationDataSource().apply {
+        setLocations(
+          Polyline.fromJson(getString(R.string.polyline_data)) as Polyline,
+          SimulationParameters(Calendar.getInstance(), 30.0, 0.0, 0.0)
+        )
+      }
     }
 
-    simulatedLocationDataSource.addLocationChangedListener { locationChangedEvent ->
-      // if location tracking is turned off, do not add to the polyline
+    locationDataSource.addLocationChangedListener { locationChangedEvent ->
+      // if location tracking is turned off, do not add to the history
       if (!isTrackLocation) { return@addLocationChangedListener }
-      // get the point from the location changed event
-      val nextPoint = locationChangedEvent.location.position
-      // add the new point to the polyline builder
-      polylineBuilder.addPoint(nextPoint)
-      // add the new point to the two graphics overlays and reset the line connecting the points
-      locationHistoryOverlay.graphics.add(Graphic(nextPoint))
-      locationHistoryLineOverlay.graphics.apply {
-        clear()
-        add(Graphic(polylineBuilder.toGeometry()))
-      }
+      // add the location to the history, which draws it on the map
+      locationHistory.add(locationChangedEvent.location)
     }
 
-    // configure the map view's location display to follow the simulated location data source
+    // configure the map view's location display to follow the location data source
     mapView.locationDisplay.apply {
-      locationDataSource = simulatedLocationDataSource
+      this.locationDataSource = locationDataSource
       autoPanMode = LocationDisplay.AutoPanMode.RECENTER
       initialZoomScale = 7000.0
     }
@@ -117,8 +130,8 @@ class MainActivity : AppCompatActivity() {
         button.setImageResource(R.drawable.ic_navigation_white_24dp)
       }
     }
-    // start the simulated location data source
-    simulatedLocationDataSource.startAsync()
+    // start the location data source
+    locationDataSource.startAsync()
 
     // make sure the floating action button doesn't obscure the attribution bar
     mapView.addAttributionViewLayoutChangeListener { _, _, _, _, bottom, _, _, _, oldBottom ->
@@ -138,7 +151,26 @@ class MainActivity : AppCompatActivity() {
   }
 
   override fun onDestroy() {
+    // stop the fixes before closing the history, so none arrive after it
+    mapView.locationDisplay.stop()
+    recordedTrackLocationDataSource?.shutdown()
+    locationHistory?.close()
     mapView.dispose()
     super.onDestroy()
   }
+
+  companion object {
+    // a recorded track pushed to the app's files directory, in any of the formats the replay reads
+    private const val TRACK_NAME = "track"
+    private val TRACK_EXTENSIONS = listOf("gpx", "nmea", "csv")
+    // how many times faster than recorded to replay the track
+    private const val TRACK_SPEED_MULTIPLIER = 10.0
+    // every fix is appended to this file in the app's files directory
+    private const val HISTORY_FILE_NAME = "location_history.csv"
+    // how many recent fixes are drawn as points and at full resolution, and how many vertices the older line keeps
+    private const val RECENT_FIXES = 300
+    private const val SIMPLIFIED_VERTICES = 2000
+    // how far generalizing the older line first moves it
+    private const val SIMPLIFY_DEVIATION_METERS = 2.0
+  }
 }
@@ -0,0 +1,410 @@
+/*
+ * Copyright 2021 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgisruntime.sample.showlocationhistory
+
+import android.os.Handler
+import android.os.Looper
+import android.os.SystemClock
+import android.util.Log
+import android.util.Xml
+import com.esri.arcgisruntime.geometry.Point
+import com.esri.arcgisruntime.geometry.SpatialReferences
+import com.esri.arcgisruntime.location.LocationDataSource
+import org.xmlpull.v1.XmlPullParser
+import java.io.BufferedReader
+import java.io.Closeable
+import java.io.File
+import java.io.FileInputStream
+import java.io.IOException
+import java.io.InputStream
+import java.util.Calendar
+import java.util.TimeZone
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+
+/**
+ * Replays a recorded track from a file as if the fixes were arriving now, keeping the time between fixes.
+ *
+ * The format is chosen by the file's extension:
+ * - `.gpx`: the track points of a GPX file, with their `ele`, `time`, `speed` and `course` elements
+ * - `.nmea`, `.txt` or `.log`: the RMC sentences of an NMEA log, with the HDOP and altitude of the latest GGA sentence
+ * - `.csv`: a header naming the columns, with `time` (ISO 8601 or epoch milliseconds), `latitude` and `longitude`
+ * required and `altitude`, `accuracy`, `speed` and `course` optional
+ *
+ * The file is read one fix ahead of the replay on a background thread, so tracks of any length replay without being
+ * loaded into memory. The fixes keep their recorded timestamps. Where a fix has no speed or course, they are derived
+ * from the previous fix.
+ *
+ * @param speedMultiplier how many times faster than recorded to replay, from 1 to 100
+ */
+class RecordedTrackLocationDataSource(private val file: File, speedMultiplier: Double = 1.0) :
+  LocationDataSource() {
+
+  private val TAG: String = RecordedTrackLocationDataSource::class.java.simpleName
+
+  private val executor: ExecutorService = Executors.newSingleThreadExecutor()
+  // fixes are read and timed in the background, but delivered on the main thread like those of other data sources
+  private val mainHandler = Handler(Looper.getMainLooper())
+  private var replay: Future<*>? = null
+
+  /**
+   * How many times faster than recorded the track is replayed, from 1 to 100. Can be changed during a replay.
+   */
+  @Volatile
+  var speedMultiplier: Double = speedMultiplier.coerceIn(MIN_SPEED_MULTIPLIER, MAX_SPEED_MULTIPLIER)
+    set(value) {
+      field = value.coerceIn(MIN_SPEED_MULTIPLIER, MAX_SPEED_MULTIPLIER)
+    }
+
+  /**
+   * Whether to start the track again from the beginning after its last fix.
+   */
+  @Volatile
+  var isLooping = false
+
+  override fun onStart() {
+    replay = executor.submit {
+      val reader = try {
+        openTrack()
+      } catch (e: IOException) {
+        mainHandler.post { onStartCompleted(e) }
+        return@submit
+      }
+      mainHandler.post { onStartCompleted(null) }
+      replay(reader)
+    }
+  }
+
+  override fun onStop() {
+    replay?.cancel(true)
+    replay = null
+  }
+
+  /**
+   * Stops the background thread. The data source can't be started again.
+   */
+  fun shutdown() {
+    executor.shutdownNow()
+  }
+
+  private fun replay(firstReader: TrackReader) {
+    var reader = firstReader
+    var fixesReplayed = 0
+    try {
+      while (!Thread.currentThread().isInterrupted) {
+        // the replay clock is rebased on the first fix, on every loop and whenever the speed changes
+        var baseFixTime = Long.MIN_VALUE
+        var baseElapsed = 0L
+        var multiplier = speedMultiplier
+        var previous: Fix? = null
+        while (true) {
+          val fix = reader.next() ?: break
+          if (baseFixTime == Long.MIN_VALUE || multiplier != speedMultiplier) {
+            multiplier = speedMultiplier
+            baseFixTime = previous?.time ?: fix.time
+            baseElapsed = SystemClock.elapsedRealtime()
+          }
+          // wait out the recorded gap, so a fix that is late doesn't delay the rest of the track
+          val wait = ((fix.time - baseFixTime) / multiplier).toLong() - (SystemClock.elapsedRealtime() - baseElapsed)
+          if (wait > 0) {
+            Thread.sleep(wait)
+          }
+          val location = fix.toLocation(previous)
+          mainHandler.post { if (isStarted) updateLocation(location) }
+          fixesReplayed++
+          previous = fix
+        }
+        reader.close()
+        if (!isLooping) {
+          Log.d(TAG, "Replayed $fixesReplayed fixes from ${file.name}")
+          return
+        }
+        reader = openTrack()
+      }
+    } catch (e: InterruptedException) {
+      // stopped
+    } catch (e: Exception) {
+      Log.e(TAG, "Replay of ${file.name} stopped after $fixesReplayed fixes: ${e.message}")
+    } finally {
+      reader.close()
+    }
+  }
+
+  private fun openTrack(): TrackReader {
+    val input = FileInputStream(file)
+    return when (file.extension.toLowerCase()) {
+      "gpx" -> GpxReader(input)
+      "nmea", "txt", "log" -> NmeaReader(input.bufferedReader())
+      "csv" -> CsvReader(input.bufferedReader())
+      else -> {
+        input.close()
+        throw IOException("Unsupported track format: ${file.name}")
+      }
+    }
+  }
+
+  /**
+   * A recorded fix, with NaN for what wasn't recorded.
+   */
+  private class Fix(
+    val time: Long,
+    val latitude: Double,
+    val longitude: Double,
+    val altitude: Double = Double.NaN,
+    val accuracy: Double = Double.NaN,
+    val speed: Double = Double.NaN,
+    val course: Double = Double.NaN
+  ) {
+
+    fun toLocation(previous: Fix?): Location {
+      var derivedSpeed = speed
+      var derivedCourse = course
+      if (previous != null && (speed.isNaN() || course.isNaN())) {
+        val dLatitude = Math.toRadians(latitude - previous.latitude)
+        val dLongitude = Math.toRadians(longitude - previous.longitude) * Math.cos(Math.toRadians(latitude))
+        val seconds = (time - previous.time) / 1000.0
+        if (speed.isNaN() && seconds > 0) {
+          derivedSpeed = Math.hypot(dLatitude, dLongitude) * EARTH_RADIUS_METERS / seconds
+        }
+        if (course.isNaN() && (dLatitude != 0.0 || dLongitude != 0.0)) {
+          derivedCourse = (Math.toDegrees(Math.atan2(dLongitude, dLatitude)) + 360) % 360
+        }
+      }
+      val position = if (altitude.isNaN()) {
+        Point(longitude, latitude, SpatialReferences.getWgs84())
+      } else {
+        Point(longitude, latitude, altitude, SpatialReferences.getWgs84())
+      }
+      val timeStamp = Calendar.getInstance().apply { timeInMillis = time }
+      return Location(position, accuracy, Double.NaN, derivedSpeed, derivedCourse, false, timeStamp)
+    }
+  }
+
+  private interface TrackReader : Closeable {
+    /**
+     * @return the next fix, or null at the end of the track
+     */
+    fun next(): Fix?
+  }
+
+  private class GpxReader(private val input: InputStream) : TrackReader {
+
+    private val parser: XmlPullParser = Xml.newPullParser().apply { setInput(input, null) }
+
+    override fun next(): Fix? {
+      var latitude = Double.NaN
+      var longitude = Double.NaN
+      var inTrackPoint = false
+      val values = mutableMapOf<String, String>()
+      var element = ""
+      while (true) {
+        when (parser.next()) {
+          XmlPullParser.END_DOCUMENT -> return null
+          XmlPullParser.START_TAG -> {
+            element = parser.name.substringAfter(':')
+            if (element == "trkpt") {
+              inTrackPoint = true
+              latitude = parser.getAttributeValue(null, "lat")?.toDoubleOrNull() ?: Double.NaN
+              longitude = parser.getAttributeValue(null, "lon")?.toDoubleOrNull() ?: Double.NaN
+              values.clear()
+            }
+          }
+          XmlPullParser.TEXT -> if (inTrackPoint) values[element] = parser.text.trim()
+          XmlPullParser.END_TAG -> {
+            element = ""
+            if (inTrackPoint && parser.name.substringAfter(':') == "trkpt") {
+              inTrackPoint = false
+              // points with a missing or malformed position are skipped, like the Java version
+              if (latitude.isNaN() || longitude.isNaN()) continue
+              // points without a time can't be replayed in time
+              val time = values["time"]?.let { parseIsoTime(it) } ?: continue
+              return Fix(
+                time, latitude, longitude,
+                altitude = values["ele"]?.toDoubleOrNull() ?: Double.NaN,
+                speed = values["speed"]?.toDoubleOrNull() ?: Double.NaN,
+                course = values["course"]?.toDoubleOrNull() ?: Double.NaN
+              )
+            }
+          }
+        }
+      }
+    }
+
+    override fun close() = input.close()
+  }
+
+  private class NmeaReader(private val reader: BufferedReader) : TrackReader {
+
+    private var accuracy = Double.NaN
+    private var altitude = Double.NaN
+
+    override fun next(): Fix? {
+      while (true) {
+        val sentence = reader.readLine()?.trim() ?: return null
+        if (!hasValidChecksum(sentence)) {
+          continue
+        }
+        val fields = sentence.substringBefore('*').split(',')
+        // the talker ID (GP, GN, GL...) doesn't matter
+        when (fields[0].takeLast(3)) {
+          "GGA" -> if (fields.size > 9) {
+            // HDOP times a typical range error gives a rough accuracy in meters
+            accuracy = fields[8].toDoubleOrNull()?.times(HDOP_TO_METERS) ?: Double.NaN
+            altitude = fields[9].toDoubleOrNull() ?: Double.NaN
+          }
+          "RMC" -> if (fields.size > 9 && fields[2] == "A") {
+            val latitude = parseCoordinate(fields[3], fields[4]) ?: continue
+            val longitude = parseCoordinate(fields[5], fields[6]) ?: continue
+            val time = parseTime(fields[9], fields[1]) ?: continue
+            return Fix(
+              time, latitude, longitude, altitude, accuracy,
+              speed = fields[7].toDoubleOrNull()?.times(KNOTS_TO_METERS_PER_SECOND) ?: Double.NaN,
+              course = fields[8].toDoubleOrNull() ?: Double.NaN
+            )
+          }
+        }
+      }
+    }
+
+    override fun close() = reader.close()
+
+    private fun hasValidChecksum(sentence: String): Boolean {
+      if (!sentence.startsWith("$")) {
+        return false
+      }
+      val star = sentence.lastIndexOf('*')
+      if (star < 0) {
+        return true
+      }
+      var checksum = 0
+      for (i in 1 until star) {
+        checksum = checksum xor sentence[i].toInt()
+      }
+      return sentence.substring(star + 1).toIntOrNull(16) == checksum
+    }
+
+    /**
+     * Converts NMEA's degrees and decimal minutes, such as 3342.1234 for 33° 42.1234', to decimal degrees.
+     */
+    private fun parseCoordinate(value: String, hemisphere: String): Double? {
+      val degreesAndMinutes = value.toDoubleOrNull() ?: return null
+      val degrees = Math.floor(degreesAndMinutes / 100)
+      val coordinate = degrees + (degreesAndMinutes - degrees * 100) / 60
+      return if (hemisphere == "S" || hemisphere == "W") -coordinate else coordinate
+    }
+
+    private fun parseTime(date: String, time: String): Long? {
+      if (date.length < 6 || time.length < 6) {
+        return null
+      }
+      return try {
+        Calendar.getInstance(TimeZone.getTimeZone("UTC")).apply {
+          clear()
+          set(
+            2000 + date.substring(4, 6).toInt(), date.substring(2, 4).toInt() - 1, date.substring(0, 2).toInt(),
+            time.substring(0, 2).toInt(), time.substring(2, 4).toInt(), time.substring(4, 6).toInt()
+          )
+          set(Calendar.MILLISECOND, ((time.substring(6).toDoubleOrNull() ?: 0.0) * 1000).toInt())
+        }.timeInMillis
+      } catch (e: NumberFormatException) {
+        null
+      }
+    }
+  }
+
+  private class CsvReader(private val reader: BufferedReader) : TrackReader {
+
+    private val columns: Map<String, Int>
+
+    init {
+      val header = reader.readLine()?.split(',')?.map { it.trim().toLowerCase() } ?: emptyList()
+      columns = mutableMapOf<String, Int>().apply {
+        header.forEachIndexed { index, name ->
+          when (name) {
+            "time", "timestamp" -> put("time", index)
+            "lat", "latitude" -> put("latitude", index)
+            "lon", "lng", "longitude" -> put("longitude", index)
+            "alt", "altitude", "elevation" -> put("altitude", index)
+            "accuracy", "horizontal_accuracy" -> put("accuracy", index)
+            "speed" -> put("speed", index)
+            "course", "bearing" -> put("course", index)
+          }
+        }
+      }
+      if (!columns.keys.containsAll(listOf("time", "latitude", "longitude"))) {
+        reader.close()
+        throw IOException("A CSV track needs time, latitude and longitude columns")
+      }
+    }
+
+    override fun next(): Fix? {
+      while (true) {
+        val values = reader.readLine()?.split(',') ?: return null
+        fun value(column: String) = columns[column]?.let { values.getOrNull(it)?.trim()?.toDoubleOrNull() }
+        val timeText = values.getOrNull(columns.getValue("time"))?.trim() ?: continue
+        val time = timeText.toLongOrNull() ?: parseIsoTime(timeText) ?: continue
+        return Fix(
+          time,
+          value("latitude") ?: continue,
+          value("longitude") ?: continue,
+          value("altitude") ?: Double.NaN,
+          value("accuracy") ?: Double.NaN,
+          value("speed") ?: Double.NaN,
+          value("course") ?: Double.NaN
+        )
+      }
+    }
+
+    override fun close() = reader.close()
+  }
+
+  companion object {
+    const val MIN_SPEED_MULTIPLIER = 1.0
+    const val MAX_SPEED_MULTIPLIER = 100.0
+
+    private const val EARTH_RADIUS_METERS = 6378137.0
+    private const val KNOTS_TO_METERS_PER_SECOND = 0.514444
+    private const val HDOP_TO_METERS = 5.0
+
+    private val ISO_TIME = Regex(
+      "(\\d{4})-(\\d{2})-(\\d{2})[T ](\\d{2}):(\\d{2}):(\\d{2})(\\.\\d+)?(Z|[+-]\\d{2}:?\\d{2})?"
+    )
+
+    /**
+     * Parses an ISO 8601 time such as 2021-03-04T05:06:07.8Z, taken as UTC if it has no offset.
+     */
+    private fun parseIsoTime(text: String): Long? {
+      val match = ISO_TIME.matchEntire(text) ?: return null
+      val part = match.groupValues
+      val calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC")).apply {
+        clear()
+        set(part[1].toInt(), part[2].toInt() - 1, part[3].toInt(), part[4].toInt(), part[5].toInt(), part[6].toInt())
+        set(Calendar.MILLISECOND, ((part[7].toDoubleOrNull() ?: 0.0) * 1000).toInt())
+      }
+      val offset = part[8].replace(":", "")
+      val offsetMillis = if (offset.length == 5) {
+        val sign = if (offset[0] == '-') -1 else 1
+        sign * (offset.substring(1, 3).toInt() * 60 + offset.substring(3, 5).toInt()) * 60_000L
+      } else {
+        0L
+      }
+      return calendar.timeInMillis - offsetMillis
+    }
+  }
+}
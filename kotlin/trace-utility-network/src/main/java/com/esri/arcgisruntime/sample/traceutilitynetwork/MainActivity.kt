@@ -27,7 +27,6 @@ import androidx.appcompat.app.AlertDialog
 import androidx.appcompat.app.AppCompatActivity
 import com.esri.arcgisruntime.ArcGISRuntimeEnvironment
 import com.esri.arcgisruntime.data.ArcGISFeature
-import com.esri.arcgisruntime.data.QueryParameters
 import com.esri.arcgisruntime.data.ServiceGeodatabase
 import com.esri.arcgisruntime.geometry.Envelope
 import com.esri.arcgisruntime.geometry.GeometryEngine
@@ -47,12 +46,10 @@ import com.esri.arcgisruntime.symbology.SimpleLineSymbol
 import com.esri.arcgisruntime.symbology.SimpleMarkerSymbol
 import com.esri.arcgisruntime.symbology.UniqueValueRenderer
 import com.esri.arcgisruntime.utilitynetworks.UtilityElement
-import com.esri.arcgisruntime.utilitynetworks.UtilityElementTraceResult
 import com.esri.arcgisruntime.utilitynetworks.UtilityNetwork
 import com.esri.arcgisruntime.utilitynetworks.UtilityNetworkSource
 import com.esri.arcgisruntime.utilitynetworks.UtilityTerminal
 import com.esri.arcgisruntime.utilitynetworks.UtilityTier
-import com.esri.arcgisruntime.utilitynetworks.UtilityTraceParameters
 import com.esri.arcgisruntime.utilitynetworks.UtilityTraceType
 import kotlinx.android.synthetic.main.activity_main.*
 import kotlinx.android.synthetic.main.utility_network_controls_layout.*
@@ -83,6 +80,16 @@ class MainActivity : AppCompatActivity() {
         }
     }
 
+    // runs a trace from each starting location and caches the results
+    private val utilityTraceService: UtilityTraceService by lazy {
+        UtilityTraceService(
+            utilityNetwork,
+            MAX_CONCURRENT_TRACES,
+            MAX_CACHED_TRACE_RESULTS,
+            TraceResultSelector(DEFAULT_MAX_IDS_PER_QUERY, MAX_CONCURRENT_QUERIES)
+        )
+    }
+
     // create lists for starting locations and barriers
     private val utilityElementStartingLocations: MutableList<UtilityElement> by lazy { ArrayList() }
     private val utilityElementBarriers: MutableList<UtilityElement> by lazy { ArrayList() }
@@ -388,63 +395,56 @@ class MainActivity : AppCompatActivity() {
         statusTextView.text = getString(R.string.find_connected_features_message)
         disableButtons()
 
-        // create utility trace parameters for the given trace type
+        // trace from each starting location, reusing the traces already run for the same starting location, barriers
+        // and trace type
         val traceType = UtilityTraceType.valueOf(traceTypeSpinner.selectedItem.toString())
-        // create trace parameters
-        val traceParameters =
-            UtilityTraceParameters(traceType, utilityElementStartingLocations).apply {
-                // if any barriers have been created, add them to the parameters
-                barriers.addAll(utilityElementBarriers)
-                // set the trace configuration using the tier from the utility domain network
-                traceConfiguration = mediumVoltageTier?.traceConfiguration
-            }
-        // run the utility trace and get the results
-        val utilityTraceResultsFuture = utilityNetwork.traceAsync(traceParameters)
-        utilityTraceResultsFuture.addDoneListener {
-            try {
-                // get the utility trace result's first result as a utility element trace result
-                (utilityTraceResultsFuture.get()[0] as? UtilityElementTraceResult)?.let { utilityElementTraceResult ->
+        utilityTraceService.traceEach(
+            traceType,
+            utilityElementStartingLocations,
+            utilityElementBarriers,
+            // set the trace configuration using the tier from the utility domain network
+            mediumVoltageTier?.traceConfiguration,
+            mediumVoltageTier?.name ?: "",
+            object : UtilityTraceService.Listener {
+                override fun onProgress(completed: Int, total: Int) {
+                    statusTextView.text = getString(R.string.trace_progress_message, completed, total)
+                }
+
+                override fun onCompleted(elements: List<UtilityElement>, tracesRun: Int) {
                     // ensure the result is not empty
-                    if (utilityElementTraceResult.elements.isNotEmpty()) {
-                        // iterate through the map's feature layers
-                        mapView.map.operationalLayers.filterIsInstance<FeatureLayer>()
-                            .forEach { featureLayer ->
-
-                                // clear previous selection
-                                featureLayer.clearSelection()
-
-                                // create query parameters to find features who's network source name matches the layer's feature table name
-                                with(QueryParameters()) {
-                                    utilityElementTraceResult.elements.filter { it.networkSource.name == featureLayer.featureTable.tableName }
-                                        .forEach { utilityElement ->
-                                            this.objectIds.add(utilityElement.objectId)
-                                        }
-
-                                    // select features that match the query
-                                    featureLayer.selectFeaturesAsync(
-                                        this,
-                                        FeatureLayer.SelectionMode.NEW
-                                    )
-                                        .addDoneListener {
-                                            // when done, update status text, enable buttons and hide progress indicator
-                                            statusTextView.text =
-                                                getString(R.string.trace_completed)
-                                            enableButtons()
-                                            progressIndicator.visibility = View.GONE
-                                        }
-                                }
-                            }
-                    } else {
-                        Toast.makeText(this, "No elements in trace result", Toast.LENGTH_LONG)
+                    if (elements.isEmpty()) {
+                        Toast.makeText(this@MainActivity, "No elements in trace result", Toast.LENGTH_LONG)
                             .show()
                         enableButtons()
+                        progressIndicator.visibility = View.GONE
+                        return
                     }
+                    // select the features of the elements, a chunk of object IDs at a time
+                    utilityTraceService.selectElements(
+                        elements,
+                        mapView.map.operationalLayers.filterIsInstance<FeatureLayer>(),
+                        object : TraceResultSelector.Listener {
+                            override fun onProgress(selected: Int, total: Int) {
+                                statusTextView.text = getString(R.string.selection_progress_message, selected, total)
+                            }
+
+                            override fun onCompleted(selected: Int, total: Int) {
+                                // when done, update status text, enable buttons and hide progress indicator
+                                statusTextView.text =
+                                    getString(R.string.trace_completed_message, selected, tracesRun)
+                                enableButtons()
+                                progressIndicator.visibility = View.GONE
+                            }
+                        })
                 }
-            } catch (e: Exception) {
-                statusTextView.text = getString(R.string.failed_message)
-                reportError("Error running connected trace: " + e.message)
-            }
-        }
+
+                override fun onFailed(error: String) {
+                    statusTextView.text = getString(R.string.failed_message)
+                    reportError("Error running connected trace: $error")
+                    enableButtons()
+                    progressIndicator.visibility = View.GONE
+                }
+            })
     }
 
     /**
@@ -510,4 +510,15 @@ class MainActivity : AppCompatActivity() {
         mapView.dispose()
         super.onDestroy()
     }
+
+    companion object {
+        // how many traces to run at once, so many starting locations don't flood the service
+        private const val MAX_CONCURRENT_TRACES = 4
+        // how many starting locations' trace results to keep
+        private const val MAX_CACHED_TRACE_RESULTS = 500
+        // how many object IDs to select with one query, for layers whose maximum record count isn't known
+        private const val DEFAULT_MAX_IDS_PER_QUERY = 1000
+        // how many selection queries to run at once
+        private const val MAX_CONCURRENT_QUERIES = 4
+    }
 }
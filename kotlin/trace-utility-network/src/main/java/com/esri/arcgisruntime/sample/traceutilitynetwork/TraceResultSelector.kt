@@ -0,0 +1,179 @@
+/*
+ *  Copyright 2021 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.esri.arcgisruntime.sample.traceutilitynetwork
+
+import android.util.Log
+import com.esri.arcgisruntime.data.ArcGISFeatureTable
+import com.esri.arcgisruntime.data.QueryParameters
+import com.esri.arcgisruntime.layers.FeatureLayer
+import com.esri.arcgisruntime.utilitynetworks.UtilityElement
+import org.json.JSONException
+import org.json.JSONObject
+import java.util.LinkedList
+
+/**
+ * Selects the features of trace result elements in feature layers, for results of any size.
+ *
+ * The elements' object IDs are grouped by network source into sorted arrays of primitive longs, without duplicates,
+ * rather than lists of boxed IDs. Each source's IDs are split into chunks no larger than the maximum record count of
+ * its layer's service, and the chunks are queried in parallel, at most [maxConcurrentQueries] at a time. Each chunk's
+ * features are added to its layer's selection as soon as they arrive, so the selection fills in while the rest are
+ * fetched. A newer selection stops an older one from querying any more chunks, and the chunks of the older one still
+ * in flight are dropped rather than selected.
+ *
+ * @param defaultMaxIdsPerQuery the most object IDs in one query, for layers whose maximum record count isn't known
+ * @param maxConcurrentQueries the most queries to run at once
+ */
+class TraceResultSelector(private val defaultMaxIdsPerQuery: Int, private val maxConcurrentQueries: Int) {
+
+    private val TAG: String = TraceResultSelector::class.java.simpleName
+
+    // bumped by every selection, so chunks of a superseded selection aren't selected
+    private var selectionCount = 0
+
+    /**
+     * Receives the progress of a selection on the main thread.
+     */
+    interface Listener {
+        /**
+         * @param selected how many features have been selected so far
+         * @param total how many distinct object IDs the elements have in the layers
+         */
+        fun onProgress(selected: Int, total: Int)
+
+        /**
+         * @param selected how many features were selected, fewer than the total if any queries failed
+         */
+        fun onCompleted(selected: Int, total: Int)
+    }
+
+    /**
+     * Replaces the layers' selections with the features of the elements.
+     *
+     * @param listener notified on the main thread
+     */
+    fun select(elements: List<UtilityElement>, featureLayers: List<FeatureLayer>, listener: Listener) {
+        val selection = ++selectionCount
+        featureLayers.forEach { it.clearSelection() }
+        val objectIdsBySource = groupObjectIds(elements)
+
+        // split each layer's IDs into chunks, interleaving the layers so every layer starts filling in early
+        val chunks = LinkedList<Pair<FeatureLayer, LongArray>>()
+        val layerChunks = featureLayers.mapNotNull { featureLayer ->
+            objectIdsBySource[featureLayer.featureTable.tableName]?.let { objectIds ->
+                val maxIdsPerQuery = maxIdsPerQuery(featureLayer)
+                featureLayer to (objectIds.indices step maxIdsPerQuery).map { start ->
+                    objectIds.copyOfRange(start, minOf(start + maxIdsPerQuery, objectIds.size))
+                }
+            }
+        }
+        val chunkCount = layerChunks.map { it.second.size }.maxOrNull() ?: 0
+        for (i in 0 until chunkCount) {
+            layerChunks.forEach { (featureLayer, layerIds) ->
+                layerIds.getOrNull(i)?.let { chunks.add(featureLayer to it) }
+            }
+        }
+
+        val total = chunks.sumBy { it.second.size }
+        var selected = 0
+        var remaining = chunks.size
+        var running = 0
+        if (remaining == 0) {
+            listener.onCompleted(0, 0)
+            return
+        }
+
+        fun startNext() {
+            while (running < maxConcurrentQueries && chunks.isNotEmpty()) {
+                // a newer selection has cleared the layers, so don't query for this one any more
+                if (selection != selectionCount) {
+                    return
+                }
+                val (featureLayer, objectIds) = chunks.removeFirst()
+                running++
+                // only the chunk being queried is boxed
+                val queryParameters = QueryParameters().apply { this.objectIds.addAll(objectIds.asList()) }
+                // query rather than select, so a chunk which arrives after a newer selection is never added to it
+                val queryFuture = featureLayer.featureTable.queryFeaturesAsync(queryParameters)
+                queryFuture.addDoneListener {
+                    running--
+                    remaining--
+                    if (selection != selectionCount) {
+                        return@addDoneListener
+                    }
+                    try {
+                        val features = queryFuture.get().toList()
+                        featureLayer.selectFeatures(features)
+                        // count the features found, an ID may no longer have one
+                        selected += features.size
+                        listener.onProgress(selected, total)
+                    } catch (e: Exception) {
+                        Log.e(TAG, "Failed to select ${objectIds.size} features in ${featureLayer.name}: ${e.message}")
+                    }
+                    if (remaining == 0) {
+                        listener.onCompleted(selected, total)
+                    } else {
+                        startNext()
+                    }
+                }
+            }
+        }
+
+        startNext()
+    }
+
+    /**
+     * The most object IDs to query the layer with at once: the maximum record count of its service layer, if known.
+     */
+    private fun maxIdsPerQuery(featureLayer: FeatureLayer): Int {
+        val layerInfo = (featureLayer.featureTable as? ArcGISFeatureTable)?.layerInfo ?: return defaultMaxIdsPerQuery
+        val maxRecordCount = try {
+            JSONObject(layerInfo.toJson()).optInt("maxRecordCount")
+        } catch (e: JSONException) {
+            0
+        }
+        return if (maxRecordCount > 0) maxRecordCount else defaultMaxIdsPerQuery
+    }
+
+    /**
+     * Groups the elements' object IDs by network source name, each group sorted and without duplicates.
+     */
+    private fun groupObjectIds(elements: List<UtilityElement>): Map<String, LongArray> {
+        // count first, so each group is filled into an array of the right size
+        val counts = HashMap<String, Int>()
+        elements.forEach { counts[it.networkSource.name] = (counts[it.networkSource.name] ?: 0) + 1 }
+        val groups = counts.mapValues { LongArray(it.value) }
+        val filled = HashMap<String, Int>()
+        elements.forEach { element ->
+            val source = element.networkSource.name
+            val index = filled[source] ?: 0
+            groups.getValue(source)[index] = element.objectId
+            filled[source] = index + 1
+        }
+        // an element can appear more than once, with different terminals, so remove duplicate IDs
+        return groups.mapValues { (_, objectIds) ->
+            objectIds.sort()
+            var unique = 0
+            for (i in objectIds.indices) {
+                if (i == 0 || objectIds[i] != objectIds[unique - 1]) {
+                    objectIds[unique++] = objectIds[i]
+                }
+            }
+            objectIds.copyOf(unique)
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ *  Copyright 2021 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.esri.arcgisruntime.sample.traceutilitynetwork
+
+import android.util.Log
+import com.esri.arcgisruntime.layers.FeatureLayer
+import com.esri.arcgisruntime.utilitynetworks.UtilityElement
+import com.esri.arcgisruntime.utilitynetworks.UtilityElementTraceResult
+import com.esri.arcgisruntime.utilitynetworks.UtilityNetwork
+import com.esri.arcgisruntime.utilitynetworks.UtilityTraceConfiguration
+import com.esri.arcgisruntime.utilitynetworks.UtilityTraceParameters
+import com.esri.arcgisruntime.utilitynetworks.UtilityTraceType
+import java.util.LinkedList
+
+/**
+ * Traces from many starting locations, one trace for each, and caches the elements each trace finds.
+ *
+ * The traces run concurrently, at most [maxConcurrentTraces] at a time. Results are cached by the starting location,
+ * the barriers, the trace type and the trace configuration, so tracing again after adding a starting location only
+ * runs the trace for the new one. The cache only decides which traces to skip: the elements found from every starting
+ * location are kept for the duration of the call and merged from there, so results evicted from a cache smaller than
+ * the number of starting locations aren't lost. Elements found by more than one trace are kept once, and their
+ * features can then be selected with [selectElements].
+ *
+ * @param maxConcurrentTraces the most traces to run at once
+ * @param maxCachedResults the most trace results to keep
+ * @param traceResultSelector selects the features of the merged elements
+ */
+class UtilityTraceService(
+    private val utilityNetwork: UtilityNetwork,
+    private val maxConcurrentTraces: Int,
+    maxCachedResults: Int,
+    private val traceResultSelector: TraceResultSelector
+) {
+
+    private val TAG: String = UtilityTraceService::class.java.simpleName
+
+    private val cache = object : LinkedHashMap<String, List<UtilityElement>>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, List<UtilityElement>>?): Boolean {
+            return size > maxCachedResults
+        }
+    }
+
+    // bumped by every trace, so traces superseded by a newer one stop reporting
+    private var traceCount = 0
+
+    /**
+     * Receives the progress and outcome of tracing on the main thread.
+     */
+    interface Listener {
+        /**
+         * @param completed how many starting locations have been traced, from the cache or not
+         * @param total how many starting locations there are
+         */
+        fun onProgress(completed: Int, total: Int)
+
+        /**
+         * @param elements the elements found from every starting location, each kept once
+         * @param tracesRun how many traces were run, the rest came from the cache
+         */
+        fun onCompleted(elements: List<UtilityElement>, tracesRun: Int)
+
+        fun onFailed(error: String)
+    }
+
+    /**
+     * Traces from each starting location separately and merges the elements found.
+     *
+     * @param configurationKey identifies the trace configuration in cache keys, such as the name of the tier it
+     * belongs to, since configurations can't be compared
+     * @param listener notified on the main thread
+     */
+    fun traceEach(
+        traceType: UtilityTraceType,
+        startingLocations: List<UtilityElement>,
+        barriers: List<UtilityElement>,
+        traceConfiguration: UtilityTraceConfiguration?,
+        configurationKey: String,
+        listener: Listener
+    ) {
+        val trace = ++traceCount
+        val settingsKey = "$traceType|$configurationKey|" + barriers.map { elementKey(it) }.sorted().joinToString(";")
+        // trace each distinct starting location once
+        val startingLocationsByKey = startingLocations.associateBy { elementKey(it) + "|" + settingsKey }
+        // this trace's result for each starting location, taken from the cache up front so results evicted by the
+        // traces still to run aren't lost
+        val results = HashMap<String, List<UtilityElement>>()
+        startingLocationsByKey.keys.forEach { key -> cache[key]?.let { results[key] = it } }
+        val pending = LinkedList(startingLocationsByKey.filterKeys { !results.containsKey(it) }.entries)
+        val total = startingLocationsByKey.size
+        val tracesRun = pending.size
+        var completed = total - pending.size
+        var running = 0
+        var failed = false
+        var finished = false
+        listener.onProgress(completed, total)
+
+        fun finishIfDone() {
+            if (completed < total || finished) {
+                return
+            }
+            finished = true
+            val elements = LinkedHashMap<String, UtilityElement>()
+            startingLocationsByKey.keys.forEach { key ->
+                results[key]?.forEach { element -> elements.putIfAbsent(elementKey(element), element) }
+            }
+            Log.d(TAG, "Traced $total starting locations, $tracesRun traces run, ${elements.size} elements found")
+            listener.onCompleted(elements.values.toList(), tracesRun)
+        }
+
+        fun startNext() {
+            while (running < maxConcurrentTraces && pending.isNotEmpty() && !failed) {
+                val (key, startingLocation) = pending.removeFirst()
+                running++
+                val traceParameters = UtilityTraceParameters(traceType, listOf(startingLocation)).apply {
+                    this.barriers.addAll(barriers)
+                    this.traceConfiguration = traceConfiguration
+                }
+                val traceResultsFuture = utilityNetwork.traceAsync(traceParameters)
+                traceResultsFuture.addDoneListener {
+                    running--
+                    try {
+                        // a superseded trace's result is still worth caching
+                        val elements = traceResultsFuture.get().filterIsInstance<UtilityElementTraceResult>()
+                            .flatMap { it.elements }
+                        cache[key] = elements
+                        if (trace != traceCount || failed) {
+                            return@addDoneListener
+                        }
+                        results[key] = elements
+                        completed++
+                        listener.onProgress(completed, total)
+                        finishIfDone()
+                        startNext()
+                    } catch (e: Exception) {
+                        if (trace != traceCount || failed) {
+                            return@addDoneListener
+                        }
+                        failed = true
+                        listener.onFailed(e.cause?.message ?: e.message ?: "Trace failed")
+                    }
+                }
+            }
+        }
+
+        startNext()
+        finishIfDone()
+    }
+
+    /**
+     * Replaces the selections of the feature layers with the features of the elements, a chunk of object IDs at a
+     * time. A newer call supersedes this one.
+     *
+     * @param listener notified on the main thread
+     */
+    fun selectElements(
+        elements: List<UtilityElement>,
+        featureLayers: List<FeatureLayer>,
+        listener: TraceResultSelector.Listener
+    ) {
+        traceResultSelector.select(elements, featureLayers, listener)
+    }
+
+    fun clear() {
+        cache.clear()
+    }
+
+    /**
+     * Identifies an element by its network source, feature, terminal and position along an edge.
+     */
+    private fun elementKey(element: UtilityElement): String {
+        return "${element.networkSource.name}:${element.globalId}:${element.terminal?.terminalId}:" +
+                element.fractionAlongEdge
+    }
+}